@@ -0,0 +1,53 @@
+-- 点赞系统表结构
+-- 字段名与实体属性一致（驼峰），mybatis-plus 关闭了下划线转驼峰
+
+create database if not exists rating;
+
+use rating;
+
+-- 用户表
+create table if not exists user
+(
+    id       bigint auto_increment primary key,
+    username varchar(128) not null
+);
+
+-- 博客表
+create table if not exists blog
+(
+    id         bigint auto_increment primary key,
+    userId     bigint                             not null,
+    title      varchar(512)                       null comment '标题',
+    coverImg   varchar(1024)                      null comment '封面',
+    content    text                               not null comment '内容',
+    thumbCount int      default 0                 not null comment '点赞数',
+    createTime datetime default CURRENT_TIMESTAMP not null comment '创建时间',
+    updateTime datetime default CURRENT_TIMESTAMP not null on update CURRENT_TIMESTAMP comment '更新时间',
+    index idx_userId (userId)
+);
+
+-- 点赞记录表
+-- 批量写入依赖 (userId, blogId) 唯一索引：INSERT IGNORE 跳过已存在的记录，元组 IN 的查询和删除、对账按用户分页扫描都走这个索引
+-- 已有的 thumb 表没有这个索引时，先按 sql/upgrade/add_thumb_unique_key.sql 去重后补建
+create table if not exists thumb
+(
+    id         bigint auto_increment primary key,
+    userId     bigint                             not null,
+    blogId     bigint                             not null,
+    createTime datetime default CURRENT_TIMESTAMP not null comment '创建时间',
+    unique key uk_userId_blogId (userId, blogId)
+);
+
+-- 博客点赞数增量交接表，只有 id = 1 一行，开启 thumb.count.live 时使用
+create table if not exists blog_thumb_count_handoff
+(
+    id        tinyint     not null primary key,
+    handoffId varchar(64) not null default '' comment '最近一次写入数据库的博客点赞数增量交接 ID'
+);
+
+-- 用户点赞摘要表，开启 thumb.digest.enabled 时使用
+create table if not exists user_thumb_digest
+(
+    userId bigint not null primary key,
+    digest bigint not null default 0 comment '用户所有点赞的 SHA-1(userId:blogId) 前 32 位的异或'
+);
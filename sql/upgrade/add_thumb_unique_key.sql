@@ -0,0 +1,19 @@
+-- 为已有的 thumb 表补建 (userId, blogId) 唯一索引
+-- 点赞记录批量写入用 INSERT IGNORE 实现幂等插入，依赖这个唯一索引跳过重复投递的记录；
+-- 没有唯一索引时重复投递会插入重复记录，点赞数被重复计算。
+-- 执行前停止点赞消费者和同步任务，执行完成后再启动新版本
+
+use rating;
+
+-- 1. 删除重复的 (userId, blogId) 记录，保留 id 最小的一条
+delete t1
+from thumb t1
+         join thumb t2 on t1.userId = t2.userId and t1.blogId = t2.blogId and t1.id > t2.id;
+
+-- 2. 按去重后的记录重新计算博客点赞数，修正重复记录多计的点赞数
+update blog b
+set b.thumbCount = (select count(*) from thumb t where t.blogId = b.id);
+
+-- 3. 建立唯一索引
+alter table thumb
+    add unique key uk_userId_blogId (userId, blogId);
@@ -16,6 +16,7 @@ public enum ErrorCode {
     NOT_FOUND_ERROR(40400, "请求数据不存在"),
     FORBIDDEN_ERROR(40300, "禁止访问"),
     OPERATION_ERROR(50001, "操作失败"),
+    SYSTEM_BUSY(50300, "系统繁忙，请稍后重试"),
     ;
 
 
@@ -1,14 +1,25 @@
 package com.yang.ratingsystem.config;
 
 import com.yang.ratingsystem.listener.thumb.msg.ThumbEvent;
+import com.yang.ratingsystem.listener.thumb.msg.ThumbEventMessageRouter;
+import com.yang.ratingsystem.listener.thumb.msg.ThumbEventSchema;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pulsar.client.api.BatcherBuilder;
+import org.apache.pulsar.client.api.CompressionType;
+import org.apache.pulsar.client.api.MessageRoutingMode;
 import org.apache.pulsar.client.api.PulsarClient;
 import org.apache.pulsar.client.api.PulsarClientException;
 import org.apache.pulsar.client.api.Schema;
 import org.apache.pulsar.client.api.Producer;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.pulsar.core.PulsarTopic;
+import org.springframework.pulsar.core.PulsarTopicBuilder;
 
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -18,6 +29,7 @@ import java.util.concurrent.TimeUnit;
  */
 
 @Configuration
+@Slf4j
 public class PulsarConfig {
 
     @Value("${pulsar.service-url}")
@@ -32,6 +44,30 @@ public class PulsarConfig {
     @Value("${pulsar.topic:thumb-topic}")
     private String topic;
 
+    @Value("${pulsar.thumb-schema:json}")
+    private String thumbSchema;          // 生产者使用的事件格式：json（旧格式）或 compact（紧凑二进制）
+
+    @Value("${pulsar.producer.batching-max-publish-delay-ms:1}")
+    private long batchingMaxPublishDelayMs; // 批量发送的最大等待时间
+
+    @Value("${pulsar.producer.batching-max-messages:1000}")
+    private int batchingMaxMessages;
+
+    @Value("${pulsar.producer.max-pending-messages:10000}")
+    private int maxPendingMessages;      // 等待 broker 确认的最大消息数，超过后 sendAsync 立即失败，由调用方回滚
+
+    @Value("${pulsar.partitions:0}")
+    private int partitions;              // 主题分区数，0 表示沿用已有的非分区主题
+
+    @Value("${pulsar.producer.name-prefix:thumb-producer}")
+    private String producerNamePrefix;
+
+    @Value("${pulsar.producer.routing-key:BLOG}")
+    private ThumbEventMessageRouter.RoutingKey routingKey; // 分区路由依据：BLOG 或 USER
+
+    @Value("${pulsar.producer.compression:LZ4}")
+    private CompressionType compressionType; // 批次压缩算法：NONE、LZ4、ZSTD 等
+
     @Bean
     public PulsarClient pulsarClient() throws PulsarClientException {
         return PulsarClient.builder()
@@ -40,13 +76,78 @@ public class PulsarConfig {
                 .build();
     }
 
+    /**
+     * 分区主题声明，由 Spring Pulsar 在启动时通过 admin 接口创建或扩容分区
+     * 非分区主题不能原地转换为分区主题，已有部署需要换用新的主题名
+     */
+    @Bean
+    @ConditionalOnExpression("${pulsar.partitions:0} > 0")
+    public PulsarTopic thumbTopic() {
+        return new PulsarTopicBuilder()
+                .name("persistent://%s/%s/%s".formatted(tenant, namespace, topic))
+                .numberOfPartitions(partitions)
+                .build();
+    }
+
+    /**
+     * 点赞事件分区路由，所有发送点赞事件的生产者共用，保证同一 key 的事件进入同一分区
+     */
+    @Bean
+    public ThumbEventMessageRouter thumbEventMessageRouter() {
+        return new ThumbEventMessageRouter(routingKey);
+    }
+
+    /**
+     * 生产者使用的点赞事件 Schema
+     * 消费者统一使用 ThumbEventSchema，可同时解析两种格式，因此升级时先发布消费者再切换该配置
+     */
     @Bean
-    public Producer<ThumbEvent> thumbEventProducer(PulsarClient pulsarClient) throws PulsarClientException {
-        return pulsarClient.newProducer(Schema.JSON(ThumbEvent.class))
+    public Schema<ThumbEvent> thumbEventProducerSchema() {
+        if ("compact".equalsIgnoreCase(thumbSchema)) {
+            return ThumbEventSchema.INSTANCE;
+        }
+        return Schema.JSON(ThumbEvent.class);
+    }
+
+    @Bean
+    public Producer<ThumbEvent> thumbEventProducer(PulsarClient pulsarClient,
+                                                   Schema<ThumbEvent> thumbEventProducerSchema,
+                                                   ThumbEventMessageRouter thumbEventMessageRouter) throws PulsarClientException {
+        String producerName = producerName();
+        log.info("创建点赞事件生产者: producerName={}, topic={}, partitions={}, routingKey={}, compression={}",
+                producerName, topic, partitions, routingKey, compressionType);
+        return pulsarClient.newProducer(thumbEventProducerSchema)
                 .topic(topic)
-                .producerName("thumb-producer")
+                // 同一主题上的生产者名称必须唯一，多节点部署时每个节点使用自己的名称
+                .producerName(producerName)
                 .sendTimeout(2, TimeUnit.SECONDS)
-                .blockIfQueueFull(true)
+                // 队列满时不阻塞请求线程，sendAsync 以 ProducerQueueIsFullError 失败，
+                // 发布方回滚 Redis 并快速返回错误；发件箱转发失败时退避重试
+                .blockIfQueueFull(false)
+                .maxPendingMessages(maxPendingMessages)
+                // 请求线程使用 sendAsync 后，并发请求的消息在短时间窗口内合并为一个批次发送
+                .enableBatching(true)
+                .batchingMaxPublishDelay(batchingMaxPublishDelayMs, TimeUnit.MILLISECONDS)
+                .batchingMaxMessages(batchingMaxMessages)
+                // 按消息 key 分组打包，Key_Shared 订阅要求同一批次内只包含同一个 key
+                .batcherBuilder(BatcherBuilder.KEY_BASED)
+                .compressionType(compressionType)
+                // 分区主题按 blogId / userId 哈希选择分区，非分区主题时不生效
+                .messageRoutingMode(MessageRoutingMode.CustomPartition)
+                .messageRouter(thumbEventMessageRouter)
                 .create();
     }
+
+    /**
+     * 生产者名称：前缀-主机名-进程号，同一主机上的多个实例也不会冲突
+     */
+    private String producerName() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            host = "unknown";
+        }
+        return producerNamePrefix + "-" + host + "-" + ProcessHandle.current().pid();
+    }
 }
\ No newline at end of file
@@ -2,6 +2,9 @@ package com.yang.ratingsystem.config;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.jsontype.impl.LaissezFaireSubTypeValidator;
+import com.yang.ratingsystem.utils.ThumbKeyLayout;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
@@ -13,8 +16,55 @@ import org.springframework.data.redis.serializer.*;
  * @Create 2025-04-17 20:05
  */
 @Configuration
+@Slf4j
 public class RedisConfig {
 
+    @Value("${thumb.redis.cluster:false}")
+    private boolean cluster;
+
+    @Value("${thumb.redis.slot-groups:16}")
+    private int slotGroups;              // 集群布局下的槽位分组数，也是每个时间片的临时 key 分片数
+
+    @Value("${thumb.sync.temp-shards:0}")
+    private int tempShards;              // 单机布局下每个时间片的临时 key 分片数
+
+    @Value("${thumb.compact.enabled:false}")
+    private boolean compact;
+
+    @Value("${thumb.compact.bucket-size:1000}")
+    private int bucketSize;              // 紧凑存储下每个分桶的用户数
+
+    @Value("${thumb.stream.partitions:1}")
+    private int streamPartitions;        // 点赞事件流的分区数
+
+    /**
+     * 点赞 key 布局，集群模式下使用带哈希标签的 key，所有生成依赖布局的 key 的组件都注入该 bean
+     */
+    @Bean
+    public ThumbKeyLayout thumbKeyLayout() {
+        int groups = 0;
+        int shards = 0;
+        if (cluster) {
+            if (slotGroups <= 0) {
+                throw new IllegalArgumentException("thumb.redis.slot-groups must be positive");
+            }
+            groups = slotGroups;
+            log.info("点赞 Redis key 使用集群布局: 槽位分组{}个", slotGroups);
+        } else if (tempShards > 0) {
+            shards = tempShards;
+            log.info("临时点赞数据按用户分片: {}个", tempShards);
+        }
+        int userBucketSize = 0;
+        // 分桶 key 与用户所在的临时点赞分片不在同一个槽位，集群布局下不支持紧凑存储
+        if (compact && cluster) {
+            log.warn("集群布局下不支持紧凑的用户点赞存储，已关闭 thumb.compact.enabled");
+        } else if (compact) {
+            userBucketSize = bucketSize;
+            log.info("用户点赞状态使用紧凑存储: 每个分桶{}个用户", bucketSize);
+        }
+        return new ThumbKeyLayout(groups, shards, userBucketSize, streamPartitions);
+    }
+
     @Bean
     public RedisTemplate<String, Object> redisTemplate(RedisConnectionFactory connectionFactory) {
         RedisTemplate<String, Object> template = new RedisTemplate<>();
@@ -3,30 +3,69 @@ package com.yang.ratingsystem.constant;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.data.redis.core.script.RedisScript;
 
+import java.util.List;
+
 /**
  * @Author 小小星仔
  * @Create 2025-04-17 22:32
  */
 public class RedisLuaScriptConstant {
 
+    /**
+     * 用户点赞摘要 Lua 函数，拼接在点赞脚本之前
+     * 摘要为用户所有点赞的 SHA-1(userId:blogId) 前 32 位的异或，点赞和取消点赞都异或同一个值，
+     * 与数据库 user_thumb_digest 表中的摘要算法一致，见 ThumbDigestUtil。
+     * 摘要键和博客点赞数增量键都是可选的，按先摘要键后增量键的顺序追加在 KEYS 末尾，
+     * optionalKeys 按增量键的固定名称区分两者；未开启摘要对账时不传摘要键，不计算也不写入摘要
+     */
+    private static final String DIGEST_FUNCTION = """
+            local function optionalKeys(from)
+                local digestKey, countKey
+                for i = from, #KEYS do
+                    if KEYS[i] == '%s' then
+                        countKey = KEYS[i]
+                    else
+                        digestKey = KEYS[i]
+                    end
+                end
+                return digestKey, countKey
+            end
+
+            local function xorDigest(digestKey, userId, blogId)
+                if not digestKey then
+                    return
+                end
+                local h = tonumber(string.sub(redis.sha1hex(userId .. ':' .. blogId), 1, 8), 16)
+                local d = bit.bxor(tonumber(redis.call('HGET', digestKey, userId) or 0), h)
+                if d < 0 then
+                    d = d + 4294967296
+                end
+                redis.call('HSET', digestKey, userId, d)
+            end
+            """.formatted(ThumbConstant.BLOG_THUMB_DELTA_KEY);
+
     /**
      * 点赞 Lua 脚本
      * KEYS[1]       -- 临时计数键
      * KEYS[2]       -- 用户点赞状态键
+     * KEYS[3]       -- 用户点赞摘要键（可选，开启摘要对账时传入）
+     * KEYS[3/4]     -- 博客点赞数增量键（可选，开启实时点赞数时传入，在摘要键之后）
      * ARGV[1]       -- 用户 ID
      * ARGV[2]       -- 博客 ID
+     * ARGV[3]       -- 用户点赞状态字段（可选，紧凑存储时为 用户偏移:博客 ID，默认为博客 ID）
      * 返回:
      * -1: 已点赞
      * 1: 操作成功
      */
-    public static final RedisScript<Long> THUMB_SCRIPT = new DefaultRedisScript<>("""
+    public static final RedisScript<Long> THUMB_SCRIPT = new DefaultRedisScript<>(DIGEST_FUNCTION + """
             local tempThumbKey = KEYS[1]       -- 临时计数键（如 thumb:temp:{timeSlice}）
             local userThumbKey = KEYS[2]       -- 用户点赞状态键（如 thumb:{userId}）
             local userId = ARGV[1]             -- 用户 ID
             local blogId = ARGV[2]             -- 博客 ID
+            local thumbField = ARGV[3] or blogId  -- 用户点赞状态字段
 
             -- 1. 检查是否已点赞（避免重复操作）
-            if redis.call('HEXISTS', userThumbKey, blogId) == 1 then
+            if redis.call('HEXISTS', userThumbKey, thumbField) == 1 then
                 return -1  -- 已点赞，返回 -1 表示失败
             end
 
@@ -39,7 +78,14 @@ public class RedisLuaScriptConstant {
 
             -- 4. 原子性更新：写入临时计数 + 标记用户已点赞
             redis.call('HSET', tempThumbKey, hashKey, newNumber)
-            redis.call('HSET', userThumbKey, blogId, 1)
+            redis.call('HSET', userThumbKey, thumbField, 1)
+            local digestKey, countKey = optionalKeys(3)
+            xorDigest(digestKey, userId, blogId)
+
+            -- 5. 开启实时点赞数时累加博客点赞数增量
+            if countKey then
+                redis.call('HINCRBY', countKey, blogId, 1)
+            end
 
             return 1  -- 返回 1 表示成功
             """, Long.class);
@@ -51,14 +97,15 @@ public class RedisLuaScriptConstant {
      * -1: 未点赞
      * 1: 操作成功
      */
-    public static final RedisScript<Long> UNTHUMB_SCRIPT = new DefaultRedisScript<>("""
+    public static final RedisScript<Long> UNTHUMB_SCRIPT = new DefaultRedisScript<>(DIGEST_FUNCTION + """
             local tempThumbKey = KEYS[1]      -- 临时计数键（如 thumb:temp:{timeSlice}）
             local userThumbKey = KEYS[2]      -- 用户点赞状态键（如 thumb:{userId}）
             local userId = ARGV[1]            -- 用户 ID
             local blogId = ARGV[2]            -- 博客 ID
+            local thumbField = ARGV[3] or blogId  -- 用户点赞状态字段
 
             -- 1. 检查用户是否已点赞（若未点赞，直接返回失败）
-            if redis.call('HEXISTS', userThumbKey, blogId) ~= 1 then
+            if redis.call('HEXISTS', userThumbKey, thumbField) ~= 1 then
                 return -1  -- 未点赞，返回 -1 表示失败
             end
 
@@ -71,52 +118,379 @@ public class RedisLuaScriptConstant {
 
             -- 4. 原子性操作：更新临时计数 + 删除用户点赞标记
             redis.call('HSET', tempThumbKey, hashKey, newNumber)
-            redis.call('HDEL', userThumbKey, blogId)
+            redis.call('HDEL', userThumbKey, thumbField)
+            local digestKey, countKey = optionalKeys(3)
+            xorDigest(digestKey, userId, blogId)
+
+            -- 5. 开启实时点赞数时累加博客点赞数增量
+            if countKey then
+                redis.call('HINCRBY', countKey, blogId, -1)
+            end
 
             return 1  -- 返回 1 表示成功
             """, Long.class);
+    /**
+     * 时间片交接 Lua 脚本
+     * KEYS[1]       -- 临时点赞数据键（thumb:temp:{slice}）
+     * KEYS[2]       -- 同步中的时间片键（thumb_sync:processing:{slice}）
+     * 返回:
+     * 0: 没有需要同步的数据
+     * 1: 已将临时数据 RENAME 为同步中
+     * 2: 存在上次未完成的同步中数据，需要先重放
+     */
+    public static final RedisScript<Long> SLICE_HANDOFF_SCRIPT = new DefaultRedisScript<>("""
+            local tempThumbKey = KEYS[1]
+            local processingKey = KEYS[2]
+
+            -- 上次同步中途失败，先重放已交接的数据
+            if redis.call('EXISTS', processingKey) == 1 then
+                return 2
+            end
+            if redis.call('EXISTS', tempThumbKey) == 0 then
+                return 0
+            end
+
+            -- 原子交接：之后的写入会落到新的临时 key，不会丢失
+            redis.call('RENAME', tempThumbKey, processingKey)
+            return 1
+            """, Long.class);
+
+    /**
+     * 博客点赞数增量交接 Lua 脚本
+     * 与时间片交接相同，RENAME 后在写入中 key 里记录本次交接的 ID
+     * KEYS[1]       -- 博客点赞数增量键
+     * KEYS[2]       -- 写入中的博客点赞数增量键
+     * ARGV[1]       -- 交接 ID 字段
+     * ARGV[2]       -- 交接 ID
+     * 返回:
+     * 0: 没有需要写入的增量
+     * 1: 已交接
+     * 2: 存在上次未完成的写入，需要先重放
+     */
+    public static final RedisScript<Long> BLOG_COUNT_HANDOFF_SCRIPT = new DefaultRedisScript<>("""
+            if redis.call('EXISTS', KEYS[2]) == 1 then
+                return 2
+            end
+            if redis.call('EXISTS', KEYS[1]) == 0 then
+                return 0
+            end
+
+            redis.call('RENAME', KEYS[1], KEYS[2])
+            redis.call('HSET', KEYS[2], ARGV[1], ARGV[2])
+            return 1
+            """, Long.class);
+
+    /**
+     * 时间片拆分提交 Lua 脚本
+     * 子分片全部写入后调用，原子地写入拆分标记、登记待同步集合并删除原同步中键
+     * KEYS[1]       -- 同步中的时间片键
+     * KEYS[2]       -- 拆分标记键
+     * KEYS[3]       -- 待同步子分片的时间片集合
+     * ARGV[1]       -- 子分片数
+     * ARGV[2]       -- 时间片
+     */
+    public static final RedisScript<Long> SLICE_SPLIT_COMMIT_SCRIPT = new DefaultRedisScript<>("""
+            redis.call('SET', KEYS[2], ARGV[1])
+            redis.call('SADD', KEYS[3], ARGV[2])
+            redis.call('DEL', KEYS[1])
+            return 1
+            """, Long.class);
+
+    /**
+     * 租约续约 Lua 脚本，只有持有者才能续约
+     * KEYS[1]       -- 租约键
+     * ARGV[1]       -- 持有者 token
+     * ARGV[2]       -- 租约时长（毫秒）
+     * 返回:
+     * 0: 租约已不属于当前持有者
+     * 1: 续约成功
+     */
+    public static final RedisScript<Long> LEASE_RENEW_SCRIPT = new DefaultRedisScript<>("""
+            if redis.call('GET', KEYS[1]) == ARGV[1] then
+                return redis.call('PEXPIRE', KEYS[1], ARGV[2])
+            end
+            return 0
+            """, Long.class);
+
+    /**
+     * 推进同步水位 Lua 脚本，只有推进租约的持有者才能写入，且水位只增不减
+     * KEYS[1]       -- 推进水位的租约键（与水位键在同一个槽位）
+     * KEYS[2]       -- 同步水位键
+     * ARGV[1]       -- 持有者 token
+     * ARGV[2]       -- 新的水位
+     * 返回:
+     * 0: 租约已不属于当前持有者
+     * 1: 推进成功
+     * 2: 水位已不低于新的水位
+     */
+    public static final RedisScript<Long> WATERMARK_ADVANCE_SCRIPT = new DefaultRedisScript<>("""
+            if redis.call('GET', KEYS[1]) ~= ARGV[1] then
+                return 0
+            end
+            local current = redis.call('GET', KEYS[2])
+            if current and tonumber(current) >= tonumber(ARGV[2]) then
+                return 2
+            end
+            redis.call('SET', KEYS[2], ARGV[2])
+            return 1
+            """, Long.class);
+
+    /**
+     * 租约释放 Lua 脚本，比较 token 后删除，不会误删其他节点的租约
+     * KEYS[1]       -- 租约键
+     * ARGV[1]       -- 持有者 token
+     */
+    public static final RedisScript<Long> LEASE_RELEASE_SCRIPT = new DefaultRedisScript<>("""
+            if redis.call('GET', KEYS[1]) == ARGV[1] then
+                return redis.call('DEL', KEYS[1])
+            end
+            return 0
+            """, Long.class);
+
+    /**
+     * 点赞 Lua 脚本（Redis Stream 版）
+     * 在同一个脚本中写入用户点赞状态并追加点赞事件，状态与事件原子一致
+     * KEYS[1]       -- 用户点赞状态键
+     * KEYS[2]       -- 用户所在分区的点赞事件流
+     * KEYS[3]       -- 用户点赞摘要键（可选，开启摘要对账时传入）
+     * KEYS[3/4]     -- 博客点赞数增量键（可选，开启实时点赞数时传入，在摘要键之后）
+     * ARGV[1]       -- 用户 ID
+     * ARGV[2]       -- 博客 ID
+     * ARGV[3]       -- 用户点赞状态字段（可选，紧凑存储时为 用户偏移:博客 ID，默认为博客 ID）
+     * 返回:
+     * -1: 已点赞
+     * 1: 操作成功
+     */
+    public static final RedisScript<Long> THUMB_SCRIPT_STREAM = new DefaultRedisScript<>(DIGEST_FUNCTION + """
+            local userThumbKey = KEYS[1]
+            local streamKey = KEYS[2]
+            local userId = ARGV[1]
+            local blogId = ARGV[2]
+            local thumbField = ARGV[3] or blogId
+
+            if redis.call('HEXISTS', userThumbKey, thumbField) == 1 then
+                return -1
+            end
+
+            redis.call('HSET', userThumbKey, thumbField, 1)
+            redis.call('XADD', streamKey, '*', 'u', userId, 'b', blogId, 't', 1)
+            local digestKey, countKey = optionalKeys(3)
+            xorDigest(digestKey, userId, blogId)
+            if countKey then
+                redis.call('HINCRBY', countKey, blogId, 1)
+            end
+            return 1
+            """, Long.class);
+
+    /**
+     * 取消点赞 Lua 脚本（Redis Stream 版）
+     * 参数同上
+     * 返回:
+     * -1: 未点赞
+     * 1: 操作成功
+     */
+    public static final RedisScript<Long> UNTHUMB_SCRIPT_STREAM = new DefaultRedisScript<>(DIGEST_FUNCTION + """
+            local userThumbKey = KEYS[1]
+            local streamKey = KEYS[2]
+            local userId = ARGV[1]
+            local blogId = ARGV[2]
+            local thumbField = ARGV[3] or blogId
+
+            if redis.call('HEXISTS', userThumbKey, thumbField) == 0 then
+                return -1
+            end
+
+            redis.call('HDEL', userThumbKey, thumbField)
+            redis.call('XADD', streamKey, '*', 'u', userId, 'b', blogId, 't', -1)
+            local digestKey, countKey = optionalKeys(3)
+            xorDigest(digestKey, userId, blogId)
+            if countKey then
+                redis.call('HINCRBY', countKey, blogId, -1)
+            end
+            return 1
+            """, Long.class);
+
+    /**
+     * 认领待确认的点赞事件 Lua 脚本
+     * 用 XAUTOCLAIM 把其他消费者遗留的待确认事件转给当前消费者，并展开为扁平数组，便于客户端解析
+     * KEYS[1]       -- 点赞事件流
+     * ARGV[1]       -- 消费组
+     * ARGV[2]       -- 当前消费者
+     * ARGV[3]       -- 最小空闲时间（毫秒），接管分区时为 0
+     * ARGV[4]       -- 起始游标
+     * ARGV[5]       -- 最多认领的数量
+     * 返回:
+     * 下一次的游标，之后每 4 个元素为一条事件：ID、用户 ID、博客 ID、类型
+     */
+    public static final RedisScript<List> STREAM_AUTOCLAIM_SCRIPT = new DefaultRedisScript<>("""
+            local result = redis.call('XAUTOCLAIM', KEYS[1], ARGV[1], ARGV[2], ARGV[3], ARGV[4], 'COUNT', ARGV[5])
+            local flat = { result[1] }
+            for _, entry in ipairs(result[2]) do
+                local fields = entry[2]
+                -- 已被删除的事件没有字段
+                if fields then
+                    local event = {}
+                    for i = 1, #fields, 2 do
+                        event[fields[i]] = fields[i + 1]
+                    end
+                    table.insert(flat, entry[1])
+                    table.insert(flat, event['u'])
+                    table.insert(flat, event['b'])
+                    table.insert(flat, event['t'])
+                end
+            end
+            return flat
+            """, List.class);
+
     /**
      * 点赞 Lua 脚本
      * KEYS[1]       -- 用户点赞状态键
+     * KEYS[2]       -- 用户点赞摘要键（可选，开启摘要对账时传入）
+     * KEYS[2/3]     -- 博客点赞数增量键（可选，开启实时点赞数时传入，在摘要键之后）
      * ARGV[1]       -- 博客 ID
+     * ARGV[2]       -- 用户点赞状态字段（紧凑存储时为 用户偏移:博客 ID，否则为博客 ID）
+     * ARGV[3]       -- 用户 ID
      * 返回:
      * -1: 已点赞
      * 1: 操作成功
      */
-    public static final RedisScript<Long> THUMB_SCRIPT_MQ = new DefaultRedisScript<>("""  
+    public static final RedisScript<Long> THUMB_SCRIPT_MQ = new DefaultRedisScript<>(DIGEST_FUNCTION + """  
                 local userThumbKey = KEYS[1]  
                 local blogId = ARGV[1]  
+                local thumbField = ARGV[2] or blogId
+                local userId = ARGV[3]
           
                 -- 判断是否已经点赞  
-                if redis.call("HEXISTS", userThumbKey, blogId) == 1 then  
+                if redis.call("HEXISTS", userThumbKey, thumbField) == 1 then  
                     return -1  
                 end  
           
                 -- 添加点赞记录  
-                redis.call("HSET", userThumbKey, blogId, 1)  
+                redis.call("HSET", userThumbKey, thumbField, 1)  
+                local digestKey, countKey = optionalKeys(2)
+                xorDigest(digestKey, userId, blogId)
+                -- 开启实时点赞数时累加博客点赞数增量
+                if countKey then
+                    redis.call("HINCRBY", countKey, blogId, 1)
+                end
                 return 1  
         """, Long.class);
 
     /**
      * 取消点赞 Lua 脚本
      * KEYS[1]       -- 用户点赞状态键
+     * KEYS[2]       -- 用户点赞摘要键（可选，开启摘要对账时传入）
+     * KEYS[2/3]     -- 博客点赞数增量键（可选，开启实时点赞数时传入，在摘要键之后）
      * ARGV[1]       -- 博客 ID
+     * ARGV[2]       -- 用户点赞状态字段（紧凑存储时为 用户偏移:博客 ID，否则为博客 ID）
+     * ARGV[3]       -- 用户 ID
      * 返回:
      * -1: 已点赞
      * 1: 操作成功
      */
-    public static final RedisScript<Long> UNTHUMB_SCRIPT_MQ = new DefaultRedisScript<>("""  
+    public static final RedisScript<Long> UNTHUMB_SCRIPT_MQ = new DefaultRedisScript<>(DIGEST_FUNCTION + """  
         local userThumbKey = KEYS[1]  
         local blogId = ARGV[1]  
+        local thumbField = ARGV[2] or blogId
+        local userId = ARGV[3]
           
         -- 判断是否已点赞  
-        if redis.call("HEXISTS", userThumbKey, blogId) == 0 then  
+        if redis.call("HEXISTS", userThumbKey, thumbField) == 0 then  
             return -1  
         end  
           
         -- 删除点赞记录  
-        redis.call("HDEL", userThumbKey, blogId)  
+        redis.call("HDEL", userThumbKey, thumbField)  
+        local digestKey, countKey = optionalKeys(2)
+        xorDigest(digestKey, userId, blogId)
+        -- 开启实时点赞数时累加博客点赞数增量
+        if countKey then
+            redis.call("HINCRBY", countKey, blogId, -1)
+        end
         return 1  
         """, Long.class);
 
+    /**
+     * 用户点赞记录迁移 Lua 脚本
+     * 把旧布局的用户点赞键合并到紧凑存储的分桶中并删除旧键，重复执行没有副作用
+     * KEYS[1]       -- 旧的用户点赞状态键（thumb:{userId}）
+     * KEYS[2]       -- 用户所在的分桶键（thumb:b:{bucket}）
+     * ARGV[1]       -- 用户在分桶中的偏移
+     * 返回: 迁移的点赞记录数
+     */
+    public static final RedisScript<Long> USER_THUMB_MIGRATE_SCRIPT = new DefaultRedisScript<>("""
+            if redis.call('EXISTS', KEYS[1]) == 0 then
+                return 0
+            end
+
+            local blogIds = redis.call('HKEYS', KEYS[1])
+            for _, blogId in ipairs(blogIds) do
+                redis.call('HSET', KEYS[2], ARGV[1] .. ':' .. blogId, 1)
+            end
+            redis.call('DEL', KEYS[1])
+            return #blogIds
+            """, Long.class);
+
+    /**
+     * 冷用户点赞 key 淘汰 Lua 脚本
+     * 在脚本内再次检查空闲时间，检查与删除之间不会插入新的点赞写入
+     * KEYS[1]       -- 用户点赞状态键或紧凑存储的分桶键
+     * KEYS[2]       -- 淘汰标记集合
+     * ARGV[1]       -- 最小空闲时间（秒）
+     * 返回: 淘汰的字段数，未达到空闲时间或 key 不存在时返回 0
+     */
+    public static final RedisScript<Long> THUMB_EVICT_SCRIPT = new DefaultRedisScript<>("""
+            local idle = redis.call('OBJECT', 'IDLETIME', KEYS[1])
+            if not idle or idle < tonumber(ARGV[1]) then
+                return 0
+            end
+
+            local fields = redis.call('HLEN', KEYS[1])
+            redis.call('SADD', KEYS[2], KEYS[1])
+            redis.call('DEL', KEYS[1])
+            return fields
+            """, Long.class);
+
+    /**
+     * 写入或删除单个用户点赞状态 Lua 脚本，用于点赞事件发布失败后的回滚和对账修复
+     * 只有状态真正变化时才更新用户点赞摘要，未传入摘要键时不更新
+     * KEYS[1]       -- 用户点赞状态键
+     * KEYS[2]       -- 用户点赞摘要键（可选，开启摘要对账时传入）
+     * ARGV[1]       -- 用户点赞状态字段
+     * ARGV[2]       -- 用户 ID
+     * ARGV[3]       -- 博客 ID
+     * ARGV[4]       -- 1 写入，0 删除
+     * 返回: 状态是否变化
+     */
+    public static final RedisScript<Long> USER_THUMB_SET_SCRIPT = new DefaultRedisScript<>(DIGEST_FUNCTION + """
+            local changed
+            if ARGV[4] == '1' then
+                changed = redis.call('HSET', KEYS[1], ARGV[1], 1)
+            else
+                changed = redis.call('HDEL', KEYS[1], ARGV[1])
+            end
+            if changed == 1 then
+                xorDigest(KEYS[2], ARGV[2], ARGV[3])
+            end
+            return changed
+            """, Long.class);
+
+    /**
+     * 用户点赞摘要比较并写入 Lua 脚本，用于对账覆盖写入按点赞记录重新计算的摘要
+     * 摘要在读取点赞记录之前读出，仍等于读出的值说明期间没有点赞脚本异或过摘要，计算结果可以覆盖；
+     * 否则放弃写入，摘要不一致的用户在下次对账时重新比对
+     * KEYS[1]       -- 用户点赞摘要键
+     * ARGV[1]       -- 用户 ID
+     * ARGV[2]       -- 读取点赞记录之前的摘要，不存在时为 0
+     * ARGV[3]       -- 新的摘要
+     * 返回: 1 已写入，0 摘要已变化
+     */
+    public static final RedisScript<Long> USER_THUMB_DIGEST_CAS_SCRIPT = new DefaultRedisScript<>("""
+            if tonumber(redis.call('HGET', KEYS[1], ARGV[1]) or 0) ~= tonumber(ARGV[2]) then
+                return 0
+            end
+            redis.call('HSET', KEYS[1], ARGV[1], ARGV[3])
+            return 1
+            """, Long.class);
+
 }
@@ -8,6 +8,16 @@ public interface ThumbConstant {
 
     String USER_THUMB_KEY_PREFIX = "thumb:";
 
+    /**
+     * 紧凑存储的用户点赞分桶 key：thumb:b:{userId / 分桶大小}，字段为 用户偏移:blogId
+     */
+    String USER_THUMB_BUCKET_KEY_PREFIX = "thumb:b:";
+
+    /**
+     * 分片哈希标签，集群布局下用户点赞 key 与临时点赞分片 key 带相同的标签
+     */
+    String SHARD_TAG = "{%d}";
+
     /**
      * 临时 点赞记录 key
      */
@@ -15,6 +25,93 @@ public interface ThumbConstant {
 
     Long UN_THUMB_CONSTANT = 0L;
 
+    /**
+     * 已处理点赞事件ID key（按时间分桶），不使用 thumb: 前缀，避免被用户点赞 key 的扫描匹配
+     */
+    String PROCESSED_EVENT_KEY_PREFIX = "thumb_event:processed:%s";
+
+    /**
+     * 临时点赞数据同步水位：已同步到数据库的最后一个时间片
+     */
+    String SYNC_WATERMARK_KEY = "thumb_sync:watermark";
+
+    /**
+     * 同步中的时间片 key，临时点赞数据 RENAME 到该 key 后再写入数据库，写入完成后删除
+     */
+    String PROCESSING_THUMB_KEY_PREFIX = "thumb_sync:processing:%s";
+
+    /**
+     * 同步任务租约 key
+     */
+    String SYNC_LEASE_KEY_PREFIX = "thumb_sync:lease:%s";
+
+    /**
+     * 大时间片拆分后的子分片 key：thumb_sync:shard:{slice}:{shard}
+     */
+    String SYNC_SHARD_KEY_PREFIX = "thumb_sync:shard:%s:%d";
+
+    /**
+     * 大时间片拆分标记，值为子分片数
+     */
+    String SYNC_SPLIT_KEY_PREFIX = "thumb_sync:split:%s";
+
+    /**
+     * 待同步子分片的时间片集合，供其他节点发现并协助同步
+     */
+    String SYNC_PENDING_SPLITS_KEY = "thumb_sync:splits";
+
+    /**
+     * 点赞事件流 key，点赞状态写入时在同一个 Lua 脚本中追加事件
+     */
+    String THUMB_STREAM_KEY = "thumb_stream:events";
+
+    /**
+     * 博客点赞数增量 key，字段为 blogId，值为尚未写入数据库的点赞数增量
+     */
+    String BLOG_THUMB_DELTA_KEY = "thumb_count:delta";
+
+    /**
+     * 写入数据库中的博客点赞数增量 key，增量 RENAME 到该 key 后写入数据库，写入完成后删除
+     */
+    String BLOG_THUMB_DELTA_PROCESSING_KEY = "thumb_count:delta:processing";
+
+    /**
+     * 提交中的博客点赞数增量 key，写入中 key 在事务提交前 RENAME 到该 key，实时点赞数不读取，提交后删除
+     */
+    String BLOG_THUMB_DELTA_COMMITTING_KEY = "thumb_count:delta:committing";
+
+    /**
+     * 写入中增量 key 里记录交接 ID 的字段，与数据库中最近一次写入的交接 ID 比较，避免崩溃后重放重复计数
+     */
+    String BLOG_THUMB_DELTA_HANDOFF_FIELD = "handoff";
+
+    /**
+     * 已淘汰的冷用户点赞 key 集合，成员为被淘汰的 key，用于区分“已淘汰”和“从未点赞”；
+     * 集群布局下按哈希标签拆分为 thumb_tier:evicted:{分片}
+     */
+    String THUMB_EVICTED_KEY = "thumb_tier:evicted";
+
+    /**
+     * 对账检查点，值为已完成比对的最后一个用户ID
+     */
+    String RECONCILE_CHECKPOINT_KEY = "thumb_sync:reconcile:checkpoint";
+
+    /**
+     * 用户点赞摘要 key，字段为 userId，值为该用户所有点赞的摘要，由点赞 Lua 脚本维护；
+     * 集群布局下按哈希标签拆分为 thumb_digest:{分片}
+     */
+    String USER_THUMB_DIGEST_KEY = "thumb_digest";
+
+    /**
+     * 摘要初始化完成标记，全量对账完成后写入，之后只比对摘要不一致的用户
+     */
+    String DIGEST_READY_KEY = "thumb_sync:digest:ready";
+
+    /**
+     * 点赞事件处理进度，字段为节点ID，值为 进度:上报时间，进度之前产生的点赞事件都已写入数据库
+     */
+    String EVENT_PROGRESS_KEY = "thumb_sync:event_progress";
+
 
 }
 
@@ -2,15 +2,25 @@ package com.yang.ratingsystem.controller;
 
 import com.yang.ratingsystem.common.BaseResponse;
 import com.yang.ratingsystem.common.ResultUtils;
+import com.yang.ratingsystem.job.CompensatoryJob;
+import com.yang.ratingsystem.model.User;
+import com.yang.ratingsystem.model.dto.thumb.ApplyThumbsRequest;
 import com.yang.ratingsystem.model.dto.thumb.DoThumbRequest;
 import com.yang.ratingsystem.service.ThumbService;
+import com.yang.ratingsystem.service.UserService;
 import jakarta.annotation.Resource;
 import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+
 /**
  * @Author 小小星仔
  * @Create 2025-04-17 19:58
@@ -21,16 +31,60 @@ public class ThumbController {
     @Resource
     private ThumbService thumbService;
 
+    @Resource
+    private CompensatoryJob compensatoryJob;
+
+    @Resource
+    private ExecutorService virtualThreadExecutor;
+
+    @Resource
+    private UserService userService;
+
+    @Value("${thumb.compensation.admin-user-ids:}")
+    private Set<Long> compensationAdmins;   // 允许按需触发补偿的用户，未配置时接口不可用
+
+    @Value("${thumb.batch.max-operations:100}")
+    private int maxBatchOperations;         // 单次批量提交的点赞操作上限，对所有 ThumbService 实现生效
+
+    /**
+     * 点赞，返回 CompletableFuture 作为异步响应，等待消息发送期间不占用请求线程
+     */
     @PostMapping("/do")
-    public BaseResponse<Boolean> doThumb(@RequestBody DoThumbRequest doThumbRequest, HttpServletRequest request) {
-        Boolean success = thumbService.doThumb(doThumbRequest, request);
-        return ResultUtils.success(success);
+    public CompletableFuture<BaseResponse<Boolean>> doThumb(@RequestBody DoThumbRequest doThumbRequest, HttpServletRequest request) {
+        return thumbService.doThumbAsync(doThumbRequest, request).thenApply(ResultUtils::success);
     }
+
+    /**
+     * 取消点赞，异步响应
+     */
     @PostMapping("/undo")
-    public BaseResponse<Boolean> undoThumb(@RequestBody DoThumbRequest doThumbRequest, HttpServletRequest request) {
-        Boolean success = thumbService.undoThumb(doThumbRequest, request);
-        return ResultUtils.success(success);
+    public CompletableFuture<BaseResponse<Boolean>> undoThumb(@RequestBody DoThumbRequest doThumbRequest, HttpServletRequest request) {
+        return thumbService.undoThumbAsync(doThumbRequest, request).thenApply(ResultUtils::success);
     }
 
-}
+    /**
+     * 批量点赞 / 取消点赞，例如客户端同步离线期间的操作，返回与操作一一对应的结果
+     */
+    @PostMapping("/apply")
+    public BaseResponse<List<Boolean>> applyThumbs(@RequestBody ApplyThumbsRequest applyThumbsRequest, HttpServletRequest request) {
+        if (applyThumbsRequest != null && applyThumbsRequest.getOperations() != null
+                && applyThumbsRequest.getOperations().size() > maxBatchOperations) {
+            throw new RuntimeException("单次最多提交" + maxBatchOperations + "个点赞操作");
+        }
+        return ResultUtils.success(thumbService.applyThumbs(applyThumbsRequest, request));
+    }
 
+    /**
+     * 按需补偿遗留的临时点赞数据，返回补偿的时间片数，其他节点正在补偿时返回 -1
+     * 补偿会扫描 Redis 并批量写入数据库，只允许配置的管理员触发
+     */
+    @PostMapping("/compensate")
+    public CompletableFuture<BaseResponse<Integer>> compensate(HttpServletRequest request) {
+        User loginUser = userService.getLoginUser(request);
+        if (loginUser == null || !compensationAdmins.contains(loginUser.getId())) {
+            throw new RuntimeException("无权限触发补偿");
+        }
+        return CompletableFuture.supplyAsync(compensatoryJob::compensate, virtualThreadExecutor).thenApply(ResultUtils::success);
+    }
+
+}
@@ -0,0 +1,26 @@
+package com.yang.ratingsystem.exception;
+
+import com.yang.ratingsystem.common.ErrorCode;
+import lombok.Getter;
+
+/**
+ * 带错误码的业务异常，由 GlobalExceptionHandler 按错误码返回给调用方
+ */
+@Getter
+public class BusinessException extends RuntimeException {
+
+    /**
+     * 错误码
+     */
+    private final ErrorCode errorCode;
+
+    public BusinessException(ErrorCode errorCode) {
+        super(errorCode.getMessage());
+        this.errorCode = errorCode;
+    }
+
+    public BusinessException(ErrorCode errorCode, String message) {
+        super(message);
+        this.errorCode = errorCode;
+    }
+}
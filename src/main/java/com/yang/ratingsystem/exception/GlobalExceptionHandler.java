@@ -18,6 +18,12 @@ import org.springframework.web.bind.annotation.RestControllerAdvice;
 @Hidden
 public class GlobalExceptionHandler {
 
+    @ExceptionHandler(BusinessException.class)
+    public BaseResponse<?> businessExceptionHandler(BusinessException e) {
+        log.warn("{}: {}", e.getErrorCode(), e.getMessage());
+        return ResultUtils.error(e.getErrorCode(), e.getMessage());
+    }
+
     @ExceptionHandler(RuntimeException.class)
     public BaseResponse<?> runtimeExceptionHandler(RuntimeException e) {
         log.error(e.getMessage(), e);
@@ -1,19 +1,39 @@
 package com.yang.ratingsystem.job;
 
 import cn.hutool.core.collection.CollUtil;
-import cn.hutool.core.util.ObjUtil;
+import cn.hutool.core.util.NumberUtil;
 import com.yang.ratingsystem.constant.ThumbConstant;
+import com.yang.ratingsystem.manager.thumb.ThumbSliceClock;
+import com.yang.ratingsystem.manager.thumb.ThumbSyncLeaseManager;
 import com.yang.ratingsystem.utils.RedisKeyUtil;
+import com.yang.ratingsystem.utils.RedisPipelineUtil;
+import com.yang.ratingsystem.utils.RedisScanUtil;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.DataType;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
+ * 补偿同步任务遗留的临时点赞数据
+ * 用 SCAN 按类型和前缀遍历候选 key，不使用阻塞 Redis 的 KEYS；
+ * 时间片按时间从早到晚逐个同步，同一 key 的点赞和取消点赞按发生顺序写入数据库，
+ * 只在单个时间片内由同步任务并行同步各个分片。某个时间片未完成时停止，之后的时间片留到下次补偿
  * @Author 小小星仔
  * @Create 2025-04-17 23:01
  */
@@ -21,26 +41,163 @@ import java.util.Set;
 @Slf4j
 public class CompensatoryJob {
     @Resource
-    private RedisTemplate<String, Object> redisTemplate;
+    private StringRedisTemplate stringRedisTemplate;
 
     @Resource
     private SyncThumb2DBJob syncThumb2DBJob;
 
-    @Scheduled(cron = "0 0 2 * * *")
+    @Resource
+    private ThumbSliceClock thumbSliceClock;
+
+    @Resource
+    private ThumbSyncLeaseManager leaseManager;
+
+    @Resource
+    private ExecutorService virtualThreadExecutor;
+
+    @Value("${thumb.sync.lease-ms:30000}")
+    private long leaseMillis;
+
+    @Value("${thumb.compensation.scan-count:1000}")
+    private int scanCount;               // 每次 SCAN 的数量提示
+
+    @Scheduled(cron = "${thumb.compensation.cron:0 0 2 * * *}")
     public void run() {
+        compensate();
+    }
+
+    /**
+     * 补偿所有遗留的时间片，可由定时任务或接口按需触发
+     * 多节点部署时只由一个节点执行补偿，单个时间片仍由同步任务的时间片租约保护
+     *
+     * @return 本次补偿的时间片数，其他节点正在补偿时返回 -1
+     */
+    public int compensate() {
+        try (ThumbSyncLeaseManager.Lease lease = leaseManager.tryAcquire("compensation", leaseMillis)) {
+            if (lease == null) {
+                log.info("其他节点正在补偿数据");
+                return -1;
+            }
+            return compensate(lease);
+        }
+    }
+
+    private int compensate(ThumbSyncLeaseManager.Lease lease) {
         log.info("开始补偿数据");
-        Set<String> thumbKeys = redisTemplate.keys(RedisKeyUtil.getTempThumbKey("") + "*");
-        Set<String> needHandleDataSet = new HashSet<>();
-        thumbKeys.stream().filter(ObjUtil::isNotNull).forEach(thumbKey -> needHandleDataSet.add(thumbKey.replace(ThumbConstant.TEMP_THUMB_KEY_PREFIX.formatted(""), "")));
+        // 时间片标识 -> 该时间片的临时 key 和交接后未完成同步的 key（分片布局下每个时间片有多个 key）
+        Map<String, List<String>> sliceKeys = new LinkedHashMap<>();
+        scanSlices(ThumbConstant.TEMP_THUMB_KEY_PREFIX, sliceKeys);
+        scanSlices(ThumbConstant.PROCESSING_THUMB_KEY_PREFIX, sliceKeys);
 
-        if (CollUtil.isEmpty(needHandleDataSet)) {
+        Long watermark = syncThumb2DBJob.loadWatermark();
+        // 未关闭或仍在水位之后的时间片由同步任务处理，避免重复同步
+        sliceKeys.keySet().removeIf(date -> NumberUtil.isLong(date)
+                && (!thumbSliceClock.isClosed(Long.parseLong(date)) || watermark == null || Long.parseLong(date) > watermark));
+        Map<String, Long> sizes = loadSliceSizes(sliceKeys);
+        if (CollUtil.isEmpty(sizes)) {
             log.info("没有需要补偿的临时数据");
-            return;
+            return 0;
         }
-        // 补偿数据
-        for (String date : needHandleDataSet) {
-            syncThumb2DBJob.syncThumb2DBbyDate(date);
+
+        List<String> ordered = orderByTime(sizes.keySet());
+        int synced = 0;
+        for (String date : ordered) {
+            boolean done;
+            try {
+                done = await(CompletableFuture.supplyAsync(() -> syncThumb2DBJob.syncThumb2DBbyDate(date), virtualThreadExecutor), lease);
+            } catch (Exception e) {
+                log.error("补偿时间片 {} 失败，下次补偿时重试", date, e);
+                done = false;
+            }
+            if (!done) {
+                // 跳过该时间片会让更晚的写入先于它落库，同一 key 的点赞和取消点赞顺序颠倒
+                log.warn("时间片 {} 未完成补偿，之后的{}个时间片留到下次补偿", date, ordered.size() - synced - 1);
+                break;
+            }
+            synced++;
         }
-        log.info("临时数据补偿完成");
+        log.info("临时数据补偿完成: 时间片{}个, 成功{}个, 字段{}个",
+                ordered.size(), synced, sizes.values().stream().mapToLong(Long::longValue).sum());
+        return synced;
+    }
+
+    /**
+     * 按时间从早到晚排序，旧格式的时间片早于数字时间片，按字符串顺序排在最前
+     */
+    private static List<String> orderByTime(Collection<String> dates) {
+        List<String> ordered = new ArrayList<>(dates.stream().filter(date -> !NumberUtil.isLong(date)).sorted().toList());
+        dates.stream()
+                .filter(NumberUtil::isLong)
+                .sorted(Comparator.comparingLong(Long::parseLong))
+                .forEach(ordered::add);
+        return ordered;
+    }
+
+    /**
+     * 用 SCAN 遍历指定前缀的哈希 key，按时间片分组
+     */
+    private void scanSlices(String keyPrefixTemplate, Map<String, List<String>> sliceKeys) {
+        String prefix = keyPrefixTemplate.formatted("");
+        ScanOptions options = ScanOptions.scanOptions()
+                .match(prefix + "*")
+                .type(DataType.HASH)
+                .count(scanCount)
+                .build();
+        RedisScanUtil.scanKeys(stringRedisTemplate, options, key -> {
+            String date = RedisKeyUtil.stripShardTag(key.substring(prefix.length()));
+            sliceKeys.computeIfAbsent(date, k -> new ArrayList<>()).add(key);
+        });
+    }
+
+    /**
+     * 流水线批量获取时间片的字段数，过滤掉已被同步任务清理的时间片
+     */
+    private Map<String, Long> loadSliceSizes(Map<String, List<String>> sliceKeys) {
+        Map<String, Long> sizes = new LinkedHashMap<>();
+        if (sliceKeys.isEmpty()) {
+            return sizes;
+        }
+        List<String> keys = sliceKeys.values().stream().flatMap(List::stream).toList();
+        List<Object> results = RedisPipelineUtil.executePipelined(stringRedisTemplate, keys.stream()
+                .map(key -> (RedisPipelineUtil.Command) connection -> connection.hLen(key))
+                .toList());
+        int i = 0;
+        for (Map.Entry<String, List<String>> entry : sliceKeys.entrySet()) {
+            long size = 0;
+            for (int j = 0; j < entry.getValue().size(); j++) {
+                size += toLong(results.get(i++));
+            }
+            if (size > 0) {
+                sizes.put(entry.getKey(), size);
+            }
+        }
+        return sizes;
+    }
+
+    /**
+     * 等待时间片补偿完成，等待期间续约补偿租约
+     *
+     * @return 租约丢失时停止等待并返回 false，其他节点可能已开始补偿，之后的时间片不再由本节点处理
+     */
+    private boolean await(CompletableFuture<Boolean> future, ThumbSyncLeaseManager.Lease lease) throws Exception {
+        while (true) {
+            try {
+                return Boolean.TRUE.equals(future.get(Math.max(1000, leaseMillis / 3), TimeUnit.MILLISECONDS));
+            } catch (TimeoutException e) {
+                if (!lease.renew()) {
+                    log.warn("补偿租约已丢失，停止等待时间片补偿");
+                    return false;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw e;
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception cause ? cause : e;
+            }
+        }
+    }
+
+    private static long toLong(Object value) {
+        return value instanceof Long size ? size : 0L;
     }
 }
@@ -0,0 +1,162 @@
+package com.yang.ratingsystem.job;
+
+import cn.hutool.core.util.IdUtil;
+import cn.hutool.core.util.NumberUtil;
+import com.yang.ratingsystem.constant.RedisLuaScriptConstant;
+import com.yang.ratingsystem.constant.ThumbConstant;
+import com.yang.ratingsystem.manager.thumb.BlogThumbCounter;
+import com.yang.ratingsystem.manager.thumb.ThumbSyncLeaseManager;
+import com.yang.ratingsystem.mapper.BlogMapper;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 定时将 Redis 中的博客点赞数增量批量写入数据库
+ * 增量 key 先原子 RENAME 为写入中 key 并记录交接 ID，之后的点赞累加到新的增量 key；
+ * 写入数据库前再 RENAME 为提交中 key，事务提交后删除提交中 key。交接 ID 在同一个事务中写入 blog_thumb_count_handoff 表，
+ * 提交后、删除前崩溃时下次重放提交中 key，发现交接 ID 已写入则只删除 key，不会重复计数。
+ * 实时点赞数只读取增量 key 和写入中 key，提交后到删除前不会把已写入数据库的增量再算一次；
+ * 剩余的窗口在 RENAME 之后、事务提交之前：这部分增量既不在数据库也不被读取，展示的点赞数暂时偏少，
+ * 此时崩溃则一直偏少到下次执行重放提交中 key。
+ * 交接由租约串行执行，上一次交接的 key 删除前不会产生新的交接，只需记录最近一次的交接 ID
+ */
+@Component
+@Slf4j
+public class SyncBlogThumbCountJob {
+
+    /**
+     * 每条 UPDATE 语句包含的最大博客数
+     */
+    private static final int CHUNK_SIZE = 500;
+
+    @Resource
+    private BlogThumbCounter blogThumbCounter;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private BlogMapper blogMapper;
+
+    @Resource
+    private TransactionTemplate transactionTemplate;
+
+    @Resource
+    private ThumbSyncLeaseManager leaseManager;
+
+    @Value("${thumb.sync.lease-ms:30000}")
+    private long leaseMillis;
+
+    @Scheduled(initialDelay = 10000, fixedDelayString = "${thumb.count.flush-interval-ms:1000}")
+    public void run() {
+        if (!blogThumbCounter.isLive()) {
+            return;
+        }
+        try (ThumbSyncLeaseManager.Lease lease = leaseManager.tryAcquire("blog-count", leaseMillis)) {
+            if (lease == null) {
+                return;
+            }
+            if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(ThumbConstant.BLOG_THUMB_DELTA_COMMITTING_KEY))) {
+                log.info("重放上次提交中断的博客点赞数增量");
+                commit();
+            }
+            Long handoff = stringRedisTemplate.execute(
+                    RedisLuaScriptConstant.BLOG_COUNT_HANDOFF_SCRIPT,
+                    List.of(ThumbConstant.BLOG_THUMB_DELTA_KEY, ThumbConstant.BLOG_THUMB_DELTA_PROCESSING_KEY),
+                    ThumbConstant.BLOG_THUMB_DELTA_HANDOFF_FIELD,
+                    IdUtil.fastSimpleUUID()
+            );
+            if (handoff == null || handoff == 0L) {
+                return;
+            }
+            if (handoff == 2L) {
+                log.info("重放上次未完成写入的博客点赞数增量");
+            }
+            flush();
+        }
+    }
+
+    private void flush() {
+        // 升级前交接的 key 没有交接 ID，此时补写一个
+        stringRedisTemplate.opsForHash().putIfAbsent(ThumbConstant.BLOG_THUMB_DELTA_PROCESSING_KEY,
+                ThumbConstant.BLOG_THUMB_DELTA_HANDOFF_FIELD, IdUtil.fastSimpleUUID());
+        // 提交前移出实时点赞数读取的 key，事务提交后数据库中的点赞数已包含这部分增量
+        stringRedisTemplate.rename(ThumbConstant.BLOG_THUMB_DELTA_PROCESSING_KEY, ThumbConstant.BLOG_THUMB_DELTA_COMMITTING_KEY);
+        commit();
+    }
+
+    /**
+     * 把提交中 key 的增量与交接 ID 在同一个事务中写入数据库，提交后删除提交中 key
+     */
+    private void commit() {
+        Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(ThumbConstant.BLOG_THUMB_DELTA_COMMITTING_KEY);
+        String handoffId = String.valueOf(entries.get(ThumbConstant.BLOG_THUMB_DELTA_HANDOFF_FIELD));
+        // 按 blogId 排序更新，与批量写入器加锁顺序一致
+        Map<Long, Long> deltas = new TreeMap<>();
+        entries.forEach((blogId, delta) -> {
+            if (NumberUtil.isLong(blogId.toString()) && NumberUtil.isLong(delta.toString())) {
+                long value = Long.parseLong(delta.toString());
+                if (value != 0L) {
+                    deltas.put(Long.valueOf(blogId.toString()), value);
+                }
+            }
+        });
+        if (!deltas.isEmpty()) {
+            List<Map<Long, Long>> chunks = new ArrayList<>();
+            Map<Long, Long> chunk = new TreeMap<>();
+            for (Map.Entry<Long, Long> entry : deltas.entrySet()) {
+                chunk.put(entry.getKey(), entry.getValue());
+                if (chunk.size() >= CHUNK_SIZE) {
+                    chunks.add(chunk);
+                    chunk = new TreeMap<>();
+                }
+            }
+            if (!chunk.isEmpty()) {
+                chunks.add(chunk);
+            }
+            // 所有分块与交接 ID 在同一个事务中提交，交接 ID 已存在说明上次已提交，只需删除提交中 key
+            Boolean applied;
+            try {
+                applied = transactionTemplate.execute(status -> {
+                    blogMapper.initThumbCountHandoff();
+                    if (blogMapper.markThumbCountHandoff(handoffId) == 0) {
+                        return false;
+                    }
+                    chunks.forEach(blogMapper::batchUpdateThumbCount);
+                    return true;
+                });
+            } catch (RuntimeException e) {
+                restore();
+                throw e;
+            }
+            if (!Boolean.TRUE.equals(applied)) {
+                log.info("博客点赞数增量已在上次写入数据库，跳过重放: handoffId={}", handoffId);
+            }
+        }
+        stringRedisTemplate.delete(ThumbConstant.BLOG_THUMB_DELTA_COMMITTING_KEY);
+        log.info("博客点赞数增量写入完成: 博客{}个", deltas.size());
+    }
+
+    /**
+     * 事务未提交时把提交中 key 恢复为写入中 key，实时点赞数重新计入这部分增量，下次执行时重放
+     * 恢复失败时提交中 key 保留，由下次执行重放
+     */
+    private void restore() {
+        try {
+            stringRedisTemplate.renameIfAbsent(ThumbConstant.BLOG_THUMB_DELTA_COMMITTING_KEY,
+                    ThumbConstant.BLOG_THUMB_DELTA_PROCESSING_KEY);
+        } catch (Exception e) {
+            log.warn("恢复写入中的博客点赞数增量失败，下次执行时重放", e);
+        }
+    }
+}
@@ -1,30 +1,41 @@
 package com.yang.ratingsystem.job;
 
-import cn.hutool.core.collection.CollUtil;
-import cn.hutool.core.date.DateTime;
-import cn.hutool.core.date.DateUtil;
+import cn.hutool.core.lang.Pair;
 import cn.hutool.core.text.StrPool;
-import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
-import com.yang.ratingsystem.mapper.BlogMapper;
-import com.yang.ratingsystem.model.Thumb;
+import com.yang.ratingsystem.constant.RedisLuaScriptConstant;
+import com.yang.ratingsystem.constant.ThumbConstant;
+import com.yang.ratingsystem.manager.thumb.ThumbBatchWriter;
+import com.yang.ratingsystem.manager.thumb.ThumbSliceClock;
+import com.yang.ratingsystem.manager.thumb.ThumbSyncLeaseManager;
 import com.yang.ratingsystem.model.enums.ThumbTypeEnum;
-import com.yang.ratingsystem.service.BlogService;
-import com.yang.ratingsystem.service.ThumbService;
 import com.yang.ratingsystem.utils.RedisKeyUtil;
+import com.yang.ratingsystem.utils.ThumbKeyLayout;
+import jakarta.annotation.PostConstruct;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.Cursor;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
 
 /**
  * 定时将 Redis 中的临时点赞数据同步到数据库
- * 在数据量较大、定时任务执行时间超过 10s时，就会影响后续的定时任务执行
- * 需要等到补偿任务执行数据才恢复一致。
+ * 时间片 ID 为对齐到片宽的 epoch 秒，Redis 中记录已同步的水位，
+ * 每次执行同步水位之后所有已关闭的时间片，某次执行延迟或失败时下次执行立即追赶，不再等待补偿任务。
+ * 多节点部署时通过 Redis 租约保证每个时间片只被同步一次，大时间片拆分为子分片由各节点并行同步。
  * @Author 小小星仔
  * @Create 2025-04-17 22:54
  */
@@ -32,84 +43,406 @@ import java.util.Map;
 @Slf4j
 public class SyncThumb2DBJob {
 
-    @Resource
-    private ThumbService thumbService;
+    /**
+     * 单个时间片最多交接的轮数
+     */
+    private static final int MAX_HANDOFF_ROUNDS = 3;
+
+    /**
+     * 推进水位的租约，集群内同一时刻只有一个节点按顺序同步时间片。
+     * 以水位 key 为哈希标签，集群模式下与水位 key 在同一个槽位，推进水位的脚本可以同时校验租约
+     */
+    static final String SWEEPER_LEASE = "sweeper:{" + ThumbConstant.SYNC_WATERMARK_KEY + "}";
 
     @Resource
-    private BlogMapper blogMapper;
+    private ThumbBatchWriter thumbBatchWriter;
 
     @Resource
     private RedisTemplate<String, Object> redisTemplate;
 
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private ThumbSliceClock thumbSliceClock;
+
+    @Resource
+    private ThumbSyncLeaseManager leaseManager;
+
+    @Resource
+    private ExecutorService virtualThreadExecutor;
+
+    @Resource
+    private ThumbKeyLayout thumbKeyLayout;
+
+    @Value("${thumb.sync.max-catch-up-slices:8640}")
+    private long maxCatchUpSlices;       // 单次最多追赶的时间片数，更早的交给补偿任务
 
-    @Scheduled(initialDelay = 10000,fixedDelay = 10000)
+    @Value("${thumb.sync.chunk-size:1000}")
+    private int chunkSize;               // 每次 HSCAN 的数量和每次写入数据库的记录数
+
+    @Value("${thumb.sync.lease-ms:30000}")
+    private long leaseMillis;            // 租约时长，处理过程中按块续约
+
+    @Value("${thumb.sync.split-threshold:50000}")
+    private long splitThreshold;         // 时间片字段数超过该值时拆分为子分片
+
+    @Value("${thumb.sync.max-shards:16}")
+    private int maxShards;
+
+    @Value("${thumb.sync.shard-parallelism:4}")
+    private int shardParallelism;        // 同时同步的临时 key 分片数
+
+    @Value("${thumb.sync.shard-wait-ms:20000}")
+    private long shardWaitMillis;        // 推进水位的节点等待子分片完成的最长时间，须小于租约时长
+
+    /**
+     * 等待子分片期间每轮都会续约时间片租约，单次等待仍不应超过租约时长
+     */
+    @PostConstruct
+    public void checkConfig() {
+        if (shardWaitMillis >= leaseMillis) {
+            throw new IllegalStateException("thumb.sync.shard-wait-ms(" + shardWaitMillis
+                    + ") 必须小于 thumb.sync.lease-ms(" + leaseMillis + ")");
+        }
+    }
+
+    @Scheduled(initialDelay = 10000, fixedDelayString = "${thumb.sync.sweep-interval-ms:5000}")
     public void run(){
-        log.info("开始执行");
-        DateTime nowDate = DateUtil.date();
-        String date = DateUtil.format(nowDate, "HH:mm:") + (DateUtil.second(nowDate)/10-1)*10;
-        syncThumb2DBbyDate(date);
-        log.info("临时数据同步完成");
+        try (ThumbSyncLeaseManager.Lease lease = leaseManager.tryAcquire(SWEEPER_LEASE, leaseMillis)) {
+            if (lease == null) {
+                // 其他节点正在推进水位，本节点协助同步已拆分的子分片
+                helpPendingSplits();
+                return;
+            }
+            sweep(lease);
+        }
     }
 
-    void syncThumb2DBbyDate(String date) {
-        // 获取到临时点赞和取消点赞数据
-        // todo 如果数据量过大，可以分批读取数据
-        String tempThumbKey = RedisKeyUtil.getTempThumbKey(date);
-        Map<Object, Object> allTempThumbMap = redisTemplate.opsForHash().entries(tempThumbKey);
-        boolean thumbMapEmpty = CollUtil.isEmpty(allTempThumbMap);
+    /**
+     * 按顺序同步水位之后所有已关闭的时间片，只由持有推进租约的节点执行
+     */
+    private void sweep(ThumbSyncLeaseManager.Lease lease) {
+        long lastClosed = thumbSliceClock.lastClosedSlice();
+        long earliest = lastClosed - maxCatchUpSlices * thumbSliceClock.getSliceSeconds();
+        Long watermark = loadWatermark();
+        if (watermark == null) {
+            // 首次运行，从当前往前追赶最大时间片数
+            watermark = earliest;
+        } else if (watermark < earliest) {
+            log.warn("同步水位落后过多，跳过 {} 之前的时间片，由补偿任务处理", earliest);
+            watermark = earliest;
+        }
 
+        int synced = 0;
+        for (long slice = thumbSliceClock.nextSlice(watermark); slice <= lastClosed; slice = thumbSliceClock.nextSlice(slice)) {
+            if (!syncThumb2DBbyDate(String.valueOf(slice))) {
+                // 时间片正被其他节点同步或子分片尚未完成，下次从该时间片继续
+                break;
+            }
+            // 同步成功后推进水位，失败时下次从该时间片重试；租约已丢失时不写入，水位不会被回退
+            if (!advanceWatermark(lease, slice)) {
+                log.warn("推进水位的租约已丢失，停止推进: {}", slice);
+                break;
+            }
+            synced++;
+            if (!lease.renew()) {
+                break;
+            }
+        }
+        if (synced > 1) {
+            log.info("追赶同步 {} 个时间片，水位: {}", synced, lastClosed);
+        }
+    }
 
-        // 同步 点赞 到数据库
-        // 构建插入列表并收集blogId
-        Map<Long, Long> blogThumbCountMap = new HashMap<>();
-        if (thumbMapEmpty) {
-            return;
+    /**
+     * 比较租约 token 后推进水位，水位只增不减
+     *
+     * @return 租约仍由本节点持有且水位已推进
+     */
+    private boolean advanceWatermark(ThumbSyncLeaseManager.Lease lease, long slice) {
+        Long result = stringRedisTemplate.execute(
+                RedisLuaScriptConstant.WATERMARK_ADVANCE_SCRIPT,
+                List.of(lease.getKey(), ThumbConstant.SYNC_WATERMARK_KEY),
+                lease.getToken(), String.valueOf(slice)
+        );
+        return result != null && result == 1L;
+    }
+
+    /**
+     * 已同步到数据库的最后一个时间片
+     */
+    public Long loadWatermark() {
+        String watermark = stringRedisTemplate.opsForValue().get(ThumbConstant.SYNC_WATERMARK_KEY);
+        return watermark == null ? null : Long.valueOf(watermark);
+    }
+
+    /**
+     * 同步一个时间片
+     * 先把临时 key 原子 RENAME 为同步中 key，再写入数据库，最后删除同步中 key 作为提交标记。
+     * 交接之后的迟到写入会落到新的临时 key，在下一轮交接中处理；
+     * 写入数据库后、删除前崩溃时，下次从同步中 key 重放，批量写入器按实际影响行数计数，重放不会重复计数。
+     * 整个过程持有时间片租约，集群内同一时间片只由一个节点交接；
+     * 字段数超过拆分阈值时拆成多个子分片，各节点分别获取子分片租约并行写入。
+     * 临时 key 按用户分片时逐个分片交接，每个分片与对应的同步中 key 在同一个槽位
+     *
+     * @return 时间片已全部同步完成
+     */
+    public boolean syncThumb2DBbyDate(String date) {
+        try (ThumbSyncLeaseManager.Lease lease = leaseManager.tryAcquire("slice:" + date, leaseMillis)) {
+            if (lease == null) {
+                log.debug("时间片 {} 正由其他节点同步", date);
+                return false;
+            }
+            // 集群布局下不存在不分片的 key，单机布局下兼容切换分片前写入的数据
+            if (!thumbKeyLayout.isClusterLayout() && !syncTempKey(date, -1, lease)) {
+                return false;
+            }
+            return syncTempShards(date, lease);
         }
-        ArrayList<Thumb> thumbList = new ArrayList<>();
-        LambdaQueryWrapper<Thumb> wrapper = new LambdaQueryWrapper<>();
-        boolean needRemove = false;
-        for (Object userIdBlogIdObj : allTempThumbMap.keySet()) {
-            String userIdBlogId = (String) userIdBlogIdObj;
-            String[] userIdAndBlogId = userIdBlogId.split(StrPool.COLON);
-            Long userId = Long.valueOf(userIdAndBlogId[0]);
-            Long blogId = Long.valueOf(userIdAndBlogId[1]);
-            // -1 取消点赞，1 点赞
-            Integer thumbType = Integer.valueOf(allTempThumbMap.get(userIdBlogId).toString());
-            if (thumbType == ThumbTypeEnum.INCR.getValue()) {
-                Thumb thumb = new Thumb();
-                thumb.setUserId(userId);
-                thumb.setBlogId(blogId);
-                thumbList.add(thumb);
-            } else if (thumbType == ThumbTypeEnum.DECR.getValue()) {
-                // 拼接查询条件，批量删除
-                // todo 数据量过大，可以分批操作
-                needRemove = true;
-                wrapper.or().eq(Thumb::getUserId, userId).eq(Thumb::getBlogId, blogId);
-            } else {
-                if (thumbType != ThumbTypeEnum.NON.getValue()) {
-                    log.warn("数据异常：{}", userId + "," + blogId + "," + thumbType);
+    }
+
+    /**
+     * 并行交接并同步时间片的所有分片，任一分片失败时抛出异常，水位不会推进
+     *
+     * @return 所有分片都已同步完成
+     */
+    private boolean syncTempShards(String date, ThumbSyncLeaseManager.Lease lease) {
+        int shards = thumbKeyLayout.getTempThumbShardCount();
+        if (shards == 0) {
+            return true;
+        }
+        Semaphore permits = new Semaphore(Math.max(1, shardParallelism));
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>(shards);
+        for (int shard = 0; shard < shards; shard++) {
+            int current = shard;
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                permits.acquireUninterruptibly();
+                try {
+                    return syncTempKey(date, current, lease);
+                } finally {
+                    permits.release();
                 }
+            }, virtualThreadExecutor));
+        }
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException e) {
+            throw new RuntimeException("时间片 " + date + " 的分片同步失败", e.getCause());
+        }
+        return futures.stream().allMatch(CompletableFuture::join);
+    }
+
+    /**
+     * 交接并同步时间片的一个临时 key
+     *
+     * @param shard 分片序号，小于 0 表示不分片的 key
+     * @return 已同步完成，拆分出的子分片尚未完成或交接轮数用完后仍有写入时返回 false
+     */
+    private boolean syncTempKey(String date, int shard, ThumbSyncLeaseManager.Lease lease) {
+        String tempThumbKey = RedisKeyUtil.getTempThumbKey(date, shard);
+        String processingKey = RedisKeyUtil.getProcessingThumbKey(date, shard);
+        String label = shard < 0 ? date : date + "@" + shard;
+        for (int round = 0; round < MAX_HANDOFF_ROUNDS; round++) {
+            // 上次拆分的子分片尚未全部完成时，先等待子分片同步
+            Integer shardCount = shard < 0 ? loadShardCount(date) : null;
+            if (shardCount != null && !flushShards(date, shardCount, lease)) {
+                return false;
+            }
+
+            Long handoff = redisTemplate.execute(
+                    RedisLuaScriptConstant.SLICE_HANDOFF_SCRIPT,
+                    List.of(tempThumbKey, processingKey)
+            );
+            if (handoff == null || handoff == 0L) {
+                return true;
+            }
+            if (handoff == 2L) {
+                log.info("重放上次未完成同步的时间片: {}", label);
+            }
+
+            // 分片后的 key 已经按用户拆开，只拆分不分片的大 key
+            Long size = shard < 0 ? redisTemplate.opsForHash().size(processingKey) : null;
+            if (size != null && size > splitThreshold) {
+                int shards = (int) Math.min(maxShards, (size + splitThreshold - 1) / splitThreshold);
+                splitSlice(date, processingKey, shards, lease);
+                continue;
+            }
+            flushSlice(label, processingKey, lease);
+            // 数据库写入完成后同步删除，作为提交标记
+            redisTemplate.delete(processingKey);
+        }
+        // 水位不推进，下次同步时按顺序继续交接该时间片，避免剩余数据在更新的时间片之后才写入
+        log.warn("时间片 {} 交接后仍持续有写入，下次同步时继续", label);
+        return false;
+    }
+
+    /**
+     * 协助同步其他节点拆分出的子分片
+     */
+    private void helpPendingSplits() {
+        Set<String> slices = stringRedisTemplate.opsForSet().members(ThumbConstant.SYNC_PENDING_SPLITS_KEY);
+        if (slices == null) {
+            return;
+        }
+        for (String date : slices) {
+            Integer shardCount = loadShardCount(date);
+            if (shardCount == null) {
+                stringRedisTemplate.opsForSet().remove(ThumbConstant.SYNC_PENDING_SPLITS_KEY, date);
                 continue;
             }
-            // 计算点赞增量
-            blogThumbCountMap.put(blogId, blogThumbCountMap.getOrDefault(blogId, 0L) + thumbType);
+            flushShards(date, shardCount, null);
+        }
+    }
+
+    private Integer loadShardCount(String date) {
+        String shardCount = stringRedisTemplate.opsForValue().get(RedisKeyUtil.getSyncSplitKey(date));
+        return shardCount == null ? null : Integer.valueOf(shardCount);
+    }
+
+    /**
+     * 把同步中的大时间片按 userId 拆成多个子分片
+     * 子分片全部写入后才原子地写入拆分标记并删除原 key，中途失败时重新拆分，重复写入子分片是幂等的
+     */
+    private void splitSlice(String date, String processingKey, int shards, ThumbSyncLeaseManager.Lease lease) {
+        List<Map<Object, Object>> buffers = new ArrayList<>(shards);
+        for (int i = 0; i < shards; i++) {
+            buffers.add(new HashMap<>());
+        }
+        long fields = 0;
+        ScanOptions options = ScanOptions.scanOptions().count(chunkSize).build();
+        try (Cursor<Map.Entry<Object, Object>> cursor = redisTemplate.opsForHash().scan(processingKey, options)) {
+            while (cursor.hasNext()) {
+                Map.Entry<Object, Object> entry = cursor.next();
+                String userId = entry.getKey().toString().split(StrPool.COLON)[0];
+                int shard = Math.floorMod(userId.hashCode(), shards);
+                buffers.get(shard).put(entry.getKey(), entry.getValue());
+                if (++fields % chunkSize == 0) {
+                    writeShards(date, buffers);
+                    renewOrFail(lease);
+                }
+            }
+        }
+        writeShards(date, buffers);
+        stringRedisTemplate.execute(
+                RedisLuaScriptConstant.SLICE_SPLIT_COMMIT_SCRIPT,
+                List.of(processingKey, RedisKeyUtil.getSyncSplitKey(date), ThumbConstant.SYNC_PENDING_SPLITS_KEY),
+                String.valueOf(shards), date
+        );
+        log.info("时间片 {} 字段{}个，拆分为{}个子分片并行同步", date, fields, shards);
+    }
+
+    private void writeShards(String date, List<Map<Object, Object>> buffers) {
+        for (int i = 0; i < buffers.size(); i++) {
+            if (!buffers.get(i).isEmpty()) {
+                redisTemplate.opsForHash().putAll(RedisKeyUtil.getSyncShardKey(date, i), buffers.get(i));
+                buffers.get(i).clear();
+            }
+        }
+    }
+
+    /**
+     * 同步时间片的子分片，每个子分片由获取到其租约的节点写入
+     * 推进水位的节点持有时间片租约等待全部子分片完成，每轮检查和每写完一个子分片都续约时间片租约，
+     * 避免等待期间租约过期、其他节点接手时间片后两个节点交错交接和写入
+     *
+     * @param sliceLease 本节点持有的时间片租约，等待其他节点持有的子分片完成；为 null 时只协助同步，不等待
+     * @return 全部子分片已完成
+     */
+    private boolean flushShards(String date, int shardCount, ThumbSyncLeaseManager.Lease sliceLease) {
+        long deadline = System.currentTimeMillis() + shardWaitMillis;
+        while (true) {
+            if (sliceLease != null) {
+                renewOrFail(sliceLease);
+            }
+            int remaining = 0;
+            for (int i = 0; i < shardCount; i++) {
+                String shardKey = RedisKeyUtil.getSyncShardKey(date, i);
+                if (!Boolean.TRUE.equals(redisTemplate.hasKey(shardKey))) {
+                    continue;
+                }
+                try (ThumbSyncLeaseManager.Lease lease = leaseManager.tryAcquire("shard:" + date + ":" + i, leaseMillis)) {
+                    if (lease == null) {
+                        remaining++;
+                        continue;
+                    }
+                    flushSlice(date + "#" + i, shardKey, lease);
+                    redisTemplate.delete(shardKey);
+                }
+                if (sliceLease != null) {
+                    renewOrFail(sliceLease);
+                }
+            }
+            if (remaining == 0) {
+                redisTemplate.delete(RedisKeyUtil.getSyncSplitKey(date));
+                stringRedisTemplate.opsForSet().remove(ThumbConstant.SYNC_PENDING_SPLITS_KEY, date);
+                return true;
+            }
+            if (sliceLease == null || System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
 
+    /**
+     * 用 HSCAN 分块读取同步中的时间片并写入数据库，每写入一块续约一次
+     */
+    private void flushSlice(String date, String processingKey, ThumbSyncLeaseManager.Lease lease) {
+        // 用 HSCAN 分块读取临时点赞数据，每凑满一块写入一次数据库，内存占用与时间片大小无关
+        List<Pair<Long, Long>> inserts = new ArrayList<>(chunkSize);
+        List<Pair<Long, Long>> deletes = new ArrayList<>(chunkSize);
+        long fields = 0;
+        int chunks = 0;
+        ScanOptions options = ScanOptions.scanOptions().count(chunkSize).build();
+        try (Cursor<Map.Entry<Object, Object>> cursor = redisTemplate.opsForHash().scan(processingKey, options)) {
+            while (cursor.hasNext()) {
+                Map.Entry<Object, Object> entry = cursor.next();
+                fields++;
+                String[] userIdAndBlogId = entry.getKey().toString().split(StrPool.COLON);
+                Long userId = Long.valueOf(userIdAndBlogId[0]);
+                Long blogId = Long.valueOf(userIdAndBlogId[1]);
+                // -1 取消点赞，1 点赞
+                int thumbType = Integer.parseInt(entry.getValue().toString());
+                if (thumbType == ThumbTypeEnum.INCR.getValue()) {
+                    inserts.add(Pair.of(userId, blogId));
+                } else if (thumbType == ThumbTypeEnum.DECR.getValue()) {
+                    deletes.add(Pair.of(userId, blogId));
+                } else if (thumbType != ThumbTypeEnum.NON.getValue()) {
+                    log.warn("数据异常：{}", userId + "," + blogId + "," + thumbType);
+                }
+                if (inserts.size() + deletes.size() >= chunkSize) {
+                    // 批量写入器根据实际影响行数更新博客点赞量，HSCAN 重复返回的字段不会重复计数
+                    thumbBatchWriter.write(inserts, deletes);
+                    inserts.clear();
+                    deletes.clear();
+                    chunks++;
+                    renewOrFail(lease);
+                }
+            }
         }
-        // 批量插入
-        thumbService.saveBatch(thumbList);
-        // 批量删除
-        if (needRemove) {
-            thumbService.remove(wrapper);
+        if (fields == 0) {
+            return;
         }
-        // 批量更新博客点赞量
-        if (!blogThumbCountMap.isEmpty()) {
-            blogMapper.batchUpdateThumbCount(blogThumbCountMap);
+        if (!inserts.isEmpty() || !deletes.isEmpty()) {
+            thumbBatchWriter.write(inserts, deletes);
+            chunks++;
         }
-        // 异步删除
-        Thread.startVirtualThread(() -> {
-            redisTemplate.delete(tempThumbKey);
-        });
+        log.info("时间片 {} 同步完成: 字段{}个, 分{}块写入", date, fields, chunks);
+    }
 
+    /**
+     * 续约失败说明租约已过期并可能被其他节点接手，中止当前处理，数据保留在 Redis 中等待重放
+     */
+    private void renewOrFail(ThumbSyncLeaseManager.Lease lease) {
+        if (!lease.renew()) {
+            throw new RuntimeException("同步租约已丢失，中止本次同步");
+        }
     }
 
 }
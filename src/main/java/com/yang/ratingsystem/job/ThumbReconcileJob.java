@@ -1,26 +1,64 @@
 package com.yang.ratingsystem.job;
 
-import com.google.common.collect.Sets;
+import cn.hutool.core.util.NumberUtil;
+import com.google.common.util.concurrent.RateLimiter;
+import com.yang.ratingsystem.constant.RedisLuaScriptConstant;
 import com.yang.ratingsystem.constant.ThumbConstant;
 import com.yang.ratingsystem.listener.thumb.msg.ThumbEvent;
-import com.yang.ratingsystem.service.ThumbService;
+import com.yang.ratingsystem.manager.thumb.ThumbEventProgress;
+import com.yang.ratingsystem.manager.thumb.ThumbEventPublisher;
+import com.yang.ratingsystem.manager.thumb.ThumbScriptRegistry;
+import com.yang.ratingsystem.manager.thumb.ThumbSliceClock;
+import com.yang.ratingsystem.manager.thumb.ThumbSyncLeaseManager;
+import com.yang.ratingsystem.manager.thumb.UserThumbStore;
+import com.yang.ratingsystem.mapper.ThumbMapper;
+import com.yang.ratingsystem.mapper.UserThumbDigestMapper;
+import com.yang.ratingsystem.model.UserThumbDigest;
+import com.yang.ratingsystem.utils.RedisKeyUtil;
+import com.yang.ratingsystem.utils.ThumbKeyLayout;
+import com.yang.ratingsystem.utils.RedisPipelineUtil;
+import com.yang.ratingsystem.utils.ThumbDigestUtil;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.Limit;
+import org.springframework.data.redis.connection.stream.MapRecord;
 import org.springframework.data.redis.core.Cursor;
-import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.ScanOptions;
-import org.springframework.pulsar.core.PulsarTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import com.yang.ratingsystem.model.Thumb;
-import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Optional;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 
 /**
+ * 点赞数据对账：找出 Redis 与数据库中不一致的点赞记录，Redis 中多出的记录发送补偿事件写入数据库，
+ * 数据库中多出的记录恢复到 Redis
+ *
+ * 全量对账按 (userId, blogId) 顺序游标分页遍历 thumb 表，每页的用户在一个流水线中读取 Redis 点赞状态，
+ * 与数据库记录按 blogId 有序归并得到差异；多页由有限的虚拟线程并行比对，每轮完成后把检查点写入 Redis，
+ * 中断后下次从检查点继续。然后用 SCAN 分批找出 Redis 中有点赞状态但数据库中没有任何记录的用户。
+ * 差异可能是尚未同步的点赞 / 取消点赞，发现差异后不立即修复：等待临时点赞数据的同步水位、点赞事件处理进度和事件流
+ * 都越过读取差异的时间后，重新读取两边，只修复两次读取中都存在的差异；等待超时则只记录差异，不修复。
+ *
+ * 开启用户点赞摘要后，全量对账同时初始化 Redis 和 user_thumb_digest 表中的摘要，完成后写入初始化标记；
+ * 两边的摘要都在读取点赞状态之前读出，写入时比较并写入，期间被点赞脚本或批量写入异或过的摘要不覆盖；
+ * 全量对账的数据库记录先于摘要读出，按记录算出的摘要与读出的摘要不一致时重新读取这些用户的记录。
+ * 之后只比对两边的摘要，摘要不一致的用户才读取点赞记录比对，数据库读取量与不一致的用户数相关，而不是与 thumb 表大小相关。
+ * 数据库读取按配置的速率限流
  * User:小小星仔
  * Date:2025-04-29
  * Time:22:07
@@ -29,65 +67,661 @@ import java.util.stream.Collectors;
 @Slf4j
 public class ThumbReconcileJob {
     @Resource
-    private RedisTemplate<String, Object> redisTemplate;
+    private ThumbMapper thumbMapper;
 
     @Resource
-    private ThumbService thumbService;
+    private UserThumbDigestMapper userThumbDigestMapper;
 
     @Resource
-    private PulsarTemplate<ThumbEvent> pulsarTemplate;
+    private UserThumbStore userThumbStore;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private ThumbSyncLeaseManager leaseManager;
+
+    @Resource
+    private ExecutorService virtualThreadExecutor;
+
+    @Resource
+    private ThumbEventPublisher thumbEventPublisher;
+
+    @Resource
+    private ThumbEventProgress eventProgress;
+
+    @Resource
+    private SyncThumb2DBJob syncThumb2DBJob;
+
+    @Resource
+    private ThumbSliceClock thumbSliceClock;
+
+    @Resource
+    private ThumbKeyLayout thumbKeyLayout;
+
+    @Resource
+    private ThumbScriptRegistry thumbScriptRegistry;
+
+    @Value("${thumb.sync.lease-ms:30000}")
+    private long leaseMillis;
+
+    @Value("${thumb.reconcile.page-size:1000}")
+    private int pageSize;                // 每页从数据库读取的记录数，也是每批比对的用户数
+
+    @Value("${thumb.reconcile.concurrency:4}")
+    private int concurrency;             // 同时比对的页数
+
+    @Value("${thumb.reconcile.rows-per-second:20000}")
+    private double rowsPerSecond;        // 数据库读取限流
+
+    @Value("${thumb.reconcile.settle-ms:60000}")
+    private long settleMillis;           // 发现差异后等待同步越过读取时间的最长时间，超时只记录不修复
+
+    @Value("${thumb.digest.enabled:false}")
+    private boolean digestEnabled;
 
     /**
      * 定时任务入口（每天凌晨2点执行）
      */
-    @Scheduled(cron = "0 0 2 * * ?")
+    @Scheduled(cron = "${thumb.reconcile.cron:0 0 2 * * ?}")
     public void run() {
+        reconcile();
+    }
+
+    /**
+     * 对账，多节点部署时只由一个节点执行
+     *
+     * @return 修复的差异记录数，其他节点正在对账时返回 -1
+     */
+    public long reconcile() {
+        try (ThumbSyncLeaseManager.Lease lease = leaseManager.tryAcquire("reconcile", leaseMillis)) {
+            if (lease == null) {
+                log.info("其他节点正在对账");
+                return -1;
+            }
+            // 摘要初始化完成且没有未完成的全量对账时只比对摘要
+            if (digestEnabled && loadCheckpoint() == null
+                    && Boolean.TRUE.equals(stringRedisTemplate.hasKey(ThumbConstant.DIGEST_READY_KEY))) {
+                return reconcileDigests(lease);
+            }
+            return reconcile(lease);
+        }
+    }
+
+    private long reconcile(ThumbSyncLeaseManager.Lease lease) {
         long startTime = System.currentTimeMillis();
+        RateLimiter rateLimiter = RateLimiter.create(rowsPerSecond);
+        // 两边记录不一致的用户，等待同步越过读取时间后复核
+        Set<Long> suspects = ConcurrentHashMap.newKeySet();
+        long rows = 0;
+
+        // 1. 按 (userId, blogId) 顺序遍历数据库，从检查点之后的用户开始
+        Long checkpoint = loadCheckpoint();
+        long afterUserId = checkpoint == null ? Long.MIN_VALUE : checkpoint;
+        long afterBlogId = checkpoint == null ? Long.MIN_VALUE : Long.MAX_VALUE;
+        if (checkpoint != null) {
+            log.info("从检查点继续对账: userId > {}", checkpoint);
+        }
+        List<Thumb> carry = new ArrayList<>();
+        boolean exhausted = false;
+        while (!exhausted) {
+            List<CompletableFuture<Void>> futures = new ArrayList<>(concurrency);
+            Long lastUserId = null;
+            for (int i = 0; i < Math.max(1, concurrency) && !exhausted; i++) {
+                rateLimiter.acquire(pageSize);
+                List<Thumb> page = thumbMapper.selectUserRangeAfter(Long.MIN_VALUE, Long.MAX_VALUE, afterUserId, afterBlogId, pageSize);
+                rows += page.size();
+                exhausted = page.size() < pageSize;
+                if (!page.isEmpty()) {
+                    afterUserId = page.get(page.size() - 1).getUserId();
+                    afterBlogId = page.get(page.size() - 1).getBlogId();
+                }
+                carry.addAll(page);
+
+                // 最后一个用户的记录可能延续到下一页，留到下一页一起比对
+                int split = carry.size();
+                if (!exhausted) {
+                    while (split > 0 && carry.get(split - 1).getUserId() == afterUserId) {
+                        split--;
+                    }
+                }
+                List<Thumb> ready = new ArrayList<>(carry.subList(0, split));
+                carry = new ArrayList<>(carry.subList(split, carry.size()));
+                if (ready.isEmpty()) {
+                    continue;
+                }
+                lastUserId = ready.get(ready.size() - 1).getUserId();
+                futures.add(CompletableFuture.runAsync(() -> reconcileRows(ready, suspects, rateLimiter), virtualThreadExecutor));
+            }
+            try {
+                CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+            } catch (CompletionException e) {
+                // 检查点停留在上一轮，下次从上一轮之后继续
+                throw new RuntimeException("对账失败", e.getCause());
+            }
+            if (lastUserId != null) {
+                saveCheckpoint(lastUserId);
+            }
+            if (!lease.renew()) {
+                log.warn("对账租约已丢失，下次从检查点继续");
+                return 0;
+            }
+        }
+
+        // 2. Redis 中有点赞状态但数据库中没有任何记录的用户
+        if (!reconcileUsersWithoutRows(suspects, lease, rateLimiter)) {
+            log.warn("对账租约已丢失，下次从检查点继续");
+            return 0;
+        }
+
+        // 3. 复核不一致的用户
+        long diffs = reconcileUsers(suspects, lease, rateLimiter);
+        stringRedisTemplate.delete(ThumbConstant.RECONCILE_CHECKPOINT_KEY);
+        if (digestEnabled) {
+            stringRedisTemplate.opsForValue().set(ThumbConstant.DIGEST_READY_KEY, String.valueOf(System.currentTimeMillis()));
+        }
+
+        long cost = System.currentTimeMillis() - startTime;
+        log.info("对账任务完成: 记录{}条, 不一致用户{}个, 修复差异{}条, 耗时 {}ms, 约{}条/秒",
+                rows, suspects.size(), diffs, cost, cost == 0 ? rows : rows * 1000 / cost);
+        return diffs;
+    }
+
+    /**
+     * 比对一批完整用户的数据库记录与 Redis 点赞状态，rows 按 (userId, blogId) 有序
+     * 不一致的用户加入 suspects 稍后复核；开启摘要时同时写入两边的摘要。
+     * 记录读取在数据库摘要读取之前，按记录算出的摘要与读出的摘要不一致的用户在读取摘要之后重新读取记录，
+     * 否则期间提交的批量写入已异或到摘要上、却不在记录中，比较并写入会用旧记录覆盖它
+     */
+    private void reconcileRows(List<Thumb> rows, Set<Long> suspects, RateLimiter rateLimiter) {
+        Map<Long, List<Long>> mysqlBlogIds = new LinkedHashMap<>();
+        for (Thumb thumb : rows) {
+            mysqlBlogIds.computeIfAbsent(thumb.getUserId(), k -> new ArrayList<>()).add(thumb.getBlogId());
+        }
+        List<Long> userIds = new ArrayList<>(mysqlBlogIds.keySet());
+        Map<Long, Long> mysqlDigestsBeforeRead = digestEnabled ? loadMysqlDigests(userIds) : Map.of();
+        if (digestEnabled) {
+            List<Long> changed = new ArrayList<>();
+            mysqlBlogIds.forEach((userId, blogIds) -> {
+                if (ThumbDigestUtil.digest(userId, blogIds) != mysqlDigestsBeforeRead.get(userId)) {
+                    changed.add(userId);
+                }
+            });
+            if (!changed.isEmpty()) {
+                Map<Long, List<Long>> reloaded = loadBlogIds(changed.get(0), changed.get(changed.size() - 1), rateLimiter);
+                changed.forEach(userId -> mysqlBlogIds.put(userId, reloaded.getOrDefault(userId, List.of())));
+            }
+        }
+        Map<Long, Long> redisDigestsBeforeRead = digestEnabled ? loadRedisDigests(userIds) : Map.of();
+        Map<Long, Set<Long>> redisBlogIds = userThumbStore.blogIds(mysqlBlogIds.keySet());
+        List<UserThumbDigest> mysqlDigests = new ArrayList<>();
+        Map<Long, Long> redisDigests = new HashMap<>();
+        for (Map.Entry<Long, List<Long>> entry : mysqlBlogIds.entrySet()) {
+            Long userId = entry.getKey();
+            Set<Long> redisSet = redisBlogIds.getOrDefault(userId, Set.of());
+            // 已被淘汰的用户再次访问时从数据库回填，不需要比对
+            if (redisSet.isEmpty() && userThumbStore.isEvicted(userId)) {
+                continue;
+            }
+            List<Long> redisSorted = redisSet.stream().sorted().toList();
+            if (!subtract(redisSorted, entry.getValue()).isEmpty() || !subtract(entry.getValue(), redisSorted).isEmpty()) {
+                suspects.add(userId);
+            }
+            if (digestEnabled) {
+                mysqlDigests.add(new UserThumbDigest(userId, ThumbDigestUtil.digest(userId, entry.getValue())));
+                redisDigests.put(userId, ThumbDigestUtil.digest(userId, redisSet));
+            }
+        }
+        // 摘要先于补偿事件写入，复核后的补偿事件写入数据库时再异或到摘要上
+        saveDigests(mysqlDigests, mysqlDigestsBeforeRead, redisDigests, redisDigestsBeforeRead);
+    }
+
+    /**
+     * 有序归并，返回 source 中有而 other 中没有的博客ID，两个列表都按升序排列
+     */
+    private static List<Long> subtract(List<Long> source, List<Long> other) {
+        List<Long> diff = new ArrayList<>();
+        int j = 0;
+        for (Long blogId : source) {
+            while (j < other.size() && other.get(j) < blogId) {
+                j++;
+            }
+            if (j >= other.size() || !other.get(j).equals(blogId)) {
+                diff.add(blogId);
+            }
+        }
+        return diff;
+    }
+
+    /**
+     * 用 SCAN 分批遍历 Redis 中的用户，找出数据库中没有任何点赞记录的用户，加入 suspects 稍后复核
+     *
+     * @return 租约丢失时停止遍历并返回 false
+     */
+    private boolean reconcileUsersWithoutRows(Set<Long> suspects, ThumbSyncLeaseManager.Lease lease, RateLimiter rateLimiter) {
+        Set<Long> batch = new LinkedHashSet<>();
+        boolean[] leaseLost = new boolean[1];
+        userThumbStore.scanUserIds(pageSize, userId -> {
+            if (leaseLost[0]) {
+                return;
+            }
+            batch.add(userId);
+            if (batch.size() >= pageSize) {
+                reconcileUsersWithoutRows(batch, suspects, rateLimiter);
+                batch.clear();
+                leaseLost[0] = !lease.renew();
+            }
+        });
+        if (leaseLost[0]) {
+            return false;
+        }
+        reconcileUsersWithoutRows(batch, suspects, rateLimiter);
+        return true;
+    }
 
-        // 1. 获取该分片下的所有用户ID
-        Set<Long> userIds = new HashSet<>();
-        String pattern = ThumbConstant.USER_THUMB_KEY_PREFIX + "*";
-        try (Cursor<String> cursor = redisTemplate.scan(ScanOptions.scanOptions().match(pattern).count(1000).build())) {
-            while (cursor.hasNext()) {
-                String key = cursor.next();
-                Long userId = Long.valueOf(key.replace(ThumbConstant.USER_THUMB_KEY_PREFIX, ""));
-                userIds.add(userId);
-            }
-        }
-
-        // 2. 逐用户比对
-        userIds.forEach(userId -> {
-            Set<Long> redisBlogIds = redisTemplate.opsForHash().keys(ThumbConstant.USER_THUMB_KEY_PREFIX + userId).stream().map(obj -> Long.valueOf(obj.toString())).collect(Collectors.toSet());
-            Set<Long> mysqlBlogIds = Optional.ofNullable(thumbService.lambdaQuery()
-                            .eq(Thumb::getUserId, userId)
-                            .list()
-                    ).orElse(new ArrayList<>())
-                    .stream()
-                    .map(Thumb::getBlogId)
-                    .collect(Collectors.toSet());
-
-            // 3. 计算差异（Redis有但MySQL无）
-            Set<Long> diffBlogIds = Sets.difference(redisBlogIds, mysqlBlogIds);
-
-            // 4. 发送补偿事件
-            sendCompensationEvents(userId, diffBlogIds);
+    private void reconcileUsersWithoutRows(Collection<Long> userIds, Set<Long> suspects, RateLimiter rateLimiter) {
+        if (userIds.isEmpty()) {
+            return;
+        }
+        rateLimiter.acquire(userIds.size());
+        // 数据库摘要在查询记录之前读出，期间提交的批量写入使比较并写入失败
+        Map<Long, Long> mysqlDigestsBeforeRead = digestEnabled ? loadMysqlDigests(userIds) : Map.of();
+        Set<Long> existing = new HashSet<>(thumbMapper.selectExistingUserIds(userIds));
+        List<Long> missing = userIds.stream().filter(userId -> !existing.contains(userId)).toList();
+        if (missing.isEmpty()) {
+            return;
+        }
+        Map<Long, Long> redisDigestsBeforeRead = digestEnabled ? loadRedisDigests(missing) : Map.of();
+        Map<Long, Set<Long>> redisBlogIds = userThumbStore.blogIds(missing);
+        if (digestEnabled) {
+            List<UserThumbDigest> mysqlDigests = new ArrayList<>();
+            Map<Long, Long> redisDigests = new HashMap<>();
+            redisBlogIds.forEach((userId, blogIds) -> {
+                mysqlDigests.add(new UserThumbDigest(userId, 0L));
+                redisDigests.put(userId, ThumbDigestUtil.digest(userId, blogIds));
+            });
+            saveDigests(mysqlDigests, mysqlDigestsBeforeRead, redisDigests, redisDigestsBeforeRead);
+        }
+        redisBlogIds.forEach((userId, blogIds) -> {
+            if (!blogIds.isEmpty()) {
+                suspects.add(userId);
+            }
         });
+    }
 
-        log.info("对账任务完成，耗时 {}ms", System.currentTimeMillis() - startTime);
+    /**
+     * 摘要对账：按 userId 顺序遍历数据库中的摘要与 Redis 中的摘要比对，
+     * 再用 HSCAN 找出只在 Redis 中有摘要的用户；摘要不一致的用户复核摘要后比对点赞记录
+     */
+    private long reconcileDigests(ThumbSyncLeaseManager.Lease lease) {
+        long startTime = System.currentTimeMillis();
+        RateLimiter rateLimiter = RateLimiter.create(rowsPerSecond);
+        Set<Long> suspects = new LinkedHashSet<>();
+        long users = 0;
+
+        // 1. 数据库中有摘要的用户
+        long afterUserId = Long.MIN_VALUE;
+        boolean exhausted = false;
+        while (!exhausted) {
+            rateLimiter.acquire(pageSize);
+            List<UserThumbDigest> page = userThumbDigestMapper.selectPageAfter(afterUserId, pageSize);
+            exhausted = page.size() < pageSize;
+            if (page.isEmpty()) {
+                break;
+            }
+            users += page.size();
+            afterUserId = page.get(page.size() - 1).getUserId();
+            suspects.addAll(mismatchedUsers(page));
+            if (!lease.renew()) {
+                log.warn("对账租约已丢失，下次重新比对摘要");
+                return 0;
+            }
+        }
+
+        // 2. 只在 Redis 中有摘要的用户
+        for (String digestKey : thumbKeyLayout.getUserThumbDigestKeys()) {
+            List<Long> batch = new ArrayList<>(pageSize);
+            ScanOptions options = ScanOptions.scanOptions().count(pageSize).build();
+            try (Cursor<Map.Entry<Object, Object>> cursor = stringRedisTemplate.opsForHash().scan(digestKey, options)) {
+                while (cursor.hasNext()) {
+                    Map.Entry<Object, Object> entry = cursor.next();
+                    if (!NumberUtil.isLong(entry.getKey().toString()) || toDigest(entry.getValue()) == 0L) {
+                        continue;
+                    }
+                    batch.add(Long.valueOf(entry.getKey().toString()));
+                    if (batch.size() >= pageSize) {
+                        suspects.addAll(usersWithoutDigest(batch, rateLimiter));
+                        batch.clear();
+                        if (!lease.renew()) {
+                            log.warn("对账租约已丢失，下次重新比对摘要");
+                            return 0;
+                        }
+                    }
+                }
+            }
+            suspects.addAll(usersWithoutDigest(batch, rateLimiter));
+        }
+
+        // 3. 复核并比对摘要仍不一致的用户
+        int mismatched = suspects.size();
+        long diffs = reconcileUsers(suspects, lease, rateLimiter);
+
+        log.info("摘要对账完成: 用户{}个, 摘要不一致{}个, 修复差异{}条, 耗时 {}ms",
+                users, mismatched, diffs, System.currentTimeMillis() - startTime);
+        return diffs;
+    }
+
+    /**
+     * 在一个流水线中读取 Redis 中的摘要，返回与数据库摘要不一致的用户
+     */
+    private List<Long> mismatchedUsers(List<UserThumbDigest> mysqlDigests) {
+        List<Long> userIds = mysqlDigests.stream().map(UserThumbDigest::getUserId).toList();
+        Map<Long, Long> redisDigests = loadRedisDigests(userIds);
+        List<Long> mismatched = new ArrayList<>();
+        for (UserThumbDigest digest : mysqlDigests) {
+            long mysqlDigest = digest.getDigest() == null ? 0L : digest.getDigest();
+            if (mysqlDigest != redisDigests.get(digest.getUserId())) {
+                mismatched.add(digest.getUserId());
+            }
+        }
+        return mismatched;
+    }
+
+    /**
+     * 返回数据库中没有摘要的用户，这些用户在 Redis 中的摘要不为 0
+     */
+    private List<Long> usersWithoutDigest(List<Long> userIds, RateLimiter rateLimiter) {
+        if (userIds.isEmpty()) {
+            return List.of();
+        }
+        rateLimiter.acquire(userIds.size());
+        Set<Long> existing = new HashSet<>();
+        for (UserThumbDigest digest : userThumbDigestMapper.selectByUserIds(userIds)) {
+            existing.add(digest.getUserId());
+        }
+        return userIds.stream().filter(userId -> !existing.contains(userId)).toList();
+    }
+
+    /**
+     * 分批比对用户的点赞记录，开启摘要时先复核摘要，已一致的用户跳过；
+     * 全部读取完成后等待同步越过读取时间，再重新读取不一致的用户，只修复两次读取中都存在的差异
+     */
+    private long reconcileUsers(Collection<Long> userIds, ThumbSyncLeaseManager.Lease lease, RateLimiter rateLimiter) {
+        if (userIds.isEmpty()) {
+            return 0;
+        }
+        Map<Long, Diff> suspected = new LinkedHashMap<>();
+        List<Long> ordered = new ArrayList<>(userIds);
+        for (int i = 0; i < ordered.size(); i += pageSize) {
+            List<Long> batch = ordered.subList(i, Math.min(i + pageSize, ordered.size()));
+            if (digestEnabled) {
+                rateLimiter.acquire(batch.size());
+                List<UserThumbDigest> mysqlDigests = new ArrayList<>(userThumbDigestMapper.selectByUserIds(batch));
+                Set<Long> found = new HashSet<>();
+                mysqlDigests.forEach(digest -> found.add(digest.getUserId()));
+                batch.stream().filter(userId -> !found.contains(userId))
+                        .forEach(userId -> mysqlDigests.add(new UserThumbDigest(userId, 0L)));
+                batch = mismatchedUsers(mysqlDigests);
+            }
+            suspected.putAll(diffUsers(batch, rateLimiter));
+            if (!lease.renew()) {
+                log.warn("对账租约已丢失，剩余用户下次对账时比对");
+                return 0;
+            }
+        }
+        if (suspected.isEmpty()) {
+            return 0;
+        }
+
+        // 读取时间取最后一批读取完成的时间，之前的写入都必须已同步才能判断差异
+        long readTime = System.currentTimeMillis();
+        if (!awaitSynced(readTime, lease)) {
+            suspected.forEach((userId, diff) ->
+                    log.warn("用户点赞数据不一致，同步尚未越过读取时间或租约已丢失，仅记录不修复: userId={}, Redis多出{}条, 数据库多出{}条",
+                            userId, diff.redisOnly().size(), diff.mysqlOnly().size()));
+            return 0;
+        }
+
+        long diffs = 0;
+        List<Long> divergent = new ArrayList<>(suspected.keySet());
+        for (int i = 0; i < divergent.size(); i += pageSize) {
+            List<Long> batch = divergent.subList(i, Math.min(i + pageSize, divergent.size()));
+            for (Map.Entry<Long, Diff> entry : diffUsers(batch, rateLimiter).entrySet()) {
+                Long userId = entry.getKey();
+                Diff before = suspected.get(userId);
+                // 只在第二次读取中出现的差异来自读取时间之后的写入，留给下次对账
+                List<Long> redisOnly = retain(entry.getValue().redisOnly(), before.redisOnly());
+                List<Long> mysqlOnly = retain(entry.getValue().mysqlOnly(), before.mysqlOnly());
+                if (redisOnly.isEmpty() && mysqlOnly.isEmpty()) {
+                    continue;
+                }
+                sendCompensationEvents(userId, redisOnly);
+                // 恢复时由 Lua 脚本同时更新 Redis 中的摘要
+                mysqlOnly.forEach(blogId -> userThumbStore.restore(userId, blogId));
+                log.info("修复用户点赞数据不一致: userId={}, Redis多出{}条, 数据库多出{}条", userId, redisOnly.size(), mysqlOnly.size());
+                diffs += redisOnly.size() + mysqlOnly.size();
+            }
+            if (!lease.renew()) {
+                log.warn("对账租约已丢失，剩余用户下次对账时比对");
+                break;
+            }
+        }
+        return diffs;
+    }
+
+    /**
+     * 读取一批用户的全部点赞记录并比对，返回不一致的用户及差异；
+     * 记录一致但摘要不一致时按记录重新计算两边的摘要
+     */
+    private Map<Long, Diff> diffUsers(List<Long> userIds, RateLimiter rateLimiter) {
+        if (userIds.isEmpty()) {
+            return Map.of();
+        }
+        Map<Long, Long> mysqlDigestsBeforeRead = digestEnabled ? loadMysqlDigests(userIds) : Map.of();
+        Map<Long, Long> redisDigestsBeforeRead = digestEnabled ? loadRedisDigests(userIds) : Map.of();
+        Map<Long, Set<Long>> redisBlogIds = userThumbStore.blogIds(userIds);
+        List<UserThumbDigest> mysqlDigests = new ArrayList<>();
+        Map<Long, Long> redisDigests = new HashMap<>();
+        Map<Long, Diff> diffs = new LinkedHashMap<>();
+        for (Long userId : userIds) {
+            Set<Long> redisSet = redisBlogIds.getOrDefault(userId, Set.of());
+            if (redisSet.isEmpty() && userThumbStore.isEvicted(userId)) {
+                continue;
+            }
+            List<Long> mysqlSorted = loadBlogIds(userId, rateLimiter);
+            List<Long> redisSorted = redisSet.stream().sorted().toList();
+            List<Long> redisOnly = subtract(redisSorted, mysqlSorted);
+            List<Long> mysqlOnly = subtract(mysqlSorted, redisSorted);
+            if (redisOnly.isEmpty() && mysqlOnly.isEmpty()) {
+                if (digestEnabled) {
+                    mysqlDigests.add(new UserThumbDigest(userId, ThumbDigestUtil.digest(userId, mysqlSorted)));
+                    redisDigests.put(userId, ThumbDigestUtil.digest(userId, redisSorted));
+                }
+                continue;
+            }
+            diffs.put(userId, new Diff(redisOnly, mysqlOnly));
+        }
+        saveDigests(mysqlDigests, mysqlDigestsBeforeRead, redisDigests, redisDigestsBeforeRead);
+        return diffs;
+    }
+
+    /**
+     * 有序归并，返回 source 中同时也在 other 中的博客ID，两个列表都按升序排列
+     */
+    private static List<Long> retain(List<Long> source, List<Long> other) {
+        return subtract(source, subtract(source, other));
+    }
+
+    /**
+     * 等待读取时间之前的写入都同步到数据库，等待期间续约对账租约
+     *
+     * @return 超过最长等待时间仍未同步或租约已丢失时返回 false
+     */
+    private boolean awaitSynced(long readTime, ThumbSyncLeaseManager.Lease lease) {
+        long deadline = System.currentTimeMillis() + settleMillis;
+        while (!syncedPast(readTime)) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            try {
+                Thread.sleep(Math.min(remaining, 1000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("对账中断");
+            }
+            if (!lease.renew()) {
+                log.warn("对账租约已丢失，停止等待同步");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 读取时间之前的点赞写入是否都已同步到数据库：
+     * 1. 临时点赞数据的同步水位已覆盖读取时间所在的时间片
+     * 2. 所有存活节点的点赞事件处理进度都已超过读取时间，没有节点上报进度时视为未同步
+     * 3. 各事件流分区中没有读取时间之前的未处理事件，事件 ID 使用 Redis 服务器时间，比较时留出宽限时间
+     */
+    private boolean syncedPast(long readTime) {
+        Long watermark = syncThumb2DBJob.loadWatermark();
+        if (watermark == null || watermark < thumbSliceClock.sliceOf(readTime)) {
+            return false;
+        }
+        Long position = eventProgress.clusterPosition();
+        if (position == null || position <= readTime) {
+            return false;
+        }
+        for (int partition = 0; partition < thumbKeyLayout.getThumbStreamPartitionCount(); partition++) {
+            List<MapRecord<String, Object, Object>> oldest = stringRedisTemplate.opsForStream()
+                    .range(RedisKeyUtil.getThumbStreamKey(partition), Range.unbounded(), Limit.limit().count(1));
+            if (oldest != null && !oldest.isEmpty()
+                    && oldest.get(0).getId().getTimestamp() <= readTime + eventProgress.getGraceMillis()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 按 blogId 顺序分页读取单个用户的全部点赞记录
+     */
+    private List<Long> loadBlogIds(Long userId, RateLimiter rateLimiter) {
+        return loadBlogIds(userId, userId, rateLimiter).getOrDefault(userId, List.of());
+    }
+
+    /**
+     * 按 (userId, blogId) 顺序分页读取用户区间内的全部点赞记录，没有记录的用户不在结果中
+     */
+    private Map<Long, List<Long>> loadBlogIds(Long fromUserId, Long toUserId, RateLimiter rateLimiter) {
+        Map<Long, List<Long>> blogIds = new HashMap<>();
+        long afterUserId = fromUserId;
+        long afterBlogId = Long.MIN_VALUE;
+        while (true) {
+            rateLimiter.acquire(pageSize);
+            List<Thumb> page = thumbMapper.selectUserRangeAfter(fromUserId, toUserId, afterUserId, afterBlogId, pageSize);
+            page.forEach(thumb -> blogIds.computeIfAbsent(thumb.getUserId(), k -> new ArrayList<>()).add(thumb.getBlogId()));
+            if (page.size() < pageSize) {
+                return blogIds;
+            }
+            afterUserId = page.get(page.size() - 1).getUserId();
+            afterBlogId = page.get(page.size() - 1).getBlogId();
+        }
+    }
+
+    /**
+     * 在一个流水线中读取用户在 Redis 中的摘要，没有摘要的用户为 0
+     */
+    private Map<Long, Long> loadRedisDigests(List<Long> userIds) {
+        List<Object> results = RedisPipelineUtil.executePipelined(stringRedisTemplate, userIds.stream()
+                .map(userId -> (RedisPipelineUtil.Command) connection ->
+                        connection.hGet(thumbKeyLayout.getUserThumbDigestKey(userId), userId.toString()))
+                .toList());
+        Map<Long, Long> digests = new HashMap<>();
+        for (int i = 0; i < userIds.size(); i++) {
+            digests.put(userIds.get(i), toDigest(results.get(i)));
+        }
+        return digests;
+    }
+
+    /**
+     * 读取用户在数据库中的摘要，没有摘要的用户为 0
+     */
+    private Map<Long, Long> loadMysqlDigests(Collection<Long> userIds) {
+        Map<Long, Long> digests = new HashMap<>();
+        userIds.forEach(userId -> digests.put(userId, 0L));
+        for (UserThumbDigest digest : userThumbDigestMapper.selectByUserIds(userIds)) {
+            digests.put(digest.getUserId(), digest.getDigest() == null ? 0L : digest.getDigest());
+        }
+        return digests;
+    }
+
+    /**
+     * 比较并写入两边的摘要，只覆盖仍等于读取点赞状态之前读出的摘要，之后被点赞脚本或批量写入异或过的摘要保持不变：
+     * 数据库中的摘要先为没有摘要的用户插入 0，再用一条语句按读出的值比较并写入；Redis 中的摘要在一个流水线中比较并写入
+     */
+    private void saveDigests(List<UserThumbDigest> mysqlDigests, Map<Long, Long> mysqlDigestsBeforeRead,
+                             Map<Long, Long> redisDigests, Map<Long, Long> redisDigestsBeforeRead) {
+        long skipped = 0;
+        List<UserThumbDigest> changed = mysqlDigests.stream()
+                .filter(digest -> !digest.getDigest().equals(mysqlDigestsBeforeRead.getOrDefault(digest.getUserId(), 0L)))
+                .toList();
+        if (!changed.isEmpty()) {
+            List<Long> userIds = changed.stream().map(UserThumbDigest::getUserId).toList();
+            userThumbDigestMapper.batchInsertIgnoreZero(userIds);
+            List<UserThumbDigest> expected = userIds.stream()
+                    .map(userId -> new UserThumbDigest(userId, mysqlDigestsBeforeRead.getOrDefault(userId, 0L)))
+                    .toList();
+            skipped += changed.size() - userThumbDigestMapper.batchCompareAndSetDigest(changed, expected);
+        }
+        if (!redisDigests.isEmpty()) {
+            List<ThumbScriptRegistry.ScriptCall> calls = redisDigests.entrySet().stream()
+                    .map(entry -> new ThumbScriptRegistry.ScriptCall(
+                            RedisLuaScriptConstant.USER_THUMB_DIGEST_CAS_SCRIPT,
+                            List.of(thumbKeyLayout.getUserThumbDigestKey(entry.getKey())),
+                            List.of(entry.getKey(), redisDigestsBeforeRead.getOrDefault(entry.getKey(), 0L), entry.getValue())))
+                    .toList();
+            skipped += thumbScriptRegistry.executePipelined(calls).stream()
+                    .filter(result -> result == null || result != 1L)
+                    .count();
+        }
+        if (skipped > 0) {
+            log.info("{}个摘要在读取后已变化，跳过写入，下次对账时重新比对", skipped);
+        }
+    }
+
+    private static long toDigest(Object value) {
+        return value != null && NumberUtil.isLong(value.toString()) ? Long.parseLong(value.toString()) : 0L;
+    }
+
+    private Long loadCheckpoint() {
+        String checkpoint = stringRedisTemplate.opsForValue().get(ThumbConstant.RECONCILE_CHECKPOINT_KEY);
+        return NumberUtil.isLong(checkpoint) ? Long.valueOf(checkpoint) : null;
+    }
+
+    private void saveCheckpoint(Long userId) {
+        stringRedisTemplate.opsForValue().set(ThumbConstant.RECONCILE_CHECKPOINT_KEY, userId.toString());
     }
 
     /**
      * 发送补偿事件到Pulsar
+     * 与业务请求共用事件发布器和生产者，主题、分区路由与业务事件一致，启用发件箱时与同一 key 的业务事件保持顺序
      */
-    private void sendCompensationEvents(Long userId, Set<Long> blogIds) {
+    private void sendCompensationEvents(Long userId, Collection<Long> blogIds) {
         blogIds.forEach(blogId -> {
-            ThumbEvent thumbEvent = new ThumbEvent(userId, blogId, ThumbEvent.EventType.INCR, LocalDateTime.now());
-            pulsarTemplate.sendAsync("thumb-topic", thumbEvent)
+            ThumbEvent thumbEvent = ThumbEvent.create(userId, blogId, ThumbEvent.EventType.INCR);
+            thumbEventPublisher.publish(thumbEvent)
                     .exceptionally(ex -> {
                         log.error("补偿事件发送失败: userId={}, blogId={}", userId, blogId, ex);
                         return null;
                     });
         });
     }
-}
 
+    /**
+     * 一个用户两边点赞记录的差异，两个列表都按升序排列
+     */
+    private record Diff(List<Long> redisOnly, List<Long> mysqlOnly) {
+    }
+}
@@ -0,0 +1,137 @@
+package com.yang.ratingsystem.job;
+
+import com.yang.ratingsystem.constant.RedisLuaScriptConstant;
+import com.yang.ratingsystem.constant.ThumbConstant;
+import com.yang.ratingsystem.manager.thumb.ThumbScriptRegistry;
+import com.yang.ratingsystem.manager.thumb.ThumbSyncLeaseManager;
+import com.yang.ratingsystem.manager.thumb.UserThumbStore;
+import com.yang.ratingsystem.utils.RedisKeyUtil;
+import com.yang.ratingsystem.utils.RedisScanUtil;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.DataType;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 淘汰冷用户的点赞数据
+ * 用 SCAN 遍历用户点赞 key（紧凑存储下为分桶），空闲时间超过阈值的 key 由 Lua 脚本删除并记入淘汰标记，
+ * 之后再次访问时由 {@link UserThumbStore} 从数据库回填。
+ * 空闲时间依赖 OBJECT IDLETIME，Redis 的 maxmemory-policy 为 LFU 时不可用
+ */
+@Component
+@Slf4j
+public class ThumbTieringJob {
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private UserThumbStore userThumbStore;
+
+    @Resource
+    private ThumbScriptRegistry thumbScriptRegistry;
+
+    @Resource
+    private ThumbSyncLeaseManager leaseManager;
+
+    @Value("${thumb.sync.lease-ms:30000}")
+    private long leaseMillis;
+
+    @Value("${thumb.tier.idle-seconds:604800}")
+    private long idleSeconds;            // 超过该空闲时间的 key 被淘汰
+
+    @Value("${thumb.tier.scan-count:1000}")
+    private int scanCount;               // 每次 SCAN 的数量提示，也是每个流水线的淘汰脚本数
+
+    @Scheduled(cron = "${thumb.tier.cron:0 30 3 * * *}")
+    public void run() {
+        if (!userThumbStore.isTiering()) {
+            return;
+        }
+        evict();
+    }
+
+    /**
+     * 淘汰空闲的用户点赞 key，多节点部署时只由一个节点执行
+     *
+     * @return 淘汰的 key 数，其他节点正在执行时返回 -1
+     */
+    public int evict() {
+        try (ThumbSyncLeaseManager.Lease lease = leaseManager.tryAcquire("tiering", leaseMillis)) {
+            if (lease == null) {
+                log.info("其他节点正在淘汰冷用户点赞数据");
+                return -1;
+            }
+            return evict(lease);
+        }
+    }
+
+    private int evict(ThumbSyncLeaseManager.Lease lease) {
+        long startTime = System.currentTimeMillis();
+        boolean compact = userThumbStore.isCompact();
+        List<String> batch = new ArrayList<>(scanCount);
+        long[] stats = new long[3];          // 检查的 key 数、淘汰的 key 数、淘汰的字段数
+        boolean[] leaseLost = new boolean[1];
+        ScanOptions options = ScanOptions.scanOptions()
+                .match(ThumbConstant.USER_THUMB_KEY_PREFIX + "*")
+                .type(DataType.HASH)
+                .count(scanCount)
+                .build();
+        RedisScanUtil.scanKeys(stringRedisTemplate, options, key -> {
+            if (leaseLost[0]) {
+                return;
+            }
+            // 紧凑存储下只淘汰分桶，尚未迁移的旧 key 在迁移后随分桶淘汰
+            boolean candidate = compact
+                    ? RedisKeyUtil.parseBucketFromThumbKey(key) != null
+                    : RedisKeyUtil.parseUserIdFromThumbKey(key) != null;
+            if (!candidate) {
+                return;
+            }
+            batch.add(key);
+            if (batch.size() >= scanCount) {
+                evictBatch(batch, stats);
+                leaseLost[0] = !lease.renew();
+            }
+        });
+        if (leaseLost[0]) {
+            // 其他节点已接手淘汰，剩余的 key 由对方处理
+            log.warn("冷用户点赞数据淘汰租约已丢失，停止淘汰: 已淘汰{}个 key", stats[1]);
+            return (int) stats[1];
+        }
+        evictBatch(batch, stats);
+        log.info("冷用户点赞数据淘汰完成: 检查{}个 key, 淘汰{}个 key, 字段{}个, 耗时{}ms",
+                stats[0], stats[1], stats[2], System.currentTimeMillis() - startTime);
+        return (int) stats[1];
+    }
+
+    /**
+     * 在一个流水线中对一批 key 执行淘汰脚本，空闲时间在脚本内检查
+     */
+    private void evictBatch(List<String> keys, long[] stats) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        List<ThumbScriptRegistry.ScriptCall> calls = keys.stream()
+                .map(key -> new ThumbScriptRegistry.ScriptCall(
+                        RedisLuaScriptConstant.THUMB_EVICT_SCRIPT,
+                        List.of(key, RedisKeyUtil.getEvictedMarkerKey(key)),
+                        List.of(idleSeconds)))
+                .toList();
+        List<Long> results = thumbScriptRegistry.executePipelined(calls);
+        stats[0] += keys.size();
+        for (Long fields : results) {
+            if (fields != null && fields > 0) {
+                stats[1]++;
+                stats[2] += fields;
+            }
+        }
+        keys.clear();
+    }
+}
@@ -0,0 +1,120 @@
+package com.yang.ratingsystem.listener.thumb;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * 自适应批量接收策略
+ *
+ * 根据最近批次的处理耗时和客户端预取队列中的消息数动态调整每批最大消息数、最大字节数和等待超时：
+ * 1. 预取队列中仍有消息时（负载高）扩大批次、延长等待，用少量延迟换取更少的数据库往返
+ * 2. 空闲时缩小批次、缩短等待，降低单条消息的处理延迟
+ * 3. 批次处理耗时超过预算时收缩批次，避免单批次过大拖慢确认
+ * 预取队列最多只有 receiver-queue-size 条消息，反映的是 broker 是否还在持续推送，不是订阅的积压量
+ */
+@Component
+@Slf4j
+public class AdaptiveBatchReceivePolicy {
+
+    private final ThumbMessageDashboard dashboard;
+
+    @Value("${pulsar.consumer.batch.min-messages:16}")
+    private int minMessages;
+
+    @Value("${pulsar.consumer.batch.max-messages:1000}")
+    private int maxMessagesLimit;
+
+    @Value("${pulsar.consumer.batch.min-timeout-ms:20}")
+    private long minTimeoutMs;
+
+    @Value("${pulsar.consumer.batch.max-timeout-ms:500}")
+    private long maxTimeoutMs;
+
+    @Value("${pulsar.consumer.batch.max-bytes:4194304}")
+    private long maxBytesLimit;
+
+    @Value("${pulsar.consumer.batch.latency-budget-ms:2000}")
+    private long latencyBudgetMs;
+
+    // 当前生效的批次参数
+    private volatile int maxMessages;
+    private volatile long maxBytes;
+    private volatile long timeoutMs;
+
+    // 处理耗时和消息大小的指数移动平均
+    private double avgProcessMillis;
+    private double avgMessageBytes = 256;
+
+    public AdaptiveBatchReceivePolicy(ThumbMessageDashboard dashboard) {
+        this.dashboard = dashboard;
+    }
+
+    @PostConstruct
+    public void init() {
+        maxMessages = Math.max(minMessages, Math.min(100, maxMessagesLimit));
+        timeoutMs = Math.max(minTimeoutMs, Math.min(100, maxTimeoutMs));
+        maxBytes = maxBytesLimit;
+        dashboard.recordBatchPolicy(maxMessages, maxBytes, timeoutMs);
+    }
+
+    public int getMaxMessages() {
+        return maxMessages;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    /**
+     * 一个批次处理完成后调整批次参数
+     *
+     * @param received      批次消息数
+     * @param bytes         批次字节数
+     * @param processMillis 批次从分发到全部确认的耗时
+     * @param prefetched    客户端预取队列中已到达、尚未被接收的消息数
+     */
+    public synchronized void onBatchCompleted(int received, long bytes, long processMillis, int prefetched) {
+        dashboard.recordBatch(received, bytes, processMillis);
+        dashboard.recordPrefetched(prefetched);
+        if (received <= 0) {
+            return;
+        }
+        avgProcessMillis = avgProcessMillis == 0 ? processMillis : avgProcessMillis * 0.8 + processMillis * 0.2;
+        avgMessageBytes = avgMessageBytes * 0.8 + ((double) bytes / received) * 0.2;
+
+        int nextMessages = maxMessages;
+        long nextTimeout = timeoutMs;
+        if (avgProcessMillis > latencyBudgetMs) {
+            // 数据库变慢，收缩批次，保证单批次确认延迟可控
+            nextMessages = maxMessages * 3 / 4;
+        } else if (prefetched >= maxMessages || received >= maxMessages) {
+            // 负载高：批次被填满或预取队列中还有一整批消息，扩大批次并允许多等一会儿
+            nextMessages = maxMessages * 2;
+            nextTimeout = timeoutMs * 2;
+        } else if (prefetched == 0 && received < maxMessages / 4) {
+            // 空闲：批次远未填满，缩小批次并缩短等待，降低延迟
+            nextMessages = maxMessages / 2;
+            nextTimeout = timeoutMs / 2;
+        }
+
+        nextMessages = Math.max(minMessages, Math.min(maxMessagesLimit, nextMessages));
+        nextTimeout = Math.max(minTimeoutMs, Math.min(maxTimeoutMs, nextTimeout));
+        long nextBytes = Math.max(64 * 1024L, Math.min(maxBytesLimit, (long) (nextMessages * avgMessageBytes * 2)));
+
+        if (nextMessages != maxMessages || nextTimeout != timeoutMs || nextBytes != maxBytes) {
+            log.debug("调整批量接收参数: maxMessages {} -> {}, timeoutMs {} -> {}, maxBytes {} -> {}, avgProcessMillis={}, prefetched={}",
+                    maxMessages, nextMessages, timeoutMs, nextTimeout, maxBytes, nextBytes,
+                    String.format("%.1f", avgProcessMillis), prefetched);
+            maxMessages = nextMessages;
+            timeoutMs = nextTimeout;
+            maxBytes = nextBytes;
+            dashboard.recordBatchPolicy(maxMessages, maxBytes, timeoutMs);
+        }
+    }
+}
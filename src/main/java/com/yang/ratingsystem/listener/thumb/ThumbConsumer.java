@@ -1,28 +1,26 @@
 package com.yang.ratingsystem.listener.thumb;
 
-import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
-import com.yang.ratingsystem.filter.BloomFilterService;
 import com.yang.ratingsystem.listener.thumb.msg.ThumbEvent;
-import com.yang.ratingsystem.mapper.BlogMapper;
-import com.yang.ratingsystem.model.Thumb;
-import com.yang.ratingsystem.service.ThumbService;
+import com.yang.ratingsystem.listener.thumb.msg.ThumbEventSchema;
+import com.yang.ratingsystem.manager.thumb.ThumbBatchWriter;
+import com.yang.ratingsystem.manager.thumb.ThumbEventProgress;
+import com.yang.ratingsystem.manager.thumb.ThumbProcessedEventStore;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.pulsar.client.api.*;
 import org.apache.pulsar.client.impl.MultiplierRedeliveryBackoff;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.TransientDataAccessException;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Propagation;
-import org.springframework.transaction.annotation.Transactional;
-import org.springframework.context.annotation.Lazy;
+import org.springframework.transaction.TransactionException;
 
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
@@ -34,39 +32,82 @@ import cn.hutool.core.lang.Pair;
  * 负责从Pulsar消息队列中消费点赞事件消息，并异步处理
  * 使用虚拟线程技术提高消息处理的并发能力和资源利用率
  * 实现了消息的批量处理、重试机制和死信队列处理
+ *
+ * 接收、处理、确认流水线化：接收线程只负责拉取批次并按 blogId 分发到处理通道，
+ * 处理通道串行执行数据库操作并异步确认，多个批次可以同时在途。
+ * 各通道跨批次合并事件后按时间间隔或条数阈值落库，热门博客的点赞数更新次数与批次数解耦。
+ * 落库前按事件ID过滤已处理过的事件，重投的消息直接确认，不再访问数据库。
+ * 已接收未确认的消息由点赞事件处理进度跟踪，否定确认的消息保留到最长重投延迟之后
  */
 @Service
 @Slf4j
 public class ThumbConsumer {
 
-    private final BlogMapper blogMapper;
-    private final ThumbService thumbService;
+    private static final long NACK_MAX_DELAY_MS = 60_000; // 否定确认后的最长重投延迟
+
+    private final ThumbBatchWriter thumbBatchWriter;     // 点赞记录批量写入器
     private final PulsarClient pulsarClient;
     private final ThumbMessageRetryTracker retryTracker; // 消息重试跟踪器
     private final ThumbMessageDashboard dashboard;       // 消息处理仪表盘
-    private final BloomFilterService bloomFilterService; // 布隆过滤器服务
+    private final AdaptiveBatchReceivePolicy batchPolicy; // 自适应批量接收策略
+    private final ThumbProcessedEventStore processedEventStore; // 已处理事件ID存储
+    private final ThumbEventProgress eventProgress;      // 点赞事件处理进度
+    private final ThumbConsumerLanes lanes;              // 处理通道，每个通道串行处理
+    private final ExecutorService virtualThreadExecutor; // 运行接收循环
     
     @Value("${pulsar.topic:thumb-topic}")
     private String thumbTopic;
     
     @Value("${pulsar.max-retry-attempts:3}")
     private int maxRetryAttempts;
+
+    @Value("${pulsar.consumer.subscription-type:Shared}")
+    private SubscriptionType subscriptionType; // Shared 或 Key_Shared，多节点部署时使用 Key_Shared
+
+    @Value("${pulsar.consumer.max-in-flight-batches:4}")
+    private int maxInFlightBatches;      // 同时在途（已接收未确认）的最大批次数
+
+    @Value("${pulsar.consumer.coalesce.flush-interval-ms:200}")
+    private long coalesceIntervalMs;     // 合并缓冲区刷新间隔，<=0 表示不跨批次合并
+
+    @Value("${pulsar.consumer.coalesce.max-messages:2000}")
+    private int coalesceMaxMessages;     // 合并缓冲区达到该条数时立即刷新
+
+    @Value("${pulsar.consumer.max-bisect-depth:8}")
+    private int maxBisectDepth;          // 失败批次二分隔离的最大深度
+
+    @Value("${pulsar.consumer.receiver-queue-size:1000}")
+    private int receiverQueueSize;       // 客户端预取队列大小
     
     private Consumer<ThumbEvent> consumer;
+
+    private Semaphore inFlightBatches;
+
+    private LaneBuffer[] laneBuffers;
+
+    private volatile boolean running = true;
+
+    private long drainedAt;              // 最近一次取空预取队列的接收开始时间，只由接收线程访问
     
     public ThumbConsumer(
-            BlogMapper blogMapper,
-            ThumbService thumbService,
+            ThumbBatchWriter thumbBatchWriter,
             PulsarClient pulsarClient,
             ThumbMessageRetryTracker retryTracker,
             ThumbMessageDashboard dashboard,
-            @Lazy BloomFilterService bloomFilterService) {
-        this.blogMapper = blogMapper;
-        this.thumbService = thumbService;
+            AdaptiveBatchReceivePolicy batchPolicy,
+            ThumbProcessedEventStore processedEventStore,
+            ThumbEventProgress eventProgress,
+            ThumbConsumerLanes lanes,
+            ExecutorService virtualThreadExecutor) {
+        this.thumbBatchWriter = thumbBatchWriter;
         this.pulsarClient = pulsarClient;
         this.retryTracker = retryTracker;
         this.dashboard = dashboard;
-        this.bloomFilterService = bloomFilterService;
+        this.batchPolicy = batchPolicy;
+        this.processedEventStore = processedEventStore;
+        this.eventProgress = eventProgress;
+        this.lanes = lanes;
+        this.virtualThreadExecutor = virtualThreadExecutor;
     }
     
     /**
@@ -77,10 +118,10 @@ public class ThumbConsumer {
     public void init() {
         try {
             // 创建消费者，配置消息处理参数
-            consumer = pulsarClient.newConsumer(Schema.JSON(ThumbEvent.class))
+            ConsumerBuilder<ThumbEvent> builder = pulsarClient.newConsumer(ThumbEventSchema.INSTANCE)
                     .topic(thumbTopic)
                     .subscriptionName("thumb-subscription")
-                    .subscriptionType(SubscriptionType.Shared)         // 共享订阅，支持多消费者负载均衡
+                    .subscriptionType(subscriptionType)                // Shared 或 Key_Shared，支持多消费者负载均衡，同一订阅的所有消费者须使用相同类型
                     .subscriptionInitialPosition(SubscriptionInitialPosition.Latest) // 从最新消息开始消费
                     .negativeAckRedeliveryDelay(2, TimeUnit.SECONDS)   // 否定确认后消息重新投递延迟
                     .acknowledgmentGroupTime(0, TimeUnit.MILLISECONDS) // 立即确认，不分组
@@ -90,7 +131,7 @@ public class ThumbConsumer {
                             .build())
                     .negativeAckRedeliveryBackoff(MultiplierRedeliveryBackoff.builder() // 指数退避重试策略
                             .minDelayMs(1000)
-                            .maxDelayMs(60000)
+                            .maxDelayMs(NACK_MAX_DELAY_MS)
                             .multiplier(2)
                             .build())
                     .ackTimeoutRedeliveryBackoff(MultiplierRedeliveryBackoff.builder()
@@ -98,141 +139,456 @@ public class ThumbConsumer {
                             .maxDelayMs(300_000)
                             .multiplier(3)
                             .build())
-                    .receiverQueueSize(1000)
-                    .subscribe();
-            
-            // 启动消息处理线程
-            new Thread(this::receiveMessages).start();
-            log.info("点赞消息消费者初始化成功，订阅主题: {}", thumbTopic);
+                    .receiverQueueSize(receiverQueueSize);
+            if (subscriptionType == SubscriptionType.Key_Shared) {
+                // 按消息 key（userId:blogId）分配消费者，同一用户对同一博客的事件只会投递到一个消费者且保持顺序
+                builder.keySharedPolicy(KeySharedPolicy.autoSplitHashRange());
+            }
+            start(builder.subscribe());
+
+            // 启动消息接收循环
+            virtualThreadExecutor.execute(this::receiveMessages);
+            log.info("点赞消息消费者初始化成功，订阅主题: {}, 订阅模式: {}", thumbTopic, subscriptionType);
         } catch (PulsarClientException e) {
             log.error("初始化点赞消息消费者失败", e);
         }
     }
     
     /**
-     * 持续接收并处理消息的主循环
-     * 使用批量接收提高处理效率
+     * 绑定消费者并初始化各通道的合并缓冲区和定时刷新，不启动接收循环
+     */
+    void start(Consumer<ThumbEvent> consumer) {
+        this.consumer = consumer;
+        inFlightBatches = new Semaphore(Math.max(1, maxInFlightBatches));
+        laneBuffers = new LaneBuffer[lanes.size()];
+        for (int i = 0; i < laneBuffers.length; i++) {
+            laneBuffers[i] = new LaneBuffer();
+        }
+        if (coalesceIntervalMs > 0) {
+            lanes.scheduleAtFixedRate(this::flushDueLanes, Math.max(1, coalesceIntervalMs / 2));
+        }
+    }
+
+    /**
+     * 持续接收消息的主循环
+     * 接收、处理、确认三个阶段流水线化：当前批次交给处理通道后立即接收下一批，
+     * 同时在途批次数受信号量限制，避免消息在内存中无限堆积。
+     * 每批的大小和等待时间由自适应批量接收策略根据处理耗时和预取队列中的消息数动态调整
      */
     private void receiveMessages() {
-        while (!Thread.currentThread().isInterrupted() && consumer != null) {
+        while (running && !Thread.currentThread().isInterrupted() && consumer != null) {
             try {
-                // 批量接收消息
-                Messages<ThumbEvent> messages = consumer.batchReceive();
-                if (messages != null) {
-                    List<MessageId> messageIds = new ArrayList<>();
-                    List<ThumbEvent> events = new ArrayList<>();
-                    Map<MessageId, Message<ThumbEvent>> messageMap = new HashMap<>();
-                    
-                    // 收集消息并准备处理
-                    messages.forEach(msg -> {
-                        ThumbEvent event = msg.getValue();
-                        if (event != null) {
-                            // 获取重试次数
-                            Integer redeliveryCount = getRedeliveryCount(msg);
-                            
-                            // 跟踪消息处理状态
-                            retryTracker.trackMessageProcessing(
-                                    msg.getMessageId(),
-                                    String.format("userId=%s, blogId=%s, type=%s, retryCount=%d",
-                                            event.getUserId(), event.getBlogId(), event.getType(), redeliveryCount)
-                            );
-                            
-                            // 记录消息处理
-                            dashboard.recordMessageProcessed();
-                            
-                            events.add(event);
-                            messageIds.add(msg.getMessageId());
-                            messageMap.put(msg.getMessageId(), msg);
-                        }
+                // 先获取在途批次许可，处理通道繁忙时在此阻塞，形成背压
+                if (!inFlightBatches.tryAcquire()) {
+                    // 在途批次已满，让各通道立即落库缓冲中的消息以释放许可
+                    requestFlushAll();
+                    inFlightBatches.acquire();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            boolean dispatched = false;
+            try {
+                List<Message<ThumbEvent>> messages = receiveBatch();
+                if (!messages.isEmpty()) {
+                    long bytes = messages.stream().mapToLong(Message::size).sum();
+                    long startTime = System.currentTimeMillis();
+                    dispatchBatch(messages).whenComplete((v, ex) -> {
+                        inFlightBatches.release();
+                        batchPolicy.onBatchCompleted(messages.size(), bytes,
+                                System.currentTimeMillis() - startTime, prefetchedMessages());
                     });
-                    
-                    if (!events.isEmpty()) {
-                        // 创建虚拟线程执行器处理消息批次
-                        // 相比传统线程池，虚拟线程资源占用极小，适合大量并发IO操作
-                        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
-                        try {
-                            // 在虚拟线程中异步处理消息批次，但同步等待结果
-                            Future<Boolean> future = executor.submit(() -> {
-                                try {
-                                    // 处理消息批次，包含数据库操作
-                                    processBatch(events);
-                                    return true;
-                                } catch (Exception e) {
-                                    log.error("虚拟线程处理消息批次失败", e);
-                                    return false;
-                                }
-                            });
-
-                            // 获取处理结果，设置超时避免无限等待
-                            boolean success = future.get(30, TimeUnit.SECONDS);
-                            
-                            if (success) {
-                                // 处理成功，确认所有消息
-                                consumer.acknowledge(messageIds);
-                                
-                                // 记录处理成功
-                                for (MessageId messageId : messageIds) {
-                                    retryTracker.trackMessageSuccess(messageId);
-                                    dashboard.recordMessageSuccess();
-                                }
-                                
-                                log.info("成功处理并确认{}条消息", messageIds.size());
-                            } else {
-                                throw new Exception("消息处理失败");
-                            }
-                        } catch (Exception e) {
-                            log.error("处理消息批次失败，进行否定确认，稍后重试", e);
-                            
-                            // 处理失败时，进行否定确认，Pulsar会在稍后重新投递消息
-                            for (MessageId messageId : messageIds) {
-                                Message<ThumbEvent> msg = messageMap.get(messageId);
-                                Integer redeliveryCount = getRedeliveryCount(msg);
-                                
-                                // 记录重试信息
-                                retryTracker.trackMessageRetry(messageId, e);
-                                dashboard.recordMessageRetry();
-                                
-                                // 如果即将达到最大重试次数，记录即将进入死信队列
-                                if (redeliveryCount >= maxRetryAttempts - 1) {
-                                    retryTracker.trackMessageDeadLetter(messageId);
-                                    dashboard.recordMessageDeadLetter();
-                                    log.warn("消息即将进入死信队列: messageId={}, redeliveryCount={}", 
-                                            messageId, redeliveryCount);
-                                }
-                                
-                                consumer.negativeAcknowledge(messageId);
-                            }
-                        } finally {
-                            // 关闭执行器，确保资源释放
-                            executor.shutdown();
-                            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
-                                log.warn("执行器未能在超时时间内完全关闭");
-                                executor.shutdownNow();
-                            }
-                        }
-                    }
+                    dispatched = true;
                 }
+                // 本批消息已开始跟踪后再推进取空时间
+                eventProgress.markDrained(drainedAt);
             } catch (PulsarClientException e) {
-                log.error("接收消息异常", e);
-                try {
-                    // 等待一段时间后重试
-                    Thread.sleep(1000);
-                } catch (InterruptedException ie) {
-                    Thread.currentThread().interrupt();
+                if (e instanceof PulsarClientException.AlreadyClosedException) {
                     break;
                 }
+                log.error("接收消息异常", e);
+                sleepQuietly(1000);
             } catch (Exception e) {
                 log.error("处理消息过程中发生未预期的异常", e);
-                try {
-                    Thread.sleep(1000);
-                } catch (InterruptedException ie) {
-                    Thread.currentThread().interrupt();
-                    break;
+                sleepQuietly(1000);
+            } finally {
+                if (!dispatched) {
+                    inFlightBatches.release();
                 }
             }
         }
     }
-    
+
+    /**
+     * 按当前策略接收一个批次
+     * 达到最大消息数、最大字节数或等待超时时返回，超时时可能返回空列表
+     */
+    private List<Message<ThumbEvent>> receiveBatch() throws PulsarClientException {
+        int maxMessages = batchPolicy.getMaxMessages();
+        long maxBytes = batchPolicy.getMaxBytes();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(batchPolicy.getTimeoutMs());
+        List<Message<ThumbEvent>> messages = new ArrayList<>(maxMessages);
+        long bytes = 0;
+        while (messages.size() < maxMessages && bytes < maxBytes) {
+            long remainingMicros = TimeUnit.NANOSECONDS.toMicros(deadline - System.nanoTime());
+            if (remainingMicros <= 0) {
+                break;
+            }
+            long receiveStart = System.currentTimeMillis();
+            Message<ThumbEvent> msg = consumer.receive((int) Math.min(Integer.MAX_VALUE, remainingMicros), TimeUnit.MICROSECONDS);
+            if (msg == null) {
+                drainedAt = receiveStart;
+                break;
+            }
+            messages.add(msg);
+            bytes += msg.size();
+        }
+        return messages;
+    }
+
+    /**
+     * 已预取到客户端队列、尚未被接收的消息数，最多为 receiver-queue-size，不是订阅的积压量
+     */
+    private int prefetchedMessages() {
+        Integer queued = consumer.getStats().getMsgNumInReceiverQueue();
+        return queued == null ? 0 : queued;
+    }
+
+    /**
+     * 将一个批次按 blogId 拆分到各处理通道
+     * 同一 blogId 的事件总是进入同一通道，通道内串行执行，
+     * 因此同一 (userId, blogId) 的事件在并发批次之间也保持顺序，且不同通道不会争抢同一行 blog 记录
+     *
+     * @return 所有通道处理完成（已确认或已否定确认）时完成的 Future
+     */
+    CompletableFuture<Void> dispatchBatch(List<Message<ThumbEvent>> messages) {
+        Map<Integer, List<Message<ThumbEvent>>> laneMessages = new LinkedHashMap<>();
+        List<MessageId> emptyMessageIds = new ArrayList<>();
+        messages.forEach(msg -> {
+            ThumbEvent event;
+            try {
+                event = msg.getValue();
+            } catch (SchemaSerializationException e) {
+                // 无法识别的格式版本（例如滚动升级期间新版本生产者的消息），重投后由其他消费者处理或进入死信队列
+                log.warn("点赞消息解码失败，否定确认: messageId={}", msg.getMessageId(), e);
+                consumer.negativeAcknowledge(msg.getMessageId());
+                return;
+            }
+            if (event == null) {
+                // 无法解析的消息直接确认，避免一直滞留在订阅中
+                emptyMessageIds.add(msg.getMessageId());
+                return;
+            }
+            eventProgress.begin(msg.getMessageId(), event);
+
+            // 获取重试次数
+            Integer redeliveryCount = getRedeliveryCount(msg);
+
+            // 跟踪消息处理状态
+            retryTracker.trackMessageProcessing(
+                    msg.getMessageId(),
+                    String.format("userId=%s, blogId=%s, type=%s, retryCount=%d",
+                            event.getUserId(), event.getBlogId(), event.getType(), redeliveryCount)
+            );
+
+            // 记录消息处理
+            dashboard.recordMessageProcessed();
+
+            laneMessages.computeIfAbsent(laneOf(event), k -> new ArrayList<>()).add(msg);
+        });
+        if (!emptyMessageIds.isEmpty()) {
+            consumer.acknowledgeAsync(emptyMessageIds);
+        }
+
+        CompletableFuture<?>[] futures = laneMessages.entrySet().stream()
+                .map(entry -> bufferLane(entry.getKey(), entry.getValue()))
+                .toArray(CompletableFuture[]::new);
+        return CompletableFuture.allOf(futures);
+    }
+
+    /**
+     * 将消息追加到通道的合并缓冲区
+     * 缓冲区跨批次合并同一 key 的事件和同一博客的点赞数增量，达到条数阈值或时间间隔后统一落库，
+     * 热门博客在一个刷新周期内只更新一次 blog 行；消息在所属刷新提交后才确认
+     *
+     * @return 消息所在的刷新完成（已确认或已否定确认）时完成的 Future
+     */
+    private CompletableFuture<Void> bufferLane(int lane, List<Message<ThumbEvent>> messages) {
+        CompletableFuture<Void> flushed = new CompletableFuture<>();
+        try {
+            lanes.execute(lane, () -> {
+                LaneBuffer buffer = laneBuffers[lane];
+                if (buffer.messages.isEmpty()) {
+                    buffer.firstAppendMillis = System.currentTimeMillis();
+                }
+                buffer.messages.addAll(messages);
+                buffer.waiters.add(flushed);
+                if (coalesceIntervalMs <= 0 || buffer.messages.size() >= coalesceMaxMessages) {
+                    flushLane(lane);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 消费者正在关闭，消息不确认，稍后由 Pulsar 重新投递
+            eventProgress.linger(messages.stream().map(Message::getMessageId).toList(), redeliveryGraceMillis());
+            flushed.completeExceptionally(e);
+        }
+        return flushed;
+    }
+
+    /**
+     * 在通道线程内落库缓冲区中的全部消息，并通知等待的批次
+     */
+    private void flushLane(int lane) {
+        LaneBuffer buffer = laneBuffers[lane];
+        if (buffer.messages.isEmpty()) {
+            return;
+        }
+        List<Message<ThumbEvent>> messages = new ArrayList<>(buffer.messages);
+        List<CompletableFuture<Void>> waiters = new ArrayList<>(buffer.waiters);
+        buffer.messages.clear();
+        buffer.waiters.clear();
+        try {
+            List<Message<ThumbEvent>> pending = skipProcessed(messages);
+            if (!pending.isEmpty()) {
+                processLane(pending);
+            }
+        } finally {
+            waiters.forEach(waiter -> waiter.complete(null));
+        }
+    }
+
+    /**
+     * 过滤已处理过的事件并直接确认
+     * 包括已记录在已处理事件ID存储中的事件，以及本次刷新内重复投递的同一事件；
+     * 没有事件ID的旧消息照常处理
+     *
+     * @return 仍需落库的消息
+     */
+    private List<Message<ThumbEvent>> skipProcessed(List<Message<ThumbEvent>> messages) {
+        List<Long> eventIds = messages.stream()
+                .map(msg -> msg.getValue().getEventId())
+                .filter(Objects::nonNull)
+                .distinct()
+                .toList();
+        Set<Long> processed = processedEventStore.findProcessed(eventIds);
+
+        Set<Long> seen = new HashSet<>();
+        List<Message<ThumbEvent>> pending = new ArrayList<>(messages.size());
+        List<MessageId> skippedIds = new ArrayList<>();
+        for (Message<ThumbEvent> msg : messages) {
+            Long eventId = msg.getValue().getEventId();
+            if (eventId != null && (processed.contains(eventId) || !seen.add(eventId))) {
+                skippedIds.add(msg.getMessageId());
+            } else {
+                pending.add(msg);
+            }
+        }
+        if (skippedIds.isEmpty()) {
+            return pending;
+        }
+
+        dashboard.recordDuplicateSkipped(skippedIds.size());
+        consumer.acknowledgeAsync(skippedIds).whenComplete((v, ex) -> {
+            if (ex != null) {
+                eventProgress.linger(skippedIds, redeliveryGraceMillis());
+                log.warn("确认重复消息失败，消息可能被重新投递: count={}", skippedIds.size(), ex);
+                return;
+            }
+            eventProgress.end(skippedIds);
+            for (MessageId messageId : skippedIds) {
+                retryTracker.trackMessageSuccess(messageId);
+                dashboard.recordMessageSuccess();
+            }
+            log.info("跳过已处理的重复消息{}条", skippedIds.size());
+        });
+        return pending;
+    }
+
+    /**
+     * 定时检查各通道缓冲区，超过刷新间隔的立即落库
+     */
+    private void flushDueLanes() {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < lanes.size(); i++) {
+            final int lane = i;
+            submitToLane(lane, () -> {
+                LaneBuffer buffer = laneBuffers[lane];
+                if (!buffer.messages.isEmpty() && now - buffer.firstAppendMillis >= coalesceIntervalMs) {
+                    flushLane(lane);
+                }
+            });
+        }
+    }
+
+    /**
+     * 请求所有通道立即落库缓冲区
+     */
+    private void requestFlushAll() {
+        for (int i = 0; i < lanes.size(); i++) {
+            final int lane = i;
+            submitToLane(lane, () -> flushLane(lane));
+        }
+    }
+
+    private void submitToLane(int lane, Runnable task) {
+        try {
+            lanes.execute(lane, task);
+        } catch (RejectedExecutionException e) {
+            log.debug("处理通道已关闭，忽略任务: lane={}", lane);
+        }
+    }
+
+    /**
+     * 在处理通道内处理一组消息
+     * 整组失败时按 (userId, blogId) 分组二分重试：能成功的部分正常提交并确认，
+     * 只对最终定位到的最小失败集合进行否定确认，避免一条毒消息拖累整批消息重投
+     */
+    private void processLane(List<Message<ThumbEvent>> laneMessages) {
+        List<List<Message<ThumbEvent>>> keyGroups = groupByKey(laneMessages);
+        List<Message<ThumbEvent>> failed = new ArrayList<>();
+        AtomicReference<Exception> lastError = new AtomicReference<>();
+        int depth = commitIsolated(keyGroups, 0, failed, lastError);
+
+        if (!failed.isEmpty()) {
+            log.error("处理消息批次失败，隔离深度={}, 失败{}条/共{}条，仅对失败消息进行否定确认",
+                    depth, failed.size(), laneMessages.size(), lastError.get());
+            negativeAcknowledge(failed, lastError.get());
+        }
+        if (depth > 0) {
+            dashboard.recordIsolation(depth, laneMessages.size(), failed.size());
+        }
+
+        Set<Message<ThumbEvent>> failedSet = Collections.newSetFromMap(new IdentityHashMap<>());
+        failedSet.addAll(failed);
+        List<Message<ThumbEvent>> succeeded = laneMessages.stream()
+                .filter(msg -> !failedSet.contains(msg))
+                .toList();
+        if (succeeded.isEmpty()) {
+            return;
+        }
+
+        // 事务已提交，先记录事件ID再确认，确认丢失导致的重投可以直接跳过
+        processedEventStore.markProcessed(succeeded.stream()
+                .map(msg -> msg.getValue().getEventId())
+                .filter(Objects::nonNull)
+                .toList());
+        List<MessageId> messageIds = succeeded.stream().map(Message::getMessageId).toList();
+
+        // 处理成功，异步确认，不阻塞通道处理下一组消息
+        consumer.acknowledgeAsync(messageIds).whenComplete((v, ex) -> {
+            if (ex != null) {
+                eventProgress.linger(messageIds, redeliveryGraceMillis());
+                log.warn("异步确认消息失败，消息可能被重新投递: count={}", messageIds.size(), ex);
+                return;
+            }
+            eventProgress.end(messageIds);
+            // 记录处理成功
+            for (MessageId messageId : messageIds) {
+                retryTracker.trackMessageSuccess(messageId);
+                dashboard.recordMessageSuccess();
+            }
+            log.info("成功处理并确认{}条消息", messageIds.size());
+        });
+    }
+
+    /**
+     * 提交一组 key 分组，失败时二分后分别提交
+     * 二分以 (userId, blogId) 分组为最小单位，保证同一 key 的事件始终在同一次处理中完成奇偶抵消
+     *
+     * @param failed    最终失败的消息
+     * @param lastError 最近一次失败的异常
+     * @return 本次提交达到的最大二分深度
+     */
+    private int commitIsolated(List<List<Message<ThumbEvent>>> keyGroups, int depth,
+                               List<Message<ThumbEvent>> failed, AtomicReference<Exception> lastError) {
+        List<ThumbEvent> events = new ArrayList<>();
+        keyGroups.forEach(group -> group.forEach(msg -> events.add(msg.getValue())));
+        try {
+            // 处理消息批次，包含数据库操作
+            processBatch(events);
+            return depth;
+        } catch (Exception e) {
+            lastError.set(e);
+            // 数据库不可用等整体性故障与消息内容无关，继续二分只会放大数据库压力
+            if (keyGroups.size() == 1 || depth >= maxBisectDepth || isSystemicFailure(e)) {
+                keyGroups.forEach(failed::addAll);
+                return depth;
+            }
+            int mid = keyGroups.size() / 2;
+            int leftDepth = commitIsolated(keyGroups.subList(0, mid), depth + 1, failed, lastError);
+            int rightDepth = commitIsolated(keyGroups.subList(mid, keyGroups.size()), depth + 1, failed, lastError);
+            return Math.max(leftDepth, rightDepth);
+        }
+    }
+
+    /**
+     * 按 (userId, blogId) 分组，保持消息到达顺序
+     */
+    private List<List<Message<ThumbEvent>>> groupByKey(List<Message<ThumbEvent>> messages) {
+        Map<Pair<Long, Long>, List<Message<ThumbEvent>>> groups = new LinkedHashMap<>();
+        for (Message<ThumbEvent> msg : messages) {
+            ThumbEvent event = msg.getValue();
+            groups.computeIfAbsent(Pair.of(event.getUserId(), event.getBlogId()), k -> new ArrayList<>()).add(msg);
+        }
+        return new ArrayList<>(groups.values());
+    }
+
+    /**
+     * 是否为与具体消息无关的整体性故障（连接失败、临时不可用等）
+     */
+    private boolean isSystemicFailure(Exception e) {
+        return e instanceof DataAccessResourceFailureException
+                || e instanceof TransientDataAccessException
+                || e instanceof TransactionException;
+    }
+
+    /**
+     * 否定确认一组消息，Pulsar会在稍后重新投递
+     */
+    private void negativeAcknowledge(List<Message<ThumbEvent>> failedMessages, Exception e) {
+        for (Message<ThumbEvent> msg : failedMessages) {
+            MessageId messageId = msg.getMessageId();
+            Integer redeliveryCount = getRedeliveryCount(msg);
+
+            // 记录重试信息
+            retryTracker.trackMessageRetry(messageId, e);
+            dashboard.recordMessageRetry();
+
+            // 如果即将达到最大重试次数，记录即将进入死信队列
+            if (redeliveryCount >= maxRetryAttempts - 1) {
+                retryTracker.trackMessageDeadLetter(messageId);
+                dashboard.recordMessageDeadLetter();
+                log.warn("消息即将进入死信队列: messageId={}, redeliveryCount={}",
+                        messageId, redeliveryCount);
+            }
+
+            consumer.negativeAcknowledge(messageId);
+        }
+        // 等待重投期间没有节点接收这些消息，继续跟踪到最长重投延迟之后
+        eventProgress.linger(failedMessages.stream().map(Message::getMessageId).toList(), redeliveryGraceMillis());
+    }
+
+    private long redeliveryGraceMillis() {
+        return NACK_MAX_DELAY_MS + eventProgress.getGraceMillis();
+    }
+
+    /**
+     * 计算事件所属的处理通道
+     * 通道即每个消费者内部的按 key 串行执行器：同一 blogId（因而同一 userId:blogId）始终落在同一通道
+     */
+    private int laneOf(ThumbEvent event) {
+        return Math.floorMod(Objects.hashCode(event.getBlogId()), lanes.size());
+    }
+
+    private void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     /**
      * 获取消息重试次数
      */
@@ -259,6 +615,12 @@ public class ThumbConsumer {
     
     @PreDestroy
     public void destroy() {
+        running = false;
+        if (laneBuffers != null) {
+            // 先落库并确认缓冲区中的消息，再关闭消费者
+            requestFlushAll();
+            lanes.shutdown();
+        }
         try {
             if (consumer != null) {
                 consumer.close();
@@ -268,170 +630,62 @@ public class ThumbConsumer {
         }
     }
 
-    @Transactional(rollbackFor = Exception.class)
+    /**
+     * 处理一组点赞事件
+     * 同一 (userId, blogId) 的事件按时间排序，偶数个事件相互抵消，奇数个以最后一个为准，
+     * 最终结果交给批量写入器以集合方式写入数据库
+     */
     public void processBatch(List<ThumbEvent> events) {
         if (events == null || events.isEmpty()) {
             return;
         }
         
         log.info("处理点赞消息批次: 数量={}", events.size());
-        Map<Long, Long> countMap = new ConcurrentHashMap<>();
-        List<Thumb> thumbsToInsert = new ArrayList<>();
-        LambdaQueryWrapper<Thumb> wrapper = new LambdaQueryWrapper<>();
-        AtomicReference<Boolean> needRemove = new AtomicReference<>(false);
 
         // 按(userId, blogId)分组，并获取每个分组的最新事件
-        Map<Pair<Long, Long>, ThumbEvent> latestEvents = events.stream()
+        Map<Pair<Long, Long>, Optional<ThumbEvent>> latestEvents = events.stream()
                 .collect(Collectors.groupingBy(
                         e -> Pair.of(e.getUserId(), e.getBlogId()),
                         Collectors.collectingAndThen(
                                 Collectors.toList(),
                                 list -> {
-                                    // 按时间升序排序，取最后一个作为最新事件
-                                    list.sort(Comparator.comparing(ThumbEvent::getEventTime));
+                                    // 按时间升序排序，时间相同时按生产者序号排序，取最后一个作为最新事件；
+                                    // 序号只在同一生产节点内有意义，不同节点同一毫秒内的两个事件按序号排出的先后不代表真实顺序
+                                    list.sort(Comparator.comparing(ThumbEvent::getEventTime)
+                                            .thenComparing(ThumbEvent::getSequence,
+                                                    Comparator.nullsFirst(Comparator.naturalOrder())));
                                     if (list.size() % 2 == 0) {
-                                        return null;
+                                        return Optional.empty();
                                     }
-                                    return list.get(list.size() - 1);
+                                    return Optional.of(list.get(list.size() - 1));
                                 }
                         )
                 ));
 
-        // 收集所有要增加的点赞(userId, blogId)对
-        Set<Pair<Long, Long>> potentialInserts = new HashSet<>();
+        // 收集最终需要点赞 / 取消点赞的(userId, blogId)对
+        List<Pair<Long, Long>> inserts = new ArrayList<>();
+        List<Pair<Long, Long>> deletes = new ArrayList<>();
         latestEvents.forEach((userBlogPair, event) -> {
-            if (event == null) {
+            if (event.isEmpty()) {
                 return;
             }
-            if (event.getType() == ThumbEvent.EventType.INCR) {
-                potentialInserts.add(userBlogPair);
-            }
-        });
-        
-        // 如果有要增加的点赞，先查询数据库检查哪些记录已存在
-        Set<Pair<Long, Long>> existingRecords = new HashSet<>();
-        if (!potentialInserts.isEmpty()) {
-            LambdaQueryWrapper<Thumb> existsQuery = new LambdaQueryWrapper<>();
-            for (Pair<Long, Long> pair : potentialInserts) {
-                existsQuery.or(q -> q.eq(Thumb::getUserId, pair.getKey()).eq(Thumb::getBlogId, pair.getValue()));
-            }
-            
-            List<Thumb> existingThumbs = thumbService.list(existsQuery);
-            for (Thumb thumb : existingThumbs) {
-                existingRecords.add(Pair.of(thumb.getUserId(), thumb.getBlogId()));
-            }
-            
-            log.info("已存在的点赞记录数: {}", existingRecords.size());
-        }
-
-        latestEvents.forEach((userBlogPair, event) -> {
-            if (event == null) {
-                return;
-            }
-            ThumbEvent.EventType finalAction = event.getType();
-
-            if (finalAction == ThumbEvent.EventType.INCR) {
-                // 只有不存在的记录才添加到待插入列表
-                if (!existingRecords.contains(userBlogPair)) {
-                    countMap.merge(event.getBlogId(), 1L, Long::sum);
-                    Thumb thumb = new Thumb();
-                    thumb.setBlogId(event.getBlogId());
-                    thumb.setUserId(event.getUserId());
-                    thumbsToInsert.add(thumb);
-                } else {
-                    log.info("跳过已存在的点赞记录: userId={}, blogId={}", 
-                            userBlogPair.getKey(), userBlogPair.getValue());
-                }
+            if (event.get().getType() == ThumbEvent.EventType.INCR) {
+                inserts.add(userBlogPair);
             } else {
-                needRemove.set(true);
-                wrapper.or().eq(Thumb::getUserId, event.getUserId()).eq(Thumb::getBlogId, event.getBlogId());
-                countMap.merge(event.getBlogId(), -1L, Long::sum);
+                deletes.add(userBlogPair);
             }
         });
 
-        // 批量更新数据库
-        if (needRemove.get() && wrapper.getExpression() != null && !wrapper.getExpression().getNormal().isEmpty()) {
-            thumbService.remove(wrapper);
-        }
-        
-        // 更新博客点赞数
-        if (!countMap.isEmpty()) {
-            batchUpdateBlogs(countMap);
-        }
-        
-        // 批量插入点赞记录
-        if (!thumbsToInsert.isEmpty()) {
-            batchInsertThumbs(thumbsToInsert);
-        }
-        
-        log.info("批量处理完成: 更新博客{}个, 插入点赞{}条", countMap.size(), thumbsToInsert.size());
-    }
-
-    @Transactional(propagation = Propagation.REQUIRES_NEW, rollbackFor = Exception.class)
-    public void batchUpdateBlogs(Map<Long, Long> countMap) {
-        try {
-            blogMapper.batchUpdateThumbCount(countMap);
-            log.info("批量更新博客点赞数成功: {}", countMap.keySet());
-        } catch (Exception e) {
-            log.error("批量更新博客点赞数失败", e);
-            throw e;
-        }
+        // 多行 INSERT IGNORE / 元组 IN 删除，并根据影响行数更新博客点赞数
+        thumbBatchWriter.write(inserts, deletes);
     }
 
-    @Transactional(propagation = Propagation.REQUIRES_NEW, rollbackFor = Exception.class)
-    public void batchInsertThumbs(List<Thumb> thumbs) {
-        if (thumbs.isEmpty()) {
-            return;
-        }
-        
-        try {
-            // 使用忽略重复记录的方式批量插入
-            try {
-                // 分批次插入
-                thumbService.saveBatch(thumbs, 500);
-                log.info("批量插入点赞记录成功: {} 条", thumbs.size());
-                
-                // 将插入成功的记录添加到布隆过滤器
-                for (Thumb thumb : thumbs) {
-                    bloomFilterService.add(thumb.getUserId(), thumb.getBlogId());
-                }
-                log.info("布隆过滤器已更新: 添加 {} 条记录", thumbs.size());
-            } catch (Exception e) {
-                // 如果批量插入失败，尝试逐条插入，跳过重复记录
-                if (e instanceof org.springframework.dao.DuplicateKeyException) {
-                    log.warn("批量插入时发生唯一键冲突，尝试逐条插入并跳过重复记录");
-                    int successCount = 0;
-                    for (Thumb thumb : thumbs) {
-                        try {
-                            // 检查记录是否已存在
-                            boolean exists = thumbService.lambdaQuery()
-                                    .eq(Thumb::getUserId, thumb.getUserId())
-                                    .eq(Thumb::getBlogId, thumb.getBlogId())
-                                    .exists();
-                            
-                            if (!exists) {
-                                thumbService.save(thumb);
-                                // 将成功插入的记录添加到布隆过滤器
-                                bloomFilterService.add(thumb.getUserId(), thumb.getBlogId());
-                                successCount++;
-                            } else {
-                                // 已存在的记录也要确保在布隆过滤器中
-                                bloomFilterService.add(thumb.getUserId(), thumb.getBlogId());
-                            }
-                        } catch (Exception innerEx) {
-                            log.warn("插入单条点赞记录失败: userId={}, blogId={}, 错误: {}", 
-                                    thumb.getUserId(), thumb.getBlogId(), innerEx.getMessage());
-                        }
-                    }
-                    log.info("逐条插入完成，成功插入: {} 条，更新布隆过滤器", successCount);
-                } else {
-                    throw e; // 重新抛出非重复键的异常
-                }
-            }
-        } catch (Exception e) {
-            log.error("批量插入点赞记录失败", e);
-            throw e;
-        }
+    /**
+     * 处理通道的合并缓冲区，只在所属通道线程内访问
+     */
+    private static class LaneBuffer {
+        private final List<Message<ThumbEvent>> messages = new ArrayList<>();
+        private final List<CompletableFuture<Void>> waiters = new ArrayList<>();
+        private long firstAppendMillis;
     }
 }
-
@@ -0,0 +1,89 @@
+package com.yang.ratingsystem.listener.thumb;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 点赞消息消费者的处理通道
+ *
+ * 每个通道是一个单线程虚拟线程执行器，通道内的任务串行执行；合并缓冲区的定时刷新由一个平台线程触发。
+ * 生命周期由 Spring 管理：依赖通道的 ThumbConsumer 先销毁，落库缓冲区后关闭通道，
+ * 本 bean 销毁时再兜底关闭，重复关闭没有副作用
+ */
+@Component
+@Slf4j
+public class ThumbConsumerLanes implements DisposableBean {
+
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 5;
+
+    private final ExecutorService[] lanes;
+
+    private ScheduledExecutorService flushScheduler;
+
+    public ThumbConsumerLanes(@Value("${pulsar.consumer.lanes:4}") int laneCount) {
+        lanes = new ExecutorService[Math.max(1, laneCount)];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = Executors.newSingleThreadExecutor(Thread.ofVirtual().name("thumb-lane-" + i).factory());
+        }
+    }
+
+    public int size() {
+        return lanes.length;
+    }
+
+    /**
+     * 在通道内执行任务
+     *
+     * @throws RejectedExecutionException 通道已关闭
+     */
+    public void execute(int lane, Runnable task) {
+        lanes[lane].execute(task);
+    }
+
+    /**
+     * 按固定周期执行任务，用于触发各通道的定时刷新
+     */
+    public synchronized void scheduleAtFixedRate(Runnable task, long periodMillis) {
+        if (flushScheduler == null) {
+            flushScheduler = Executors.newSingleThreadScheduledExecutor(
+                    Thread.ofPlatform().name("thumb-flush-scheduler").daemon().factory());
+        }
+        flushScheduler.scheduleAtFixedRate(task, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 停止定时刷新，关闭所有通道并等待已提交的任务执行完
+     */
+    public synchronized void shutdown() {
+        if (flushScheduler != null) {
+            flushScheduler.shutdownNow();
+        }
+        for (ExecutorService lane : lanes) {
+            lane.shutdown();
+        }
+        for (ExecutorService lane : lanes) {
+            try {
+                if (!lane.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    log.warn("处理通道未能在超时时间内完全关闭");
+                    lane.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                lane.shutdownNow();
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        shutdown();
+    }
+}
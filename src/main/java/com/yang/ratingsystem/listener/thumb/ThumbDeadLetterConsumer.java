@@ -1,6 +1,7 @@
 package com.yang.ratingsystem.listener.thumb;
 
 import com.yang.ratingsystem.listener.thumb.msg.ThumbEvent;
+import com.yang.ratingsystem.listener.thumb.msg.ThumbEventSchema;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
@@ -34,7 +35,7 @@ public class ThumbDeadLetterConsumer {
             String deadLetterTopic = "thumb-dlq-topic";
             
             // 创建死信队列消费者
-            deadLetterConsumer = pulsarClient.newConsumer(Schema.JSON(ThumbEvent.class))
+            deadLetterConsumer = pulsarClient.newConsumer(ThumbEventSchema.INSTANCE)
                     .topic(deadLetterTopic)
                     .subscriptionName("thumb-dlq-subscription")
                     .subscriptionType(SubscriptionType.Shared)
@@ -31,6 +31,31 @@ public class ThumbMessageDashboard {
     private final AtomicLong periodRetryMessages = new AtomicLong(0);
     private final AtomicLong periodDeadLetterMessages = new AtomicLong(0);
 
+    // 重复消息统计（按事件ID跳过）
+    private final AtomicLong totalDuplicateSkipped = new AtomicLong(0);
+    private final AtomicLong periodDuplicateSkipped = new AtomicLong(0);
+
+    // 批次统计
+    private final AtomicLong periodBatches = new AtomicLong(0);
+    private final AtomicLong periodBatchMessages = new AtomicLong(0);
+    private final AtomicLong periodBatchBytes = new AtomicLong(0);
+    private final AtomicLong periodBatchMillis = new AtomicLong(0);
+    private final AtomicLong periodMaxBatchMillis = new AtomicLong(0);
+
+    // 失败隔离统计
+    private final AtomicLong totalIsolations = new AtomicLong(0);
+    private final AtomicLong totalIsolationDepth = new AtomicLong(0);
+    private final AtomicLong maxIsolationDepth = new AtomicLong(0);
+    private final AtomicLong totalRedeliverySaved = new AtomicLong(0);
+
+    // 当前批量接收参数
+    private volatile int batchMaxMessages;
+    private volatile long batchMaxBytes;
+    private volatile long batchTimeoutMs;
+
+    // 最近一次批次完成时客户端预取队列中的消息数
+    private volatile int prefetchedMessages;
+
     /**
      * 记录消息处理
      */
@@ -63,6 +88,56 @@ public class ThumbMessageDashboard {
         periodDeadLetterMessages.incrementAndGet();
     }
 
+    /**
+     * 记录按事件ID跳过的重复消息
+     */
+    public void recordDuplicateSkipped(int count) {
+        totalDuplicateSkipped.addAndGet(count);
+        periodDuplicateSkipped.addAndGet(count);
+    }
+
+    /**
+     * 记录一个批次的大小和处理耗时
+     */
+    public void recordBatch(int messages, long bytes, long processMillis) {
+        periodBatches.incrementAndGet();
+        periodBatchMessages.addAndGet(messages);
+        periodBatchBytes.addAndGet(bytes);
+        periodBatchMillis.addAndGet(processMillis);
+        periodMaxBatchMillis.accumulateAndGet(processMillis, Math::max);
+    }
+
+    /**
+     * 记录客户端预取队列中的消息数
+     */
+    public void recordPrefetched(int prefetched) {
+        this.prefetchedMessages = prefetched;
+    }
+
+    /**
+     * 记录一次失败批次的二分隔离
+     *
+     * @param depth        二分深度
+     * @param batchSize    批次消息数
+     * @param failedCount  最终否定确认的消息数
+     */
+    public void recordIsolation(int depth, int batchSize, int failedCount) {
+        totalIsolations.incrementAndGet();
+        totalIsolationDepth.addAndGet(depth);
+        maxIsolationDepth.accumulateAndGet(depth, Math::max);
+        // 相比整批否定确认少重投的消息数
+        totalRedeliverySaved.addAndGet(batchSize - failedCount);
+    }
+
+    /**
+     * 记录当前生效的批量接收参数
+     */
+    public void recordBatchPolicy(int maxMessages, long maxBytes, long timeoutMs) {
+        this.batchMaxMessages = maxMessages;
+        this.batchMaxBytes = maxBytes;
+        this.batchTimeoutMs = timeoutMs;
+    }
+
     /**
      * 每分钟打印一次简要统计
      */
@@ -72,12 +147,24 @@ public class ThumbMessageDashboard {
         long success = periodSuccessMessages.getAndSet(0);
         long retry = periodRetryMessages.getAndSet(0);
         long deadLetter = periodDeadLetterMessages.getAndSet(0);
+        long duplicate = periodDuplicateSkipped.getAndSet(0);
         
         if (processed > 0) {
-            log.info("[点赞消息统计-1分钟] 处理: {}, 成功: {}, 重试: {}, 死信: {}, 成功率: {}%", 
-                    processed, success, retry, deadLetter, 
+            log.info("[点赞消息统计-1分钟] 处理: {}, 成功: {}, 重试: {}, 死信: {}, 跳过重复: {}, 成功率: {}%", 
+                    processed, success, retry, deadLetter, duplicate, 
                     processed > 0 ? String.format("%.2f", (success * 100.0 / processed)) : "0.00");
         }
+
+        long batches = periodBatches.getAndSet(0);
+        long batchMessages = periodBatchMessages.getAndSet(0);
+        long batchBytes = periodBatchBytes.getAndSet(0);
+        long batchMillis = periodBatchMillis.getAndSet(0);
+        long maxBatchMillis = periodMaxBatchMillis.getAndSet(0);
+        if (batches > 0) {
+            log.info("[点赞批次统计-1分钟] 批次: {}, 平均大小: {}条/{}字节, 平均耗时: {}ms, 最大耗时: {}ms, 预取队列: {}条, 当前参数: maxMessages={}, maxBytes={}, timeoutMs={}",
+                    batches, batchMessages / batches, batchBytes / batches, batchMillis / batches, maxBatchMillis,
+                    prefetchedMessages, batchMaxMessages, batchMaxBytes, batchTimeoutMs);
+        }
     }
 
     /**
@@ -94,10 +181,18 @@ public class ThumbMessageDashboard {
         log.info("总成功消息数: {}", totalSuccessMessages.get());
         log.info("总重试消息数: {}", totalRetryMessages.get());
         log.info("总死信消息数: {}", totalDeadLetterMessages.get());
+        log.info("总跳过重复消息数: {}", totalDuplicateSkipped.get());
         log.info("总体成功率: {}%", 
                 totalProcessedMessages.get() > 0 
                 ? String.format("%.2f", (totalSuccessMessages.get() * 100.0 / totalProcessedMessages.get()))
                 : "0.00");
+        log.info("失败隔离次数: {}, 平均隔离深度: {}, 最大隔离深度: {}, 节省重投消息数: {}",
+                totalIsolations.get(),
+                totalIsolations.get() > 0
+                ? String.format("%.2f", (totalIsolationDepth.get() * 1.0 / totalIsolations.get()))
+                : "0.00",
+                maxIsolationDepth.get(),
+                totalRedeliverySaved.get());
         
         // 获取当前活跃的重试消息
         int activeRetries = retryTracker.getTrackingCount();
@@ -123,11 +218,16 @@ public class ThumbMessageDashboard {
         summary.append(String.format("总成功消息: %d\n", totalSuccessMessages.get()));
         summary.append(String.format("总重试消息: %d\n", totalRetryMessages.get()));
         summary.append(String.format("总死信消息: %d\n", totalDeadLetterMessages.get()));
+        summary.append(String.format("总跳过重复: %d\n", totalDuplicateSkipped.get()));
         summary.append(String.format("总体成功率: %.2f%%\n", 
                 totalProcessedMessages.get() > 0 
                 ? (totalSuccessMessages.get() * 100.0 / totalProcessedMessages.get())
                 : 0.00));
         summary.append(String.format("当前活跃重试: %d\n", retryTracker.getTrackingCount()));
+        summary.append(String.format("失败隔离: 次数=%d, 最大深度=%d, 节省重投=%d\n",
+                totalIsolations.get(), maxIsolationDepth.get(), totalRedeliverySaved.get()));
+        summary.append(String.format("批量接收参数: maxMessages=%d, maxBytes=%d, timeoutMs=%d\n",
+                batchMaxMessages, batchMaxBytes, batchTimeoutMs));
         summary.append("==================================================\n");
         
         return summary.toString();
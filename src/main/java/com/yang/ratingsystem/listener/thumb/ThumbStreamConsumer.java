@@ -0,0 +1,264 @@
+package com.yang.ratingsystem.listener.thumb;
+
+import cn.hutool.core.lang.Pair;
+import com.yang.ratingsystem.constant.RedisLuaScriptConstant;
+import com.yang.ratingsystem.manager.thumb.ThumbBatchWriter;
+import com.yang.ratingsystem.manager.thumb.ThumbSyncLeaseManager;
+import com.yang.ratingsystem.utils.RedisKeyUtil;
+import com.yang.ratingsystem.utils.ThumbKeyLayout;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 点赞事件流消费者
+ *
+ * 点赞事件按用户写入 {@link ThumbKeyLayout#getThumbStreamKey(Long)} 的各个分区，每个分区由持有分区租约的一个消费者独占处理，
+ * 同一 (userId, blogId) 的事件只会被一个消费者按流中的顺序落库。
+ * 每轮先读取自己待确认的事件（ID 从 0 开始），落库失败的批次会在读取新事件之前重试，
+ * 不会出现较早的点赞在较晚的取消点赞之后落库；待确认列表为空时才读取新事件（&gt;）。
+ * 按 (userId, blogId) 合并批次内的事件后交给批量写入器落库，成功后 XACK 并 XDEL，事件流长度只取决于未处理的事件数。
+ * 节点崩溃或租约过期后，新的持有者先用 XAUTOCLAIM 把分区内全部待确认事件转给自己，再按上述顺序处理。
+ * 事件流分区与用户点赞 key 不在同一个槽位，不支持 Redis 集群布局，开启时启动失败
+ */
+@Component
+@Slf4j
+public class ThumbStreamConsumer {
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final ThumbBatchWriter thumbBatchWriter;
+    private final ThumbSyncLeaseManager leaseManager;
+    private final ThumbKeyLayout thumbKeyLayout;
+
+    @Value("${thumb.stream.enabled:false}")
+    private boolean enabled;
+
+    @Value("${thumb.stream.group:thumb-db-writer}")
+    private String group;
+
+    @Value("${thumb.stream.batch-size:500}")
+    private int batchSize;
+
+    @Value("${thumb.stream.block-ms:2000}")
+    private long blockMillis;            // 没有新事件时 XREADGROUP 的阻塞时间，应小于租约时长
+
+    @Value("${thumb.sync.lease-ms:30000}")
+    private long leaseMillis;            // 分区租约时长，持有者崩溃后其他节点最多等待该时间接管
+
+    private final String consumerName = consumerName();
+
+    private final List<Thread> workers = new ArrayList<>();
+
+    private volatile boolean running = true;
+
+    public ThumbStreamConsumer(StringRedisTemplate stringRedisTemplate, ThumbBatchWriter thumbBatchWriter,
+                               ThumbSyncLeaseManager leaseManager, ThumbKeyLayout thumbKeyLayout) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.thumbBatchWriter = thumbBatchWriter;
+        this.leaseManager = leaseManager;
+        this.thumbKeyLayout = thumbKeyLayout;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        if (thumbKeyLayout.isClusterLayout()) {
+            // 事件流 key 与用户点赞 key 不在同一个槽位，点赞脚本会因 CROSSSLOT 失败，启动时直接拒绝
+            throw new IllegalStateException("集群布局下点赞脚本无法同时写入事件流，thumb.stream.enabled 不能与 thumb.redis.cluster 同时开启");
+        }
+        int partitions = thumbKeyLayout.getThumbStreamPartitionCount();
+        for (int partition = 0; partition < partitions; partition++) {
+            String streamKey = RedisKeyUtil.getThumbStreamKey(partition);
+            createGroup(streamKey);
+            int current = partition;
+            workers.add(Thread.ofPlatform().name("thumb-stream-consumer-" + partition).daemon()
+                    .start(() -> consumeLoop(current, streamKey)));
+        }
+        log.info("点赞事件流消费者已启动: group={}, consumer={}, 分区{}个", group, consumerName, partitions);
+    }
+
+    /**
+     * 创建消费组，事件流不存在时一并创建
+     */
+    private void createGroup(String streamKey) {
+        try {
+            stringRedisTemplate.execute((RedisCallback<String>) connection -> connection.streamCommands().xGroupCreate(
+                    streamKey.getBytes(StandardCharsets.UTF_8), group, ReadOffset.from("0"), true));
+        } catch (Exception e) {
+            if (e.getMessage() == null || !e.getMessage().contains("BUSYGROUP")) {
+                throw e;
+            }
+            // 消费组已存在
+        }
+    }
+
+    /**
+     * 持有分区租约时处理该分区的事件，未持有时定期尝试获取
+     */
+    private void consumeLoop(int partition, String streamKey) {
+        ThumbSyncLeaseManager.Lease lease = null;
+        try {
+            while (running) {
+                try {
+                    if (lease == null) {
+                        lease = leaseManager.tryAcquire("stream:" + partition, leaseMillis);
+                        if (lease == null) {
+                            sleepQuietly(blockMillis);
+                            continue;
+                        }
+                        takeOver(streamKey);
+                        log.info("开始处理点赞事件流分区: {}", streamKey);
+                    } else if (!lease.renew()) {
+                        log.warn("点赞事件流分区 {} 的租约已丢失，停止处理", streamKey);
+                        lease = null;
+                        continue;
+                    }
+                    // 先重试自己待确认的事件，全部确认后才读取新事件
+                    List<StreamEvent> events = read(streamKey, ReadOffset.from("0"), StreamReadOptions.empty().count(batchSize));
+                    if (events.isEmpty()) {
+                        events = read(streamKey, ReadOffset.lastConsumed(),
+                                StreamReadOptions.empty().count(batchSize).block(Duration.ofMillis(blockMillis)));
+                    }
+                    if (!events.isEmpty()) {
+                        apply(streamKey, events);
+                    }
+                } catch (Exception e) {
+                    if (!running) {
+                        break;
+                    }
+                    // 未确认的事件留在待确认列表中，下一轮先重试
+                    log.error("处理点赞事件流分区 {} 失败", streamKey, e);
+                    sleepQuietly(1000);
+                }
+            }
+        } finally {
+            if (lease != null) {
+                lease.close();
+            }
+        }
+    }
+
+    private List<StreamEvent> read(String streamKey, ReadOffset offset, StreamReadOptions options) {
+        List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().read(
+                Consumer.from(group, consumerName), options, StreamOffset.create(streamKey, offset));
+        if (records == null || records.isEmpty()) {
+            return List.of();
+        }
+        List<StreamEvent> events = new ArrayList<>(records.size());
+        for (MapRecord<String, Object, Object> record : records) {
+            Map<Object, Object> value = record.getValue();
+            events.add(new StreamEvent(record.getId().getValue(),
+                    String.valueOf(value.get("u")), String.valueOf(value.get("b")), String.valueOf(value.get("t"))));
+        }
+        return events;
+    }
+
+    /**
+     * 用 XAUTOCLAIM 把分区内其他消费者（已崩溃或租约过期的节点）的待确认事件全部转给当前消费者，
+     * 不在这里处理，之后按待确认列表的顺序重试
+     */
+    private void takeOver(String streamKey) {
+        String cursor = "0-0";
+        int claimed = 0;
+        do {
+            List<?> result = stringRedisTemplate.execute(
+                    RedisLuaScriptConstant.STREAM_AUTOCLAIM_SCRIPT,
+                    List.of(streamKey),
+                    group, consumerName, "0", cursor, String.valueOf(batchSize));
+            if (result == null || result.isEmpty()) {
+                break;
+            }
+            cursor = String.valueOf(result.get(0));
+            claimed += (result.size() - 1) / 4;
+        } while (running && !"0-0".equals(cursor));
+        if (claimed > 0) {
+            log.warn("接管点赞事件流分区 {} 的待确认事件 {} 条", streamKey, claimed);
+        }
+    }
+
+    /**
+     * 合并同一 (userId, blogId) 的事件，以最后一条为准写入数据库，成功后确认并删除事件
+     */
+    private void apply(String streamKey, List<StreamEvent> events) {
+        Map<Pair<Long, Long>, Integer> finalTypes = new LinkedHashMap<>();
+        List<String> ids = new ArrayList<>(events.size());
+        for (StreamEvent event : events) {
+            ids.add(event.id());
+            try {
+                Pair<Long, Long> key = Pair.of(Long.valueOf(event.userId()), Long.valueOf(event.blogId()));
+                // 事件按流中的顺序排列，后面的覆盖前面的
+                finalTypes.put(key, Integer.parseInt(event.type()));
+            } catch (NumberFormatException e) {
+                log.warn("点赞事件格式错误，直接丢弃: {}", event);
+            }
+        }
+        List<Pair<Long, Long>> inserts = new ArrayList<>();
+        List<Pair<Long, Long>> deletes = new ArrayList<>();
+        finalTypes.forEach((key, type) -> (type > 0 ? inserts : deletes).add(key));
+        thumbBatchWriter.write(inserts, deletes);
+
+        String[] recordIds = ids.toArray(new String[0]);
+        stringRedisTemplate.opsForStream().acknowledge(streamKey, group, recordIds);
+        stringRedisTemplate.opsForStream().delete(streamKey, recordIds);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (workers.isEmpty()) {
+            return;
+        }
+        running = false;
+        try {
+            for (Thread worker : workers) {
+                worker.join(blockMillis + 5000);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.info("点赞事件流消费者已关闭");
+    }
+
+    /**
+     * 消费者名称：主机名-进程号，重启后使用新的名称，旧名称下的待确认事件由分区的新持有者接管
+     */
+    private static String consumerName() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            host = "unknown";
+        }
+        return host + "-" + ProcessHandle.current().pid();
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private record StreamEvent(String id, String userId, String blogId, String type) {
+    }
+}
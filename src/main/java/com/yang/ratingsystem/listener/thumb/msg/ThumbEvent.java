@@ -1,5 +1,6 @@
 package com.yang.ratingsystem.listener.thumb.msg;
 
+import cn.hutool.core.util.IdUtil;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -8,6 +9,7 @@ import lombok.NoArgsConstructor;
 
 import java.io.Serializable;
 import java.time.LocalDateTime;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * User:小小星仔
@@ -21,6 +23,24 @@ import java.time.LocalDateTime;
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class ThumbEvent implements Serializable {
 
+    /**
+     * 本节点生产者的事件序号，单调递增
+     * 只存在于当前 JVM：不同节点的序号互不相关，节点重启后从 0 重新计数
+     */
+    private static final AtomicLong PRODUCER_SEQUENCE = new AtomicLong();
+
+    /**
+     * 事件ID，全局唯一（雪花算法），用于消费端幂等
+     */
+    private Long eventId;
+
+    /**
+     * 生产者序号，eventTime 相同时用于确定同一 key 下事件的先后顺序
+     * 只有同一节点、同一次启动内产生的事件之间可比较。同一用户的请求落到不同节点、
+     * 且两个事件的 eventTime 在同一毫秒内时，按序号排出的先后不代表真实顺序
+     */
+    private Long sequence;
+
     /**
      * 用户ID
      */
@@ -41,6 +61,28 @@ public class ThumbEvent implements Serializable {
      */
     private LocalDateTime eventTime;
 
+    /**
+     * 创建一个带事件ID和生产者序号的点赞事件
+     */
+    public static ThumbEvent create(Long userId, Long blogId, EventType type) {
+        return ThumbEvent.builder()
+                .eventId(IdUtil.getSnowflakeNextId())
+                .sequence(PRODUCER_SEQUENCE.incrementAndGet())
+                .userId(userId)
+                .blogId(blogId)
+                .type(type)
+                .eventTime(LocalDateTime.now())
+                .build();
+    }
+
+    /**
+     * 消息 key（userId:blogId）
+     * 生产者将其作为 Pulsar 消息 key，Key_Shared 订阅据此保证同一用户对同一博客的事件有序投递到同一消费者
+     */
+    public String orderingKey() {
+        return userId + ":" + blogId;
+    }
+
     /**
      * 事件类型枚举
      */
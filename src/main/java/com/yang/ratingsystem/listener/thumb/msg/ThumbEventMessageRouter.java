@@ -0,0 +1,65 @@
+package com.yang.ratingsystem.listener.thumb.msg;
+
+import org.apache.pulsar.client.api.Message;
+import org.apache.pulsar.client.api.MessageRouter;
+import org.apache.pulsar.client.api.TopicMetadata;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 点赞事件分区路由
+ *
+ * 从消息 key（userId:blogId）中解析出 blogId 或 userId，哈希后选择分区：
+ * 1. 按 blogId 路由时，同一博客的事件集中在同一分区，消费端合并点赞数增量的效果最好
+ * 2. 按 userId 路由时，热门博客的事件分散到各分区，避免单个分区成为热点
+ * 两种方式下同一 (userId, blogId) 的事件都落在同一分区，保证顺序。
+ * 不同节点的生产者使用相同的路由规则，分区选择与 Pulsar 客户端默认的 key 哈希无关
+ */
+public class ThumbEventMessageRouter implements MessageRouter {
+
+    public enum RoutingKey {
+        BLOG, USER
+    }
+
+    private final RoutingKey routingKey;
+
+    public ThumbEventMessageRouter(RoutingKey routingKey) {
+        this.routingKey = routingKey;
+    }
+
+    @Override
+    public int choosePartition(Message<?> msg, TopicMetadata metadata) {
+        int partitions = metadata.numPartitions();
+        if (partitions <= 1) {
+            return 0;
+        }
+        Long id = msg.hasKey() ? parseRoutingId(msg.getKey()) : null;
+        if (id == null) {
+            // 没有 key 的消息不涉及顺序，随机分配
+            return ThreadLocalRandom.current().nextInt(partitions);
+        }
+        return Math.floorMod(mix(id), partitions);
+    }
+
+    private Long parseRoutingId(String key) {
+        int separator = key.indexOf(':');
+        if (separator <= 0 || separator == key.length() - 1) {
+            return null;
+        }
+        try {
+            return routingKey == RoutingKey.USER
+                    ? Long.parseLong(key, 0, separator, 10)
+                    : Long.parseLong(key, separator + 1, key.length(), 10);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 对 ID 做一次位混合，避免自增 ID 连续取模时分布不均
+     */
+    private static int mix(long id) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,117 @@
+package com.yang.ratingsystem.listener.thumb.msg;
+
+import org.apache.pulsar.client.api.Schema;
+import org.apache.pulsar.client.api.SchemaSerializationException;
+import org.apache.pulsar.common.schema.SchemaInfo;
+import org.apache.pulsar.common.schema.SchemaType;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * 点赞事件的紧凑二进制 Schema
+ *
+ * 定长 42 字节，大端序：
+ * <pre>
+ * | version(1) | type(1) | userId(8) | blogId(8) | eventTime 毫秒(8) | sequence(8) | eventId(8) |
+ * </pre>
+ * 字段为空时写入 Long.MIN_VALUE。
+ * eventTime 是不带时区的本地时间，按 UTC 换算成毫秒写入，解码时按 UTC 还原，
+ * 结果与生产者和消费者所在时区无关，也不受夏令时切换影响。
+ *
+ * 迁移方式：解码时首字节为 '{' 的消息按旧的 JSON 格式解析，因此先让所有消费者升级到该 Schema，
+ * 再把生产者的 pulsar.thumb-schema 从 json 切换为 compact。
+ * SchemaInfo 声明为 BYTES，不会与主题上已注册的 JSON Schema 冲突。
+ * 以后调整格式时递增 version，并在 decode 中保留旧版本的解析分支
+ */
+public class ThumbEventSchema implements Schema<ThumbEvent> {
+
+    public static final ThumbEventSchema INSTANCE = new ThumbEventSchema();
+
+    private static final byte VERSION = 1;
+
+    /**
+     * 编码后的定长字节数
+     */
+    public static final int LENGTH = 42;
+
+    private static final long NULL_VALUE = Long.MIN_VALUE;
+
+    private static final Schema<ThumbEvent> LEGACY_JSON = Schema.JSON(ThumbEvent.class);
+
+    private static final SchemaInfo SCHEMA_INFO = SchemaInfo.builder()
+            .name("ThumbEvent")
+            .type(SchemaType.BYTES)
+            .schema(new byte[0])
+            .build();
+
+    private ThumbEventSchema() {
+    }
+
+    @Override
+    public byte[] encode(ThumbEvent event) {
+        ByteBuffer buffer = ByteBuffer.allocate(LENGTH);
+        buffer.put(VERSION);
+        buffer.put((byte) (event.getType() == null ? -1 : event.getType().ordinal()));
+        buffer.putLong(orNull(event.getUserId()));
+        buffer.putLong(orNull(event.getBlogId()));
+        buffer.putLong(event.getEventTime() == null
+                ? NULL_VALUE
+                : event.getEventTime().toInstant(ZoneOffset.UTC).toEpochMilli());
+        buffer.putLong(orNull(event.getSequence()));
+        buffer.putLong(orNull(event.getEventId()));
+        return buffer.array();
+    }
+
+    @Override
+    public ThumbEvent decode(byte[] bytes) {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        if (bytes[0] == '{') {
+            // 迁移前生产的 JSON 消息
+            return LEGACY_JSON.decode(bytes);
+        }
+        byte version = bytes[0];
+        if (version != VERSION || bytes.length < LENGTH) {
+            throw new SchemaSerializationException(
+                    "不支持的点赞事件格式: version=" + version + ", length=" + bytes.length);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 1, LENGTH - 1);
+        byte type = buffer.get();
+        ThumbEvent event = new ThumbEvent();
+        event.setType(type >= 0 && type < ThumbEvent.EventType.values().length
+                ? ThumbEvent.EventType.values()[type]
+                : null);
+        event.setUserId(toNullable(buffer.getLong()));
+        event.setBlogId(toNullable(buffer.getLong()));
+        long eventTime = buffer.getLong();
+        event.setEventTime(eventTime == NULL_VALUE
+                ? null
+                : LocalDateTime.ofInstant(Instant.ofEpochMilli(eventTime), ZoneOffset.UTC));
+        event.setSequence(toNullable(buffer.getLong()));
+        event.setEventId(toNullable(buffer.getLong()));
+        return event;
+    }
+
+    @Override
+    public SchemaInfo getSchemaInfo() {
+        return SCHEMA_INFO;
+    }
+
+    @Override
+    public Schema<ThumbEvent> clone() {
+        // 无状态，可以共享
+        return this;
+    }
+
+    private static long orNull(Long value) {
+        return value == null ? NULL_VALUE : value;
+    }
+
+    private static Long toNullable(long value) {
+        return value == NULL_VALUE ? null : value;
+    }
+}
@@ -0,0 +1,116 @@
+package com.yang.ratingsystem.manager.thumb;
+
+import cn.hutool.core.util.NumberUtil;
+import com.yang.ratingsystem.constant.ThumbConstant;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 博客实时点赞数
+ *
+ * 开启后点赞 Lua 脚本在切换点赞状态的同时 HINCRBY 博客点赞数增量，
+ * 展示的点赞数为数据库中的点赞数加上尚未写入数据库的增量，不再滞后一个批次或时间片。
+ * 增量由 {@link com.yang.ratingsystem.job.SyncBlogThumbCountJob} 定期批量写入数据库，
+ * 此时批量写入器不再更新博客点赞数，避免重复计数
+ */
+@Component
+@Slf4j
+public class BlogThumbCounter {
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    @Value("${thumb.count.live:false}")
+    private boolean live;
+
+    @Value("${thumb.redis.cluster:false}")
+    private boolean cluster;
+
+    public BlogThumbCounter(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    /**
+     * 增量 key 与用户点赞 key 不在同一个槽位，集群布局下不支持实时点赞数
+     */
+    @PostConstruct
+    public void init() {
+        if (live && cluster) {
+            log.warn("集群布局下不支持实时点赞数，已关闭 thumb.count.live");
+            live = false;
+        }
+    }
+
+    public boolean isLive() {
+        return live;
+    }
+
+    /**
+     * 开启实时点赞数时把增量 key 追加到 Lua 脚本的 KEYS 末尾
+     */
+    public List<String> withCountKey(List<String> keys) {
+        if (!live) {
+            return keys;
+        }
+        List<String> result = new ArrayList<>(keys.size() + 1);
+        result.addAll(keys);
+        result.add(ThumbConstant.BLOG_THUMB_DELTA_KEY);
+        return result;
+    }
+
+    /**
+     * 撤销一次已计入的增量，用于点赞事件发布失败后的回滚
+     */
+    public void revert(Long blogId, long delta) {
+        if (!live) {
+            return;
+        }
+        stringRedisTemplate.opsForHash().increment(ThumbConstant.BLOG_THUMB_DELTA_KEY, blogId.toString(), -delta);
+    }
+
+    /**
+     * 批量获取尚未写入数据库的点赞数增量，包括已交接但尚未提交的写入中增量
+     * 只读取增量 key 和写入中 key：提交中 key 在事务提交后就已计入数据库，读取会重复计数
+     * Redis 不可用时返回空结果，调用方直接使用数据库中的点赞数
+     */
+    public Map<Long, Long> pendingDeltas(Collection<Long> blogIds) {
+        Map<Long, Long> deltas = new HashMap<>();
+        if (!live || blogIds.isEmpty()) {
+            return deltas;
+        }
+        String[] fields = blogIds.stream().map(String::valueOf).toArray(String[]::new);
+        try {
+            List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection stringConnection = (StringRedisConnection) connection;
+                stringConnection.hMGet(ThumbConstant.BLOG_THUMB_DELTA_KEY, fields);
+                stringConnection.hMGet(ThumbConstant.BLOG_THUMB_DELTA_PROCESSING_KEY, fields);
+                return null;
+            });
+            for (Object result : results) {
+                if (!(result instanceof List<?> values)) {
+                    continue;
+                }
+                for (int i = 0; i < fields.length && i < values.size(); i++) {
+                    Object value = values.get(i);
+                    if (value != null && NumberUtil.isLong(value.toString())) {
+                        deltas.merge(Long.valueOf(fields[i]), Long.parseLong(value.toString()), Long::sum);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            log.warn("获取博客实时点赞数失败，使用数据库中的点赞数", e);
+            return new HashMap<>();
+        }
+        return deltas;
+    }
+}
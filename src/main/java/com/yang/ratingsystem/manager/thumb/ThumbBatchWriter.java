@@ -0,0 +1,243 @@
+package com.yang.ratingsystem.manager.thumb;
+
+import cn.hutool.core.collection.CollUtil;
+import cn.hutool.core.lang.Pair;
+import com.yang.ratingsystem.filter.BloomFilterService;
+import com.yang.ratingsystem.mapper.BlogMapper;
+import com.yang.ratingsystem.mapper.ThumbMapper;
+import com.yang.ratingsystem.mapper.UserThumbDigestMapper;
+import com.yang.ratingsystem.model.Thumb;
+import com.yang.ratingsystem.model.UserThumbDigest;
+import com.yang.ratingsystem.utils.ThumbDigestUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * 点赞记录批量写入器
+ *
+ * 以集合为单位写入点赞记录：每个分块一条多行 INSERT IGNORE / 元组 IN 的 DELETE，
+ * 通过影响行数推导真实的点赞数增量，不再逐条查询记录是否存在。
+ * 只有影响行数与分块大小不一致（消息重投导致记录已存在 / 已删除）时，
+ * 才回滚到保存点，用一次加锁的元组 IN 查询找出真正需要写入的记录。
+ * 开启用户点赞摘要后，在同一个事务内把真实写入的记录异或到 user_thumb_digest 表，供对账比对。
+ */
+@Component
+@Slf4j
+public class ThumbBatchWriter {
+
+    /**
+     * 每条 SQL 语句包含的最大记录数
+     */
+    private static final int CHUNK_SIZE = 500;
+
+    /**
+     * 影响行数不一致时回滚重查的最大次数
+     */
+    private static final int MAX_REWRITE_ATTEMPTS = 3;
+
+    private static final Comparator<Pair<Long, Long>> PAIR_ORDER =
+            Comparator.comparing(Pair<Long, Long>::getKey).thenComparing(Pair::getValue);
+
+    private final ThumbMapper thumbMapper;
+    private final BlogMapper blogMapper;
+    private final TransactionTemplate transactionTemplate;
+    private final BloomFilterService bloomFilterService;
+    private final BlogThumbCounter blogThumbCounter;
+    private final UserThumbDigestMapper userThumbDigestMapper;
+    private final boolean digestEnabled;
+
+    public ThumbBatchWriter(
+            ThumbMapper thumbMapper,
+            BlogMapper blogMapper,
+            TransactionTemplate transactionTemplate,
+            @Lazy BloomFilterService bloomFilterService,
+            BlogThumbCounter blogThumbCounter,
+            UserThumbDigestMapper userThumbDigestMapper,
+            @Value("${thumb.digest.enabled:false}") boolean digestEnabled) {
+        this.thumbMapper = thumbMapper;
+        this.blogMapper = blogMapper;
+        this.transactionTemplate = transactionTemplate;
+        this.bloomFilterService = bloomFilterService;
+        this.blogThumbCounter = blogThumbCounter;
+        this.userThumbDigestMapper = userThumbDigestMapper;
+        this.digestEnabled = digestEnabled;
+    }
+
+    /**
+     * 在一个事务内写入点赞 / 取消点赞记录并更新博客点赞数
+     *
+     * @param inserts 需要点赞的 (userId, blogId)
+     * @param deletes 需要取消点赞的 (userId, blogId)
+     * @return 实际生效的写入结果
+     */
+    public WriteResult write(Collection<Pair<Long, Long>> inserts, Collection<Pair<Long, Long>> deletes) {
+        if (CollUtil.isEmpty(inserts) && CollUtil.isEmpty(deletes)) {
+            return WriteResult.EMPTY;
+        }
+        WriteResult result = transactionTemplate.execute(status -> {
+            List<Pair<Long, Long>> inserted = new ArrayList<>();
+            List<Pair<Long, Long>> deleted = new ArrayList<>();
+
+            // 按 (userId, blogId) 排序后分块，保证各事务加锁顺序一致，减少死锁
+            for (List<Pair<Long, Long>> chunk : sortedChunks(inserts)) {
+                List<Thumb> thumbs = toThumbs(chunk);
+                Object savepoint = status.createSavepoint();
+                int affected = thumbMapper.batchInsertIgnore(thumbs);
+                if (affected == thumbs.size()) {
+                    status.releaseSavepoint(savepoint);
+                    inserted.addAll(chunk);
+                    continue;
+                }
+                // 部分记录已存在，回滚本分块后只插入真正缺失的记录
+                List<Pair<Long, Long>> missing = rewriteChunk(status, savepoint, chunk, true);
+                inserted.addAll(missing);
+                log.info("跳过已存在的点赞记录 {} 条", chunk.size() - missing.size());
+            }
+
+            for (List<Pair<Long, Long>> chunk : sortedChunks(deletes)) {
+                List<Thumb> thumbs = toThumbs(chunk);
+                Object savepoint = status.createSavepoint();
+                int affected = thumbMapper.batchDeleteByUserBlogPairs(thumbs);
+                if (affected == thumbs.size()) {
+                    status.releaseSavepoint(savepoint);
+                    deleted.addAll(chunk);
+                    continue;
+                }
+                // 部分记录已不存在，回滚本分块后只删除真正存在的记录
+                List<Pair<Long, Long>> present = rewriteChunk(status, savepoint, chunk, false);
+                deleted.addAll(present);
+                log.info("跳过不存在的点赞记录 {} 条", chunk.size() - present.size());
+            }
+
+            // 根据真实写入的记录计算点赞数增量，按 blogId 排序更新
+            Map<Long, Long> blogDeltas = new TreeMap<>();
+            inserted.forEach(pair -> blogDeltas.merge(pair.getValue(), 1L, Long::sum));
+            deleted.forEach(pair -> blogDeltas.merge(pair.getValue(), -1L, Long::sum));
+            blogDeltas.values().removeIf(delta -> delta == 0L);
+            // 开启实时点赞数时博客点赞数由 Redis 中的增量写入，这里不再更新
+            if (!blogDeltas.isEmpty() && !blogThumbCounter.isLive()) {
+                blogMapper.batchUpdateThumbCount(blogDeltas);
+            }
+            if (digestEnabled) {
+                updateDigests(inserted, deleted);
+            }
+            return new WriteResult(blogDeltas, inserted, deleted);
+        });
+
+        // 事务提交后再更新布隆过滤器
+        for (Pair<Long, Long> pair : result.inserted()) {
+            bloomFilterService.add(pair.getKey(), pair.getValue());
+        }
+        log.info("批量写入完成: 插入点赞{}条, 删除点赞{}条, 更新博客{}个",
+                result.inserted().size(), result.deleted().size(), result.blogDeltas().size());
+        return result;
+    }
+
+    /**
+     * 回滚到保存点后用加锁读找出真正需要写入的记录，只写入这些记录
+     * 加锁读读取最新提交的数据，并锁住已存在的记录和缺失记录所在的间隙，
+     * 其他节点或同步任务并发提交的记录不会因快照读被当作缺失记录而重复计数。
+     * 读已提交隔离级别下没有间隙锁，补写的影响行数仍可能不一致，此时再次回滚重查，
+     * 只有影响行数一致的一次写入才计入结果；多次仍不一致时抛出异常，整批回滚后由调用方重试
+     *
+     * @param insert true 为补插缺失的记录，false 为删除存在的记录
+     * @return 实际写入的记录
+     */
+    private List<Pair<Long, Long>> rewriteChunk(TransactionStatus status, Object savepoint,
+                                                List<Pair<Long, Long>> chunk, boolean insert) {
+        for (int attempt = 1; attempt <= MAX_REWRITE_ATTEMPTS; attempt++) {
+            status.rollbackToSavepoint(savepoint);
+            Set<Pair<Long, Long>> existing = toPairs(thumbMapper.selectByUserBlogPairs(toThumbs(chunk)));
+            List<Pair<Long, Long>> pending = chunk.stream().filter(pair -> existing.contains(pair) != insert).toList();
+            if (pending.isEmpty()) {
+                status.releaseSavepoint(savepoint);
+                return pending;
+            }
+            int affected = insert
+                    ? thumbMapper.batchInsertIgnore(toThumbs(pending))
+                    : thumbMapper.batchDeleteByUserBlogPairs(toThumbs(pending));
+            if (affected == pending.size()) {
+                status.releaseSavepoint(savepoint);
+                return pending;
+            }
+            log.warn("补写点赞记录影响行数不一致，重新查询: expected={}, affected={}, attempt={}",
+                    pending.size(), affected, attempt);
+        }
+        throw new IllegalStateException("点赞记录被并发修改，补写" + MAX_REWRITE_ATTEMPTS + "次后影响行数仍不一致");
+    }
+
+    /**
+     * 把真实写入的记录按用户异或成摘要增量，按 userId 排序后批量异或到摘要表
+     */
+    private void updateDigests(List<Pair<Long, Long>> inserted, List<Pair<Long, Long>> deleted) {
+        Map<Long, Long> userDigests = new TreeMap<>();
+        inserted.forEach(pair -> userDigests.merge(pair.getKey(), ThumbDigestUtil.hash(pair.getKey(), pair.getValue()), (a, b) -> a ^ b));
+        deleted.forEach(pair -> userDigests.merge(pair.getKey(), ThumbDigestUtil.hash(pair.getKey(), pair.getValue()), (a, b) -> a ^ b));
+        List<UserThumbDigest> digests = userDigests.entrySet().stream()
+                .filter(entry -> entry.getValue() != 0L)
+                .map(entry -> new UserThumbDigest(entry.getKey(), entry.getValue()))
+                .toList();
+        for (int i = 0; i < digests.size(); i += CHUNK_SIZE) {
+            userThumbDigestMapper.batchXorDigest(digests.subList(i, Math.min(i + CHUNK_SIZE, digests.size())));
+        }
+    }
+
+    private List<List<Pair<Long, Long>>> sortedChunks(Collection<Pair<Long, Long>> pairs) {
+        if (CollUtil.isEmpty(pairs)) {
+            return List.of();
+        }
+        List<Pair<Long, Long>> sorted = new ArrayList<>(new HashSet<>(pairs));
+        sorted.sort(PAIR_ORDER);
+        List<List<Pair<Long, Long>>> chunks = new ArrayList<>();
+        for (int i = 0; i < sorted.size(); i += CHUNK_SIZE) {
+            chunks.add(sorted.subList(i, Math.min(i + CHUNK_SIZE, sorted.size())));
+        }
+        return chunks;
+    }
+
+    private List<Thumb> toThumbs(List<Pair<Long, Long>> pairs) {
+        List<Thumb> thumbs = new ArrayList<>(pairs.size());
+        for (Pair<Long, Long> pair : pairs) {
+            Thumb thumb = new Thumb();
+            thumb.setUserId(pair.getKey());
+            thumb.setBlogId(pair.getValue());
+            thumbs.add(thumb);
+        }
+        return thumbs;
+    }
+
+    private Set<Pair<Long, Long>> toPairs(List<Thumb> thumbs) {
+        Set<Pair<Long, Long>> pairs = new HashSet<>();
+        for (Thumb thumb : thumbs) {
+            pairs.add(Pair.of(thumb.getUserId(), thumb.getBlogId()));
+        }
+        return pairs;
+    }
+
+    /**
+     * 批量写入结果
+     *
+     * @param blogDeltas 各博客实际的点赞数增量
+     * @param inserted   实际插入的 (userId, blogId)
+     * @param deleted    实际删除的 (userId, blogId)
+     */
+    public record WriteResult(Map<Long, Long> blogDeltas,
+                              List<Pair<Long, Long>> inserted,
+                              List<Pair<Long, Long>> deleted) {
+
+        static final WriteResult EMPTY = new WriteResult(Map.of(), List.of(), List.of());
+    }
+}
@@ -0,0 +1,433 @@
+package com.yang.ratingsystem.manager.thumb;
+
+import com.yang.ratingsystem.listener.thumb.msg.ThumbEvent;
+import com.yang.ratingsystem.listener.thumb.msg.ThumbEventSchema;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pulsar.client.api.MessageId;
+import org.apache.pulsar.client.api.Producer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * 点赞事件本地发件箱
+ *
+ * 基于内存映射文件的追加写日志：请求线程把事件追加到本地分段文件后立即返回，
+ * 后台转发线程按批次异步发送到 Pulsar，全部发送成功后推进检查点。
+ * Pulsar 短暂不可用时事件保留在本地，恢复后继续转发；进程重启后从检查点重放未转发的事件。
+ *
+ * 文件布局：
+ * 1. segment-{序号}.log：定长记录 | crc32(4) | ThumbEventSchema 编码(42) |，写满后切换到下一个分段
+ * 2. checkpoint：已转发到的位置 | 分段序号(8) | 段内偏移(4) |
+ * 3. lock：启动时加文件锁，一个目录只能由一个实例使用
+ * 重放可能导致少量事件重复发送，由消费端按事件ID去重。
+ * 写入只落到页缓存，进程崩溃不丢数据；操作系统崩溃时最多丢失一个刷盘间隔内的事件
+ */
+@Component
+@Slf4j
+public class ThumbEventOutbox {
+
+    private static final int RECORD_SIZE = 4 + ThumbEventSchema.LENGTH;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final String CHECKPOINT_FILE = "checkpoint";
+
+    private static final String LOCK_FILE = "lock";
+
+    private final Producer<ThumbEvent> thumbEventProducer;
+
+    private final ThumbEventProgress eventProgress;
+
+    @Value("${pulsar.outbox.enabled:false}")
+    private boolean enabled;
+
+    @Value("${pulsar.outbox.dir:./data/thumb-outbox}")
+    private String dir;
+
+    @Value("${pulsar.outbox.records-per-segment:65536}")
+    private int recordsPerSegment;
+
+    @Value("${pulsar.outbox.max-segments:256}")
+    private int maxSegments;             // 未转发分段数上限，超过后追加失败，由调用方返回错误
+
+    @Value("${pulsar.outbox.forward-batch-size:500}")
+    private int forwardBatchSize;
+
+    @Value("${pulsar.outbox.force-interval-ms:100}")
+    private long forceIntervalMs;        // 刷盘间隔
+
+    private Path directory;
+
+    private FileChannel lockChannel;
+
+    private FileLock directoryLock;      // 目录独占锁，进程退出时由操作系统释放
+
+    private final Object appendLock = new Object();
+
+    private Segment writeSegment;        // 当前写入分段，受 appendLock 保护
+
+    private volatile Position writePosition; // 已完整写入的末尾位置，转发线程据此读取
+
+    private volatile Position checkpoint;    // 已转发到的位置
+
+    private Thread forwarder;
+
+    private volatile boolean running = true;
+
+    public ThumbEventOutbox(Producer<ThumbEvent> thumbEventProducer, ThumbEventProgress eventProgress) {
+        this.thumbEventProducer = thumbEventProducer;
+        this.eventProgress = eventProgress;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 启动时恢复写入位置和检查点，并启动转发线程
+     */
+    @PostConstruct
+    public void init() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        long startTime = System.currentTimeMillis();
+        directory = Paths.get(dir);
+        Files.createDirectories(directory);
+        lockDirectory();
+
+        List<Long> segments = listSegments();
+        Position saved = loadCheckpoint();
+        if (saved == null) {
+            saved = new Position(segments.isEmpty() ? 0 : segments.get(0), 0);
+        }
+        long lastIndex = segments.isEmpty() ? saved.segment() : Math.max(saved.segment(), segments.get(segments.size() - 1));
+        writeSegment = Segment.open(segmentPath(lastIndex), lastIndex, segmentCapacity());
+        writeSegment.buffer.position(recoverEnd(writeSegment.buffer));
+        writePosition = new Position(lastIndex, writeSegment.buffer.position());
+
+        // 检查点所在分段已被删除时，从最早的分段开始
+        if (!segments.isEmpty() && saved.segment() < segments.get(0)) {
+            saved = new Position(segments.get(0), 0);
+        }
+        checkpoint = saved;
+
+        long pending = (writePosition.segment() - checkpoint.segment()) * recordsPerSegment
+                + (writePosition.offset() - checkpoint.offset()) / RECORD_SIZE;
+        log.info("点赞事件发件箱恢复完成: 目录={}, 检查点={}, 写入位置={}, 待转发约{}条, 耗时{}ms",
+                directory.toAbsolutePath(), checkpoint, writePosition, pending, System.currentTimeMillis() - startTime);
+
+        forwarder = Thread.ofPlatform().name("thumb-outbox-forwarder").daemon().start(this::forwardLoop);
+    }
+
+    /**
+     * 对发件箱目录加独占锁，目录已被其他实例使用时启动失败，避免两个实例写坏同一组分段
+     */
+    private void lockDirectory() throws IOException {
+        lockChannel = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            directoryLock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            directoryLock = null;
+        }
+        if (directoryLock == null) {
+            lockChannel.close();
+            throw new RuntimeException("点赞事件发件箱目录已被其他实例占用: " + directory.toAbsolutePath());
+        }
+    }
+
+    /**
+     * 追加一个事件，写入页缓存后立即返回
+     *
+     * @throws IOException 未转发的分段超过上限或文件操作失败
+     */
+    public void append(ThumbEvent event) throws IOException {
+        byte[] payload = ThumbEventSchema.INSTANCE.encode(event);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        synchronized (appendLock) {
+            if (writeSegment.buffer.remaining() < RECORD_SIZE) {
+                rollSegment();
+            }
+            writeSegment.buffer.putInt((int) crc.getValue());
+            writeSegment.buffer.put(payload);
+            writePosition = new Position(writeSegment.index, writeSegment.buffer.position());
+        }
+        LockSupport.unpark(forwarder);
+    }
+
+    private void rollSegment() throws IOException {
+        long nextIndex = writeSegment.index + 1;
+        if (nextIndex - checkpoint.segment() >= maxSegments) {
+            throw new IOException("点赞事件发件箱已满，未转发分段数达到上限: " + maxSegments);
+        }
+        writeSegment.buffer.force();
+        writeSegment = Segment.open(segmentPath(nextIndex), nextIndex, segmentCapacity());
+    }
+
+    /**
+     * 转发主循环：读取检查点之后的事件，批量异步发送，全部成功后推进检查点
+     */
+    private void forwardLoop() {
+        Segment readSegment = null;
+        long lastForceTime = System.currentTimeMillis();
+        int failures = 0;
+        while (running || !checkpoint.equals(writePosition)) {
+            if (System.currentTimeMillis() - lastForceTime >= forceIntervalMs) {
+                forceWriteSegment();
+                lastForceTime = System.currentTimeMillis();
+            }
+            Position end = writePosition;
+            Position position = checkpoint;
+            if (position.equals(end)) {
+                if (!running) {
+                    break;
+                }
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(forceIntervalMs));
+                continue;
+            }
+            try {
+                // 当前分段已读完，切换到下一个分段
+                if (position.offset() + RECORD_SIZE > segmentCapacity() && position.segment() < end.segment()) {
+                    position = new Position(position.segment() + 1, 0);
+                }
+                if (readSegment == null || readSegment.index != position.segment()) {
+                    readSegment = readSegment(position.segment());
+                }
+                int limit = position.segment() == end.segment() ? end.offset() : segmentCapacity();
+                List<ThumbEvent> events = new ArrayList<>();
+                int offset = position.offset();
+                while (offset + RECORD_SIZE <= limit && events.size() < forwardBatchSize) {
+                    ThumbEvent event = readRecord(readSegment.buffer, offset);
+                    if (event != null) {
+                        events.add(event);
+                    }
+                    offset += RECORD_SIZE;
+                }
+
+                forward(events);
+                Position next = new Position(position.segment(), offset);
+                saveCheckpoint(next);
+                checkpoint = next;
+                deleteForwardedSegments(next.segment());
+                failures = 0;
+            } catch (Exception e) {
+                failures++;
+                long backoff = Math.min(30_000L, 500L << Math.min(failures, 6));
+                log.warn("点赞事件发件箱转发失败，{}ms 后重试: checkpoint={}", backoff, checkpoint, e);
+                if (!running) {
+                    break;
+                }
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(backoff));
+            }
+        }
+        forceWriteSegment();
+    }
+
+    private void forward(List<ThumbEvent> events) throws Exception {
+        if (events.isEmpty()) {
+            return;
+        }
+        List<CompletableFuture<MessageId>> futures = new ArrayList<>(events.size());
+        List<Long> eventIds = new ArrayList<>(events.size());
+        for (ThumbEvent event : events) {
+            // 重启后重放的事件在这里重新开始跟踪
+            eventProgress.begin(event.getEventId(), event);
+            eventIds.add(event.getEventId());
+            futures.add(thumbEventProducer.newMessage()
+                    .key(event.orderingKey())
+                    .value(event)
+                    .sendAsync());
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+        eventProgress.linger(eventIds, eventProgress.getGraceMillis());
+        log.debug("点赞事件发件箱转发{}条", events.size());
+    }
+
+    /**
+     * 获取转发线程读取的分段：与写入分段相同时复用其映射，只读取积压的旧分段时才单独映射，
+     * 转发跟上写入后不再为每个分段额外占用一份映射
+     */
+    private Segment readSegment(long index) throws IOException {
+        synchronized (appendLock) {
+            if (writeSegment.index == index) {
+                return writeSegment;
+            }
+        }
+        return Segment.open(segmentPath(index), index, segmentCapacity());
+    }
+
+    private ThumbEvent readRecord(ByteBuffer buffer, int offset) {
+        int expectedCrc = buffer.getInt(offset);
+        byte[] payload = new byte[ThumbEventSchema.LENGTH];
+        buffer.get(offset + 4, payload);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        if ((int) crc.getValue() != expectedCrc) {
+            log.error("点赞事件发件箱记录校验失败，跳过: offset={}", offset);
+            return null;
+        }
+        return ThumbEventSchema.INSTANCE.decode(payload);
+    }
+
+    /**
+     * 扫描分段找到最后一条完整记录之后的位置，并清除之后可能残留的半条记录
+     */
+    private int recoverEnd(MappedByteBuffer buffer) {
+        int offset = 0;
+        while (offset + RECORD_SIZE <= buffer.capacity()) {
+            if (buffer.get(offset + 4) == 0) {
+                break;
+            }
+            byte[] payload = new byte[ThumbEventSchema.LENGTH];
+            buffer.get(offset + 4, payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if ((int) crc.getValue() != buffer.getInt(offset)) {
+                log.warn("点赞事件发件箱发现不完整记录，从此处截断: offset={}", offset);
+                for (int i = offset; i < buffer.capacity(); i++) {
+                    buffer.put(i, (byte) 0);
+                }
+                break;
+            }
+            offset += RECORD_SIZE;
+        }
+        return offset;
+    }
+
+    private void forceWriteSegment() {
+        Segment segment;
+        synchronized (appendLock) {
+            segment = writeSegment;
+        }
+        // 刷盘在锁外执行，不阻塞追加
+        if (segment != null) {
+            segment.buffer.force();
+        }
+    }
+
+    private void saveCheckpoint(Position position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(12);
+        buffer.putLong(position.segment()).putInt(position.offset());
+        Path tmp = directory.resolve(CHECKPOINT_FILE + ".tmp");
+        Files.write(tmp, buffer.array());
+        Files.move(tmp, directory.resolve(CHECKPOINT_FILE),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Position loadCheckpoint() throws IOException {
+        Path path = directory.resolve(CHECKPOINT_FILE);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        byte[] bytes = Files.readAllBytes(path);
+        if (bytes.length < 12) {
+            log.warn("点赞事件发件箱检查点损坏，将从最早的分段重放");
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return new Position(buffer.getLong(), buffer.getInt());
+    }
+
+    private void deleteForwardedSegments(long currentSegment) throws IOException {
+        for (long index : listSegments()) {
+            if (index < currentSegment) {
+                Files.deleteIfExists(segmentPath(index));
+                log.info("删除已转发的发件箱分段: {}", index);
+            }
+        }
+    }
+
+    private List<Long> listSegments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+                    .map(name -> Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private Path segmentPath(long index) {
+        return directory.resolve(SEGMENT_PREFIX + String.format("%020d", index) + SEGMENT_SUFFIX);
+    }
+
+    private int segmentCapacity() {
+        return recordsPerSegment * RECORD_SIZE;
+    }
+
+    /**
+     * 停止接收后把已追加的事件尽量转发完，最多等待 10 秒，剩余的在下次启动时重放
+     */
+    @PreDestroy
+    public void destroy() {
+        if (forwarder == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(forwarder);
+        try {
+            forwarder.join(10_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        forceWriteSegment();
+        try {
+            directoryLock.release();
+            lockChannel.close();
+        } catch (IOException e) {
+            log.warn("释放点赞事件发件箱目录锁失败", e);
+        }
+        log.info("点赞事件发件箱已关闭: 检查点={}, 写入位置={}", checkpoint, writePosition);
+    }
+
+    /**
+     * 发件箱中的位置
+     */
+    private record Position(long segment, int offset) {
+    }
+
+    /**
+     * 一个内存映射的分段文件
+     */
+    private static class Segment {
+        private final long index;
+        private final MappedByteBuffer buffer;
+
+        private Segment(long index, MappedByteBuffer buffer) {
+            this.index = index;
+            this.buffer = buffer;
+        }
+
+        static Segment open(Path path, long index, int capacity) throws IOException {
+            try (FileChannel channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                // 映射在通道关闭后依然有效
+                return new Segment(index, channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity));
+            }
+        }
+    }
+}
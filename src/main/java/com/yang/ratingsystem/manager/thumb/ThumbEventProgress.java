@@ -0,0 +1,153 @@
+package com.yang.ratingsystem.manager.thumb;
+
+import cn.hutool.core.util.IdUtil;
+import cn.hutool.core.util.NumberUtil;
+import com.yang.ratingsystem.constant.ThumbConstant;
+import com.yang.ratingsystem.listener.thumb.msg.ThumbEvent;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.ZoneId;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 点赞事件处理进度
+ *
+ * 跟踪本节点尚未写入数据库的点赞事件：已发布但 broker 尚未确认（或发件箱尚未转发）的事件、
+ * 消费者已接收但尚未确认的消息，以及否定确认后等待重新投递的消息。
+ * 本节点的进度为这些事件中最早的事件时间、消费者最近一次取空预取队列的时间和当前时间三者的最小值，再减去宽限时间；
+ * 宽限时间覆盖点赞脚本执行到事件发布、broker 确认到投递给消费者之间没有被任何节点跟踪的间隙。
+ * 各节点定期把进度写入 Redis 哈希，对账任务取存活节点进度的最小值：超过某个时间点时，
+ * 该时间点之前产生的点赞事件都已写入数据库
+ */
+@Component
+@Slf4j
+public class ThumbEventProgress {
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final String instanceId = IdUtil.fastSimpleUUID();
+
+    private final Map<Object, Pending> pending = new ConcurrentHashMap<>();
+
+    private volatile long drainedAt;     // 消费者最近一次取空预取队列的时间，之前投递到本节点的消息都已被接收
+
+    @Value("${thumb.reconcile.progress.grace-ms:5000}")
+    private long graceMillis;
+
+    @Value("${thumb.reconcile.progress.stale-ms:60000}")
+    private long staleMillis;            // 超过该时间未上报的节点视为已下线
+
+    public ThumbEventProgress(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    /**
+     * 开始跟踪一个事件，token 为事件ID或消息ID，为 null 时不跟踪
+     */
+    public void begin(Object token, ThumbEvent event) {
+        if (token != null) {
+            pending.put(token, new Pending(eventMillis(event), Long.MAX_VALUE));
+        }
+    }
+
+    /**
+     * 事件已完成，不再跟踪
+     */
+    public void end(Collection<?> tokens) {
+        tokens.stream().filter(Objects::nonNull).forEach(pending::remove);
+    }
+
+    /**
+     * 事件交给下一环节后继续保留一段时间，覆盖交接期间两边都没有跟踪的间隙
+     */
+    public void linger(Collection<?> tokens, long millis) {
+        long expireAt = System.currentTimeMillis() + millis;
+        tokens.stream().filter(Objects::nonNull)
+                .forEach(token -> pending.computeIfPresent(token, (k, p) -> new Pending(p.eventMillis(), expireAt)));
+    }
+
+    /**
+     * 消费者在 startMillis 开始的接收中取空了预取队列
+     */
+    public void markDrained(long startMillis) {
+        drainedAt = Math.max(drainedAt, startMillis);
+    }
+
+    public long getGraceMillis() {
+        return graceMillis;
+    }
+
+    /**
+     * 本节点的进度
+     */
+    public long position() {
+        long now = System.currentTimeMillis();
+        long position = Math.min(now, drainedAt);
+        for (Map.Entry<Object, Pending> entry : pending.entrySet()) {
+            if (entry.getValue().expireAt() <= now) {
+                pending.remove(entry.getKey(), entry.getValue());
+            } else {
+                position = Math.min(position, entry.getValue().eventMillis());
+            }
+        }
+        return position - graceMillis;
+    }
+
+    /**
+     * 定期上报本节点的进度：字段为节点ID，值为 进度:上报时间
+     */
+    @Scheduled(fixedDelayString = "${thumb.reconcile.progress.report-interval-ms:1000}")
+    public void report() {
+        stringRedisTemplate.opsForHash().put(ThumbConstant.EVENT_PROGRESS_KEY, instanceId,
+                position() + ":" + System.currentTimeMillis());
+    }
+
+    /**
+     * 所有存活节点的进度最小值，顺便清理已下线节点的记录
+     *
+     * @return 没有存活节点上报进度时返回 null
+     */
+    public Long clusterPosition() {
+        long now = System.currentTimeMillis();
+        Long position = null;
+        for (Map.Entry<Object, Object> entry : stringRedisTemplate.opsForHash().entries(ThumbConstant.EVENT_PROGRESS_KEY).entrySet()) {
+            String[] parts = entry.getValue().toString().split(":");
+            if (parts.length != 2 || !NumberUtil.isLong(parts[0]) || !NumberUtil.isLong(parts[1])
+                    || now - Long.parseLong(parts[1]) > staleMillis) {
+                // 下线节点未确认的消息会重新投递给其他节点，由接收的节点继续跟踪
+                stringRedisTemplate.opsForHash().delete(ThumbConstant.EVENT_PROGRESS_KEY, entry.getKey());
+                continue;
+            }
+            position = position == null ? Long.parseLong(parts[0]) : Math.min(position, Long.parseLong(parts[0]));
+        }
+        return position;
+    }
+
+    @PreDestroy
+    public void destroy() {
+        try {
+            stringRedisTemplate.opsForHash().delete(ThumbConstant.EVENT_PROGRESS_KEY, instanceId);
+        } catch (Exception e) {
+            log.warn("清理点赞事件处理进度失败，等待过期后由对账任务清理", e);
+        }
+    }
+
+    private static long eventMillis(ThumbEvent event) {
+        return event.getEventTime() == null ? System.currentTimeMillis()
+                : event.getEventTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /**
+     * 一个未完成的事件，expireAt 为停止跟踪的时间
+     */
+    private record Pending(long eventMillis, long expireAt) {
+    }
+}
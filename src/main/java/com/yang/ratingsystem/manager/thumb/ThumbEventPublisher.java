@@ -0,0 +1,74 @@
+package com.yang.ratingsystem.manager.thumb;
+
+import com.yang.ratingsystem.listener.thumb.msg.ThumbEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pulsar.client.api.Producer;
+import org.apache.pulsar.client.api.PulsarClientException;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 点赞事件发布器
+ *
+ * 启用本地发件箱时，事件追加到发件箱后立即视为发布成功，由发件箱负责转发到 Pulsar；
+ * 发件箱写入失败或已满时发布失败，不绕过发件箱直接发送，否则会越过发件箱中同一 key 的事件。
+ * 未启用发件箱时直接异步发送到 Pulsar，生产者发送队列已满时发布立即失败。
+ * 事件在发件箱转发或 broker 确认之前由处理进度跟踪，对账任务据此判断事件是否可能尚未写入数据库
+ */
+@Component
+@Slf4j
+public class ThumbEventPublisher {
+
+    private final ThumbEventOutbox outbox;
+    private final Producer<ThumbEvent> thumbEventProducer;
+    private final ThumbEventProgress eventProgress;
+
+    public ThumbEventPublisher(ThumbEventOutbox outbox, Producer<ThumbEvent> thumbEventProducer,
+                               ThumbEventProgress eventProgress) {
+        this.outbox = outbox;
+        this.thumbEventProducer = thumbEventProducer;
+        this.eventProgress = eventProgress;
+    }
+
+    /**
+     * 发布点赞事件
+     *
+     * @return 事件已持久化到发件箱或已被 broker 确认时完成的 Future
+     */
+    public CompletableFuture<Void> publish(ThumbEvent event) {
+        List<Long> tokens = Collections.singletonList(event.getEventId());
+        eventProgress.begin(event.getEventId(), event);
+        if (outbox.isEnabled()) {
+            try {
+                // 转发成功后由发件箱结束跟踪
+                outbox.append(event);
+                return CompletableFuture.completedFuture(null);
+            } catch (IOException e) {
+                eventProgress.end(tokens);
+                log.warn("写入点赞事件发件箱失败: userId={}, blogId={}", event.getUserId(), event.getBlogId(), e);
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        return thumbEventProducer.newMessage()
+                .key(event.orderingKey())
+                .value(event)
+                .sendAsync()
+                .whenComplete((messageId, ex) -> {
+                    if (ex != null) {
+                        eventProgress.end(tokens);
+                        if (ex instanceof PulsarClientException.ProducerQueueIsFullError) {
+                            // broker 确认跟不上发送速度，快速失败，不阻塞请求线程等待队列空出
+                            log.warn("点赞事件发送队列已满: userId={}, blogId={}", event.getUserId(), event.getBlogId());
+                        }
+                    } else {
+                        // broker 确认后到投递给消费者之间仍保留一段时间
+                        eventProgress.linger(tokens, eventProgress.getGraceMillis());
+                    }
+                })
+                .thenAccept(messageId -> log.debug("点赞事件发送成功: eventId={}, messageId={}", event.getEventId(), messageId));
+    }
+}
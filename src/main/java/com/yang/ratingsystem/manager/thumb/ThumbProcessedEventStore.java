@@ -0,0 +1,96 @@
+package com.yang.ratingsystem.manager.thumb;
+
+import cn.hutool.core.collection.CollUtil;
+import com.yang.ratingsystem.utils.RedisKeyUtil;
+import com.yang.ratingsystem.utils.RedisPipelineUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 已处理点赞事件ID存储
+ *
+ * 按时间分桶的 Redis Set（thumb_event:processed:{bucket}），每个桶带 TTL，
+ * 查询时同时检查当前桶和上一个桶，保证至少保留一个完整保留周期内的事件ID。
+ * 消费者在处理前过滤掉已处理过的事件，重投的批次无需再访问数据库。
+ * Redis 不可用时视为未处理，由批量写入器的 INSERT IGNORE / 元组删除保证幂等。
+ */
+@Component
+@Slf4j
+public class ThumbProcessedEventStore {
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    @Value("${pulsar.consumer.dedup.enabled:true}")
+    private boolean enabled;
+
+    @Value("${pulsar.consumer.dedup.retention-minutes:30}")
+    private long retentionMinutes;       // 事件ID保留时长，应大于最大重投延迟
+
+    public ThumbProcessedEventStore(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    /**
+     * 查询已处理过的事件ID
+     *
+     * @return eventIds 中已处理的部分
+     */
+    public Set<Long> findProcessed(Collection<Long> eventIds) {
+        if (!enabled || CollUtil.isEmpty(eventIds)) {
+            return Set.of();
+        }
+        long bucket = currentBucket();
+        String[] members = eventIds.stream().map(String::valueOf).toArray(String[]::new);
+        try {
+            List<Object> results = RedisPipelineUtil.executePipelined(stringRedisTemplate, List.of(
+                    connection -> connection.sMIsMember(RedisKeyUtil.getProcessedEventKey(bucket), members),
+                    connection -> connection.sMIsMember(RedisKeyUtil.getProcessedEventKey(bucket - 1), members)));
+            Set<Long> processed = new HashSet<>();
+            for (Object result : results) {
+                if (!(result instanceof List<?> flags)) {
+                    continue;
+                }
+                for (int i = 0; i < members.length && i < flags.size(); i++) {
+                    if (Boolean.TRUE.equals(flags.get(i))) {
+                        processed.add(Long.valueOf(members[i]));
+                    }
+                }
+            }
+            return processed;
+        } catch (Exception e) {
+            log.warn("查询已处理事件ID失败，按未处理继续: count={}", members.length, e);
+            return Set.of();
+        }
+    }
+
+    /**
+     * 记录事件ID已处理，应在数据库事务提交之后、消息确认之前调用
+     */
+    public void markProcessed(Collection<Long> eventIds) {
+        if (!enabled || CollUtil.isEmpty(eventIds)) {
+            return;
+        }
+        String key = RedisKeyUtil.getProcessedEventKey(currentBucket());
+        String[] members = eventIds.stream().map(String::valueOf).toArray(String[]::new);
+        // 桶的 TTL 为两个保留周期，保证上一个桶在整个当前周期内仍可查询
+        long ttlSeconds = retentionMinutes * 60 * 2;
+        try {
+            RedisPipelineUtil.executePipelined(stringRedisTemplate, List.of(
+                    connection -> connection.sAdd(key, members),
+                    connection -> connection.expire(key, ttlSeconds)));
+        } catch (Exception e) {
+            log.warn("记录已处理事件ID失败，重投时将依赖数据库幂等: count={}", members.length, e);
+        }
+    }
+
+    private long currentBucket() {
+        return System.currentTimeMillis() / (Math.max(1, retentionMinutes) * 60_000);
+    }
+}
@@ -0,0 +1,151 @@
+package com.yang.ratingsystem.manager.thumb;
+
+import com.yang.ratingsystem.constant.RedisLuaScriptConstant;
+import com.yang.ratingsystem.utils.RedisPipelineUtil;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisPipelineException;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 点赞 Lua 脚本注册表
+ *
+ * 启动时 SCRIPT LOAD 预加载点赞脚本，调用时直接 EVALSHA，KEYS 和 ARGV 按字符串编码，
+ * 不再经过 RedisTemplate 的 Jackson 序列化器；Redis 重启或执行 SCRIPT FLUSH 后遇到 NOSCRIPT 时改用 EVAL，
+ * EVAL 会把脚本重新缓存到 Redis。
+ * 支持把多个脚本调用放在一个流水线中执行，一次往返完成多个点赞操作
+ */
+@Component
+@Slf4j
+public class ThumbScriptRegistry {
+
+    private static final List<RedisScript<Long>> SCRIPTS = List.of(
+            RedisLuaScriptConstant.THUMB_SCRIPT,
+            RedisLuaScriptConstant.UNTHUMB_SCRIPT,
+            RedisLuaScriptConstant.THUMB_SCRIPT_MQ,
+            RedisLuaScriptConstant.UNTHUMB_SCRIPT_MQ,
+            RedisLuaScriptConstant.THUMB_SCRIPT_STREAM,
+            RedisLuaScriptConstant.UNTHUMB_SCRIPT_STREAM,
+            RedisLuaScriptConstant.USER_THUMB_MIGRATE_SCRIPT,
+            RedisLuaScriptConstant.THUMB_EVICT_SCRIPT,
+            RedisLuaScriptConstant.USER_THUMB_SET_SCRIPT,
+            RedisLuaScriptConstant.USER_THUMB_DIGEST_CAS_SCRIPT
+    );
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    public ThumbScriptRegistry(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    /**
+     * 预加载脚本，Redis 暂不可用时不影响启动，首次调用时通过 EVAL 加载
+     */
+    @PostConstruct
+    public void load() {
+        try {
+            stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+                for (RedisScript<Long> script : SCRIPTS) {
+                    connection.scriptingCommands().scriptLoad(script.getScriptAsString().getBytes(StandardCharsets.UTF_8));
+                }
+                return null;
+            });
+            log.info("点赞 Lua 脚本预加载完成: {}个", SCRIPTS.size());
+        } catch (Exception e) {
+            log.warn("点赞 Lua 脚本预加载失败，调用时再加载", e);
+        }
+    }
+
+    /**
+     * 执行返回整数的脚本
+     */
+    public Long execute(RedisScript<Long> script, List<String> keys, Object... args) {
+        ScriptCall call = new ScriptCall(script, keys, List.of(args));
+        return stringRedisTemplate.execute((RedisCallback<Long>) connection -> evalSha(connection, call));
+    }
+
+    /**
+     * 在一个流水线中按顺序执行多个脚本调用，集群布局下逐条执行
+     *
+     * @return 与调用一一对应的结果，执行失败的调用为 null
+     */
+    public List<Long> executePipelined(List<ScriptCall> calls) {
+        List<Object> results;
+        try {
+            results = RedisPipelineUtil.executePipelined(stringRedisTemplate, calls.stream()
+                    .map(call -> (RedisPipelineUtil.Command) connection -> connection.scriptingCommands()
+                            .evalSha(call.script().getSha1(), ReturnType.INTEGER, call.keys().size(), call.keysAndArgs()))
+                    .toList());
+        } catch (RedisPipelineException e) {
+            // 部分调用失败，成功的结果仍然有效
+            results = e.getPipelineResult();
+        }
+
+        List<Long> values = new ArrayList<>(calls.size());
+        for (int i = 0; i < calls.size(); i++) {
+            Object result = i < results.size() ? results.get(i) : null;
+            if (result instanceof Long value) {
+                values.add(value);
+            } else if (result instanceof Exception e && isNoScript(e)) {
+                // 脚本缓存已被清空，逐个回退到 EVAL
+                ScriptCall call = calls.get(i);
+                values.add(stringRedisTemplate.execute((RedisCallback<Long>) connection -> evalSha(connection, call)));
+            } else {
+                if (result instanceof Exception e) {
+                    log.warn("执行点赞脚本失败", e);
+                }
+                values.add(null);
+            }
+        }
+        return values;
+    }
+
+    private Long evalSha(RedisConnection connection, ScriptCall call) {
+        try {
+            return connection.scriptingCommands().evalSha(call.script().getSha1(), ReturnType.INTEGER,
+                    call.keys().size(), call.keysAndArgs());
+        } catch (Exception e) {
+            if (!isNoScript(e)) {
+                throw e;
+            }
+            return connection.scriptingCommands().eval(call.script().getScriptAsString().getBytes(StandardCharsets.UTF_8),
+                    ReturnType.INTEGER, call.keys().size(), call.keysAndArgs());
+        }
+    }
+
+    private static boolean isNoScript(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause.getMessage() != null && cause.getMessage().contains("NOSCRIPT")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 一次脚本调用
+     */
+    public record ScriptCall(RedisScript<Long> script, List<String> keys, List<Object> args) {
+
+        byte[][] keysAndArgs() {
+            byte[][] keysAndArgs = new byte[keys.size() + args.size()][];
+            int i = 0;
+            for (String key : keys) {
+                keysAndArgs[i++] = key.getBytes(StandardCharsets.UTF_8);
+            }
+            for (Object arg : args) {
+                keysAndArgs[i++] = String.valueOf(arg).getBytes(StandardCharsets.UTF_8);
+            }
+            return keysAndArgs;
+        }
+    }
+}
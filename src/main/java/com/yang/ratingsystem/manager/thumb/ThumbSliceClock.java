@@ -0,0 +1,67 @@
+package com.yang.ratingsystem.manager.thumb;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * 临时点赞数据的时间片时钟
+ *
+ * 时间片 ID 为对齐到片宽的 epoch 秒（即时间片起始时间），单调递增，跨分钟、跨天都不会回绕。
+ * 调整片宽后新旧时间片 ID 仍可直接比较大小；旧片宽下未对齐的时间片由补偿任务处理
+ */
+@Component
+public class ThumbSliceClock {
+
+    @Value("${thumb.sync.slice-seconds:10}")
+    private long sliceSeconds;           // 时间片宽度
+
+    @Value("${thumb.sync.close-delay-seconds:2}")
+    private long closeDelaySeconds;      // 时间片结束后再等待的时间，容忍进行中的请求和节点间时钟偏差
+
+    /**
+     * 当前写入的时间片
+     */
+    public long currentSlice() {
+        return align(epochSeconds());
+    }
+
+    /**
+     * 最近一个已关闭（不会再有写入）的时间片
+     */
+    public long lastClosedSlice() {
+        return align(epochSeconds() - closeDelaySeconds - sliceSeconds);
+    }
+
+    /**
+     * 指定时间片之后的下一个时间片
+     */
+    public long nextSlice(long slice) {
+        return align(slice) + sliceSeconds;
+    }
+
+    /**
+     * 时间片是否已关闭
+     */
+    public boolean isClosed(long slice) {
+        return slice <= lastClosedSlice();
+    }
+
+    /**
+     * 指定时间（epoch 毫秒）所在的时间片
+     */
+    public long sliceOf(long epochMillis) {
+        return align(Math.floorDiv(epochMillis, 1000));
+    }
+
+    public long getSliceSeconds() {
+        return sliceSeconds;
+    }
+
+    private long align(long epochSeconds) {
+        return Math.floorDiv(epochSeconds, sliceSeconds) * sliceSeconds;
+    }
+
+    private long epochSeconds() {
+        return System.currentTimeMillis() / 1000;
+    }
+}
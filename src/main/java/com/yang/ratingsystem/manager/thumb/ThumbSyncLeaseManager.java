@@ -0,0 +1,95 @@
+package com.yang.ratingsystem.manager.thumb;
+
+import cn.hutool.core.util.IdUtil;
+import com.yang.ratingsystem.constant.RedisLuaScriptConstant;
+import com.yang.ratingsystem.utils.RedisKeyUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 点赞同步任务的分布式租约
+ *
+ * 基于 Redis SET NX PX：获取成功的节点持有随机 token，续约和释放都通过 Lua 比较 token，
+ * 不会误删其他节点的租约。租约过期后其他节点可以接手，同步过程依赖批量写入器的幂等性，重复处理不会重复计数
+ */
+@Component
+@Slf4j
+public class ThumbSyncLeaseManager {
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    public ThumbSyncLeaseManager(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    /**
+     * 尝试获取租约
+     *
+     * @return 获取成功返回租约，已被其他节点持有时返回 null
+     */
+    public Lease tryAcquire(String name, long ttlMillis) {
+        String key = RedisKeyUtil.getSyncLeaseKey(name);
+        String token = IdUtil.fastSimpleUUID();
+        Boolean acquired = stringRedisTemplate.opsForValue().setIfAbsent(key, token, ttlMillis, TimeUnit.MILLISECONDS);
+        return Boolean.TRUE.equals(acquired) ? new Lease(key, token, ttlMillis) : null;
+    }
+
+    /**
+     * 一个已持有的租约，使用完毕后关闭即释放
+     */
+    public class Lease implements AutoCloseable {
+
+        private final String key;
+        private final String token;
+        private final long ttlMillis;
+
+        private Lease(String key, String token, long ttlMillis) {
+            this.key = key;
+            this.token = token;
+            this.ttlMillis = ttlMillis;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * 持有者 token，在 Lua 脚本中比较后才写入受租约保护的数据
+         */
+        public String getToken() {
+            return token;
+        }
+
+        /**
+         * 续约，长时间任务应在每个处理步骤后调用
+         *
+         * @return 租约已丢失（过期后被其他节点获取）时返回 false
+         */
+        public boolean renew() {
+            Long result = stringRedisTemplate.execute(
+                    RedisLuaScriptConstant.LEASE_RENEW_SCRIPT,
+                    List.of(key),
+                    token, String.valueOf(ttlMillis)
+            );
+            if (result == null || result == 0L) {
+                log.warn("同步租约已丢失: {}", key);
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public void close() {
+            try {
+                stringRedisTemplate.execute(RedisLuaScriptConstant.LEASE_RELEASE_SCRIPT, List.of(key), token);
+            } catch (Exception e) {
+                // 释放失败时等待租约自然过期
+                log.warn("释放同步租约失败: {}", key, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,439 @@
+package com.yang.ratingsystem.manager.thumb;
+
+import cn.hutool.core.util.NumberUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.yang.ratingsystem.common.ErrorCode;
+import com.yang.ratingsystem.constant.RedisLuaScriptConstant;
+import com.yang.ratingsystem.constant.ThumbConstant;
+import com.yang.ratingsystem.exception.BusinessException;
+import com.yang.ratingsystem.mapper.ThumbMapper;
+import com.yang.ratingsystem.model.Thumb;
+import com.yang.ratingsystem.utils.RedisKeyUtil;
+import com.yang.ratingsystem.utils.RedisPipelineUtil;
+import com.yang.ratingsystem.utils.RedisScanUtil;
+import com.yang.ratingsystem.utils.ThumbKeyLayout;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 用户点赞状态存储
+ *
+ * 默认每个用户一个哈希 thumb:{userId}，字段为 blogId，值经过 RedisTemplate 的 Jackson 序列化。
+ * 开启紧凑存储后按 userId / 分桶大小 把相邻用户合并到 thumb:b:{bucket} 哈希，字段为 用户偏移:blogId，值为整数 1，
+ * 字段和值都按字符串直接写入；分桶字段数不超过 hash-max-listpack-entries 时 Redis 使用 listpack 编码，
+ * 省去每个用户一个 key 的固定开销。
+ * 旧布局的数据在用户首次访问时由 Lua 脚本迁移到分桶。
+ *
+ * 开启冷用户分层后，长时间未访问的用户点赞 key（紧凑存储下为分桶）由 {@link com.yang.ratingsystem.job.ThumbTieringJob} 淘汰，
+ * 被淘汰的 key 记录在淘汰标记集合中；再次访问时按 (userId, blogId) 游标分页从 thumb 表加载，流水线写回 Redis 后清除标记。
+ * 不在标记集合中的 key 不存在即表示用户从未点赞，不需要查询数据库
+ */
+@Component
+@Slf4j
+public class UserThumbStore {
+
+    private static final long REHYDRATE_POLL_MIN_MILLIS = 20;
+
+    private static final long REHYDRATE_POLL_MAX_MILLIS = 200;
+
+    private final RedisTemplate<String, Object> redisTemplate;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final ThumbScriptRegistry thumbScriptRegistry;
+
+    private final ThumbMapper thumbMapper;
+
+    private final ThumbSyncLeaseManager leaseManager;
+
+    private final ThumbKeyLayout thumbKeyLayout;
+
+    private final boolean tiering;
+
+    private final boolean digestEnabled;
+
+    private final int rehydrateBatchSize;
+
+    private final long rehydrateWaitMillis;
+
+    private final long leaseMillis;
+
+    /**
+     * 已完成迁移和回填检查的用户，只用于跳过重复检查；
+     * 滚动发布期间旧版本节点仍可能写入旧 key，过期后会再次迁移。
+     * 过期时间小于淘汰所需的空闲时间，缓存中的用户的 key 不会已被淘汰
+     */
+    private final Cache<Long, Boolean> residentUsers;
+
+    public UserThumbStore(RedisTemplate<String, Object> redisTemplate,
+                          StringRedisTemplate stringRedisTemplate,
+                          ThumbScriptRegistry thumbScriptRegistry,
+                          ThumbMapper thumbMapper,
+                          ThumbSyncLeaseManager leaseManager,
+                          ThumbKeyLayout thumbKeyLayout,
+                          @Value("${thumb.tier.enabled:false}") boolean tiering,
+                          @Value("${thumb.tier.idle-seconds:604800}") long idleSeconds,
+                          @Value("${thumb.tier.rehydrate-batch-size:1000}") int rehydrateBatchSize,
+                          @Value("${thumb.tier.rehydrate-wait-ms:3000}") long rehydrateWaitMillis,
+                          @Value("${thumb.sync.lease-ms:30000}") long leaseMillis,
+                          @Value("${thumb.digest.enabled:false}") boolean digestEnabled) {
+        this.redisTemplate = redisTemplate;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.thumbScriptRegistry = thumbScriptRegistry;
+        this.thumbMapper = thumbMapper;
+        this.leaseManager = leaseManager;
+        this.thumbKeyLayout = thumbKeyLayout;
+        this.tiering = tiering;
+        this.rehydrateBatchSize = rehydrateBatchSize;
+        this.rehydrateWaitMillis = rehydrateWaitMillis;
+        this.leaseMillis = leaseMillis;
+        this.digestEnabled = digestEnabled;
+        this.residentUsers = Caffeine.newBuilder()
+                .maximumSize(1_000_000)
+                .expireAfterWrite(Math.min(TimeUnit.MINUTES.toSeconds(10), Math.max(1, idleSeconds / 2)), TimeUnit.SECONDS)
+                .build();
+    }
+
+    public boolean isCompact() {
+        return thumbKeyLayout.isCompactUserLayout();
+    }
+
+    public boolean isTiering() {
+        return tiering;
+    }
+
+    /**
+     * 获取用户点赞状态所在的 key，紧凑存储下会先迁移该用户旧布局的数据，已被淘汰时先从数据库回填
+     */
+    public String key(Long userId) {
+        prepare(userId);
+        return unitKey(userId);
+    }
+
+    /**
+     * 获取用户点赞状态字段，作为点赞 Lua 脚本的可选参数传入
+     */
+    public String field(Long userId, Long blogId) {
+        return thumbKeyLayout.getUserThumbField(userId, blogId);
+    }
+
+    public Boolean has(Long userId, Long blogId) {
+        if (isCompact()) {
+            return stringRedisTemplate.opsForHash().hasKey(key(userId), field(userId, blogId));
+        }
+        return redisTemplate.opsForHash().hasKey(key(userId), blogId.toString());
+    }
+
+    /**
+     * 批量判断用户是否点赞，结果与 blogIds 一一对应
+     */
+    public List<Boolean> has(Long userId, List<Long> blogIds) {
+        if (blogIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        String key = key(userId);
+        List<Object> fields = blogIds.stream().map(blogId -> (Object) field(userId, blogId)).toList();
+        List<Object> values = isCompact()
+                ? stringRedisTemplate.opsForHash().multiGet(key, fields)
+                : redisTemplate.opsForHash().multiGet(key, fields);
+        return values.stream().map(Objects::nonNull).toList();
+    }
+
+    /**
+     * 删除点赞状态，用于点赞事件发布失败后的回滚和对账修复
+     */
+    public void remove(Long userId, Long blogId) {
+        set(userId, blogId, false);
+    }
+
+    /**
+     * 恢复点赞状态，用于取消点赞事件发布失败后的回滚和对账修复
+     */
+    public void restore(Long userId, Long blogId) {
+        set(userId, blogId, true);
+    }
+
+    /**
+     * 由 Lua 脚本写入或删除点赞状态，开启摘要对账时状态变化会同时更新用户点赞摘要
+     */
+    private void set(Long userId, Long blogId, boolean thumb) {
+        thumbScriptRegistry.execute(
+                RedisLuaScriptConstant.USER_THUMB_SET_SCRIPT,
+                withDigestKey(List.of(key(userId)), userId),
+                field(userId, blogId),
+                userId,
+                blogId,
+                thumb ? 1 : 0
+        );
+    }
+
+    /**
+     * 开启摘要对账时把用户点赞摘要 key 追加到 Lua 脚本的 KEYS 末尾，
+     * 未开启时脚本不计算也不写入摘要，摘要哈希不会无限增长
+     */
+    public List<String> withDigestKey(List<String> keys, Long userId) {
+        if (!digestEnabled) {
+            return keys;
+        }
+        List<String> result = new ArrayList<>(keys.size() + 1);
+        result.addAll(keys);
+        result.add(thumbKeyLayout.getUserThumbDigestKey(userId));
+        return result;
+    }
+
+    /**
+     * 用户的点赞数据是否已被淘汰，不触发回填
+     */
+    public boolean isEvicted(Long userId) {
+        if (!tiering) {
+            return false;
+        }
+        String key = unitKey(userId);
+        return isEvicted(RedisKeyUtil.getEvictedMarkerKey(key), key);
+    }
+
+    /**
+     * 批量获取用户点赞过的博客ID，在一个流水线中读取，不触发迁移和回填；
+     * 紧凑存储下同时读取用户所在的分桶和尚未迁移的旧 key，已被淘汰的用户返回空集合
+     */
+    public Map<Long, Set<Long>> blogIds(Collection<Long> userIds) {
+        List<Long> users = new ArrayList<>(userIds);
+        List<String> bucketKeys = isCompact()
+                ? users.stream().map(thumbKeyLayout::getUserThumbBucketKey).distinct().toList()
+                : List.of();
+        List<RedisPipelineUtil.Command> commands = new ArrayList<>(users.size() + bucketKeys.size());
+        for (Long userId : users) {
+            commands.add(connection -> connection.hKeys(thumbKeyLayout.getUserThumbKey(userId)));
+        }
+        for (String bucketKey : bucketKeys) {
+            commands.add(connection -> connection.hKeys(bucketKey));
+        }
+        List<Object> results = RedisPipelineUtil.executePipelined(stringRedisTemplate, commands);
+
+        Map<Long, Set<Long>> blogIds = new HashMap<>(users.size() * 2);
+        for (int i = 0; i < users.size(); i++) {
+            Set<Long> userBlogIds = blogIds.computeIfAbsent(users.get(i), k -> new HashSet<>());
+            if (results.get(i) instanceof Collection<?> fields) {
+                for (Object field : fields) {
+                    if (NumberUtil.isLong(field.toString())) {
+                        userBlogIds.add(Long.valueOf(field.toString()));
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < bucketKeys.size(); i++) {
+            Long bucket = RedisKeyUtil.parseBucketFromThumbKey(bucketKeys.get(i));
+            if (bucket == null || !(results.get(users.size() + i) instanceof Collection<?> fields)) {
+                continue;
+            }
+            for (Object value : fields) {
+                String field = value.toString();
+                int index = field.indexOf(':');
+                if (index <= 0 || !NumberUtil.isLong(field.substring(0, index)) || !NumberUtil.isLong(field.substring(index + 1))) {
+                    continue;
+                }
+                Set<Long> userBlogIds = blogIds.get(thumbKeyLayout.getUserIdInBucket(bucket, Long.parseLong(field.substring(0, index))));
+                if (userBlogIds != null) {
+                    userBlogIds.add(Long.valueOf(field.substring(index + 1)));
+                }
+            }
+        }
+        return blogIds;
+    }
+
+    /**
+     * 遍历 Redis 中有点赞状态的用户，包括尚未迁移到分桶的用户，同一个用户可能回调多次
+     */
+    public void scanUserIds(int count, Consumer<Long> action) {
+        List<Long> buckets = new ArrayList<>();
+        ScanOptions options = ScanOptions.scanOptions()
+                .match(ThumbConstant.USER_THUMB_KEY_PREFIX + "*")
+                .count(count)
+                .build();
+        RedisScanUtil.scanKeys(redisTemplate, options, key -> {
+            // thumb:* 也会匹配到 thumb:temp:* 等非用户 key，解析失败时跳过
+            Long userId = RedisKeyUtil.parseUserIdFromThumbKey(key);
+            if (userId != null) {
+                action.accept(userId);
+                return;
+            }
+            Long bucket = RedisKeyUtil.parseBucketFromThumbKey(key);
+            if (bucket != null) {
+                buckets.add(bucket);
+            }
+        });
+        if (!isCompact()) {
+            return;
+        }
+        ScanOptions fieldOptions = ScanOptions.scanOptions().count(count).build();
+        for (Long bucket : buckets) {
+            String bucketKey = ThumbConstant.USER_THUMB_BUCKET_KEY_PREFIX + bucket;
+            try (Cursor<Map.Entry<Object, Object>> cursor = stringRedisTemplate.opsForHash().scan(bucketKey, fieldOptions)) {
+                cursor.forEachRemaining(entry -> {
+                    String field = entry.getKey().toString();
+                    int index = field.indexOf(':');
+                    if (index > 0 && NumberUtil.isLong(field.substring(0, index))) {
+                        action.accept(thumbKeyLayout.getUserIdInBucket(bucket, Long.parseLong(field.substring(0, index))));
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * 用户点赞状态所在的 key，紧凑存储下为分桶 key，不做迁移和回填检查
+     */
+    private String unitKey(Long userId) {
+        return isCompact() ? thumbKeyLayout.getUserThumbBucketKey(userId) : thumbKeyLayout.getUserThumbKey(userId);
+    }
+
+    private void prepare(Long userId) {
+        if (!isCompact() && !tiering) {
+            return;
+        }
+        if (residentUsers.getIfPresent(userId) != null) {
+            return;
+        }
+        if (isCompact()) {
+            migrate(userId);
+        }
+        if (tiering) {
+            rehydrate(userId);
+        }
+        residentUsers.put(userId, true);
+    }
+
+    /**
+     * 把用户旧布局的点赞数据迁移到分桶，迁移脚本可重复执行
+     */
+    private void migrate(Long userId) {
+        Long migrated = thumbScriptRegistry.execute(
+                RedisLuaScriptConstant.USER_THUMB_MIGRATE_SCRIPT,
+                List.of(thumbKeyLayout.getUserThumbKey(userId), thumbKeyLayout.getUserThumbBucketKey(userId)),
+                thumbKeyLayout.getUserThumbBucketOffset(userId)
+        );
+        if (migrated != null && migrated > 0) {
+            log.info("用户点赞记录已迁移到紧凑存储: userId={}, 记录{}条", userId, migrated);
+        }
+    }
+
+    /**
+     * 用户点赞 key 已被淘汰时从数据库回填，多个节点同时访问时只由持有租约的节点回填，其他节点等待回填完成
+     */
+    private void rehydrate(Long userId) {
+        String key = unitKey(userId);
+        String marker = RedisKeyUtil.getEvictedMarkerKey(key);
+        if (!isEvicted(marker, key)) {
+            return;
+        }
+        try (ThumbSyncLeaseManager.Lease lease = leaseManager.tryAcquire("rehydrate:" + key, leaseMillis)) {
+            if (lease == null) {
+                awaitRehydrated(marker, key);
+                return;
+            }
+            // 获取租约前其他节点可能已完成回填
+            if (!isEvicted(marker, key)) {
+                return;
+            }
+            long start = System.currentTimeMillis();
+            int loaded = load(userId, key, lease);
+            if (loaded < 0) {
+                // 租约已被其他节点接手，由对方完成回填
+                log.warn("冷用户点赞数据回填租约已丢失，等待其他节点完成: key={}", key);
+                awaitRehydrated(marker, key);
+                return;
+            }
+            stringRedisTemplate.opsForSet().remove(marker, key);
+            log.info("冷用户点赞数据已回填: key={}, 记录{}条, 耗时{}ms", key, loaded, System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * 按 (userId, blogId) 游标分页加载点赞记录，所有分页的 HSET 在一个流水线中写入
+     *
+     * @return 加载的记录数，加载过程中租约丢失时不写入 Redis，返回 -1
+     */
+    private int load(Long userId, String key, ThumbSyncLeaseManager.Lease lease) {
+        long fromUserId = userId;
+        long toUserId = userId;
+        if (isCompact()) {
+            fromUserId = userId - thumbKeyLayout.getUserThumbBucketOffset(userId);
+            toUserId = fromUserId + thumbKeyLayout.getUserThumbBucketSize() - 1;
+        }
+        List<Map<String, String>> pages = new ArrayList<>();
+        long afterUserId = fromUserId;
+        long afterBlogId = Long.MIN_VALUE;
+        int loaded = 0;
+        while (true) {
+            List<Thumb> thumbs = thumbMapper.selectUserRangeAfter(fromUserId, toUserId, afterUserId, afterBlogId, rehydrateBatchSize);
+            if (thumbs.isEmpty()) {
+                break;
+            }
+            Map<String, String> fields = new HashMap<>(thumbs.size() * 2);
+            for (Thumb thumb : thumbs) {
+                fields.put(thumbKeyLayout.getUserThumbField(thumb.getUserId(), thumb.getBlogId()), "1");
+            }
+            pages.add(fields);
+            loaded += thumbs.size();
+            Thumb last = thumbs.get(thumbs.size() - 1);
+            afterUserId = last.getUserId();
+            afterBlogId = last.getBlogId();
+            if (!lease.renew()) {
+                return -1;
+            }
+            if (thumbs.size() < rehydrateBatchSize) {
+                break;
+            }
+        }
+        RedisPipelineUtil.executePipelined(stringRedisTemplate, pages.stream()
+                .map(fields -> (RedisPipelineUtil.Command) connection -> {
+                    connection.hMSet(key, fields);
+                    return null;
+                })
+                .toList());
+        return loaded;
+    }
+
+    /**
+     * 等待其他节点完成回填，检查间隔从 20ms 起指数退避到 200ms，超过 rehydrate-wait-ms 后返回系统繁忙
+     */
+    private void awaitRehydrated(String marker, String key) {
+        long deadline = System.currentTimeMillis() + rehydrateWaitMillis;
+        long backoff = REHYDRATE_POLL_MIN_MILLIS;
+        while (isEvicted(marker, key)) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new BusinessException(ErrorCode.SYSTEM_BUSY, "点赞数据加载中，请稍后重试");
+            }
+            try {
+                Thread.sleep(Math.min(backoff, remaining));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new BusinessException(ErrorCode.SYSTEM_BUSY, "点赞数据加载中断，请稍后重试");
+            }
+            backoff = Math.min(backoff * 2, REHYDRATE_POLL_MAX_MILLIS);
+        }
+    }
+
+    private boolean isEvicted(String marker, String key) {
+        return Boolean.TRUE.equals(stringRedisTemplate.opsForSet().isMember(marker, key));
+    }
+}
@@ -17,6 +17,18 @@ import java.util.Map;
 public interface BlogMapper extends BaseMapper<Blog> {
     //批量更新sql
     void batchUpdateThumbCount(@Param("countMap") Map<Long, Long> countMap);
+
+    /**
+     * 初始化点赞数增量交接记录，已存在时忽略
+     */
+    void initThumbCountHandoff();
+
+    /**
+     * 记录最近一次写入的点赞数增量交接 ID
+     *
+     * @return 0 表示该交接已写入过
+     */
+    int markThumbCountHandoff(@Param("handoffId") String handoffId);
 }
 
 
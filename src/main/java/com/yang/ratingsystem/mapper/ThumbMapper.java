@@ -3,6 +3,10 @@ package com.yang.ratingsystem.mapper;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.yang.ratingsystem.model.Thumb;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Collection;
+import java.util.List;
 
 /**
 * @author Decades
@@ -12,7 +16,38 @@ import org.apache.ibatis.annotations.Mapper;
 */
 
 public interface ThumbMapper extends BaseMapper<Thumb> {
-
+    /**
+     * 多行 INSERT IGNORE，已存在的 (userId, blogId) 会被跳过
+     * 依赖 thumb 表的 (userId, blogId) 唯一索引 uk_userId_blogId，见 sql/create_table.sql
+     * @return 实际插入的行数
+     */
+    int batchInsertIgnore(@Param("thumbs") List<Thumb> thumbs);
+
+    /**
+     * 按 (userId, blogId) 元组批量删除
+     * @return 实际删除的行数
+     */
+    int batchDeleteByUserBlogPairs(@Param("thumbs") List<Thumb> thumbs);
+
+    /**
+     * 按 (userId, blogId) 元组批量查询已存在的点赞记录
+     * 加锁读（FOR UPDATE），读取最新提交的数据并锁住查到的记录和缺失记录的间隙，需在事务中调用
+     */
+    List<Thumb> selectByUserBlogPairs(@Param("thumbs") List<Thumb> thumbs);
+
+    /**
+     * 按 (userId, blogId) 顺序分页查询用户区间内的点赞记录，从 (afterUserId, afterBlogId) 之后开始
+     */
+    List<Thumb> selectUserRangeAfter(@Param("fromUserId") Long fromUserId,
+                                     @Param("toUserId") Long toUserId,
+                                     @Param("afterUserId") Long afterUserId,
+                                     @Param("afterBlogId") Long afterBlogId,
+                                     @Param("limit") int limit);
+
+    /**
+     * 查询在 thumb 表中有点赞记录的用户
+     */
+    List<Long> selectExistingUserIds(@Param("userIds") Collection<Long> userIds);
 }
 
 
@@ -0,0 +1,43 @@
+package com.yang.ratingsystem.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.yang.ratingsystem.model.UserThumbDigest;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 针对表【user_thumb_digest】的数据库操作Mapper
+ * @Entity com.yang.ratingsystem.model.UserThumbDigest
+ */
+public interface UserThumbDigestMapper extends BaseMapper<UserThumbDigest> {
+    /**
+     * 把摘要增量异或到已有摘要上，用户不存在时插入
+     */
+    int batchXorDigest(@Param("digests") List<UserThumbDigest> digests);
+
+    /**
+     * 为没有摘要的用户插入值为 0 的摘要，已有摘要的用户不变；没有摘要等同于摘要为 0
+     */
+    int batchInsertIgnoreZero(@Param("userIds") Collection<Long> userIds);
+
+    /**
+     * 只把摘要仍等于 expected 中对应值的用户改为 digests 中的值，用于对账修复；
+     * 读取之后被点赞写入异或过的摘要不覆盖
+     *
+     * @return 写入的用户数
+     */
+    int batchCompareAndSetDigest(@Param("digests") List<UserThumbDigest> digests,
+                                 @Param("expected") List<UserThumbDigest> expected);
+
+    /**
+     * 按 userId 顺序分页查询摘要，从 afterUserId 之后开始
+     */
+    List<UserThumbDigest> selectPageAfter(@Param("afterUserId") Long afterUserId, @Param("limit") int limit);
+
+    /**
+     * 批量查询用户的摘要
+     */
+    List<UserThumbDigest> selectByUserIds(@Param("userIds") Collection<Long> userIds);
+}
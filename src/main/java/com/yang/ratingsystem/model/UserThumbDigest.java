@@ -0,0 +1,35 @@
+package com.yang.ratingsystem.model;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableField;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+/**
+ * 用户点赞摘要，随点赞记录在同一个事务中更新
+ * @TableName user_thumb_digest
+ */
+@TableName(value ="user_thumb_digest")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UserThumbDigest implements Serializable {
+    /**
+     * 用户ID
+     */
+    @TableId(type = IdType.INPUT)
+    private Long userId;
+
+    /**
+     * 用户所有点赞的 SHA-1(userId:blogId) 前 32 位的异或
+     */
+    private Long digest;
+
+    @TableField(exist = false)
+    private static final long serialVersionUID = 1L;
+}
@@ -0,0 +1,28 @@
+package com.yang.ratingsystem.model.dto.thumb;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 批量点赞 / 取消点赞请求，用于客户端一次提交离线期间的多个操作
+ */
+@Data
+public class ApplyThumbsRequest {
+
+    /**
+     * 按提交顺序执行的操作
+     */
+    private List<ThumbOperation> operations;
+
+    @Data
+    public static class ThumbOperation {
+
+        private Long blogId;
+
+        /**
+         * true 点赞，false 取消点赞
+         */
+        private Boolean thumb;
+    }
+}
@@ -2,9 +2,14 @@ package com.yang.ratingsystem.service;
 
 import com.baomidou.mybatisplus.extension.service.IService;
 import com.yang.ratingsystem.model.Thumb;
+import com.yang.ratingsystem.model.dto.thumb.ApplyThumbsRequest;
 import com.yang.ratingsystem.model.dto.thumb.DoThumbRequest;
 import jakarta.servlet.http.HttpServletRequest;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 /**
 * @author Decades
 * @description 针对表【thumb】的数据库操作Service
@@ -30,5 +35,54 @@ public interface ThumbService extends IService<Thumb> {
 
     Boolean hasThumb(Long blogId, Long userId);
 
+    /**
+     * 异步点赞
+     * 请求线程只完成参数校验和 Redis 写入，消息发送结果通过 Future 返回；
+     * 默认实现同步执行，基于消息队列的实现会覆盖为非阻塞发送
+     * @param doThumbRequest
+     * @param request 只在调用线程内使用，不会在回调中访问
+     * @return {@link CompletableFuture }
+     */
+    default CompletableFuture<Boolean> doThumbAsync(DoThumbRequest doThumbRequest, HttpServletRequest request) {
+        return CompletableFuture.completedFuture(doThumb(doThumbRequest, request));
+    }
+
+    /**
+     * 异步取消点赞
+     * @param doThumbRequest
+     * @param request 只在调用线程内使用，不会在回调中访问
+     * @return {@link CompletableFuture }
+     */
+    default CompletableFuture<Boolean> undoThumbAsync(DoThumbRequest doThumbRequest, HttpServletRequest request) {
+        return CompletableFuture.completedFuture(undoThumb(doThumbRequest, request));
+    }
+
+    /**
+     * 批量点赞 / 取消点赞，按提交顺序执行，单个操作失败不影响其他操作
+     * 默认实现逐个调用，基于 Lua 脚本的实现会覆盖为一次流水线往返；
+     * 单次操作数由 ThumbController 按 thumb.batch.max-operations 限制，对所有实现生效
+     * @param applyThumbsRequest
+     * @param request
+     * @return 与操作一一对应的结果
+     */
+    default List<Boolean> applyThumbs(ApplyThumbsRequest applyThumbsRequest, HttpServletRequest request) {
+        List<ApplyThumbsRequest.ThumbOperation> operations = applyThumbsRequest == null ? null : applyThumbsRequest.getOperations();
+        if (operations == null || operations.isEmpty()) {
+            throw new RuntimeException("参数错误");
+        }
+        List<Boolean> results = new ArrayList<>(operations.size());
+        for (ApplyThumbsRequest.ThumbOperation operation : operations) {
+            DoThumbRequest doThumbRequest = new DoThumbRequest();
+            doThumbRequest.setBlogId(operation.getBlogId());
+            try {
+                results.add(Boolean.TRUE.equals(operation.getThumb())
+                        ? doThumb(doThumbRequest, request)
+                        : undoThumb(doThumbRequest, request));
+            } catch (RuntimeException e) {
+                results.add(false);
+            }
+        }
+        return results;
+    }
 
 }
@@ -3,7 +3,8 @@ package com.yang.ratingsystem.service.impl;
 import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.ObjUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
-import com.yang.ratingsystem.constant.ThumbConstant;
+import com.yang.ratingsystem.manager.thumb.BlogThumbCounter;
+import com.yang.ratingsystem.manager.thumb.UserThumbStore;
 import com.yang.ratingsystem.mapper.BlogMapper;
 import com.yang.ratingsystem.model.Blog;
 import com.yang.ratingsystem.model.Thumb;
@@ -15,11 +16,8 @@ import com.yang.ratingsystem.service.UserService;
 import jakarta.annotation.Resource;
 import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.context.annotation.Lazy;
-import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Service;
 
-import java.util.ArrayList;
-import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -43,7 +41,10 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog>
     private ThumbService thumbService;
 
     @Resource
-    private RedisTemplate<String, Object> redisTemplate;
+    private UserThumbStore userThumbStore;
+
+    @Resource
+    private BlogThumbCounter blogThumbCounter;
 
 
     @Override
@@ -60,36 +61,32 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog>
         if (ObjUtil.isNotEmpty(loginUser)) {
 //            Set<Long> blogIdSet = blogList.stream().map(Blog::getId).collect(Collectors.toSet());
             // 创建一个博客ID字符串列表的映射关系
-            List<String> blogIdStrList = blogList.stream()
-                .map(blog -> blog.getId().toString())
+            List<Long> blogIdList = blogList.stream()
+                .map(Blog::getId)
                 .collect(Collectors.toList());
             
-            // 将List<String>转换为Collection<Object>
-            Collection<Object> blogIdObjList = new ArrayList<>(blogIdStrList.size());
-            for (String idStr : blogIdStrList) {
-                blogIdObjList.add(idStr);
-            }
-            
             // 获取点赞
 //            List<Thumb> thumbList = thumbService.lambdaQuery()
 //                    .eq(Thumb::getUserId, loginUser.getId())
 //                    .in(Thumb::getBlogId, blogIdSet)
 //                    .list();
-            List<Object> thumbList = redisTemplate.opsForHash().multiGet(ThumbConstant.USER_THUMB_KEY_PREFIX+loginUser.getId(), blogIdObjList);
+            List<Boolean> thumbList = userThumbStore.has(loginUser.getId(), blogIdList);
             
             for (int i = 0; i < thumbList.size(); i++) {
-                if(thumbList.get(i)==null){
+                if(!thumbList.get(i)){
                     continue;
                 }
-                // 将String转回Long
-                blogIdHasThumbMap.put(Long.valueOf(blogIdStrList.get(i)), true);
+                blogIdHasThumbMap.put(blogIdList.get(i), true);
             }
 //            thumbList.forEach(blogThumb -> blogIdHasThumbMap.put(blogThumb.getBlogId(), true));
         }
+        // 数据库中的点赞数加上 Redis 中尚未写入数据库的增量
+        Map<Long, Long> pendingDeltas = blogThumbCounter.pendingDeltas(blogList.stream().map(Blog::getId).toList());
         return blogList.stream()
                 .map(blog -> {
                     BlogVO blogVO = BeanUtil.copyProperties(blog, BlogVO.class);
                     blogVO.setHasThumb(blogIdHasThumbMap.get(blog.getId()));
+                    applyPendingDelta(blogVO, pendingDeltas);
                     return blogVO;
                 })
                 .toList();
@@ -99,6 +96,9 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog>
     private BlogVO getBlogById(Blog blog, User loginUser) {
         BlogVO blogVO = new BlogVO();
         BeanUtil.copyProperties(blog,blogVO);
+        if (blogVO.getId() != null) {
+            applyPendingDelta(blogVO, blogThumbCounter.pendingDeltas(List.of(blogVO.getId())));
+        }
         if(loginUser==null){
             return blogVO;
         }
@@ -112,6 +112,14 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog>
 
         return blogVO;
     }
+
+    private void applyPendingDelta(BlogVO blogVO, Map<Long, Long> pendingDeltas) {
+        Long delta = pendingDeltas.get(blogVO.getId());
+        if (delta == null || blogVO.getThumbCount() == null) {
+            return;
+        }
+        blogVO.setThumbCount((int) Math.max(0, blogVO.getThumbCount() + delta));
+    }
 }
 
 
@@ -11,6 +11,7 @@ import com.yang.ratingsystem.model.dto.thumb.DoThumbRequest;
 import com.yang.ratingsystem.service.BlogService;
 import com.yang.ratingsystem.service.ThumbService;
 import com.yang.ratingsystem.service.UserService;
+import com.yang.ratingsystem.utils.ThumbKeyLayout;
 import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -36,13 +37,14 @@ public class ThumbServiceImpl extends ServiceImpl<ThumbMapper, Thumb> implements
 
     private final RedisTemplate<String, Object> redisTemplate;
     private final CacheManager cacheManager;
+    private final ThumbKeyLayout thumbKeyLayout;
 
     // 是否点赞
     @Override
     public Boolean hasThumb(Long blogId, Long userId) {
 //        return redisTemplate.opsForHash().hasKey(ThumbConstant.USER_THUMB_KEY_PREFIX+userId, blogId.toString());
 //        return cacheManager.get(ThumbConstant.USER_THUMB_KEY_PREFIX+userId, blogId.toString())!=null;
-        Object thumbIdObj = cacheManager.get(ThumbConstant.USER_THUMB_KEY_PREFIX + userId, blogId.toString());
+        Object thumbIdObj = cacheManager.get(thumbKeyLayout.getUserThumbKey(userId), blogId.toString());
         if (thumbIdObj == null) {
             return false;
         }
@@ -93,7 +95,7 @@ public class ThumbServiceImpl extends ServiceImpl<ThumbMapper, Thumb> implements
 //                }
                 // 点赞记录存入 Redis
                 if (success) {
-                    String hashKey = ThumbConstant.USER_THUMB_KEY_PREFIX + loginUser.getId();
+                    String hashKey = thumbKeyLayout.getUserThumbKey(loginUser.getId());
                     String fieldKey = blogId.toString();
                     Long realThumbId = thumb.getId();
                     redisTemplate.opsForHash().put(hashKey, fieldKey, realThumbId);
@@ -124,7 +126,7 @@ public class ThumbServiceImpl extends ServiceImpl<ThumbMapper, Thumb> implements
 //                Long thumbId = ((long) redisTemplate.opsForHash().get(ThumbConstant.USER_THUMB_KEY_PREFIX + loginUser.getId().toString(), blogId.toString()));;
                 // 修改这里：先获取Object再转换为Long，这是个bug
 //                Object thumbIdObj = redisTemplate.opsForHash().get(ThumbConstant.USER_THUMB_KEY_PREFIX + loginUser.getId().toString(), blogId.toString());
-                Object thumbIdObj = cacheManager.get(ThumbConstant.USER_THUMB_KEY_PREFIX + loginUser.getId(), blogId.toString());
+                Object thumbIdObj = cacheManager.get(thumbKeyLayout.getUserThumbKey(loginUser.getId()), blogId.toString());
                 if (thumbIdObj == null) {
                     throw new RuntimeException("用户未点赞");
                 }
@@ -142,7 +144,7 @@ public class ThumbServiceImpl extends ServiceImpl<ThumbMapper, Thumb> implements
                 // 点赞记录从redis删除
                 if(deleteThumb){
 //                    redisTemplate.opsForHash().delete(ThumbConstant.USER_THUMB_KEY_PREFIX + loginUser.getId(),blogId.toString());
-                    String hashKey = ThumbConstant.USER_THUMB_KEY_PREFIX + loginUser.getId();
+                    String hashKey = thumbKeyLayout.getUserThumbKey(loginUser.getId());
                     String fieldKey = blogId.toString();
                     redisTemplate.opsForHash().delete(hashKey, fieldKey);
                     cacheManager.putIfPresent(hashKey, fieldKey, ThumbConstant.UN_THUMB_CONSTANT);
@@ -5,30 +5,32 @@ import com.yang.ratingsystem.constant.RedisLuaScriptConstant;
 import com.yang.ratingsystem.constant.ThumbConstant;
 import com.yang.ratingsystem.filter.BloomFilterService;
 import com.yang.ratingsystem.listener.thumb.msg.ThumbEvent;
+import com.yang.ratingsystem.manager.thumb.BlogThumbCounter;
+import com.yang.ratingsystem.manager.thumb.ThumbScriptRegistry;
+import com.yang.ratingsystem.manager.thumb.ThumbEventPublisher;
+import com.yang.ratingsystem.manager.thumb.UserThumbStore;
 import com.yang.ratingsystem.manager.cache.CacheManager;
 import com.yang.ratingsystem.mapper.ThumbMapper;
 import com.yang.ratingsystem.model.Blog;
 import com.yang.ratingsystem.model.Thumb;
 import com.yang.ratingsystem.model.User;
+import com.yang.ratingsystem.model.dto.thumb.ApplyThumbsRequest;
 import com.yang.ratingsystem.model.dto.thumb.DoThumbRequest;
 import com.yang.ratingsystem.model.enums.LuaStatusEnum;
 import com.yang.ratingsystem.service.BlogService;
 import com.yang.ratingsystem.service.ThumbService;
 import com.yang.ratingsystem.service.UserService;
-import com.yang.ratingsystem.utils.RedisKeyUtil;
 import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.pulsar.client.api.MessageId;
-import org.apache.pulsar.client.api.Producer;
-import org.apache.pulsar.client.api.PulsarClientException;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
-import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -44,118 +46,193 @@ public class ThumbServiceMQImpl extends ServiceImpl<ThumbMapper, Thumb>
 
     private final UserService userService;
 
-    private final RedisTemplate<String, Object> redisTemplate;
+    private final UserThumbStore userThumbStore;
 
-    private final Producer<ThumbEvent> thumbEventProducer;
+    private final ThumbEventPublisher thumbEventPublisher;
     
     private final BloomFilterService bloomFilterService;
+
+    private final ExecutorService virtualThreadExecutor;
+
+    private final BlogThumbCounter blogThumbCounter;
+
+    private final ThumbScriptRegistry thumbScriptRegistry;
     
     @Value("${pulsar.topic:thumb-topic}")
     private String thumbTopic;
 
     @Override
-    @Transactional(rollbackFor = Exception.class)
     public Boolean doThumb(DoThumbRequest doThumbRequest, HttpServletRequest request) {
+        return await(doThumbAsync(doThumbRequest, request));
+    }
+
+    @Override
+    public Boolean undoThumb(DoThumbRequest doThumbRequest, HttpServletRequest request) {
+        return await(undoThumbAsync(doThumbRequest, request));
+    }
+
+    /**
+     * 异步点赞
+     * 请求线程只执行 Lua 脚本写入 Redis，事件交给发布器写入本地发件箱或异步发送，
+     * 发布失败时在回调中删除 Redis 中的点赞记录
+     */
+    @Override
+    public CompletableFuture<Boolean> doThumbAsync(DoThumbRequest doThumbRequest, HttpServletRequest request) {
         if (doThumbRequest == null || doThumbRequest.getBlogId() == null) {
             throw new RuntimeException("参数错误");
         }
         User loginUser = userService.getLoginUser(request);
         Long loginUserId = loginUser.getId();
         Long blogId = doThumbRequest.getBlogId();
-        String userThumbKey = RedisKeyUtil.getUserThumbKey(loginUserId);
-        
-        try {
-            // 执行 Lua 脚本，点赞存入 Redis
-            long result = redisTemplate.execute(
-                    RedisLuaScriptConstant.THUMB_SCRIPT_MQ,
-                    List.of(userThumbKey),
-                    blogId
-            );
-            if (LuaStatusEnum.FAIL.getValue() == result) {
-                throw new RuntimeException("用户已点赞");
-            }
-
-            ThumbEvent thumbEvent = ThumbEvent.builder()
-                    .blogId(blogId)
-                    .userId(loginUserId)
-                    .type(ThumbEvent.EventType.INCR)
-                    .eventTime(LocalDateTime.now())
-                    .build();
-            
-            // 发送消息到Pulsar
-            try {
-                MessageId messageId = thumbEventProducer.send(thumbEvent);
-                log.info("点赞消息发送成功: userId={}, blogId={}, messageId={}", 
-                        loginUserId, blogId, messageId);
-            } catch (PulsarClientException e) {
-                // 发送失败时，从Redis中删除点赞记录
-                redisTemplate.opsForHash().delete(userThumbKey, blogId.toString());
-                log.error("点赞事件发送失败: userId={}, blogId={}", loginUserId, blogId, e);
-                throw new RuntimeException("点赞操作失败，请稍后重试");
-            }
-            
-            return true;
-        } catch (Exception e) {
-            log.error("点赞操作失败: userId={}, blogId={}", loginUserId, blogId, e);
-            // 确保Redis中没有点赞记录
-            redisTemplate.opsForHash().delete(userThumbKey, blogId.toString());
-            throw e;
+        String userThumbKey = userThumbStore.key(loginUserId);
+
+        // 执行 Lua 脚本，点赞存入 Redis
+        long result = thumbScriptRegistry.execute(
+                RedisLuaScriptConstant.THUMB_SCRIPT_MQ,
+                blogThumbCounter.withCountKey(userThumbStore.withDigestKey(List.of(userThumbKey), loginUserId)),
+                blogId,
+                userThumbStore.field(loginUserId, blogId),
+                loginUserId
+        );
+        if (LuaStatusEnum.FAIL.getValue() == result) {
+            throw new RuntimeException("用户已点赞");
         }
+
+        ThumbEvent thumbEvent = ThumbEvent.create(loginUserId, blogId, ThumbEvent.EventType.INCR);
+
+        // 发布消息，启用发件箱时写入本地后立即返回
+        return thumbEventPublisher.publish(thumbEvent)
+                .thenApply(v -> {
+                    log.info("点赞消息发布成功: userId={}, blogId={}, eventId={}",
+                            loginUserId, blogId, thumbEvent.getEventId());
+                    return true;
+                })
+                // 回滚涉及 Redis 访问，放到虚拟线程执行，不占用 Pulsar 客户端的回调线程
+                .exceptionallyAsync(e -> {
+                    // 发送失败时，从Redis中删除点赞记录
+                    userThumbStore.remove(loginUserId, blogId);
+                    blogThumbCounter.revert(blogId, 1);
+                    log.error("点赞事件发布失败: userId={}, blogId={}", loginUserId, blogId, e);
+                    throw new RuntimeException("点赞操作失败，请稍后重试");
+                }, virtualThreadExecutor);
     }
 
+    /**
+     * 异步取消点赞
+     * 发布失败时在回调中恢复 Redis 中的点赞记录
+     */
     @Override
-    @Transactional(rollbackFor = Exception.class)
-    public Boolean undoThumb(DoThumbRequest doThumbRequest, HttpServletRequest request) {
+    public CompletableFuture<Boolean> undoThumbAsync(DoThumbRequest doThumbRequest, HttpServletRequest request) {
         if (doThumbRequest == null || doThumbRequest.getBlogId() == null) {
             throw new RuntimeException("参数错误");
         }
         User loginUser = userService.getLoginUser(request);
         Long loginUserId = loginUser.getId();
         Long blogId = doThumbRequest.getBlogId();
-        String userThumbKey = RedisKeyUtil.getUserThumbKey(loginUserId);
-        
-        try {
-            // 执行 Lua 脚本，点赞记录从 Redis 删除
-            long result = redisTemplate.execute(
-                    RedisLuaScriptConstant.UNTHUMB_SCRIPT_MQ,
-                    List.of(userThumbKey),
-                    blogId
-            );
-            if (LuaStatusEnum.FAIL.getValue() == result) {
-                throw new RuntimeException("用户未点赞");
-            }
-            
-            ThumbEvent thumbEvent = ThumbEvent.builder()
-                    .blogId(blogId)
-                    .userId(loginUserId)
-                    .type(ThumbEvent.EventType.DECR)
-                    .eventTime(LocalDateTime.now())
-                    .build();
-            
-            // 发送消息到Pulsar
-            try {
-                MessageId messageId = thumbEventProducer.send(thumbEvent);
-                log.info("取消点赞消息发送成功: userId={}, blogId={}, messageId={}", 
-                        loginUserId, blogId, messageId);
-            } catch (PulsarClientException e) {
-                // 发送失败时，恢复Redis中的点赞记录
-                redisTemplate.opsForHash().put(userThumbKey, blogId.toString(), true);
-                log.error("取消点赞事件发送失败: userId={}, blogId={}", loginUserId, blogId, e);
-                throw new RuntimeException("取消点赞操作失败，请稍后重试");
+        String userThumbKey = userThumbStore.key(loginUserId);
+
+        // 执行 Lua 脚本，点赞记录从 Redis 删除
+        long result = thumbScriptRegistry.execute(
+                RedisLuaScriptConstant.UNTHUMB_SCRIPT_MQ,
+                blogThumbCounter.withCountKey(userThumbStore.withDigestKey(List.of(userThumbKey), loginUserId)),
+                blogId,
+                userThumbStore.field(loginUserId, blogId),
+                loginUserId
+        );
+        if (LuaStatusEnum.FAIL.getValue() == result) {
+            throw new RuntimeException("用户未点赞");
+        }
+
+        ThumbEvent thumbEvent = ThumbEvent.create(loginUserId, blogId, ThumbEvent.EventType.DECR);
+
+        // 发布消息，启用发件箱时写入本地后立即返回
+        return thumbEventPublisher.publish(thumbEvent)
+                .thenApply(v -> {
+                    log.info("取消点赞消息发布成功: userId={}, blogId={}, eventId={}",
+                            loginUserId, blogId, thumbEvent.getEventId());
+                    return true;
+                })
+                .exceptionallyAsync(e -> {
+                    // 发送失败时，恢复Redis中的点赞记录
+                    userThumbStore.restore(loginUserId, blogId);
+                    blogThumbCounter.revert(blogId, -1);
+                    log.error("取消点赞事件发布失败: userId={}, blogId={}", loginUserId, blogId, e);
+                    throw new RuntimeException("取消点赞操作失败，请稍后重试");
+                }, virtualThreadExecutor);
+    }
+
+    /**
+     * 批量点赞 / 取消点赞
+     * 所有操作的 Lua 脚本在一个流水线中执行，成功的操作再逐个发布事件，发布失败的操作单独回滚
+     */
+    @Override
+    public List<Boolean> applyThumbs(ApplyThumbsRequest applyThumbsRequest, HttpServletRequest request) {
+        List<ApplyThumbsRequest.ThumbOperation> operations = applyThumbsRequest == null ? null : applyThumbsRequest.getOperations();
+        if (operations == null || operations.isEmpty()
+                || operations.stream().anyMatch(operation -> operation == null || operation.getBlogId() == null)) {
+            throw new RuntimeException("参数错误");
+        }
+        User loginUser = userService.getLoginUser(request);
+        Long loginUserId = loginUser.getId();
+        String userThumbKey = userThumbStore.key(loginUserId);
+        List<String> keys = blogThumbCounter.withCountKey(userThumbStore.withDigestKey(List.of(userThumbKey), loginUserId));
+
+        List<ThumbScriptRegistry.ScriptCall> calls = operations.stream()
+                .map(operation -> new ThumbScriptRegistry.ScriptCall(
+                        Boolean.TRUE.equals(operation.getThumb())
+                                ? RedisLuaScriptConstant.THUMB_SCRIPT_MQ
+                                : RedisLuaScriptConstant.UNTHUMB_SCRIPT_MQ,
+                        keys,
+                        List.of(operation.getBlogId(), userThumbStore.field(loginUserId, operation.getBlogId()), loginUserId)))
+                .toList();
+        List<Long> results = thumbScriptRegistry.executePipelined(calls);
+
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>(operations.size());
+        for (int i = 0; i < operations.size(); i++) {
+            Long result = results.get(i);
+            if (result == null || LuaStatusEnum.SUCCESS.getValue() != result) {
+                futures.add(CompletableFuture.completedFuture(false));
+                continue;
             }
-            
-            return true;
-        } catch (Exception e) {
-            log.error("取消点赞操作失败: userId={}, blogId={}", loginUserId, blogId, e);
-            // 确保Redis中恢复点赞记录
-            redisTemplate.opsForHash().put(userThumbKey, blogId.toString(), true);
-            throw e;
+            Long blogId = operations.get(i).getBlogId();
+            boolean thumb = Boolean.TRUE.equals(operations.get(i).getThumb());
+            ThumbEvent thumbEvent = ThumbEvent.create(loginUserId, blogId,
+                    thumb ? ThumbEvent.EventType.INCR : ThumbEvent.EventType.DECR);
+            futures.add(thumbEventPublisher.publish(thumbEvent)
+                    .thenApply(v -> true)
+                    .exceptionallyAsync(e -> {
+                        // 发布失败时回滚该操作在 Redis 中的点赞记录
+                        if (thumb) {
+                            userThumbStore.remove(loginUserId, blogId);
+                            blogThumbCounter.revert(blogId, 1);
+                        } else {
+                            userThumbStore.restore(loginUserId, blogId);
+                            blogThumbCounter.revert(blogId, -1);
+                        }
+                        log.error("批量点赞事件发布失败: userId={}, blogId={}, thumb={}", loginUserId, blogId, thumb, e);
+                        return false;
+                    }, virtualThreadExecutor));
         }
+        return futures.stream().map(CompletableFuture::join).toList();
     }
 
     @Override
     public Boolean hasThumb(Long blogId, Long userId) {
-        return redisTemplate.opsForHash().hasKey(RedisKeyUtil.getUserThumbKey(userId), blogId.toString());
+        return userThumbStore.has(userId, blogId);
+    }
+
+    /**
+     * 同步等待异步结果，还原回调中抛出的业务异常
+     */
+    private Boolean await(CompletableFuture<Boolean> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new RuntimeException(e.getCause());
+        }
     }
 }
 
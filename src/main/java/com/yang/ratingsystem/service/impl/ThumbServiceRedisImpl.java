@@ -1,10 +1,12 @@
 package com.yang.ratingsystem.service.impl;
 
-import cn.hutool.core.date.DateTime;
-import cn.hutool.core.date.DateUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.yang.ratingsystem.constant.RedisLuaScriptConstant;
 import com.yang.ratingsystem.constant.ThumbConstant;
+import com.yang.ratingsystem.manager.thumb.BlogThumbCounter;
+import com.yang.ratingsystem.manager.thumb.ThumbScriptRegistry;
+import com.yang.ratingsystem.manager.thumb.ThumbSliceClock;
+import com.yang.ratingsystem.manager.thumb.UserThumbStore;
 import com.yang.ratingsystem.mapper.ThumbMapper;
 import com.yang.ratingsystem.model.Blog;
 import com.yang.ratingsystem.model.Thumb;
@@ -14,11 +16,10 @@ import com.yang.ratingsystem.model.enums.LuaStatusEnum;
 import com.yang.ratingsystem.service.BlogService;
 import com.yang.ratingsystem.service.ThumbService;
 import com.yang.ratingsystem.service.UserService;
-import com.yang.ratingsystem.utils.RedisKeyUtil;
+import com.yang.ratingsystem.utils.ThumbKeyLayout;
 import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.support.TransactionTemplate;
 
@@ -36,7 +37,15 @@ public class ThumbServiceRedisImpl extends ServiceImpl<ThumbMapper, Thumb> imple
 
     private final UserService userService;
 
-    private final RedisTemplate<String, Object> redisTemplate;
+    private final UserThumbStore userThumbStore;
+
+    private final ThumbSliceClock thumbSliceClock;
+
+    private final BlogThumbCounter blogThumbCounter;
+
+    private final ThumbScriptRegistry thumbScriptRegistry;
+
+    private final ThumbKeyLayout thumbKeyLayout;
 
     @Override
     public Boolean doThumb(DoThumbRequest doThumbRequest, HttpServletRequest request) {
@@ -48,15 +57,16 @@ public class ThumbServiceRedisImpl extends ServiceImpl<ThumbMapper, Thumb> imple
 
         String timeSlice = getTimeSlice();
         // Redis Key
-        String tempThumbKey = RedisKeyUtil.getTempThumbKey(timeSlice);
-        String userThumbKey = RedisKeyUtil.getUserThumbKey(loginUser.getId());
+        String tempThumbKey = thumbKeyLayout.getTempThumbKey(timeSlice, loginUser.getId());
+        String userThumbKey = userThumbStore.key(loginUser.getId());
 
         // 执行 Lua 脚本
-        long result = redisTemplate.execute(
+        long result = thumbScriptRegistry.execute(
                 RedisLuaScriptConstant.THUMB_SCRIPT,
-                Arrays.asList(tempThumbKey, userThumbKey),
+                blogThumbCounter.withCountKey(userThumbStore.withDigestKey(Arrays.asList(tempThumbKey, userThumbKey), loginUser.getId())),
                 loginUser.getId(),
-                blogId
+                blogId,
+                userThumbStore.field(loginUser.getId(), blogId)
         );
 
         if (LuaStatusEnum.FAIL.getValue() == result) {
@@ -78,15 +88,16 @@ public class ThumbServiceRedisImpl extends ServiceImpl<ThumbMapper, Thumb> imple
         // 计算时间片
         String timeSlice = getTimeSlice();
         // Redis Key
-        String tempThumbKey = RedisKeyUtil.getTempThumbKey(timeSlice);
-        String userThumbKey = RedisKeyUtil.getUserThumbKey(loginUser.getId());
+        String tempThumbKey = thumbKeyLayout.getTempThumbKey(timeSlice, loginUser.getId());
+        String userThumbKey = userThumbStore.key(loginUser.getId());
 
         // 执行 Lua 脚本
-        long result = redisTemplate.execute(
+        long result = thumbScriptRegistry.execute(
                 RedisLuaScriptConstant.UNTHUMB_SCRIPT,
-                Arrays.asList(tempThumbKey, userThumbKey),
+                blogThumbCounter.withCountKey(userThumbStore.withDigestKey(Arrays.asList(tempThumbKey, userThumbKey), loginUser.getId())),
                 loginUser.getId(),
-                blogId
+                blogId,
+                userThumbStore.field(loginUser.getId(), blogId)
         );
         // 根据返回值处理结果
         if (result == LuaStatusEnum.FAIL.getValue()) {
@@ -96,14 +107,13 @@ public class ThumbServiceRedisImpl extends ServiceImpl<ThumbMapper, Thumb> imple
     }
 
     private String getTimeSlice() {
-        DateTime nowDate = DateUtil.date();
-        // 获取到当前时间前最近的整数秒，比如当前 11:20:23 ，获取到 11:20:20
-        return DateUtil.format(nowDate, "HH:mm:") + (DateUtil.second(nowDate) / 10) * 10;
+        // 对齐到片宽的 epoch 秒，比如片宽 10 秒、当前 1745000023，获取到 1745000020
+        return String.valueOf(thumbSliceClock.currentSlice());
     }
 
     @Override
     public Boolean hasThumb(Long blogId, Long userId) {
-        return redisTemplate.opsForHash().hasKey(RedisKeyUtil.getUserThumbKey(userId), blogId.toString());
+        return userThumbStore.has(userId, blogId);
     }
 }
 
@@ -0,0 +1,125 @@
+package com.yang.ratingsystem.service.impl;
+
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.yang.ratingsystem.constant.RedisLuaScriptConstant;
+import com.yang.ratingsystem.manager.thumb.BlogThumbCounter;
+import com.yang.ratingsystem.manager.thumb.ThumbScriptRegistry;
+import com.yang.ratingsystem.manager.thumb.UserThumbStore;
+import com.yang.ratingsystem.mapper.ThumbMapper;
+import com.yang.ratingsystem.model.Thumb;
+import com.yang.ratingsystem.model.User;
+import com.yang.ratingsystem.model.dto.thumb.ApplyThumbsRequest;
+import com.yang.ratingsystem.model.dto.thumb.DoThumbRequest;
+import com.yang.ratingsystem.model.enums.LuaStatusEnum;
+import com.yang.ratingsystem.service.ThumbService;
+import com.yang.ratingsystem.service.UserService;
+import com.yang.ratingsystem.utils.ThumbKeyLayout;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+
+/**
+ * 基于 Redis Stream 的点赞服务
+ *
+ * 点赞状态和点赞事件在同一个 Lua 脚本中写入 Redis，不存在 Redis 与消息队列之间的双写窗口，
+ * 也不需要发送失败后的回滚。事件由 {@link com.yang.ratingsystem.listener.thumb.ThumbStreamConsumer}
+ * 通过消费组批量写入数据库
+ */
+@Service("thumbServiceStream")
+@Slf4j
+@RequiredArgsConstructor
+public class ThumbServiceStreamImpl extends ServiceImpl<ThumbMapper, Thumb> implements ThumbService {
+
+    private final UserService userService;
+
+    private final UserThumbStore userThumbStore;
+
+    private final BlogThumbCounter blogThumbCounter;
+
+    private final ThumbScriptRegistry thumbScriptRegistry;
+
+    private final ThumbKeyLayout thumbKeyLayout;
+
+    @Override
+    public Boolean doThumb(DoThumbRequest doThumbRequest, HttpServletRequest request) {
+        if (doThumbRequest == null || doThumbRequest.getBlogId() == null) {
+            throw new RuntimeException("参数错误");
+        }
+        User loginUser = userService.getLoginUser(request);
+        Long blogId = doThumbRequest.getBlogId();
+
+        // 执行 Lua 脚本，写入点赞状态并追加点赞事件
+        long result = thumbScriptRegistry.execute(
+                RedisLuaScriptConstant.THUMB_SCRIPT_STREAM,
+                blogThumbCounter.withCountKey(userThumbStore.withDigestKey(
+                        List.of(userThumbStore.key(loginUser.getId()), thumbKeyLayout.getThumbStreamKey(loginUser.getId())), loginUser.getId())),
+                loginUser.getId(),
+                blogId,
+                userThumbStore.field(loginUser.getId(), blogId)
+        );
+        if (LuaStatusEnum.FAIL.getValue() == result) {
+            throw new RuntimeException("用户已点赞");
+        }
+        return LuaStatusEnum.SUCCESS.getValue() == result;
+    }
+
+    @Override
+    public Boolean undoThumb(DoThumbRequest doThumbRequest, HttpServletRequest request) {
+        if (doThumbRequest == null || doThumbRequest.getBlogId() == null) {
+            throw new RuntimeException("参数错误");
+        }
+        User loginUser = userService.getLoginUser(request);
+        Long blogId = doThumbRequest.getBlogId();
+
+        // 执行 Lua 脚本，删除点赞状态并追加取消点赞事件
+        long result = thumbScriptRegistry.execute(
+                RedisLuaScriptConstant.UNTHUMB_SCRIPT_STREAM,
+                blogThumbCounter.withCountKey(userThumbStore.withDigestKey(
+                        List.of(userThumbStore.key(loginUser.getId()), thumbKeyLayout.getThumbStreamKey(loginUser.getId())), loginUser.getId())),
+                loginUser.getId(),
+                blogId,
+                userThumbStore.field(loginUser.getId(), blogId)
+        );
+        if (LuaStatusEnum.FAIL.getValue() == result) {
+            throw new RuntimeException("用户未点赞");
+        }
+        return LuaStatusEnum.SUCCESS.getValue() == result;
+    }
+
+    /**
+     * 批量点赞 / 取消点赞，所有操作的 Lua 脚本在一个流水线中执行，状态与事件仍由脚本原子写入
+     */
+    @Override
+    public List<Boolean> applyThumbs(ApplyThumbsRequest applyThumbsRequest, HttpServletRequest request) {
+        List<ApplyThumbsRequest.ThumbOperation> operations = applyThumbsRequest == null ? null : applyThumbsRequest.getOperations();
+        if (operations == null || operations.isEmpty()
+                || operations.stream().anyMatch(operation -> operation == null || operation.getBlogId() == null)) {
+            throw new RuntimeException("参数错误");
+        }
+        User loginUser = userService.getLoginUser(request);
+        List<String> keys = blogThumbCounter.withCountKey(
+                userThumbStore.withDigestKey(
+                        List.of(userThumbStore.key(loginUser.getId()), thumbKeyLayout.getThumbStreamKey(loginUser.getId())), loginUser.getId()));
+
+        List<ThumbScriptRegistry.ScriptCall> calls = operations.stream()
+                .map(operation -> new ThumbScriptRegistry.ScriptCall(
+                        Boolean.TRUE.equals(operation.getThumb())
+                                ? RedisLuaScriptConstant.THUMB_SCRIPT_STREAM
+                                : RedisLuaScriptConstant.UNTHUMB_SCRIPT_STREAM,
+                        keys,
+                        List.of(loginUser.getId(), operation.getBlogId(),
+                                userThumbStore.field(loginUser.getId(), operation.getBlogId()))))
+                .toList();
+        return thumbScriptRegistry.executePipelined(calls).stream()
+                .map(result -> result != null && LuaStatusEnum.SUCCESS.getValue() == result)
+                .toList();
+    }
+
+    @Override
+    public Boolean hasThumb(Long blogId, Long userId) {
+        return userThumbStore.has(userId, blogId);
+    }
+}
@@ -1,15 +1,46 @@
 package com.yang.ratingsystem.utils;
 
+import cn.hutool.core.util.NumberUtil;
 import com.yang.ratingsystem.constant.ThumbConstant;
 
 /**
+ * 与 key 布局无关的 Redis key，依赖布局的 key 由 {@link ThumbKeyLayout} 生成
  * @Author 小小星仔
  * @Create 2025-04-17 22:25
  */
 public class RedisKeyUtil {
 
-    public static String getUserThumbKey(Long userId) {
-        return ThumbConstant.USER_THUMB_KEY_PREFIX + userId;
+    /**
+     * 获取 分区的点赞事件流 key，分区 0 沿用不分区时的 key
+     */
+    public static String getThumbStreamKey(int partition) {
+        return partition == 0 ? ThumbConstant.THUMB_STREAM_KEY : ThumbConstant.THUMB_STREAM_KEY + ":" + partition;
+    }
+
+    /**
+     * 从分桶 key 中解析分桶编号，不是分桶 key 时返回 null
+     */
+    public static Long parseBucketFromThumbKey(String key) {
+        if (key == null || !key.startsWith(ThumbConstant.USER_THUMB_BUCKET_KEY_PREFIX)) {
+            return null;
+        }
+        String bucket = key.substring(ThumbConstant.USER_THUMB_BUCKET_KEY_PREFIX.length());
+        return NumberUtil.isLong(bucket) ? Long.valueOf(bucket) : null;
+    }
+
+    /**
+     * 从用户点赞 key 中解析用户ID，兼容单机和集群布局，不是用户点赞 key（如 thumb:temp:*）时返回 null
+     */
+    public static Long parseUserIdFromThumbKey(String key) {
+        if (key == null || !key.startsWith(ThumbConstant.USER_THUMB_KEY_PREFIX)) {
+            return null;
+        }
+        String userId = key.substring(ThumbConstant.USER_THUMB_KEY_PREFIX.length());
+        if (userId.startsWith("{")) {
+            int end = userId.indexOf("}:");
+            userId = end < 0 ? "" : userId.substring(end + 2);
+        }
+        return NumberUtil.isLong(userId) ? Long.valueOf(userId) : null;
     }
 
     /**
@@ -19,4 +50,75 @@ public class RedisKeyUtil {
         return ThumbConstant.TEMP_THUMB_KEY_PREFIX.formatted(time);
     }
 
+    /**
+     * 获取 临时点赞记录分片 key，shard 小于 0 时返回不分片的 key
+     */
+    public static String getTempThumbKey(String time, int shard) {
+        String key = getTempThumbKey(time);
+        return shard < 0 ? key : key + ":" + ThumbConstant.SHARD_TAG.formatted(shard);
+    }
+
+    /**
+     * 获取 同步中的时间片 key
+     */
+    public static String getProcessingThumbKey(String time) {
+        return ThumbConstant.PROCESSING_THUMB_KEY_PREFIX.formatted(time);
+    }
+
+    /**
+     * 获取 同步中的时间片分片 key，与对应的临时点赞记录分片 key 在同一个槽位
+     */
+    public static String getProcessingThumbKey(String time, int shard) {
+        String key = getProcessingThumbKey(time);
+        return shard < 0 ? key : key + ":" + ThumbConstant.SHARD_TAG.formatted(shard);
+    }
+
+    /**
+     * 从临时点赞记录 key 或同步中的时间片 key 的后缀中去掉分片标签，得到时间片
+     */
+    public static String stripShardTag(String suffix) {
+        int index = suffix.indexOf(":{");
+        return index < 0 ? suffix : suffix.substring(0, index);
+    }
+
+    /**
+     * 获取 同步任务租约 key
+     */
+    public static String getSyncLeaseKey(String name) {
+        return ThumbConstant.SYNC_LEASE_KEY_PREFIX.formatted(name);
+    }
+
+    /**
+     * 获取 时间片子分片 key
+     */
+    public static String getSyncShardKey(String time, int shard) {
+        return ThumbConstant.SYNC_SHARD_KEY_PREFIX.formatted(time, shard);
+    }
+
+    /**
+     * 获取 时间片拆分标记 key
+     */
+    public static String getSyncSplitKey(String time) {
+        return ThumbConstant.SYNC_SPLIT_KEY_PREFIX.formatted(time);
+    }
+
+    /**
+     * 获取 冷用户淘汰标记 key，与被淘汰的 key 带相同的哈希标签
+     */
+    public static String getEvictedMarkerKey(String userThumbKey) {
+        int start = userThumbKey.indexOf('{');
+        int end = userThumbKey.indexOf('}', start + 1);
+        if (start < 0 || end < 0) {
+            return ThumbConstant.THUMB_EVICTED_KEY;
+        }
+        return ThumbConstant.THUMB_EVICTED_KEY + ":" + userThumbKey.substring(start, end + 1);
+    }
+
+    /**
+     * 获取 已处理点赞事件ID key
+     */
+    public static String getProcessedEventKey(long bucket) {
+        return ThumbConstant.PROCESSED_EVENT_KEY_PREFIX.formatted(bucket);
+    }
+
 }
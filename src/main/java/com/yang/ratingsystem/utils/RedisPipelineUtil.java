@@ -0,0 +1,74 @@
+package com.yang.ratingsystem.utils;
+
+import org.springframework.data.redis.connection.RedisPipelineException;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 兼容单机和集群的流水线
+ * JedisClusterConnection 不支持流水线，连接集群时改为在同一个连接上逐条执行命令，每条命令按 key 路由到所在节点。
+ * 两种模式的结果一致：与命令一一对应，部分命令失败时抛出 RedisPipelineException，其中包含全部结果，失败的命令为对应的异常
+ */
+public class RedisPipelineUtil {
+
+    /**
+     * 一条流水线命令，流水线中执行时返回值被忽略，结果由流水线统一返回
+     */
+    @FunctionalInterface
+    public interface Command {
+
+        Object apply(StringRedisConnection connection);
+    }
+
+    /**
+     * 按顺序执行命令
+     *
+     * @return 与命令一一对应的结果
+     */
+    public static List<Object> executePipelined(StringRedisTemplate stringRedisTemplate, List<Command> commands) {
+        if (commands.isEmpty()) {
+            return new ArrayList<>();
+        }
+        if (!isCluster(stringRedisTemplate)) {
+            return stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection stringConnection = (StringRedisConnection) connection;
+                for (Command command : commands) {
+                    command.apply(stringConnection);
+                }
+                return null;
+            });
+        }
+
+        List<Object> results = new ArrayList<>(commands.size());
+        Exception firstFailure = stringRedisTemplate.execute((RedisCallback<Exception>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            Exception failure = null;
+            for (Command command : commands) {
+                try {
+                    results.add(command.apply(stringConnection));
+                } catch (Exception e) {
+                    // 与流水线一致，单条命令失败不影响后续命令
+                    results.add(e);
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+            return failure;
+        });
+        if (firstFailure != null) {
+            throw new RedisPipelineException(firstFailure, results);
+        }
+        return results;
+    }
+
+    private static boolean isCluster(StringRedisTemplate stringRedisTemplate) {
+        return stringRedisTemplate.getRequiredConnectionFactory() instanceof JedisConnectionFactory connectionFactory
+                && connectionFactory.isRedisClusterAware();
+    }
+}
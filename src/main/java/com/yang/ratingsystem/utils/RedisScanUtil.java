@@ -0,0 +1,46 @@
+package com.yang.ratingsystem.utils;
+
+import org.springframework.data.redis.connection.RedisClusterConnection;
+import org.springframework.data.redis.connection.RedisClusterNode;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * 兼容单机和集群的 SCAN 遍历
+ * 集群模式下 SCAN 只作用于单个节点，需要逐个主节点遍历
+ */
+public class RedisScanUtil {
+
+    /**
+     * 遍历匹配的 key
+     */
+    public static void scanKeys(RedisTemplate<String, ?> redisTemplate, ScanOptions options, Consumer<String> action) {
+        RedisConnectionFactory connectionFactory = redisTemplate.getRequiredConnectionFactory();
+        boolean cluster;
+        try (RedisConnection connection = connectionFactory.getConnection()) {
+            cluster = connection instanceof RedisClusterConnection;
+        }
+        if (cluster) {
+            try (RedisClusterConnection connection = connectionFactory.getClusterConnection()) {
+                for (RedisClusterNode node : connection.clusterGetNodes()) {
+                    if (!node.isMaster()) {
+                        continue;
+                    }
+                    try (Cursor<byte[]> cursor = connection.scan(node, options)) {
+                        cursor.forEachRemaining(key -> action.accept(new String(key, StandardCharsets.UTF_8)));
+                    }
+                }
+            }
+            return;
+        }
+        try (Cursor<String> cursor = redisTemplate.scan(options)) {
+            cursor.forEachRemaining(action);
+        }
+    }
+}
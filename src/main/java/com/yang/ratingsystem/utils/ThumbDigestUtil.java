@@ -0,0 +1,32 @@
+package com.yang.ratingsystem.utils;
+
+import cn.hutool.crypto.digest.DigestUtil;
+
+import java.util.Collection;
+
+/**
+ * 用户点赞摘要
+ * 摘要为用户所有点赞的 SHA-1(userId:blogId) 前 32 位的异或，按无符号数保存，
+ * 点赞和取消点赞都异或同一个值，与点赞 Lua 脚本中的算法一致
+ */
+public class ThumbDigestUtil {
+
+    /**
+     * 单条点赞的摘要
+     */
+    public static long hash(Long userId, Long blogId) {
+        byte[] sha1 = DigestUtil.sha1(userId + ":" + blogId);
+        return ((sha1[0] & 0xFFL) << 24) | ((sha1[1] & 0xFFL) << 16) | ((sha1[2] & 0xFFL) << 8) | (sha1[3] & 0xFFL);
+    }
+
+    /**
+     * 用户一组点赞的摘要
+     */
+    public static long digest(Long userId, Collection<Long> blogIds) {
+        long digest = 0;
+        for (Long blogId : blogIds) {
+            digest ^= hash(userId, blogId);
+        }
+        return digest;
+    }
+}
@@ -0,0 +1,168 @@
+package com.yang.ratingsystem.utils;
+
+import com.yang.ratingsystem.constant.ThumbConstant;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 点赞 Redis key 布局，启动时由 RedisConfig 根据配置创建，创建后不可变
+ *
+ * 集群布局下用户点赞 key 和临时点赞分片 key 带相同的哈希标签 {用户所在分片}，
+ * 同一个 Lua 脚本访问的 key 落在同一个槽位，不会出现 CROSSSLOT。
+ * 与布局无关的 key 由 {@link RedisKeyUtil} 生成
+ */
+public final class ThumbKeyLayout {
+
+    /**
+     * 集群槽位分组数，0 表示使用单机 key 布局
+     */
+    private final int slotGroups;
+
+    /**
+     * 单机布局下每个时间片的临时 key 分片数，0 表示不分片
+     */
+    private final int tempShards;
+
+    /**
+     * 紧凑存储下每个分桶的用户数，0 表示每个用户一个点赞 key
+     */
+    private final int userBucketSize;
+
+    /**
+     * 点赞事件流的分区数，同一用户的事件总是写入同一个分区
+     */
+    private final int streamPartitions;
+
+    public ThumbKeyLayout(int slotGroups, int tempShards, int userBucketSize, int streamPartitions) {
+        if (slotGroups < 0 || tempShards < 0 || userBucketSize < 0) {
+            throw new IllegalArgumentException("slot groups, temp shards and bucket size must not be negative");
+        }
+        if (streamPartitions <= 0) {
+            throw new IllegalArgumentException("stream partitions must be positive");
+        }
+        this.slotGroups = slotGroups;
+        this.tempShards = tempShards;
+        this.userBucketSize = userBucketSize;
+        this.streamPartitions = streamPartitions;
+    }
+
+    /**
+     * 单机布局：临时 key 不分片，每个用户一个点赞 key，事件流不分区
+     */
+    public static ThumbKeyLayout standalone() {
+        return new ThumbKeyLayout(0, 0, 0, 1);
+    }
+
+    public boolean isClusterLayout() {
+        return slotGroups > 0;
+    }
+
+    public boolean isCompactUserLayout() {
+        return userBucketSize > 0;
+    }
+
+    public int getThumbStreamPartitionCount() {
+        return streamPartitions;
+    }
+
+    /**
+     * 获取 用户所在分区的点赞事件流 key
+     */
+    public String getThumbStreamKey(Long userId) {
+        return RedisKeyUtil.getThumbStreamKey(Math.floorMod((int) ((userId * 0x9E3779B97F4A7C15L) >>> 32), streamPartitions));
+    }
+
+    /**
+     * 临时点赞数据的分片数，0 表示每个时间片只有一个临时 key
+     */
+    public int getTempThumbShardCount() {
+        return slotGroups > 0 ? slotGroups : tempShards;
+    }
+
+    /**
+     * 用户所在的分片，不分片时返回 -1
+     * userId 先乘以黄金分割常数打散，雪花 ID 低位集中时也能均匀分布
+     */
+    public int getThumbShard(Long userId) {
+        int shards = getTempThumbShardCount();
+        if (shards <= 0) {
+            return -1;
+        }
+        long mixed = userId * 0x9E3779B97F4A7C15L;
+        return Math.floorMod((int) (mixed >>> 32), shards);
+    }
+
+    public String getUserThumbKey(Long userId) {
+        if (slotGroups > 0) {
+            return ThumbConstant.USER_THUMB_KEY_PREFIX + ThumbConstant.SHARD_TAG.formatted(getThumbShard(userId)) + ":" + userId;
+        }
+        return ThumbConstant.USER_THUMB_KEY_PREFIX + userId;
+    }
+
+    /**
+     * 获取 紧凑存储下用户所在的分桶 key
+     */
+    public String getUserThumbBucketKey(Long userId) {
+        return ThumbConstant.USER_THUMB_BUCKET_KEY_PREFIX + Math.floorDiv(userId, userBucketSize);
+    }
+
+    public int getUserThumbBucketSize() {
+        return userBucketSize;
+    }
+
+    /**
+     * 用户在分桶中的偏移
+     */
+    public long getUserThumbBucketOffset(Long userId) {
+        return Math.floorMod(userId, userBucketSize);
+    }
+
+    /**
+     * 获取 用户点赞状态字段，紧凑存储下为 用户偏移:blogId，否则为 blogId
+     */
+    public String getUserThumbField(Long userId, Long blogId) {
+        if (userBucketSize > 0) {
+            return getUserThumbBucketOffset(userId) + ":" + blogId;
+        }
+        return blogId.toString();
+    }
+
+    /**
+     * 由分桶和偏移还原用户ID
+     */
+    public Long getUserIdInBucket(long bucket, long offset) {
+        return bucket * userBucketSize + offset;
+    }
+
+    /**
+     * 获取 用户写入的临时点赞记录 key，分片时与用户点赞 key 在同一个槽位
+     */
+    public String getTempThumbKey(String time, Long userId) {
+        return RedisKeyUtil.getTempThumbKey(time, getThumbShard(userId));
+    }
+
+    /**
+     * 获取 用户点赞摘要 key，集群布局下与用户点赞 key 带相同的哈希标签
+     */
+    public String getUserThumbDigestKey(Long userId) {
+        if (slotGroups > 0) {
+            return ThumbConstant.USER_THUMB_DIGEST_KEY + ":" + ThumbConstant.SHARD_TAG.formatted(getThumbShard(userId));
+        }
+        return ThumbConstant.USER_THUMB_DIGEST_KEY;
+    }
+
+    /**
+     * 获取 所有用户点赞摘要 key
+     */
+    public List<String> getUserThumbDigestKeys() {
+        if (slotGroups <= 0) {
+            return List.of(ThumbConstant.USER_THUMB_DIGEST_KEY);
+        }
+        List<String> keys = new ArrayList<>(slotGroups);
+        for (int shard = 0; shard < slotGroups; shard++) {
+            keys.add(ThumbConstant.USER_THUMB_DIGEST_KEY + ":" + ThumbConstant.SHARD_TAG.formatted(shard));
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,70 @@
+package com.yang.ratingsystem.controller;
+
+import com.yang.ratingsystem.model.dto.thumb.ApplyThumbsRequest;
+import com.yang.ratingsystem.service.ThumbService;
+import jakarta.servlet.http.HttpServletRequest;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 批量点赞接口的操作数限制测试
+ */
+class ThumbControllerTest {
+
+    private ThumbService thumbService;
+
+    private ThumbController controller;
+
+    @BeforeEach
+    void setUp() {
+        thumbService = mock(ThumbService.class);
+        controller = new ThumbController();
+        ReflectionTestUtils.setField(controller, "thumbService", thumbService);
+        ReflectionTestUtils.setField(controller, "maxBatchOperations", 3);
+    }
+
+    /**
+     * 超过上限的请求在调用任何 ThumbService 实现之前被拒绝，包括逐个执行的默认实现
+     */
+    @Test
+    void rejectsTooManyOperations() {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+
+        assertThrows(RuntimeException.class, () -> controller.applyThumbs(request(4), request));
+        verify(thumbService, never()).applyThumbs(any(), any());
+    }
+
+    @Test
+    void acceptsOperationsUpToTheLimit() {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        ApplyThumbsRequest applyThumbsRequest = request(3);
+        when(thumbService.applyThumbs(applyThumbsRequest, request)).thenReturn(List.of(true, true, false));
+
+        assertEquals(List.of(true, true, false), controller.applyThumbs(applyThumbsRequest, request).getData());
+    }
+
+    private static ApplyThumbsRequest request(int operationCount) {
+        List<ApplyThumbsRequest.ThumbOperation> operations = new ArrayList<>();
+        for (long blogId = 1; blogId <= operationCount; blogId++) {
+            ApplyThumbsRequest.ThumbOperation operation = new ApplyThumbsRequest.ThumbOperation();
+            operation.setBlogId(blogId);
+            operation.setThumb(true);
+            operations.add(operation);
+        }
+        ApplyThumbsRequest applyThumbsRequest = new ApplyThumbsRequest();
+        applyThumbsRequest.setOperations(operations);
+        return applyThumbsRequest;
+    }
+}
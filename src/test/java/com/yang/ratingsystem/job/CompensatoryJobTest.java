@@ -0,0 +1,64 @@
+package com.yang.ratingsystem.job;
+
+import com.yang.ratingsystem.manager.thumb.ThumbSyncLeaseManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 补偿任务等待时间片补偿的测试：等待期间续约补偿租约，租约丢失时停止等待
+ */
+class CompensatoryJobTest {
+
+    private final CompensatoryJob job = new CompensatoryJob();
+
+    private final ThumbSyncLeaseManager.Lease lease = mock(ThumbSyncLeaseManager.Lease.class);
+
+    @BeforeEach
+    void setUp() {
+        // 每轮最多等待 1 秒后续约
+        ReflectionTestUtils.setField(job, "leaseMillis", 3000L);
+    }
+
+    /**
+     * 续约成功时继续等待，返回时间片补偿的结果
+     */
+    @Test
+    void renewsLeaseWhileWaiting() {
+        when(lease.renew()).thenReturn(true);
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        future.completeOnTimeout(true, 1500, TimeUnit.MILLISECONDS);
+
+        assertEquals(true, ReflectionTestUtils.invokeMethod(job, "await", future, lease));
+        verify(lease, times(1)).renew();
+    }
+
+    /**
+     * 续约失败说明租约已过期，其他节点可能已开始补偿，不再等待仍在执行的时间片
+     */
+    @Test
+    void stopsWaitingWhenLeaseIsLost() {
+        when(lease.renew()).thenReturn(false);
+        CompletableFuture<Boolean> future = CompletableFuture.supplyAsync(() -> true,
+                CompletableFuture.delayedExecutor(30, TimeUnit.SECONDS, Executors.newVirtualThreadPerTaskExecutor()));
+
+        long start = System.currentTimeMillis();
+        assertEquals(false, ReflectionTestUtils.invokeMethod(job, "await", future, lease));
+
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertFalse(future.isDone());
+        verify(lease, times(1)).renew();
+    }
+}
@@ -0,0 +1,231 @@
+package com.yang.ratingsystem.job;
+
+import com.yang.ratingsystem.constant.ThumbConstant;
+import com.yang.ratingsystem.manager.thumb.BlogThumbCounter;
+import com.yang.ratingsystem.manager.thumb.ThumbSyncLeaseManager;
+import com.yang.ratingsystem.mapper.BlogMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 博客点赞数增量交接测试：增量 key 交接为写入中 key，提交前 RENAME 为提交中 key，
+ * 交接 ID 与点赞数在同一个事务中写入，崩溃后重放不重复计数
+ * 数据库用内存中的点赞数和交接 ID 代替，事务回滚时恢复到执行前的状态
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class SyncBlogThumbCountJobTest {
+
+    @Container
+    private static final GenericContainer<?> REDIS = new GenericContainer<>(DockerImageName.parse("redis:7-alpine"))
+            .withExposedPorts(6379);
+
+    private final Map<Long, Long> counts = new TreeMap<>();
+
+    private final AtomicReference<String> handoffId = new AtomicReference<>("");
+
+    private Runnable beforeUpdate = () -> {
+    };
+
+    private JedisConnectionFactory connectionFactory;
+
+    private StringRedisTemplate stringRedisTemplate;
+
+    private BlogThumbCounter blogThumbCounter;
+
+    private SyncBlogThumbCountJob job;
+
+    @BeforeEach
+    void setUp() {
+        connectionFactory = ThumbSyncTestSupport.connect(REDIS);
+        stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+        blogThumbCounter = new BlogThumbCounter(stringRedisTemplate);
+        ReflectionTestUtils.setField(blogThumbCounter, "live", true);
+
+        BlogMapper blogMapper = mock(BlogMapper.class);
+        when(blogMapper.markThumbCountHandoff(anyString())).thenAnswer(invocation -> {
+            String id = invocation.getArgument(0);
+            return id.equals(handoffId.getAndSet(id)) ? 0 : 1;
+        });
+        doAnswer(invocation -> {
+            beforeUpdate.run();
+            Map<Long, Long> deltas = invocation.getArgument(0);
+            deltas.forEach((blogId, delta) -> counts.merge(blogId, delta, Long::sum));
+            return null;
+        }).when(blogMapper).batchUpdateThumbCount(anyMap());
+
+        job = new SyncBlogThumbCountJob();
+        ReflectionTestUtils.setField(job, "blogThumbCounter", blogThumbCounter);
+        ReflectionTestUtils.setField(job, "stringRedisTemplate", stringRedisTemplate);
+        ReflectionTestUtils.setField(job, "blogMapper", blogMapper);
+        ReflectionTestUtils.setField(job, "transactionTemplate", transactionTemplate());
+        ReflectionTestUtils.setField(job, "leaseManager", new ThumbSyncLeaseManager(stringRedisTemplate));
+        ReflectionTestUtils.setField(job, "leaseMillis", 30_000L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        connectionFactory.destroy();
+    }
+
+    /**
+     * 增量写入数据库后删除所有交接 key
+     */
+    @Test
+    void writesDeltasAndClearsKeys() {
+        incr(1L, 3);
+        incr(2L, -1);
+
+        job.run();
+
+        assertEquals(Map.of(1L, 3L, 2L, -1L), counts);
+        assertFalse(handoffId.get().isEmpty());
+        assertFalse(hasKey(ThumbConstant.BLOG_THUMB_DELTA_KEY));
+        assertFalse(hasKey(ThumbConstant.BLOG_THUMB_DELTA_PROCESSING_KEY));
+        assertFalse(hasKey(ThumbConstant.BLOG_THUMB_DELTA_COMMITTING_KEY));
+    }
+
+    /**
+     * 写入数据库时增量已 RENAME 为提交中 key，实时点赞数不再读取它；
+     * 这期间的新点赞累加到新的增量 key，依然计入实时点赞数
+     */
+    @Test
+    void hidesCommittingDeltasFromLiveCount() {
+        incr(1L, 3);
+        Map<Long, Long> duringCommit = new HashMap<>();
+        beforeUpdate = () -> {
+            assertTrue(hasKey(ThumbConstant.BLOG_THUMB_DELTA_COMMITTING_KEY));
+            assertFalse(hasKey(ThumbConstant.BLOG_THUMB_DELTA_PROCESSING_KEY));
+            incr(1L, 1);
+            duringCommit.putAll(blogThumbCounter.pendingDeltas(List.of(1L)));
+        };
+
+        job.run();
+
+        assertEquals(Map.of(1L, 1L), duringCommit);
+        assertEquals(Map.of(1L, 3L), counts);
+        assertEquals(Map.of(1L, 1L), blogThumbCounter.pendingDeltas(List.of(1L)));
+    }
+
+    /**
+     * 事务提交后、删除提交中 key 前崩溃：重放时发现交接 ID 已写入，只删除 key，不重复计数
+     */
+    @Test
+    void skipsCommittingKeyAlreadyInDatabase() {
+        counts.put(1L, 5L);
+        handoffId.set("h1");
+        committing("h1", 1L, 5);
+
+        job.run();
+
+        assertEquals(Map.of(1L, 5L), counts);
+        assertFalse(hasKey(ThumbConstant.BLOG_THUMB_DELTA_COMMITTING_KEY));
+    }
+
+    /**
+     * RENAME 为提交中 key 之后、事务提交前崩溃：重放时交接 ID 未写入，增量写入一次
+     */
+    @Test
+    void replaysCommittingKeyNotYetInDatabase() {
+        handoffId.set("h0");
+        committing("h1", 1L, 5);
+
+        job.run();
+
+        assertEquals(Map.of(1L, 5L), counts);
+        assertEquals("h1", handoffId.get());
+        assertFalse(hasKey(ThumbConstant.BLOG_THUMB_DELTA_COMMITTING_KEY));
+    }
+
+    /**
+     * 事务失败时提交中 key 恢复为写入中 key，实时点赞数重新计入；下次执行按同一个交接 ID 重放
+     */
+    @Test
+    void restoresProcessingKeyWhenCommitFails() {
+        incr(1L, 3);
+        beforeUpdate = () -> {
+            throw new IllegalStateException("database down");
+        };
+
+        assertThrows(IllegalStateException.class, job::run);
+
+        assertTrue(counts.isEmpty());
+        assertFalse(hasKey(ThumbConstant.BLOG_THUMB_DELTA_COMMITTING_KEY));
+        Object failedHandoff = stringRedisTemplate.opsForHash()
+                .get(ThumbConstant.BLOG_THUMB_DELTA_PROCESSING_KEY, ThumbConstant.BLOG_THUMB_DELTA_HANDOFF_FIELD);
+        assertNotNull(failedHandoff);
+        assertEquals(Map.of(1L, 3L), blogThumbCounter.pendingDeltas(List.of(1L)));
+
+        beforeUpdate = () -> {
+        };
+        job.run();
+
+        assertEquals(Map.of(1L, 3L), counts);
+        assertEquals(failedHandoff, handoffId.get());
+        assertFalse(hasKey(ThumbConstant.BLOG_THUMB_DELTA_PROCESSING_KEY));
+    }
+
+    /**
+     * 模拟事务：回调抛出异常时恢复执行前的点赞数和交接 ID
+     */
+    private TransactionTemplate transactionTemplate() {
+        TransactionTemplate transactionTemplate = mock(TransactionTemplate.class);
+        when(transactionTemplate.execute(any())).thenAnswer(invocation -> {
+            Map<Long, Long> countsBefore = new TreeMap<>(counts);
+            String handoffBefore = handoffId.get();
+            TransactionCallback<?> callback = invocation.getArgument(0);
+            try {
+                return callback.doInTransaction(mock(TransactionStatus.class));
+            } catch (RuntimeException e) {
+                counts.clear();
+                counts.putAll(countsBefore);
+                handoffId.set(handoffBefore);
+                throw e;
+            }
+        });
+        return transactionTemplate;
+    }
+
+    private void incr(long blogId, long delta) {
+        stringRedisTemplate.opsForHash().increment(ThumbConstant.BLOG_THUMB_DELTA_KEY, String.valueOf(blogId), delta);
+    }
+
+    private void committing(String handoff, long blogId, long delta) {
+        stringRedisTemplate.opsForHash().put(ThumbConstant.BLOG_THUMB_DELTA_COMMITTING_KEY,
+                ThumbConstant.BLOG_THUMB_DELTA_HANDOFF_FIELD, handoff);
+        stringRedisTemplate.opsForHash().put(ThumbConstant.BLOG_THUMB_DELTA_COMMITTING_KEY,
+                String.valueOf(blogId), String.valueOf(delta));
+    }
+
+    private boolean hasKey(String key) {
+        return Boolean.TRUE.equals(stringRedisTemplate.hasKey(key));
+    }
+}
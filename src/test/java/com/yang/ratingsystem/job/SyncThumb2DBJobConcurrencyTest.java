@@ -0,0 +1,209 @@
+package com.yang.ratingsystem.job;
+
+import com.yang.ratingsystem.constant.ThumbConstant;
+import com.yang.ratingsystem.manager.thumb.ThumbSliceClock;
+import com.yang.ratingsystem.utils.RedisKeyUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 临时点赞数据同步的并发测试：时间片交接、崩溃后重放、交接后的迟到写入
+ *
+ * 点赞 / 取消点赞通过生产中的 Lua 脚本写入容器中的 Redis，数据库由内存写入器代替；
+ * 同步结束后数据库中的点赞记录应与 Redis 中的用户点赞状态完全一致，博客点赞数与点赞记录数一致
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class SyncThumb2DBJobConcurrencyTest {
+
+    @Container
+    private static final GenericContainer<?> REDIS = new GenericContainer<>(DockerImageName.parse("redis:7-alpine"))
+            .withExposedPorts(6379);
+
+    private static final int USERS = 50;
+
+    private static final int BLOGS = 20;
+
+    private JedisConnectionFactory connectionFactory;
+
+    private StringRedisTemplate stringRedisTemplate;
+
+    private ExecutorService executor;
+
+    private ThumbSliceClock clock;
+
+    private ThumbSyncTestSupport.InMemoryThumbBatchWriter writer;
+
+    private SyncThumb2DBJob job;
+
+    @BeforeEach
+    void setUp() {
+        connectionFactory = ThumbSyncTestSupport.connect(REDIS);
+        stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        clock = ThumbSyncTestSupport.clock(1, 1);
+        writer = new ThumbSyncTestSupport.InMemoryThumbBatchWriter();
+        job = ThumbSyncTestSupport.newJob(connectionFactory, writer, clock, executor, 30_000, 50_000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+        connectionFactory.destroy();
+    }
+
+    /**
+     * 多线程持续点赞 / 取消点赞，部分请求计算时间片后延迟执行脚本；同步任务同时不断交接时间片，
+     * 写入器随机在写入数据库前后失败。写入停止后同步到最新时间片，两边应一致
+     */
+    @Test
+    void concurrentWritesWithFailuresConverge() throws Exception {
+        writer.setFailureRate(0.2);
+        long deadline = System.currentTimeMillis() + 4000;
+        AtomicLong lastSlice = new AtomicLong();
+        List<Future<?>> writers = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            writers.add(executor.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (System.currentTimeMillis() < deadline) {
+                    long slice = clock.currentSlice();
+                    lastSlice.accumulateAndGet(slice, Math::max);
+                    if (random.nextInt(10) == 0) {
+                        // 迟到写入：计算时间片后延迟执行，仍在时间片关闭前
+                        Thread.sleep(random.nextInt(300));
+                    }
+                    ThumbSyncTestSupport.toggle(stringRedisTemplate, String.valueOf(slice),
+                            random.nextLong(1, USERS + 1), random.nextLong(1, BLOGS + 1));
+                }
+                return null;
+            }));
+        }
+        AtomicBoolean writing = new AtomicBoolean(true);
+        Future<?> sweeper = executor.submit(() -> {
+            while (writing.get()) {
+                runQuietly();
+                Thread.sleep(50);
+            }
+            return null;
+        });
+        for (Future<?> future : writers) {
+            future.get();
+        }
+        writing.set(false);
+        sweeper.get();
+
+        // 等待最后写入的时间片关闭后同步到最新
+        writer.setFailureRate(0);
+        awaitWatermark(lastSlice.get());
+
+        assertTrue(writer.writes() > 0);
+        assertEquals(ThumbSyncTestSupport.redisThumbs(stringRedisTemplate, USERS), writer.thumbs());
+        assertEquals(writer.expectedBlogCounts(), writer.blogCounts());
+        assertTrue(ThumbSyncTestSupport.unsyncedKeys(stringRedisTemplate).isEmpty());
+    }
+
+    /**
+     * 写入数据库后、删除同步中 key 前崩溃，下次同步从同步中 key 重放，不会重复计数
+     */
+    @Test
+    void replayAfterCrashIsIdempotent() {
+        String slice = String.valueOf(clock.lastClosedSlice());
+        for (long userId = 1; userId <= USERS; userId++) {
+            ThumbSyncTestSupport.thumb(stringRedisTemplate, slice, userId, userId % BLOGS + 1);
+        }
+
+        writer.failNextAfterWrite();
+        assertThrows(RuntimeException.class, () -> job.syncThumb2DBbyDate(slice));
+        assertTrue(Boolean.TRUE.equals(stringRedisTemplate.hasKey(RedisKeyUtil.getProcessingThumbKey(slice, -1))));
+
+        assertTrue(job.syncThumb2DBbyDate(slice));
+        assertEquals(ThumbSyncTestSupport.redisThumbs(stringRedisTemplate, USERS), writer.thumbs());
+        assertEquals(writer.expectedBlogCounts(), writer.blogCounts());
+        assertTrue(ThumbSyncTestSupport.unsyncedKeys(stringRedisTemplate).isEmpty());
+    }
+
+    /**
+     * 交接之后写入同一时间片的数据落到新的临时 key，在下一轮交接中同步
+     */
+    @Test
+    void lateWriteAfterHandoffIsSyncedInNextRound() {
+        String slice = String.valueOf(clock.lastClosedSlice());
+        ThumbSyncTestSupport.thumb(stringRedisTemplate, slice, 1, 1);
+        AtomicBoolean late = new AtomicBoolean(true);
+        writer.setAfterWrite(() -> {
+            if (late.getAndSet(false)) {
+                ThumbSyncTestSupport.thumb(stringRedisTemplate, slice, 2, 1);
+            }
+        });
+
+        assertTrue(job.syncThumb2DBbyDate(slice));
+        assertEquals(2, writer.writes());
+        assertEquals(ThumbSyncTestSupport.redisThumbs(stringRedisTemplate, USERS), writer.thumbs());
+        assertTrue(ThumbSyncTestSupport.unsyncedKeys(stringRedisTemplate).isEmpty());
+    }
+
+    /**
+     * 交接轮数用完后时间片仍有写入时不推进水位，写入停止后下次同步继续该时间片
+     */
+    @Test
+    void watermarkStaysOnSliceWithContinuousLateWrites() {
+        long slice = clock.lastClosedSlice();
+        long previous = slice - clock.getSliceSeconds();
+        stringRedisTemplate.opsForValue().set(ThumbConstant.SYNC_WATERMARK_KEY, String.valueOf(previous));
+        ThumbSyncTestSupport.thumb(stringRedisTemplate, String.valueOf(slice), 1, 1);
+        AtomicLong nextUser = new AtomicLong(2);
+        writer.setAfterWrite(() -> ThumbSyncTestSupport.thumb(stringRedisTemplate, String.valueOf(slice), nextUser.getAndIncrement(), 1));
+
+        job.run();
+        assertEquals(previous, job.loadWatermark());
+        assertTrue(Boolean.TRUE.equals(stringRedisTemplate.hasKey(RedisKeyUtil.getTempThumbKey(String.valueOf(slice), -1))));
+
+        writer.setAfterWrite(() -> {
+        });
+        job.run();
+        assertTrue(job.loadWatermark() >= slice);
+        assertEquals(ThumbSyncTestSupport.redisThumbs(stringRedisTemplate, USERS), writer.thumbs());
+        assertFalse(writer.thumbs().isEmpty());
+        assertTrue(ThumbSyncTestSupport.unsyncedKeys(stringRedisTemplate).isEmpty());
+    }
+
+    private void awaitWatermark(long slice) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (job.loadWatermark() == null || job.loadWatermark() < slice) {
+            assertTrue(System.currentTimeMillis() < deadline, "同步水位未推进到 " + slice);
+            runQuietly();
+            Thread.sleep(200);
+        }
+    }
+
+    /**
+     * 模拟定时任务：本次同步失败时由下次执行重放
+     */
+    private void runQuietly() {
+        try {
+            job.run();
+        } catch (RuntimeException e) {
+            // 写入器注入的失败
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package com.yang.ratingsystem.job;
+
+import com.yang.ratingsystem.config.RedisConfig;
+import com.yang.ratingsystem.constant.ThumbConstant;
+import com.yang.ratingsystem.manager.thumb.ThumbSliceClock;
+import com.yang.ratingsystem.manager.thumb.ThumbSyncLeaseManager;
+import com.yang.ratingsystem.utils.RedisKeyUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 多节点同步测试：推进水位租约、时间片租约、子分片租约、其他节点协助同步子分片，以及拆分提交前后崩溃的重放
+ *
+ * 每个节点是一个独立组装的同步任务，各自持有 Redis 客户端和租约管理器，共用容器中的 Redis 和内存中的点赞表
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class SyncThumb2DBJobMultiInstanceTest {
+
+    @Container
+    private static final GenericContainer<?> REDIS = new GenericContainer<>(DockerImageName.parse("redis:7-alpine"))
+            .withExposedPorts(6379);
+
+    private static final int USERS = 200;
+
+    private static final int BLOGS = 20;
+
+    private static final long SPLIT_THRESHOLD = 20;
+
+    private JedisConnectionFactory connectionFactory;
+
+    private StringRedisTemplate stringRedisTemplate;
+
+    private ThumbSyncLeaseManager leaseManager;
+
+    private ExecutorService executor;
+
+    private ThumbSliceClock clock;
+
+    private ThumbSyncTestSupport.InMemoryThumbBatchWriter table;
+
+    @BeforeEach
+    void setUp() {
+        connectionFactory = ThumbSyncTestSupport.connect(REDIS);
+        stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+        leaseManager = new ThumbSyncLeaseManager(stringRedisTemplate);
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        clock = ThumbSyncTestSupport.clock(1, 1);
+        table = new ThumbSyncTestSupport.InMemoryThumbBatchWriter();
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+        connectionFactory.destroy();
+    }
+
+    /**
+     * 推进水位的租约被其他节点持有时，本节点只协助同步子分片，不推进水位
+     */
+    @Test
+    void onlySweeperLeaseHolderAdvancesWatermark() {
+        long slice = prepareSlice(10);
+        SyncThumb2DBJob node = newNode(table.node());
+
+        try (ThumbSyncLeaseManager.Lease sweeper = leaseManager.tryAcquire(SyncThumb2DBJob.SWEEPER_LEASE, 30_000)) {
+            assertTrue(sweeper != null);
+            node.run();
+            assertEquals(slice - clock.getSliceSeconds(), node.loadWatermark());
+            assertTrue(table.thumbs().isEmpty());
+        }
+
+        node.run();
+        assertTrue(node.loadWatermark() >= slice);
+        assertEquals(ThumbSyncTestSupport.redisThumbs(stringRedisTemplate, USERS), table.thumbs());
+    }
+
+    /**
+     * 时间片租约被其他节点持有时不交接该时间片，租约释放后正常同步
+     */
+    @Test
+    void sliceLeaseKeepsOtherNodesOffTheSlice() {
+        long slice = prepareSlice(10);
+        ThumbSyncTestSupport.InMemoryThumbBatchWriter writer = table.node();
+        SyncThumb2DBJob node = newNode(writer);
+
+        try (ThumbSyncLeaseManager.Lease sliceLease = leaseManager.tryAcquire("slice:" + slice, 30_000)) {
+            assertTrue(sliceLease != null);
+            assertFalse(node.syncThumb2DBbyDate(String.valueOf(slice)));
+            assertEquals(0, writer.writes());
+            assertTrue(Boolean.TRUE.equals(stringRedisTemplate.hasKey(RedisKeyUtil.getTempThumbKey(String.valueOf(slice), -1))));
+        }
+
+        assertTrue(node.syncThumb2DBbyDate(String.valueOf(slice)));
+        assertEquals(ThumbSyncTestSupport.redisThumbs(stringRedisTemplate, USERS), table.thumbs());
+    }
+
+    /**
+     * 大时间片拆分后，没有推进水位租约的节点获取子分片租约协助同步，推进水位的节点等待全部子分片完成
+     */
+    @Test
+    void otherNodesHelpFlushSplitShards() throws Exception {
+        long slice = prepareSlice(100);
+        ThumbSyncTestSupport.InMemoryThumbBatchWriter sweeperWriter = table.node();
+        ThumbSyncTestSupport.InMemoryThumbBatchWriter helperWriter = table.node();
+        // 推进水位的节点每写一个子分片都较慢，其他子分片由协助的节点完成
+        sweeperWriter.setAfterWrite(() -> sleep(300));
+        SyncThumb2DBJob sweeper = newNode(sweeperWriter);
+        SyncThumb2DBJob helper = newNode(helperWriter);
+
+        Future<?> sweeping = executor.submit(sweeper::run);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!Boolean.TRUE.equals(
+                stringRedisTemplate.opsForSet().isMember(ThumbConstant.SYNC_PENDING_SPLITS_KEY, String.valueOf(slice)))) {
+            assertTrue(System.currentTimeMillis() < deadline, "时间片未拆分");
+            Thread.sleep(10);
+        }
+        while (!sweeping.isDone()) {
+            helper.run();
+            Thread.sleep(50);
+        }
+        sweeping.get();
+
+        assertTrue(helperWriter.writes() > 0);
+        assertTrue(sweeper.loadWatermark() >= slice);
+        assertEquals(ThumbSyncTestSupport.redisThumbs(stringRedisTemplate, USERS), table.thumbs());
+        assertEquals(table.expectedBlogCounts(), table.blogCounts());
+        assertFalse(Boolean.TRUE.equals(stringRedisTemplate.hasKey(RedisKeyUtil.getSyncSplitKey(String.valueOf(slice)))));
+        assertTrue(ThumbSyncTestSupport.unsyncedKeys(stringRedisTemplate).isEmpty());
+    }
+
+    /**
+     * 拆分提交后同步子分片时崩溃，另一个节点接手推进水位时重放剩余子分片，不会重复计数
+     */
+    @Test
+    void committedSplitIsReplayedByAnotherNode() {
+        long slice = prepareSlice(100);
+        ThumbSyncTestSupport.InMemoryThumbBatchWriter crashingWriter = table.node();
+        crashingWriter.failNextAfterWrite();
+        SyncThumb2DBJob crashing = newNode(crashingWriter);
+
+        assertThrows(RuntimeException.class, crashing::run);
+        assertTrue(Boolean.TRUE.equals(stringRedisTemplate.hasKey(RedisKeyUtil.getSyncSplitKey(String.valueOf(slice)))));
+        assertFalse(Boolean.TRUE.equals(stringRedisTemplate.hasKey(RedisKeyUtil.getProcessingThumbKey(String.valueOf(slice), -1))));
+        assertEquals(slice - clock.getSliceSeconds(), crashing.loadWatermark());
+
+        SyncThumb2DBJob takeover = newNode(table.node());
+        takeover.run();
+        assertTrue(takeover.loadWatermark() >= slice);
+        assertEquals(ThumbSyncTestSupport.redisThumbs(stringRedisTemplate, USERS), table.thumbs());
+        assertEquals(table.expectedBlogCounts(), table.blogCounts());
+        assertTrue(ThumbSyncTestSupport.unsyncedKeys(stringRedisTemplate).isEmpty());
+    }
+
+    /**
+     * 租约短于等待子分片的时间：推进水位的节点等待其他节点持有的子分片时持续续约时间片租约，其他节点无法接手该时间片；
+     * 推进水位的租约在等待期间过期并被其他节点接手后，本节点完成时间片也不会写入水位，水位不会被回退
+     */
+    @Test
+    void sliceLeaseIsRenewedWhileWaitingForShards() throws Exception {
+        long slice = prepareSlice(100);
+        String date = String.valueOf(slice);
+        ThumbSyncTestSupport.InMemoryThumbBatchWriter crashingWriter = table.node();
+        crashingWriter.failNextAfterWrite();
+        assertThrows(RuntimeException.class, newNode(crashingWriter)::run);
+        assertTrue(Boolean.TRUE.equals(stringRedisTemplate.hasKey(RedisKeyUtil.getSyncShardKey(date, 1))));
+
+        // 生产配置会拒绝租约短于等待时间，这里直接设置
+        SyncThumb2DBJob waiting = ThumbSyncTestSupport.newJob(connectionFactory, table.node(), clock, executor, 1000, SPLIT_THRESHOLD);
+        ReflectionTestUtils.setField(waiting, "shardWaitMillis", 5000L);
+        SyncThumb2DBJob other = ThumbSyncTestSupport.newJob(connectionFactory, table.node(), clock, executor, 1000, SPLIT_THRESHOLD);
+        Future<?> sweeping;
+        // 模拟其他节点持有子分片 1 的租约
+        try (ThumbSyncLeaseManager.Lease shardLease = leaseManager.tryAcquire("shard:" + date + ":1", 30_000)) {
+            assertTrue(shardLease != null);
+            sweeping = executor.submit(waiting::run);
+            Thread.sleep(2500);
+            assertFalse(sweeping.isDone());
+            // 已超过租约时长，时间片租约仍由等待的节点持有
+            assertFalse(other.syncThumb2DBbyDate(date));
+
+            // 推进水位的租约未续约已过期，由其他节点接手并推进到更新的时间片
+            ThumbSyncLeaseManager.Lease sweeperLease = leaseManager.tryAcquire(SyncThumb2DBJob.SWEEPER_LEASE, 30_000);
+            assertTrue(sweeperLease != null);
+            stringRedisTemplate.opsForValue().set(ThumbConstant.SYNC_WATERMARK_KEY, String.valueOf(slice + clock.getSliceSeconds()));
+        }
+        sweeping.get();
+
+        assertEquals(slice + clock.getSliceSeconds(), waiting.loadWatermark());
+        assertEquals(ThumbSyncTestSupport.redisThumbs(stringRedisTemplate, USERS), table.thumbs());
+        assertEquals(table.expectedBlogCounts(), table.blogCounts());
+        assertFalse(Boolean.TRUE.equals(stringRedisTemplate.hasKey(RedisKeyUtil.getSyncSplitKey(date))));
+        assertTrue(ThumbSyncTestSupport.unsyncedKeys(stringRedisTemplate).isEmpty());
+    }
+
+    /**
+     * 拆分提交前崩溃时同步中 key 仍在，残留的子分片数据是其子集；重放时重新拆分，残留数据重复写入是幂等的
+     */
+    @Test
+    void interruptedSplitIsRedoneFromProcessingKey() {
+        long slice = prepareSlice(100);
+        String date = String.valueOf(slice);
+        stringRedisTemplate.rename(RedisKeyUtil.getTempThumbKey(date, -1), RedisKeyUtil.getProcessingThumbKey(date, -1));
+        // 用户 1 点赞的是博客 2，残留在子分片 0 中（重新拆分后它属于其他子分片）
+        new RedisConfig().redisTemplate(connectionFactory).opsForHash().put(RedisKeyUtil.getSyncShardKey(date, 0), "1:2", 1);
+
+        SyncThumb2DBJob node = newNode(table.node());
+        assertTrue(node.syncThumb2DBbyDate(date));
+        assertEquals(ThumbSyncTestSupport.redisThumbs(stringRedisTemplate, USERS), table.thumbs());
+        assertEquals(table.expectedBlogCounts(), table.blogCounts());
+        assertTrue(ThumbSyncTestSupport.unsyncedKeys(stringRedisTemplate).isEmpty());
+    }
+
+    /**
+     * 三个节点同时执行定时同步，写入持续进行、时间片频繁拆分、写入器随机失败，写入停止后两边一致
+     */
+    @Test
+    void concurrentNodesConverge() throws Exception {
+        List<ThumbSyncTestSupport.InMemoryThumbBatchWriter> writers = new ArrayList<>();
+        List<SyncThumb2DBJob> nodes = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            ThumbSyncTestSupport.InMemoryThumbBatchWriter writer = table.node();
+            writer.setFailureRate(0.1);
+            writers.add(writer);
+            nodes.add(newNode(writer));
+        }
+
+        long deadline = System.currentTimeMillis() + 4000;
+        AtomicLong lastSlice = new AtomicLong();
+        List<Future<?>> producers = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            producers.add(executor.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (System.currentTimeMillis() < deadline) {
+                    long slice = clock.currentSlice();
+                    lastSlice.accumulateAndGet(slice, Math::max);
+                    ThumbSyncTestSupport.toggle(stringRedisTemplate, String.valueOf(slice),
+                            random.nextLong(1, USERS + 1), random.nextLong(1, BLOGS + 1));
+                }
+                return null;
+            }));
+        }
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Future<?>> schedulers = new ArrayList<>();
+        for (SyncThumb2DBJob node : nodes) {
+            schedulers.add(executor.submit(() -> {
+                while (running.get()) {
+                    runQuietly(node);
+                    Thread.sleep(ThreadLocalRandom.current().nextInt(20, 100));
+                }
+                return null;
+            }));
+        }
+        for (Future<?> producer : producers) {
+            producer.get();
+        }
+
+        // 写入停止后不再注入失败，继续由多个节点同步到最后写入的时间片
+        writers.forEach(writer -> writer.setFailureRate(0));
+        long waitUntil = System.currentTimeMillis() + 15_000;
+        while (nodes.get(0).loadWatermark() == null || nodes.get(0).loadWatermark() < lastSlice.get()) {
+            assertTrue(System.currentTimeMillis() < waitUntil, "同步水位未推进到 " + lastSlice.get());
+            Thread.sleep(200);
+        }
+        running.set(false);
+        for (Future<?> scheduler : schedulers) {
+            scheduler.get();
+        }
+
+        assertTrue(writers.stream().filter(writer -> writer.writes() > 0).count() > 1);
+        assertEquals(ThumbSyncTestSupport.redisThumbs(stringRedisTemplate, USERS), table.thumbs());
+        assertEquals(table.expectedBlogCounts(), table.blogCounts());
+        assertTrue(ThumbSyncTestSupport.unsyncedKeys(stringRedisTemplate).isEmpty());
+    }
+
+    /**
+     * 在最近一个已关闭的时间片中写入 users 个用户的点赞，水位设在它之前
+     *
+     * @return 写入的时间片
+     */
+    private long prepareSlice(int users) {
+        long slice = clock.lastClosedSlice();
+        stringRedisTemplate.opsForValue().set(ThumbConstant.SYNC_WATERMARK_KEY, String.valueOf(slice - clock.getSliceSeconds()));
+        for (long userId = 1; userId <= users; userId++) {
+            ThumbSyncTestSupport.thumb(stringRedisTemplate, String.valueOf(slice), userId, userId % BLOGS + 1);
+        }
+        return slice;
+    }
+
+    private SyncThumb2DBJob newNode(ThumbSyncTestSupport.InMemoryThumbBatchWriter writer) {
+        return ThumbSyncTestSupport.newJob(connectionFactory, writer, clock, executor, 30_000, SPLIT_THRESHOLD);
+    }
+
+    private static void runQuietly(SyncThumb2DBJob node) {
+        try {
+            node.run();
+        } catch (RuntimeException e) {
+            // 写入器注入的失败，下次执行时重放
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.yang.ratingsystem.job;
+
+import com.yang.ratingsystem.config.RedisConfig;
+import com.yang.ratingsystem.constant.ThumbConstant;
+import com.yang.ratingsystem.manager.thumb.ThumbEventProgress;
+import com.yang.ratingsystem.manager.thumb.ThumbEventPublisher;
+import com.yang.ratingsystem.manager.thumb.ThumbScriptRegistry;
+import com.yang.ratingsystem.manager.thumb.ThumbSliceClock;
+import com.yang.ratingsystem.manager.thumb.ThumbSyncLeaseManager;
+import com.yang.ratingsystem.manager.thumb.UserThumbStore;
+import com.yang.ratingsystem.mapper.ThumbMapper;
+import com.yang.ratingsystem.mapper.UserThumbDigestMapper;
+import com.yang.ratingsystem.model.Thumb;
+import com.yang.ratingsystem.model.UserThumbDigest;
+import com.yang.ratingsystem.utils.ThumbDigestUtil;
+import com.yang.ratingsystem.utils.ThumbKeyLayout;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
+
+/**
+ * 对账写入摘要的测试：两边的摘要都按读取前的值比较并写入，读取之后被点赞脚本或批量写入异或过的摘要不被覆盖。
+ * user_thumb_digest 表用内存中的 Map 模拟，比较并写入在锁内完成，与一条 UPDATE 语句的原子性一致
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class ThumbReconcileJobDigestTest {
+
+    @Container
+    private static final GenericContainer<?> REDIS = new GenericContainer<>(DockerImageName.parse("redis:7-alpine"))
+            .withExposedPorts(6379);
+
+    private final List<Thumb> rows = new ArrayList<>();
+
+    private final Map<Long, Long> mysqlDigests = new ConcurrentHashMap<>();
+
+    private JedisConnectionFactory connectionFactory;
+
+    private StringRedisTemplate stringRedisTemplate;
+
+    private UserThumbStore userThumbStore;
+
+    private ThumbMapper thumbMapper;
+
+    private ExecutorService executor;
+
+    private ThumbReconcileJob job;
+
+    @BeforeEach
+    void setUp() {
+        connectionFactory = ThumbSyncTestSupport.connect(REDIS);
+        stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        ThumbKeyLayout layout = ThumbKeyLayout.standalone();
+        ThumbScriptRegistry scriptRegistry = new ThumbScriptRegistry(stringRedisTemplate);
+        ThumbSyncLeaseManager leaseManager = new ThumbSyncLeaseManager(stringRedisTemplate);
+
+        thumbMapper = mock(ThumbMapper.class);
+        when(thumbMapper.selectUserRangeAfter(anyLong(), anyLong(), anyLong(), anyLong(), anyInt()))
+                .thenAnswer(invocation -> selectUserRangeAfter(invocation.getArgument(0), invocation.getArgument(1),
+                        invocation.getArgument(2), invocation.getArgument(3), invocation.getArgument(4)));
+        when(thumbMapper.selectExistingUserIds(anyCollection())).thenReturn(List.of(1L));
+
+        userThumbStore = spy(new UserThumbStore(new RedisConfig().redisTemplate(connectionFactory), stringRedisTemplate,
+                scriptRegistry, thumbMapper, leaseManager, layout, false, 604800, 1000, 3000, 30_000, true));
+
+        ThumbEventPublisher publisher = mock(ThumbEventPublisher.class);
+        when(publisher.publish(any())).thenReturn(CompletableFuture.completedFuture(null));
+        SyncThumb2DBJob syncJob = mock(SyncThumb2DBJob.class);
+        when(syncJob.loadWatermark()).thenReturn(Long.MAX_VALUE);
+        ThumbEventProgress eventProgress = mock(ThumbEventProgress.class);
+        when(eventProgress.clusterPosition()).thenReturn(Long.MAX_VALUE);
+
+        job = new ThumbReconcileJob();
+        ReflectionTestUtils.setField(job, "thumbMapper", thumbMapper);
+        ReflectionTestUtils.setField(job, "userThumbDigestMapper", userThumbDigestMapper());
+        ReflectionTestUtils.setField(job, "userThumbStore", userThumbStore);
+        ReflectionTestUtils.setField(job, "stringRedisTemplate", stringRedisTemplate);
+        ReflectionTestUtils.setField(job, "leaseManager", leaseManager);
+        ReflectionTestUtils.setField(job, "virtualThreadExecutor", executor);
+        ReflectionTestUtils.setField(job, "thumbEventPublisher", publisher);
+        ReflectionTestUtils.setField(job, "eventProgress", eventProgress);
+        ReflectionTestUtils.setField(job, "syncThumb2DBJob", syncJob);
+        ReflectionTestUtils.setField(job, "thumbSliceClock", mock(ThumbSliceClock.class));
+        ReflectionTestUtils.setField(job, "thumbKeyLayout", layout);
+        ReflectionTestUtils.setField(job, "thumbScriptRegistry", scriptRegistry);
+        ReflectionTestUtils.setField(job, "leaseMillis", 30_000L);
+        ReflectionTestUtils.setField(job, "pageSize", 100);
+        ReflectionTestUtils.setField(job, "concurrency", 1);
+        ReflectionTestUtils.setField(job, "rowsPerSecond", 1_000_000.0);
+        ReflectionTestUtils.setField(job, "settleMillis", 5_000L);
+        ReflectionTestUtils.setField(job, "digestEnabled", true);
+
+        addRow(1, 1);
+        addRow(1, 2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+        connectionFactory.destroy();
+    }
+
+    /**
+     * 没有并发写入时按点赞记录重新计算并覆盖过期的摘要
+     */
+    @Test
+    void overwritesStaleDigest() {
+        stringRedisTemplate.opsForHash().put("thumb:1", "1", "1");
+        stringRedisTemplate.opsForHash().put("thumb:1", "2", "1");
+        stringRedisTemplate.opsForHash().put(ThumbConstant.USER_THUMB_DIGEST_KEY, "1", "42");
+
+        job.reconcile();
+
+        assertEquals(ThumbDigestUtil.digest(1L, List.of(1L, 2L)), redisDigest(1L));
+    }
+
+    /**
+     * 读取点赞状态之后另一个节点点赞，脚本异或了摘要；对账按旧状态算出的摘要不能覆盖它
+     */
+    @Test
+    void keepsDigestUpdatedAfterTheRead() {
+        userThumbStore.restore(1L, 1L);
+        userThumbStore.restore(1L, 2L);
+        assertEquals(ThumbDigestUtil.digest(1L, List.of(1L, 2L)), redisDigest(1L));
+        AtomicBoolean concurrentThumb = new AtomicBoolean(true);
+        doAnswer(invocation -> {
+            Object result = invocation.callRealMethod();
+            if (concurrentThumb.getAndSet(false)) {
+                userThumbStore.restore(1L, 3L);
+            }
+            return result;
+        }).when(userThumbStore).blogIds(anyCollection());
+
+        job.reconcile();
+
+        assertEquals(ThumbDigestUtil.digest(1L, List.of(1L, 2L, 3L)), redisDigest(1L));
+    }
+
+    /**
+     * 读取点赞记录之后另一个节点的批量写入提交了新的点赞，并在同一事务中异或了数据库中的摘要；
+     * 对账按旧记录算出的摘要不能覆盖它
+     */
+    @Test
+    void keepsMysqlDigestUpdatedAfterTheRead() {
+        userThumbStore.restore(1L, 1L);
+        userThumbStore.restore(1L, 2L);
+        mysqlDigests.put(1L, ThumbDigestUtil.digest(1L, List.of(1L, 2L)));
+        AtomicBoolean concurrentWrite = new AtomicBoolean(true);
+        when(thumbMapper.selectUserRangeAfter(anyLong(), anyLong(), anyLong(), anyLong(), anyInt()))
+                .thenAnswer(invocation -> {
+                    List<Thumb> page = selectUserRangeAfter(invocation.getArgument(0), invocation.getArgument(1),
+                            invocation.getArgument(2), invocation.getArgument(3), invocation.getArgument(4));
+                    if (concurrentWrite.getAndSet(false)) {
+                        addRow(1, 3);
+                        mysqlDigests.merge(1L, ThumbDigestUtil.hash(1L, 3L), (digest, delta) -> digest ^ delta);
+                    }
+                    return page;
+                });
+
+        job.reconcile();
+
+        assertEquals(ThumbDigestUtil.digest(1L, List.of(1L, 2L, 3L)), mysqlDigests.get(1L));
+    }
+
+    /**
+     * 没有并发写入时按点赞记录重新计算并覆盖数据库中过期的摘要
+     */
+    @Test
+    void overwritesStaleMysqlDigest() {
+        userThumbStore.restore(1L, 1L);
+        userThumbStore.restore(1L, 2L);
+        mysqlDigests.put(1L, 42L);
+
+        job.reconcile();
+
+        assertEquals(ThumbDigestUtil.digest(1L, List.of(1L, 2L)), mysqlDigests.get(1L));
+    }
+
+    private UserThumbDigestMapper userThumbDigestMapper() {
+        UserThumbDigestMapper mapper = mock(UserThumbDigestMapper.class);
+        when(mapper.selectByUserIds(anyCollection())).thenAnswer(invocation -> invocation.<Collection<Long>>getArgument(0).stream()
+                .filter(mysqlDigests::containsKey)
+                .map(userId -> new UserThumbDigest(userId, mysqlDigests.get(userId)))
+                .toList());
+        when(mapper.batchInsertIgnoreZero(anyCollection())).thenAnswer(invocation -> {
+            synchronized (mysqlDigests) {
+                return (int) invocation.<Collection<Long>>getArgument(0).stream()
+                        .filter(userId -> mysqlDigests.putIfAbsent(userId, 0L) == null)
+                        .count();
+            }
+        });
+        when(mapper.batchCompareAndSetDigest(anyList(), anyList())).thenAnswer(invocation -> {
+            List<UserThumbDigest> digests = invocation.getArgument(0);
+            List<UserThumbDigest> expected = invocation.getArgument(1);
+            int updated = 0;
+            synchronized (mysqlDigests) {
+                for (int i = 0; i < digests.size(); i++) {
+                    if (expected.get(i).getDigest().equals(mysqlDigests.get(expected.get(i).getUserId()))) {
+                        mysqlDigests.put(digests.get(i).getUserId(), digests.get(i).getDigest());
+                        updated++;
+                    }
+                }
+            }
+            return updated;
+        });
+        return mapper;
+    }
+
+    private long redisDigest(Long userId) {
+        Object value = stringRedisTemplate.opsForHash().get(ThumbConstant.USER_THUMB_DIGEST_KEY, userId.toString());
+        return value == null ? 0L : Long.parseLong(value.toString());
+    }
+
+    private void addRow(long userId, long blogId) {
+        Thumb thumb = new Thumb();
+        thumb.setUserId(userId);
+        thumb.setBlogId(blogId);
+        rows.add(thumb);
+    }
+
+    private List<Thumb> selectUserRangeAfter(long fromUserId, long toUserId, long afterUserId, long afterBlogId, int limit) {
+        return rows.stream()
+                .filter(thumb -> thumb.getUserId() >= fromUserId && thumb.getUserId() <= toUserId)
+                .filter(thumb -> thumb.getUserId() > afterUserId
+                        || (thumb.getUserId() == afterUserId && thumb.getBlogId() > afterBlogId))
+                .sorted(Comparator.comparing(Thumb::getUserId).thenComparing(Thumb::getBlogId))
+                .limit(limit)
+                .toList();
+    }
+}
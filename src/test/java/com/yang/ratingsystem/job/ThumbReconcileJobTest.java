@@ -0,0 +1,394 @@
+package com.yang.ratingsystem.job;
+
+import com.yang.ratingsystem.constant.ThumbConstant;
+import com.yang.ratingsystem.listener.thumb.msg.ThumbEvent;
+import com.yang.ratingsystem.manager.thumb.ThumbEventProgress;
+import com.yang.ratingsystem.manager.thumb.ThumbEventPublisher;
+import com.yang.ratingsystem.manager.thumb.ThumbSliceClock;
+import com.yang.ratingsystem.manager.thumb.ThumbSyncLeaseManager;
+import com.yang.ratingsystem.manager.thumb.UserThumbStore;
+import com.yang.ratingsystem.mapper.ThumbMapper;
+import com.yang.ratingsystem.mapper.UserThumbDigestMapper;
+import com.yang.ratingsystem.model.Thumb;
+import com.yang.ratingsystem.utils.ThumbKeyLayout;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.core.StreamOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 对账任务测试：thumb 表由内存中的记录代替，Redis 点赞状态按读取次数返回，检查点存放在内存中
+ */
+class ThumbReconcileJobTest {
+
+    private static final int PAGE_SIZE = 3;
+
+    private final List<Thumb> rows = new ArrayList<>();
+
+    /**
+     * 每次分页查询的 (afterUserId, afterBlogId)
+     */
+    private final List<long[]> pageQueries = new CopyOnWriteArrayList<>();
+
+    /**
+     * 每次读取 Redis 点赞状态时的用户集合
+     */
+    private final List<Set<Long>> redisReads = new CopyOnWriteArrayList<>();
+
+    /**
+     * 第 n 次读取（从 1 开始）时用户在 Redis 中的点赞状态，默认与数据库一致
+     */
+    private Function<Integer, Map<Long, Set<Long>>> redisState = read -> null;
+
+    private final Map<String, String> values = new HashMap<>();
+
+    private final AtomicInteger renewals = new AtomicInteger();
+
+    private int renewalsBeforeLoss = Integer.MAX_VALUE;
+
+    private ThumbMapper thumbMapper;
+
+    private UserThumbStore userThumbStore;
+
+    private ThumbEventPublisher thumbEventPublisher;
+
+    private SyncThumb2DBJob syncThumb2DBJob;
+
+    private ExecutorService executor;
+
+    private ThumbReconcileJob job;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+
+        thumbMapper = mock(ThumbMapper.class);
+        when(thumbMapper.selectUserRangeAfter(anyLong(), anyLong(), anyLong(), anyLong(), anyInt()))
+                .thenAnswer(invocation -> selectUserRangeAfter(invocation.getArgument(0), invocation.getArgument(1),
+                        invocation.getArgument(2), invocation.getArgument(3), invocation.getArgument(4)));
+        when(thumbMapper.selectExistingUserIds(anyCollection())).thenAnswer(invocation -> {
+            Collection<Long> userIds = invocation.getArgument(0);
+            return rows.stream().map(Thumb::getUserId).filter(userIds::contains).distinct().toList();
+        });
+
+        userThumbStore = mock(UserThumbStore.class);
+        AtomicInteger reads = new AtomicInteger();
+        when(userThumbStore.blogIds(anyCollection())).thenAnswer(invocation -> {
+            Set<Long> userIds = new HashSet<>(invocation.<Collection<Long>>getArgument(0));
+            redisReads.add(userIds);
+            Map<Long, Set<Long>> state = redisState.apply(reads.incrementAndGet());
+            Map<Long, Set<Long>> result = new HashMap<>();
+            for (Long userId : userIds) {
+                result.put(userId, state != null && state.containsKey(userId) ? state.get(userId) : mysqlBlogIds(userId));
+            }
+            return result;
+        });
+
+        StringRedisTemplate stringRedisTemplate = mock(StringRedisTemplate.class);
+        ValueOperations<String, String> valueOperations = mock(ValueOperations.class);
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.get(anyString())).thenAnswer(invocation -> values.get(invocation.<String>getArgument(0)));
+        doAnswer(invocation -> values.put(invocation.getArgument(0), invocation.getArgument(1)))
+                .when(valueOperations).set(anyString(), anyString());
+        when(stringRedisTemplate.delete(anyString())).thenAnswer(invocation -> values.remove(invocation.<String>getArgument(0)) != null);
+        StreamOperations<String, Object, Object> streamOperations = mock(StreamOperations.class);
+        when(stringRedisTemplate.opsForStream()).thenReturn(streamOperations);
+        when(streamOperations.range(anyString(), any(), any())).thenReturn(List.of());
+
+        ThumbSyncLeaseManager.Lease lease = mock(ThumbSyncLeaseManager.Lease.class);
+        when(lease.renew()).thenAnswer(invocation -> renewals.incrementAndGet() <= renewalsBeforeLoss);
+        ThumbSyncLeaseManager leaseManager = mock(ThumbSyncLeaseManager.class);
+        when(leaseManager.tryAcquire(anyString(), anyLong())).thenReturn(lease);
+
+        thumbEventPublisher = mock(ThumbEventPublisher.class);
+        when(thumbEventPublisher.publish(any())).thenReturn(CompletableFuture.completedFuture(null));
+
+        // 同步水位、事件处理进度都已越过读取时间，事件流为空
+        syncThumb2DBJob = mock(SyncThumb2DBJob.class);
+        when(syncThumb2DBJob.loadWatermark()).thenReturn(Long.MAX_VALUE);
+        ThumbEventProgress eventProgress = mock(ThumbEventProgress.class);
+        when(eventProgress.clusterPosition()).thenReturn(Long.MAX_VALUE);
+
+        job = new ThumbReconcileJob();
+        ReflectionTestUtils.setField(job, "thumbMapper", thumbMapper);
+        ReflectionTestUtils.setField(job, "userThumbDigestMapper", mock(UserThumbDigestMapper.class));
+        ReflectionTestUtils.setField(job, "userThumbStore", userThumbStore);
+        ReflectionTestUtils.setField(job, "stringRedisTemplate", stringRedisTemplate);
+        ReflectionTestUtils.setField(job, "leaseManager", leaseManager);
+        ReflectionTestUtils.setField(job, "virtualThreadExecutor", executor);
+        ReflectionTestUtils.setField(job, "thumbEventPublisher", thumbEventPublisher);
+        ReflectionTestUtils.setField(job, "eventProgress", eventProgress);
+        ReflectionTestUtils.setField(job, "syncThumb2DBJob", syncThumb2DBJob);
+        ReflectionTestUtils.setField(job, "thumbSliceClock", mock(ThumbSliceClock.class));
+        ReflectionTestUtils.setField(job, "thumbKeyLayout", ThumbKeyLayout.standalone());
+        ReflectionTestUtils.setField(job, "leaseMillis", 30_000L);
+        ReflectionTestUtils.setField(job, "pageSize", PAGE_SIZE);
+        ReflectionTestUtils.setField(job, "concurrency", 1);
+        ReflectionTestUtils.setField(job, "rowsPerSecond", 1_000_000.0);
+        ReflectionTestUtils.setField(job, "settleMillis", 5_000L);
+        ReflectionTestUtils.setField(job, "digestEnabled", false);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void subtractReturnsSortedDifference() {
+        assertEquals(List.of(1L, 5L), subtract(List.of(1L, 3L, 5L, 7L), List.of(3L, 4L, 7L)));
+        assertEquals(List.of(1L, 2L), subtract(List.of(1L, 2L), List.of()));
+        assertEquals(List.of(), subtract(List.of(), List.of(1L, 2L)));
+        assertEquals(List.of(), subtract(List.of(2L, 4L), List.of(1L, 2L, 3L, 4L, 5L)));
+        assertEquals(List.of(9L), subtract(List.of(2L, 9L), List.of(1L, 2L, 3L)));
+    }
+
+    @Test
+    void retainReturnsSortedIntersection() {
+        assertEquals(List.of(3L, 5L), retain(List.of(1L, 3L, 5L, 7L), List.of(3L, 5L, 9L)));
+        assertEquals(List.of(), retain(List.of(1L, 2L), List.of()));
+        assertEquals(List.of(), retain(List.of(1L, 3L), List.of(2L, 4L)));
+    }
+
+    /**
+     * 记录跨页的用户留到下一页，与后续页的记录一起比对，不会因为只看到部分记录而被判为不一致
+     */
+    @Test
+    void carriesUserSpanningPagesIntoTheNextComparison() {
+        addRows(1, 1, 2);
+        addRows(2, 1, 2, 3, 4);
+        addRows(3, 1);
+
+        assertEquals(0, job.reconcile());
+
+        // 第 1 页以用户 2 结尾，第 2 页只有用户 2，都留到第 3 页
+        assertEquals(List.of(Set.of(1L), Set.of(2L, 3L)), redisReads);
+        verify(thumbEventPublisher, never()).publish(any());
+        verify(userThumbStore, never()).restore(anyLong(), anyLong());
+    }
+
+    /**
+     * 每轮比对完成后保存检查点，全部完成后删除
+     */
+    @Test
+    void savesCheckpointAfterEachRoundAndClearsItWhenDone() {
+        addRows(1, 1, 2);
+        addRows(2, 1, 2, 3, 4);
+        addRows(3, 1);
+        List<String> checkpoints = new ArrayList<>();
+        redisState = read -> {
+            checkpoints.add(values.get(ThumbConstant.RECONCILE_CHECKPOINT_KEY));
+            return null;
+        };
+
+        job.reconcile();
+
+        // 比对第 1 页时还没有检查点，比对第 3 页时检查点停留在用户 1
+        assertEquals(Arrays.asList(null, "1"), checkpoints);
+        assertNull(values.get(ThumbConstant.RECONCILE_CHECKPOINT_KEY));
+    }
+
+    /**
+     * 从检查点之后的用户继续，检查点用户的记录不再读取
+     */
+    @Test
+    void resumesAfterCheckpoint() {
+        addRows(1, 1, 2);
+        addRows(2, 1, 2);
+        addRows(3, 1);
+        values.put(ThumbConstant.RECONCILE_CHECKPOINT_KEY, "2");
+
+        job.reconcile();
+
+        assertEquals(2L, pageQueries.get(0)[0]);
+        assertEquals(Long.MAX_VALUE, pageQueries.get(0)[1]);
+        assertEquals(List.of(Set.of(3L)), redisReads);
+    }
+
+    /**
+     * 租约丢失时停止并保留检查点，下次从检查点继续
+     */
+    @Test
+    void keepsCheckpointWhenLeaseIsLost() {
+        addRows(1, 1, 2, 3);
+        addRows(2, 1, 2, 3);
+        addRows(3, 1);
+        renewalsBeforeLoss = 1;
+
+        assertEquals(0, job.reconcile());
+
+        // 第 2 轮比对完用户 1 后续约失败
+        assertEquals("1", values.get(ThumbConstant.RECONCILE_CHECKPOINT_KEY));
+        assertEquals(2, pageQueries.size());
+        assertEquals(List.of(Set.of(1L)), redisReads);
+
+        renewalsBeforeLoss = Integer.MAX_VALUE;
+        job.reconcile();
+
+        assertEquals(1L, pageQueries.get(2)[0]);
+        assertEquals(Long.MAX_VALUE, pageQueries.get(2)[1]);
+        assertEquals(List.of(Set.of(1L), Set.of(2L, 3L)), redisReads);
+        assertNull(values.get(ThumbConstant.RECONCILE_CHECKPOINT_KEY));
+    }
+
+    /**
+     * 发现差异后复核：只修复等待同步前后两次读取中都存在的差异，
+     * 第二次读取时已消失的差异是已同步的写入，第二次才出现的差异来自读取之后的写入，都不修复
+     */
+    @Test
+    void repairsOnlyDiffsSeenInBothReads() {
+        addRows(1, 1, 2);
+        redisState = read -> switch (read) {
+            // 全量比对
+            case 1 -> Map.of(1L, Set.of(2L, 3L));
+            // 复核第一次读取：Redis 多出 3、4，数据库多出 1
+            case 2 -> Map.of(1L, Set.of(2L, 3L, 4L));
+            // 同步之后第二次读取：3 已同步，5 是新的写入
+            default -> Map.of(1L, Set.of(2L, 4L, 5L));
+        };
+
+        assertEquals(2, job.reconcile());
+
+        ArgumentCaptor<ThumbEvent> events = ArgumentCaptor.forClass(ThumbEvent.class);
+        verify(thumbEventPublisher, times(1)).publish(events.capture());
+        assertEquals(1L, events.getValue().getUserId());
+        assertEquals(4L, events.getValue().getBlogId());
+        assertEquals(ThumbEvent.EventType.INCR, events.getValue().getType());
+        verify(userThumbStore, times(1)).restore(anyLong(), anyLong());
+        verify(userThumbStore).restore(1L, 1L);
+    }
+
+    /**
+     * 同步在等待时间内没有越过读取时间时只记录差异，不修复
+     */
+    @Test
+    void doesNotRepairBeforeSyncPassesReadTime() {
+        addRows(1, 1, 2);
+        redisState = read -> Map.of(1L, Set.of(2L, 3L));
+        when(syncThumb2DBJob.loadWatermark()).thenReturn(null);
+        ReflectionTestUtils.setField(job, "settleMillis", 100L);
+
+        assertEquals(0, job.reconcile());
+
+        verify(thumbEventPublisher, never()).publish(any());
+        verify(userThumbStore, never()).restore(anyLong(), anyLong());
+    }
+
+    /**
+     * 遍历 Redis 用户时续约失败立即停止，保留检查点
+     */
+    @Test
+    void stopsScanningRedisUsersWhenLeaseIsLost() {
+        addRows(1, 1);
+        List<Long> scanned = new ArrayList<>();
+        doAnswer(invocation -> {
+            Consumer<Long> action = invocation.getArgument(1);
+            for (long userId = 100; userId < 100 + PAGE_SIZE * 3; userId++) {
+                scanned.add(userId);
+                action.accept(userId);
+            }
+            return null;
+        }).when(userThumbStore).scanUserIds(anyInt(), any());
+        // 遍历数据库时续约 1 次，遍历 Redis 的第一批之后续约失败
+        renewalsBeforeLoss = 1;
+
+        assertEquals(0, job.reconcile());
+
+        verify(thumbMapper, times(1)).selectExistingUserIds(anyCollection());
+        assertEquals("1", values.get(ThumbConstant.RECONCILE_CHECKPOINT_KEY));
+    }
+
+    /**
+     * 等待同步期间续约失败时停止等待，不修复差异
+     */
+    @Test
+    void stopsWaitingForSyncWhenLeaseIsLost() {
+        addRows(1, 1, 2);
+        redisState = read -> Map.of(1L, Set.of(2L, 3L));
+        when(syncThumb2DBJob.loadWatermark()).thenReturn(null);
+        // 遍历数据库、复核第一次读取各续约 1 次，等待同步时续约失败
+        renewalsBeforeLoss = 2;
+
+        long start = System.currentTimeMillis();
+        assertEquals(0, job.reconcile());
+
+        assertTrue(System.currentTimeMillis() - start < 3_000);
+        verify(thumbEventPublisher, never()).publish(any());
+        verify(userThumbStore, never()).restore(anyLong(), anyLong());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Long> subtract(List<Long> source, List<Long> other) {
+        return (List<Long>) ReflectionTestUtils.invokeMethod(ThumbReconcileJob.class, "subtract", source, other);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Long> retain(List<Long> source, List<Long> other) {
+        return (List<Long>) ReflectionTestUtils.invokeMethod(ThumbReconcileJob.class, "retain", source, other);
+    }
+
+    private void addRows(long userId, long... blogIds) {
+        for (long blogId : blogIds) {
+            Thumb thumb = new Thumb();
+            thumb.setUserId(userId);
+            thumb.setBlogId(blogId);
+            rows.add(thumb);
+        }
+    }
+
+    private Set<Long> mysqlBlogIds(Long userId) {
+        Set<Long> blogIds = new HashSet<>();
+        rows.stream().filter(thumb -> thumb.getUserId().equals(userId)).forEach(thumb -> blogIds.add(thumb.getBlogId()));
+        return blogIds;
+    }
+
+    private List<Thumb> selectUserRangeAfter(long fromUserId, long toUserId, long afterUserId, long afterBlogId, int limit) {
+        if (fromUserId != toUserId) {
+            pageQueries.add(new long[]{afterUserId, afterBlogId});
+        }
+        return rows.stream()
+                .filter(thumb -> thumb.getUserId() >= fromUserId && thumb.getUserId() <= toUserId)
+                .filter(thumb -> thumb.getUserId() > afterUserId
+                        || (thumb.getUserId() == afterUserId && thumb.getBlogId() > afterBlogId))
+                .sorted(Comparator.comparing(Thumb::getUserId).thenComparing(Thumb::getBlogId))
+                .limit(limit)
+                .toList();
+    }
+}
@@ -0,0 +1,276 @@
+package com.yang.ratingsystem.job;
+
+import cn.hutool.core.lang.Pair;
+import com.github.dockerjava.api.model.ExposedPort;
+import com.github.dockerjava.api.model.PortBinding;
+import com.github.dockerjava.api.model.Ports;
+import com.yang.ratingsystem.config.RedisConfig;
+import com.yang.ratingsystem.constant.RedisLuaScriptConstant;
+import com.yang.ratingsystem.constant.ThumbConstant;
+import com.yang.ratingsystem.manager.thumb.ThumbScriptRegistry;
+import com.yang.ratingsystem.manager.thumb.ThumbSliceClock;
+import com.yang.ratingsystem.utils.RedisKeyUtil;
+import com.yang.ratingsystem.utils.RedisPipelineUtil;
+import com.yang.ratingsystem.utils.RedisScanUtil;
+import com.yang.ratingsystem.utils.ThumbKeyLayout;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisClusterConnection;
+import org.springframework.data.redis.connection.RedisPipelineException;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.containers.wait.strategy.Wait;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Redis 集群布局测试：thumb.redis.cluster=true 时点赞脚本、按槽位分组的临时分片同步、逐条执行的流水线、
+ * 脚本注册表的批量调用和逐个主节点的 SCAN
+ *
+ * 容器中启动三个主节点组成的集群，节点通告 127.0.0.1 并按相同端口映射到本机，集群客户端按通告的地址直连各节点，
+ * 因此需要本机的 Docker
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class ThumbRedisClusterTest {
+
+    private static final List<Integer> PORTS = List.of(17001, 17002, 17003);
+
+    private static final String CLUSTER_SCRIPT = """
+            for port in 17001 17002 17003; do
+                redis-server --port $port --cluster-enabled yes --cluster-config-file nodes-$port.conf \\
+                    --cluster-announce-ip 127.0.0.1 --protected-mode no --save '' --appendonly no --daemonize yes
+            done
+            sleep 1
+            redis-cli --cluster create 127.0.0.1:17001 127.0.0.1:17002 127.0.0.1:17003 --cluster-replicas 0 --cluster-yes
+            for port in 17001 17002 17003; do
+                until redis-cli -p $port cluster info | grep -q cluster_state:ok; do sleep 0.2; done
+            done
+            echo cluster ready
+            tail -f /dev/null
+            """;
+
+    @Container
+    private static final GenericContainer<?> REDIS_CLUSTER = new GenericContainer<>(DockerImageName.parse("redis:7-alpine"))
+            .withExposedPorts(PORTS.toArray(new Integer[0]))
+            .withCreateContainerCmdModifier(cmd -> cmd.getHostConfig().withPortBindings(PORTS.stream()
+                    .map(port -> new PortBinding(Ports.Binding.bindPort(port), new ExposedPort(port)))
+                    .toList()))
+            .withCommand("sh", "-c", CLUSTER_SCRIPT)
+            .waitingFor(Wait.forLogMessage(".*cluster ready.*", 1).withStartupTimeout(Duration.ofSeconds(60)));
+
+    private static final int SLOT_GROUPS = 8;
+
+    private static final int USERS = 100;
+
+    private static final int BLOGS = 20;
+
+    private JedisConnectionFactory connectionFactory;
+
+    private StringRedisTemplate stringRedisTemplate;
+
+    private ExecutorService executor;
+
+    private ThumbSliceClock clock;
+
+    private ThumbKeyLayout layout;
+
+    @BeforeEach
+    void setUp() {
+        // 与 thumb.redis.cluster=true 的启动过程一致，由 RedisConfig 创建集群 key 布局
+        RedisConfig redisConfig = new RedisConfig();
+        ReflectionTestUtils.setField(redisConfig, "cluster", true);
+        ReflectionTestUtils.setField(redisConfig, "slotGroups", SLOT_GROUPS);
+        ReflectionTestUtils.setField(redisConfig, "bucketSize", 1000);
+        ReflectionTestUtils.setField(redisConfig, "streamPartitions", 1);
+        layout = redisConfig.thumbKeyLayout();
+        assertTrue(layout.isClusterLayout());
+
+        connectionFactory = ThumbSyncTestSupport.connectCluster(
+                PORTS.stream().map(port -> "127.0.0.1:" + port).toList());
+        stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        clock = ThumbSyncTestSupport.clock(1, 1);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+        connectionFactory.destroy();
+    }
+
+    /**
+     * 点赞 / 取消点赞脚本访问的用户点赞 key 和临时分片 key 带相同的哈希标签，各分组的脚本都不会出现 CROSSSLOT
+     */
+    @Test
+    void thumbScriptsRunWithoutCrossSlot() {
+        String slice = String.valueOf(clock.currentSlice());
+        Set<Pair<Long, Long>> expected = new HashSet<>();
+        Set<Integer> groups = new HashSet<>();
+        for (long userId = 1; userId <= USERS; userId++) {
+            long blogId = userId % BLOGS + 1;
+            groups.add(layout.getThumbShard(userId));
+            assertTrue(ThumbSyncTestSupport.thumb(layout, stringRedisTemplate, slice, userId, blogId));
+            assertFalse(ThumbSyncTestSupport.thumb(layout, stringRedisTemplate, slice, userId, blogId));
+            if (userId % 2 == 1) {
+                // 已点赞时取消点赞
+                ThumbSyncTestSupport.toggle(layout, stringRedisTemplate, slice, userId, blogId);
+            } else {
+                expected.add(Pair.of(userId, blogId));
+            }
+        }
+
+        assertEquals(SLOT_GROUPS, groups.size());
+        assertEquals(expected, ThumbSyncTestSupport.redisThumbs(layout, stringRedisTemplate, USERS));
+        List<String> tempKeys = new ArrayList<>();
+        for (int shard = 0; shard < SLOT_GROUPS; shard++) {
+            tempKeys.add(RedisKeyUtil.getTempThumbKey(slice, shard));
+        }
+        assertTrue(masters(tempKeys) > 1);
+    }
+
+    /**
+     * 集群布局下不存在不分片的临时 key，同步任务逐个分组交接并写入数据库，推进水位的脚本同时访问租约 key 和水位 key
+     */
+    @Test
+    void syncHandsOffAndFlushesEveryGroup() {
+        long slice = clock.lastClosedSlice();
+        String date = String.valueOf(slice);
+        stringRedisTemplate.opsForValue().set(ThumbConstant.SYNC_WATERMARK_KEY, String.valueOf(slice - clock.getSliceSeconds()));
+        for (long userId = 1; userId <= USERS; userId++) {
+            ThumbSyncTestSupport.toggle(layout, stringRedisTemplate, date, userId, userId % BLOGS + 1);
+        }
+        for (int shard = 0; shard < SLOT_GROUPS; shard++) {
+            assertTrue(Boolean.TRUE.equals(stringRedisTemplate.hasKey(RedisKeyUtil.getTempThumbKey(date, shard))));
+        }
+
+        ThumbSyncTestSupport.InMemoryThumbBatchWriter writer = new ThumbSyncTestSupport.InMemoryThumbBatchWriter();
+        SyncThumb2DBJob job = ThumbSyncTestSupport.newJob(layout, connectionFactory, writer, clock, executor, 30_000, 50_000);
+        job.run();
+
+        assertTrue(job.loadWatermark() >= slice);
+        assertTrue(writer.writes() >= SLOT_GROUPS);
+        assertEquals(ThumbSyncTestSupport.redisThumbs(layout, stringRedisTemplate, USERS), writer.thumbs());
+        assertEquals(writer.expectedBlogCounts(), writer.blogCounts());
+        for (int shard = 0; shard < SLOT_GROUPS; shard++) {
+            assertFalse(Boolean.TRUE.equals(stringRedisTemplate.hasKey(RedisKeyUtil.getTempThumbKey(date, shard))));
+            assertFalse(Boolean.TRUE.equals(stringRedisTemplate.hasKey(RedisKeyUtil.getProcessingThumbKey(date, shard))));
+        }
+        assertTrue(ThumbSyncTestSupport.unsyncedKeys(stringRedisTemplate).isEmpty());
+    }
+
+    /**
+     * 集群布局下流水线在同一个连接上逐条执行，跨槽位的命令按 key 路由；
+     * 单条命令失败不影响后续命令，结果与命令一一对应
+     */
+    @Test
+    void pipelineRunsCommandsOneByOne() {
+        List<String> keys = new ArrayList<>();
+        for (long userId = 1; userId <= SLOT_GROUPS * 2; userId++) {
+            keys.add(layout.getUserThumbKey(userId));
+        }
+        assertTrue(masters(keys) > 1);
+
+        List<RedisPipelineUtil.Command> commands = new ArrayList<>();
+        keys.forEach(key -> commands.add(connection -> connection.hSet(key, "1", "1")));
+        List<Object> results = RedisPipelineUtil.executePipelined(stringRedisTemplate, commands);
+        assertEquals(keys.size(), results.size());
+        results.forEach(result -> assertEquals(Boolean.TRUE, result));
+
+        List<RedisPipelineUtil.Command> failing = new ArrayList<>();
+        failing.add(connection -> connection.hGet(keys.get(0), "1"));
+        // 对哈希执行 INCR 会返回 WRONGTYPE
+        failing.add(connection -> connection.incr(keys.get(1)));
+        failing.add(connection -> connection.hGet(keys.get(keys.size() - 1), "1"));
+        RedisPipelineException e = assertThrows(RedisPipelineException.class,
+                () -> RedisPipelineUtil.executePipelined(stringRedisTemplate, failing));
+        List<Object> partial = e.getPipelineResult();
+        assertEquals(3, partial.size());
+        assertEquals("1", partial.get(0));
+        assertInstanceOf(Exception.class, partial.get(1));
+        assertEquals("1", partial.get(2));
+    }
+
+    /**
+     * 脚本注册表批量执行跨槽位的点赞脚本；脚本缓存被清空时逐个回退到 EVAL
+     */
+    @Test
+    void scriptRegistryExecutesAcrossSlots() {
+        String slice = String.valueOf(clock.currentSlice());
+        ThumbScriptRegistry registry = new ThumbScriptRegistry(stringRedisTemplate);
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+            connection.scriptingCommands().scriptFlush();
+            return null;
+        });
+
+        List<ThumbScriptRegistry.ScriptCall> calls = new ArrayList<>();
+        for (long userId = 1; userId <= SLOT_GROUPS * 2; userId++) {
+            calls.add(new ThumbScriptRegistry.ScriptCall(RedisLuaScriptConstant.THUMB_SCRIPT,
+                    ThumbSyncTestSupport.keys(layout, slice, userId),
+                    List.of(String.valueOf(userId), String.valueOf(userId % BLOGS + 1))));
+        }
+        assertTrue(masters(calls.stream().map(call -> call.keys().get(0)).toList()) > 1);
+
+        List<Long> first = registry.executePipelined(calls);
+        assertEquals(calls.size(), first.size());
+        first.forEach(result -> assertEquals(1L, result));
+
+        registry.load();
+        List<Long> second = registry.executePipelined(calls);
+        second.forEach(result -> assertEquals(-1L, result));
+        assertEquals(calls.size(), ThumbSyncTestSupport.redisThumbs(layout, stringRedisTemplate, USERS).size());
+    }
+
+    /**
+     * SCAN 只作用于单个节点，逐个主节点遍历才能得到全部 key
+     */
+    @Test
+    void scanVisitsEveryMaster() {
+        String slice = String.valueOf(clock.currentSlice());
+        Set<String> expected = new HashSet<>();
+        for (long userId = 1; userId <= USERS; userId++) {
+            ThumbSyncTestSupport.thumb(layout, stringRedisTemplate, slice, userId, userId % BLOGS + 1);
+            expected.add(layout.getUserThumbKey(userId));
+        }
+        assertTrue(masters(expected) > 1);
+
+        Set<String> scanned = new HashSet<>();
+        ScanOptions options = ScanOptions.scanOptions().match(ThumbConstant.USER_THUMB_KEY_PREFIX + "{*").count(10).build();
+        RedisScanUtil.scanKeys(stringRedisTemplate, options, scanned::add);
+        assertEquals(expected, scanned);
+    }
+
+    /**
+     * key 分布的主节点数
+     */
+    private int masters(Collection<String> keys) {
+        try (RedisClusterConnection connection = connectionFactory.getClusterConnection()) {
+            return keys.stream()
+                    .map(key -> connection.clusterGetNodeForKey(key.getBytes(StandardCharsets.UTF_8)).getId())
+                    .collect(Collectors.toSet())
+                    .size();
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package com.yang.ratingsystem.job;
+
+import cn.hutool.core.lang.Pair;
+import com.yang.ratingsystem.config.RedisConfig;
+import com.yang.ratingsystem.constant.RedisLuaScriptConstant;
+import com.yang.ratingsystem.constant.ThumbConstant;
+import com.yang.ratingsystem.manager.thumb.ThumbBatchWriter;
+import com.yang.ratingsystem.manager.thumb.ThumbSliceClock;
+import com.yang.ratingsystem.manager.thumb.ThumbSyncLeaseManager;
+import com.yang.ratingsystem.utils.RedisKeyUtil;
+import com.yang.ratingsystem.utils.ThumbKeyLayout;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.springframework.data.redis.connection.RedisClusterConfiguration;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.jedis.JedisClientConfiguration;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.testcontainers.containers.GenericContainer;
+import redis.clients.jedis.Connection;
+import redis.clients.jedis.Jedis;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 点赞同步测试的公共装配：连接 Testcontainers 中的 Redis，按生产配置组装同步任务，数据库由内存写入器代替
+ */
+final class ThumbSyncTestSupport {
+
+    private ThumbSyncTestSupport() {
+    }
+
+    /**
+     * 连接容器中的 Redis 并清空数据，连接池足够多个模拟节点和写入线程同时使用
+     */
+    static JedisConnectionFactory connect(GenericContainer<?> redis) {
+        GenericObjectPoolConfig<Jedis> poolConfig = poolConfig();
+        return start(new JedisConnectionFactory(
+                new RedisStandaloneConfiguration(redis.getHost(), redis.getMappedPort(6379)),
+                JedisClientConfiguration.builder().usePooling().poolConfig(poolConfig).build()));
+    }
+
+    /**
+     * 连接 Redis 集群并清空所有主节点的数据，nodes 为 host:port 形式的节点地址
+     */
+    static JedisConnectionFactory connectCluster(List<String> nodes) {
+        GenericObjectPoolConfig<Connection> poolConfig = poolConfig();
+        return start(new JedisConnectionFactory(new RedisClusterConfiguration(nodes),
+                JedisClientConfiguration.builder().usePooling().poolConfig(poolConfig).build()));
+    }
+
+    private static <T> GenericObjectPoolConfig<T> poolConfig() {
+        GenericObjectPoolConfig<T> poolConfig = new GenericObjectPoolConfig<>();
+        poolConfig.setMaxTotal(64);
+        poolConfig.setMaxIdle(64);
+        return poolConfig;
+    }
+
+    private static JedisConnectionFactory start(JedisConnectionFactory connectionFactory) {
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+        new StringRedisTemplate(connectionFactory).execute((RedisCallback<Object>) connection -> {
+            connection.serverCommands().flushAll();
+            return null;
+        });
+        return connectionFactory;
+    }
+
+    static ThumbSliceClock clock(long sliceSeconds, long closeDelaySeconds) {
+        ThumbSliceClock clock = new ThumbSliceClock();
+        ReflectionTestUtils.setField(clock, "sliceSeconds", sliceSeconds);
+        ReflectionTestUtils.setField(clock, "closeDelaySeconds", closeDelaySeconds);
+        return clock;
+    }
+
+    static SyncThumb2DBJob newJob(JedisConnectionFactory connectionFactory, ThumbBatchWriter writer, ThumbSliceClock clock,
+                                  ExecutorService executor, long leaseMillis, long splitThreshold) {
+        return newJob(ThumbKeyLayout.standalone(), connectionFactory, writer, clock, executor, leaseMillis, splitThreshold);
+    }
+
+    /**
+     * 组装一个同步任务节点，多个节点共用同一个 Redis 和写入器即模拟多节点部署
+     */
+    static SyncThumb2DBJob newJob(ThumbKeyLayout layout, JedisConnectionFactory connectionFactory, ThumbBatchWriter writer,
+                                  ThumbSliceClock clock, ExecutorService executor, long leaseMillis, long splitThreshold) {
+        StringRedisTemplate stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+        SyncThumb2DBJob job = new SyncThumb2DBJob();
+        ReflectionTestUtils.setField(job, "thumbBatchWriter", writer);
+        ReflectionTestUtils.setField(job, "redisTemplate", new RedisConfig().redisTemplate(connectionFactory));
+        ReflectionTestUtils.setField(job, "stringRedisTemplate", stringRedisTemplate);
+        ReflectionTestUtils.setField(job, "thumbSliceClock", clock);
+        ReflectionTestUtils.setField(job, "leaseManager", new ThumbSyncLeaseManager(stringRedisTemplate));
+        ReflectionTestUtils.setField(job, "virtualThreadExecutor", executor);
+        ReflectionTestUtils.setField(job, "thumbKeyLayout", layout);
+        ReflectionTestUtils.setField(job, "maxCatchUpSlices", 60L);
+        ReflectionTestUtils.setField(job, "chunkSize", 100);
+        ReflectionTestUtils.setField(job, "leaseMillis", leaseMillis);
+        ReflectionTestUtils.setField(job, "splitThreshold", splitThreshold);
+        ReflectionTestUtils.setField(job, "maxShards", 4);
+        ReflectionTestUtils.setField(job, "shardParallelism", 4);
+        ReflectionTestUtils.setField(job, "shardWaitMillis", 5000L);
+        return job;
+    }
+
+    /**
+     * 与 ThumbServiceRedisImpl 相同的点赞 / 取消点赞脚本调用：已点赞时取消点赞，否则点赞
+     */
+    static void toggle(StringRedisTemplate stringRedisTemplate, String slice, long userId, long blogId) {
+        toggle(ThumbKeyLayout.standalone(), stringRedisTemplate, slice, userId, blogId);
+    }
+
+    static void toggle(ThumbKeyLayout layout, StringRedisTemplate stringRedisTemplate, String slice, long userId, long blogId) {
+        if (!thumb(layout, stringRedisTemplate, slice, userId, blogId)) {
+            stringRedisTemplate.execute(RedisLuaScriptConstant.UNTHUMB_SCRIPT, keys(layout, slice, userId),
+                    String.valueOf(userId), String.valueOf(blogId));
+        }
+    }
+
+    static boolean thumb(StringRedisTemplate stringRedisTemplate, String slice, long userId, long blogId) {
+        return thumb(ThumbKeyLayout.standalone(), stringRedisTemplate, slice, userId, blogId);
+    }
+
+    static boolean thumb(ThumbKeyLayout layout, StringRedisTemplate stringRedisTemplate, String slice, long userId, long blogId) {
+        Long result = stringRedisTemplate.execute(RedisLuaScriptConstant.THUMB_SCRIPT, keys(layout, slice, userId),
+                String.valueOf(userId), String.valueOf(blogId));
+        return result != null && result == 1L;
+    }
+
+    static List<String> keys(ThumbKeyLayout layout, String slice, long userId) {
+        return List.of(layout.getTempThumbKey(slice, userId), layout.getUserThumbKey(userId));
+    }
+
+    /**
+     * Redis 中用户点赞状态的全集，即数据库最终应有的点赞记录
+     */
+    static Set<Pair<Long, Long>> redisThumbs(StringRedisTemplate stringRedisTemplate, int users) {
+        return redisThumbs(ThumbKeyLayout.standalone(), stringRedisTemplate, users);
+    }
+
+    static Set<Pair<Long, Long>> redisThumbs(ThumbKeyLayout layout, StringRedisTemplate stringRedisTemplate, int users) {
+        Set<Pair<Long, Long>> thumbs = new HashSet<>();
+        for (long userId = 1; userId <= users; userId++) {
+            for (Object blogId : stringRedisTemplate.opsForHash().keys(layout.getUserThumbKey(userId))) {
+                thumbs.add(Pair.of(userId, Long.valueOf(blogId.toString())));
+            }
+        }
+        return thumbs;
+    }
+
+    /**
+     * 尚未同步的临时 key、同步中 key 和子分片 key
+     */
+    static Set<String> unsyncedKeys(StringRedisTemplate stringRedisTemplate) {
+        Set<String> keys = new HashSet<>();
+        for (String pattern : List.of(RedisKeyUtil.getTempThumbKey("*"), RedisKeyUtil.getProcessingThumbKey("*"),
+                ThumbConstant.SYNC_SHARD_KEY_PREFIX.replace("%s:%d", "*"))) {
+            Set<String> found = stringRedisTemplate.keys(pattern);
+            if (found != null) {
+                keys.addAll(found);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * 内存中的点赞表，行为与批量写入器一致：事务内串行写入，按实际影响行数更新博客点赞数，重放已写入的记录不会重复计数。
+     * 可以在写入数据库前或后注入失败，模拟同步中途崩溃；{@link #node()} 得到共用同一张表的其他节点的写入器
+     */
+    static class InMemoryThumbBatchWriter extends ThumbBatchWriter {
+
+        private final Set<Pair<Long, Long>> thumbs;
+
+        private final Map<Long, Long> blogCounts;
+
+        private final AtomicInteger writes = new AtomicInteger();
+
+        private final AtomicBoolean failNextAfterWrite = new AtomicBoolean();
+
+        private volatile double failureRate;
+
+        private volatile Runnable afterWrite = () -> {
+        };
+
+        InMemoryThumbBatchWriter() {
+            this(ConcurrentHashMap.newKeySet(), new ConcurrentHashMap<>());
+        }
+
+        private InMemoryThumbBatchWriter(Set<Pair<Long, Long>> thumbs, Map<Long, Long> blogCounts) {
+            super(null, null, null, null, null, null, false);
+            this.thumbs = thumbs;
+            this.blogCounts = blogCounts;
+        }
+
+        /**
+         * 另一个节点的写入器，写入同一张表，写入次数和注入的失败单独统计
+         */
+        InMemoryThumbBatchWriter node() {
+            return new InMemoryThumbBatchWriter(thumbs, blogCounts);
+        }
+
+        @Override
+        public WriteResult write(Collection<Pair<Long, Long>> inserts, Collection<Pair<Long, Long>> deletes) {
+            WriteResult result;
+            // 以表为锁模拟事务，各节点的写入串行执行
+            synchronized (thumbs) {
+                result = writeInTransaction(inserts, deletes);
+            }
+            afterWrite.run();
+            return result;
+        }
+
+        private WriteResult writeInTransaction(Collection<Pair<Long, Long>> inserts, Collection<Pair<Long, Long>> deletes) {
+            writes.incrementAndGet();
+            boolean fail = failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate;
+            if (fail && ThreadLocalRandom.current().nextBoolean()) {
+                throw new IllegalStateException("写入数据库前失败");
+            }
+            Map<Long, Long> deltas = new HashMap<>();
+            List<Pair<Long, Long>> inserted = new ArrayList<>();
+            List<Pair<Long, Long>> deleted = new ArrayList<>();
+            for (Pair<Long, Long> pair : inserts) {
+                if (thumbs.add(pair)) {
+                    inserted.add(pair);
+                    deltas.merge(pair.getValue(), 1L, Long::sum);
+                }
+            }
+            for (Pair<Long, Long> pair : deletes) {
+                if (thumbs.remove(pair)) {
+                    deleted.add(pair);
+                    deltas.merge(pair.getValue(), -1L, Long::sum);
+                }
+            }
+            deltas.forEach((blogId, delta) -> blogCounts.merge(blogId, delta, Long::sum));
+            if (fail || failNextAfterWrite.getAndSet(false)) {
+                throw new IllegalStateException("写入数据库后、删除同步中 key 前失败");
+            }
+            return new WriteResult(deltas, inserted, deleted);
+        }
+
+        Set<Pair<Long, Long>> thumbs() {
+            return new HashSet<>(thumbs);
+        }
+
+        /**
+         * 按博客统计的点赞数应与点赞记录数一致
+         */
+        Map<Long, Long> blogCounts() {
+            Map<Long, Long> counts = new HashMap<>();
+            blogCounts.forEach((blogId, count) -> {
+                if (count != 0) {
+                    counts.put(blogId, count);
+                }
+            });
+            return counts;
+        }
+
+        Map<Long, Long> expectedBlogCounts() {
+            Map<Long, Long> counts = new HashMap<>();
+            thumbs.forEach(pair -> counts.merge(pair.getValue(), 1L, Long::sum));
+            return counts;
+        }
+
+        int writes() {
+            return writes.get();
+        }
+
+        void setFailureRate(double failureRate) {
+            this.failureRate = failureRate;
+        }
+
+        void failNextAfterWrite() {
+            failNextAfterWrite.set(true);
+        }
+
+        void setAfterWrite(Runnable afterWrite) {
+            this.afterWrite = afterWrite;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.yang.ratingsystem.listener.thumb;
+
+import cn.hutool.core.lang.Pair;
+import com.yang.ratingsystem.listener.thumb.msg.ThumbEvent;
+import com.yang.ratingsystem.manager.thumb.ThumbBatchWriter;
+import com.yang.ratingsystem.manager.thumb.ThumbEventProgress;
+import com.yang.ratingsystem.manager.thumb.ThumbProcessedEventStore;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pulsar.client.api.Consumer;
+import org.apache.pulsar.client.api.ConsumerStats;
+import org.apache.pulsar.client.api.Message;
+import org.apache.pulsar.client.api.MessageId;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.yang.ratingsystem.manager.thumb.ThumbBenchmarkSupport.fake;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 点赞消息消费者吞吐基准：真实的接收循环从内存队列接收消息，数据库写入用固定延迟模拟，
+ * 对比串行处理（1 个通道、1 个在途批次，即流水线化之前的行为）、流水线处理和跨批次合并在不同数据库延迟下的消息吞吐。
+ * 运行方式见 {@link com.yang.ratingsystem.manager.thumb.ThumbBenchmarkSupport}
+ */
+@Slf4j
+class ThumbConsumerBenchmark {
+
+    private static final int MESSAGES = 20_000;
+
+    private static final int BATCH_SIZE = 100;
+
+    private final List<Message<ThumbEvent>> messages = messages();
+
+    @Test
+    void measuresThroughputAtDbLatencies() throws Exception {
+        // 预热
+        run(4, 4, 200, 0);
+
+        List<String> report = new ArrayList<>();
+        report.add("db-latency-ms  lanes  in-flight  coalesce-ms  msgs/s");
+        for (long latency : new long[]{0, 2, 10}) {
+            for (int[] config : new int[][]{{1, 1, 0}, {4, 4, 0}, {4, 4, 200}}) {
+                double throughput = run(config[0], config[1], config[2], latency);
+                report.add("%13d  %5d  %9d  %11d  %6.0f".formatted(latency, config[0], config[1], config[2], throughput));
+            }
+        }
+        log.info("点赞消息消费者吞吐:\n{}", String.join("\n", report));
+    }
+
+    /**
+     * @return 每秒确认的消息数
+     */
+    private double run(int laneCount, int maxInFlight, long coalesceIntervalMs, long latencyMillis) throws Exception {
+        LinkedBlockingQueue<Message<ThumbEvent>> queue = new LinkedBlockingQueue<>(messages);
+        AtomicLong acked = new AtomicLong();
+        ConsumerStats stats = fake(ConsumerStats.class, Map.of());
+        Consumer<ThumbEvent> pulsarConsumer = fake(Consumer.class, Map.of(
+                "receive", args -> poll(queue, args),
+                "acknowledgeAsync", args -> {
+                    acked.addAndGet(((List<?>) args[0]).size());
+                    return CompletableFuture.completedFuture(null);
+                },
+                "getStats", args -> stats));
+
+        AdaptiveBatchReceivePolicy batchPolicy = mock(AdaptiveBatchReceivePolicy.class);
+        when(batchPolicy.getMaxMessages()).thenReturn(BATCH_SIZE);
+        when(batchPolicy.getMaxBytes()).thenReturn(Long.MAX_VALUE);
+        when(batchPolicy.getTimeoutMs()).thenReturn(10L);
+
+        // 跟踪、统计和去重组件使用真实实现，去重存储未启用时不访问 Redis
+        ThumbMessageRetryTracker retryTracker = new ThumbMessageRetryTracker();
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        ThumbConsumer consumer = new ThumbConsumer(new LatencyThumbBatchWriter(latencyMillis), null, retryTracker,
+                new ThumbMessageDashboard(retryTracker), batchPolicy, new ThumbProcessedEventStore(null),
+                new ThumbEventProgress(null), new ThumbConsumerLanes(laneCount), executor);
+        ReflectionTestUtils.setField(consumer, "maxRetryAttempts", 3);
+        ReflectionTestUtils.setField(consumer, "maxInFlightBatches", maxInFlight);
+        ReflectionTestUtils.setField(consumer, "coalesceIntervalMs", coalesceIntervalMs);
+        ReflectionTestUtils.setField(consumer, "coalesceMaxMessages", 2000);
+        ReflectionTestUtils.setField(consumer, "maxBisectDepth", 8);
+        consumer.start(pulsarConsumer);
+
+        long start = System.nanoTime();
+        executor.execute(() -> ReflectionTestUtils.invokeMethod(consumer, "receiveMessages"));
+        long deadline = start + TimeUnit.SECONDS.toNanos(120);
+        while (acked.get() < MESSAGES) {
+            assertTrue(System.nanoTime() < deadline, "消息未在超时时间内全部确认");
+            Thread.sleep(1);
+        }
+        long elapsed = System.nanoTime() - start;
+        consumer.destroy();
+        executor.shutdownNow();
+        assertEquals(MESSAGES, acked.get());
+        return MESSAGES * 1e9 / elapsed;
+    }
+
+    /**
+     * 每个 (userId, blogId) 只出现一次，合并后写入条数不变；blogId 分散到各通道
+     */
+    private static List<Message<ThumbEvent>> messages() {
+        List<Message<ThumbEvent>> messages = new ArrayList<>(MESSAGES);
+        LocalDateTime now = LocalDateTime.now();
+        for (int i = 0; i < MESSAGES; i++) {
+            ThumbEvent event = ThumbEvent.builder()
+                    .eventId((long) i)
+                    .sequence((long) i)
+                    .userId((long) i)
+                    .blogId((long) (i % 1000))
+                    .type(ThumbEvent.EventType.INCR)
+                    .eventTime(now)
+                    .build();
+            String id = "0:" + i;
+            MessageId messageId = fake(MessageId.class, Map.of("toString", args -> id));
+            messages.add(fake(Message.class, Map.of("getValue", args -> event, "getMessageId", args -> messageId)));
+        }
+        return messages;
+    }
+
+    private static Message<ThumbEvent> poll(LinkedBlockingQueue<Message<ThumbEvent>> queue, Object[] args) {
+        try {
+            return queue.poll((Integer) args[0], (TimeUnit) args[1]);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * 每次写入固定耗时的批量写入器，模拟一次数据库事务的往返
+     */
+    private static class LatencyThumbBatchWriter extends ThumbBatchWriter {
+
+        private final long latencyMillis;
+
+        LatencyThumbBatchWriter(long latencyMillis) {
+            super(null, null, null, null, null, null, false);
+            this.latencyMillis = latencyMillis;
+        }
+
+        @Override
+        public WriteResult write(Collection<Pair<Long, Long>> inserts, Collection<Pair<Long, Long>> deletes) {
+            if (latencyMillis > 0) {
+                try {
+                    Thread.sleep(latencyMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return new WriteResult(Map.of(), new ArrayList<>(inserts), new ArrayList<>(deletes));
+        }
+    }
+}
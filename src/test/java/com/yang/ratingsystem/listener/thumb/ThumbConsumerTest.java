@@ -0,0 +1,411 @@
+package com.yang.ratingsystem.listener.thumb;
+
+import cn.hutool.core.lang.Pair;
+import com.yang.ratingsystem.listener.thumb.msg.ThumbEvent;
+import com.yang.ratingsystem.manager.thumb.ThumbBatchWriter;
+import com.yang.ratingsystem.manager.thumb.ThumbEventProgress;
+import com.yang.ratingsystem.manager.thumb.ThumbProcessedEventStore;
+import org.apache.pulsar.client.api.Consumer;
+import org.apache.pulsar.client.api.Message;
+import org.apache.pulsar.client.api.MessageId;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 点赞消息消费者的处理通道测试：Pulsar 消费者为 mock，批次直接交给 dispatchBatch，数据库由记录调用的写入器代替
+ */
+class ThumbConsumerTest {
+
+    private final AtomicLong ids = new AtomicLong();
+
+    private Consumer<ThumbEvent> pulsarConsumer;
+
+    private ThumbProcessedEventStore processedEventStore;
+
+    private ThumbMessageDashboard dashboard;
+
+    private RecordingThumbBatchWriter writer;
+
+    private ThumbConsumer consumer;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        pulsarConsumer = mock(Consumer.class);
+        when(pulsarConsumer.acknowledgeAsync(anyList())).thenReturn(CompletableFuture.completedFuture(null));
+        processedEventStore = mock(ThumbProcessedEventStore.class);
+        dashboard = mock(ThumbMessageDashboard.class);
+        writer = new RecordingThumbBatchWriter();
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (consumer != null) {
+            consumer.destroy();
+        }
+    }
+
+    /**
+     * 缓冲区达到 coalesce.max-messages 时立即落库，之前的批次一直等待
+     */
+    @Test
+    void flushesWhenBufferReachesMaxMessages() throws Exception {
+        consumer = newConsumer(1, 60_000, 3);
+        CompletableFuture<Void> first = consumer.dispatchBatch(List.of(
+                message(1, 10, ThumbEvent.EventType.INCR), message(2, 10, ThumbEvent.EventType.INCR)));
+        assertThrows(TimeoutException.class, () -> first.get(200, TimeUnit.MILLISECONDS));
+        assertTrue(writer.calls.isEmpty());
+
+        CompletableFuture<Void> second = consumer.dispatchBatch(List.of(message(3, 10, ThumbEvent.EventType.INCR)));
+        second.get(5, TimeUnit.SECONDS);
+        first.get(5, TimeUnit.SECONDS);
+
+        // 两个批次合并为一次写入，博客 10 只更新一次
+        assertEquals(1, writer.calls.size());
+        assertEquals(Set.of(Pair.of(1L, 10L), Pair.of(2L, 10L), Pair.of(3L, 10L)), writer.calls.get(0).inserts());
+        assertEquals(3, acknowledged().size());
+    }
+
+    /**
+     * 未达到条数阈值时，缓冲区在刷新间隔之后由定时任务落库
+     */
+    @Test
+    void flushesAfterInterval() throws Exception {
+        consumer = newConsumer(1, 100, 1000);
+        long start = System.nanoTime();
+        CompletableFuture<Void> flushed = consumer.dispatchBatch(List.of(message(1, 10, ThumbEvent.EventType.INCR)));
+        flushed.get(5, TimeUnit.SECONDS);
+
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 90);
+        assertEquals(1, writer.calls.size());
+        assertEquals(1, acknowledged().size());
+    }
+
+    /**
+     * 不同批次中同一 key 的点赞和取消点赞在缓冲区内抵消，不写入数据库，两条消息都被确认
+     */
+    @Test
+    void collapsesSameKeyEventsAcrossBatches() throws Exception {
+        consumer = newConsumer(1, 60_000, 2);
+        Message<ThumbEvent> thumb = message(1, 10, ThumbEvent.EventType.INCR);
+        Message<ThumbEvent> unthumb = message(1, 10, ThumbEvent.EventType.DECR);
+        CompletableFuture<Void> first = consumer.dispatchBatch(List.of(thumb));
+        CompletableFuture<Void> second = consumer.dispatchBatch(List.of(unthumb));
+        CompletableFuture.allOf(first, second).get(5, TimeUnit.SECONDS);
+
+        assertEquals(1, writer.calls.size());
+        assertTrue(writer.calls.get(0).inserts().isEmpty());
+        assertTrue(writer.calls.get(0).deletes().isEmpty());
+        assertEquals(Set.of(thumb.getMessageId(), unthumb.getMessageId()), acknowledged());
+    }
+
+    /**
+     * 关闭时先落库并确认缓冲区中的消息，再关闭 Pulsar 消费者
+     */
+    @Test
+    void destroyFlushesBufferedEventsBeforeClosing() throws Exception {
+        consumer = newConsumer(2, 60_000, 1000);
+        CompletableFuture<Void> flushed = consumer.dispatchBatch(List.of(
+                message(1, 10, ThumbEvent.EventType.INCR), message(2, 11, ThumbEvent.EventType.INCR)));
+        assertThrows(TimeoutException.class, () -> flushed.get(200, TimeUnit.MILLISECONDS));
+
+        consumer.destroy();
+        consumer = null;
+
+        assertTrue(flushed.isDone());
+        Set<Pair<Long, Long>> written = new HashSet<>();
+        writer.calls.forEach(call -> written.addAll(call.inserts()));
+        assertEquals(Set.of(Pair.of(1L, 10L), Pair.of(2L, 11L)), written);
+        InOrder order = inOrder(pulsarConsumer);
+        order.verify(pulsarConsumer, atLeastOnce()).acknowledgeAsync(anyList());
+        order.verify(pulsarConsumer).close();
+    }
+
+    /**
+     * 整批写入失败时按 key 分组二分，只否定确认毒消息所在的分组，其余分组正常提交并确认
+     */
+    @Test
+    void bisectsToThePoisonKeyGroup() throws Exception {
+        consumer = newConsumer(1, 0, 1000);
+        List<Message<ThumbEvent>> healthy = new ArrayList<>();
+        for (long userId = 1; userId <= 7; userId++) {
+            healthy.add(message(userId, 10, ThumbEvent.EventType.INCR));
+        }
+        // 毒消息所在的 key 分组有多条事件，整组一起否定确认
+        List<Message<ThumbEvent>> poison = List.of(message(100, 10, ThumbEvent.EventType.INCR),
+                message(100, 10, ThumbEvent.EventType.DECR), message(100, 10, ThumbEvent.EventType.INCR));
+        writer.failWhen(call -> call.inserts().contains(Pair.of(100L, 10L))
+                ? new DataIntegrityViolationException("poison") : null);
+        List<Message<ThumbEvent>> batch = new ArrayList<>(healthy.subList(0, 3));
+        batch.addAll(poison);
+        batch.addAll(healthy.subList(3, 7));
+
+        consumer.dispatchBatch(batch).get(5, TimeUnit.SECONDS);
+
+        assertEquals(messageIds(poison), nacked());
+        assertEquals(messageIds(healthy), acknowledged());
+        Set<Pair<Long, Long>> written = new HashSet<>();
+        writer.succeeded().forEach(call -> written.addAll(call.inserts()));
+        assertEquals(7, written.size());
+        // 8 个分组二分 3 层定位到毒消息所在的分组
+        verify(dashboard).recordIsolation(3, batch.size(), poison.size());
+    }
+
+    /**
+     * 数据库不可用等整体性故障与消息无关，不二分，整批否定确认
+     */
+    @Test
+    void systemicFailureNacksWholeBatchWithoutBisecting() throws Exception {
+        for (RuntimeException failure : List.of(new DataAccessResourceFailureException("down"),
+                new QueryTimeoutException("timeout"), new CannotCreateTransactionException("no connection"))) {
+            setUp();
+            consumer = newConsumer(1, 0, 1000);
+            writer.failWhen(call -> failure);
+            List<Message<ThumbEvent>> batch = new ArrayList<>();
+            for (long userId = 1; userId <= 8; userId++) {
+                batch.add(message(userId, 10, ThumbEvent.EventType.INCR));
+            }
+
+            consumer.dispatchBatch(batch).get(5, TimeUnit.SECONDS);
+
+            assertEquals(1, writer.calls.size(), failure.getClass().getSimpleName());
+            assertEquals(messageIds(batch), nacked());
+            assertTrue(acknowledged().isEmpty());
+            verify(dashboard, never()).recordIsolation(anyInt(), anyInt(), anyInt());
+            consumer.destroy();
+        }
+        consumer = null;
+    }
+
+    /**
+     * 达到最大二分深度后不再拆分，当前分组整体否定确认
+     */
+    @Test
+    void stopsBisectingAtMaxDepth() throws Exception {
+        consumer = newConsumer(1, 0, 1000);
+        ReflectionTestUtils.setField(consumer, "maxBisectDepth", 1);
+        List<Message<ThumbEvent>> batch = new ArrayList<>();
+        for (long userId = 1; userId <= 8; userId++) {
+            batch.add(message(userId, 10, ThumbEvent.EventType.INCR));
+        }
+        writer.failWhen(call -> call.inserts().contains(Pair.of(3L, 10L))
+                ? new DataIntegrityViolationException("poison") : null);
+
+        consumer.dispatchBatch(batch).get(5, TimeUnit.SECONDS);
+
+        // 整批一次，两半各一次；毒消息所在的一半整体否定确认
+        assertEquals(3, writer.calls.size());
+        assertEquals(messageIds(batch.subList(0, 4)), nacked());
+        assertEquals(messageIds(batch.subList(4, 8)), acknowledged());
+        verify(dashboard).recordIsolation(1, 8, 4);
+    }
+
+    /**
+     * 已记录为处理过的事件被重新投递时直接确认，不再落库
+     */
+    @Test
+    void skipsRedeliveredProcessedEvent() throws Exception {
+        consumer = newConsumer(1, 0, 1000);
+        Message<ThumbEvent> processed = message(1, 10, ThumbEvent.EventType.INCR);
+        Message<ThumbEvent> fresh = message(2, 10, ThumbEvent.EventType.INCR);
+        Long processedEventId = processed.getValue().getEventId();
+        when(processedEventStore.findProcessed(anyCollection())).thenReturn(Set.of(processedEventId));
+
+        consumer.dispatchBatch(List.of(redelivery(processed), fresh)).get(5, TimeUnit.SECONDS);
+
+        assertEquals(1, writer.calls.size());
+        assertEquals(Set.of(Pair.of(2L, 10L)), writer.calls.get(0).inserts());
+        assertEquals(2, acknowledged().size());
+        verify(dashboard).recordDuplicateSkipped(1);
+        verify(processedEventStore).markProcessed(List.of(fresh.getValue().getEventId()));
+    }
+
+    /**
+     * 同一次刷新中重复投递的同一事件只落库一次，不会被当作点赞后再取消点赞而抵消
+     */
+    @Test
+    void skipsDuplicateEventWithinFlush() throws Exception {
+        consumer = newConsumer(1, 0, 1000);
+        Message<ThumbEvent> thumb = message(1, 10, ThumbEvent.EventType.INCR);
+
+        consumer.dispatchBatch(List.of(thumb, redelivery(thumb))).get(5, TimeUnit.SECONDS);
+
+        assertEquals(1, writer.calls.size());
+        assertEquals(Set.of(Pair.of(1L, 10L)), writer.calls.get(0).inserts());
+        assertEquals(2, acknowledged().size());
+        verify(dashboard).recordDuplicateSkipped(1);
+    }
+
+    /**
+     * 事件ID在事务提交之后、确认之前记录；写入失败的事件不记录，重投后仍会落库
+     */
+    @Test
+    void marksEventsProcessedOnlyAfterCommit() throws Exception {
+        consumer = newConsumer(1, 0, 1000);
+        Message<ThumbEvent> healthy = message(1, 10, ThumbEvent.EventType.INCR);
+        Message<ThumbEvent> poison = message(2, 10, ThumbEvent.EventType.INCR);
+        writer.failWhen(call -> call.inserts().contains(Pair.of(2L, 10L))
+                ? new DataIntegrityViolationException("poison") : null);
+        List<Integer> commitsWhenMarked = new CopyOnWriteArrayList<>();
+        doAnswer(invocation -> commitsWhenMarked.add(writer.succeeded().size()))
+                .when(processedEventStore).markProcessed(anyCollection());
+
+        consumer.dispatchBatch(List.of(healthy, poison)).get(5, TimeUnit.SECONDS);
+
+        assertEquals(List.of(1), commitsWhenMarked);
+        InOrder order = inOrder(processedEventStore, pulsarConsumer);
+        order.verify(processedEventStore).markProcessed(List.of(healthy.getValue().getEventId()));
+        order.verify(pulsarConsumer).acknowledgeAsync(anyList());
+        assertEquals(Set.of(poison.getMessageId()), nacked());
+    }
+
+    /**
+     * 组装消费者并绑定 mock 的 Pulsar 消费者，不启动接收循环
+     */
+    private ThumbConsumer newConsumer(int laneCount, long flushIntervalMs, int maxMessages) {
+        ThumbEventProgress eventProgress = mock(ThumbEventProgress.class);
+        ThumbConsumer thumbConsumer = new ThumbConsumer(writer, null, mock(ThumbMessageRetryTracker.class), dashboard,
+                mock(AdaptiveBatchReceivePolicy.class), processedEventStore, eventProgress,
+                new ThumbConsumerLanes(laneCount), Executors.newVirtualThreadPerTaskExecutor());
+        ReflectionTestUtils.setField(thumbConsumer, "maxRetryAttempts", 3);
+        ReflectionTestUtils.setField(thumbConsumer, "maxInFlightBatches", 4);
+        ReflectionTestUtils.setField(thumbConsumer, "coalesceIntervalMs", flushIntervalMs);
+        ReflectionTestUtils.setField(thumbConsumer, "coalesceMaxMessages", maxMessages);
+        ReflectionTestUtils.setField(thumbConsumer, "maxBisectDepth", 8);
+        thumbConsumer.start(pulsarConsumer);
+        return thumbConsumer;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Message<ThumbEvent> message(long userId, long blogId, ThumbEvent.EventType type) {
+        long id = ids.incrementAndGet();
+        ThumbEvent event = ThumbEvent.builder()
+                .eventId(id)
+                .userId(userId)
+                .blogId(blogId)
+                .type(type)
+                .eventTime(LocalDateTime.now().plusNanos(id * 1000))
+                .build();
+        Message<ThumbEvent> message = mock(Message.class);
+        when(message.getValue()).thenReturn(event);
+        when(message.getMessageId()).thenReturn(mock(MessageId.class));
+        return message;
+    }
+
+    /**
+     * 同一事件的重新投递：消息体相同，消息ID不同
+     */
+    @SuppressWarnings("unchecked")
+    private Message<ThumbEvent> redelivery(Message<ThumbEvent> original) {
+        ThumbEvent event = original.getValue();
+        Message<ThumbEvent> message = mock(Message.class);
+        when(message.getValue()).thenReturn(event);
+        when(message.getMessageId()).thenReturn(mock(MessageId.class));
+        return message;
+    }
+
+    /**
+     * 已确认的消息ID
+     */
+    @SuppressWarnings("unchecked")
+    private Set<MessageId> acknowledged() {
+        ArgumentCaptor<List<MessageId>> captor = ArgumentCaptor.forClass(List.class);
+        verify(pulsarConsumer, atLeast(0)).acknowledgeAsync(captor.capture());
+        Set<MessageId> messageIds = new HashSet<>();
+        captor.getAllValues().forEach(messageIds::addAll);
+        return messageIds;
+    }
+
+    /**
+     * 被否定确认的消息ID
+     */
+    private Set<MessageId> nacked() {
+        ArgumentCaptor<MessageId> captor = ArgumentCaptor.forClass(MessageId.class);
+        verify(pulsarConsumer, atLeast(0)).negativeAcknowledge(captor.capture());
+        return new HashSet<>(captor.getAllValues());
+    }
+
+    private Set<MessageId> messageIds(List<Message<ThumbEvent>> messages) {
+        Set<MessageId> messageIds = new HashSet<>();
+        messages.forEach(message -> messageIds.add(message.getMessageId()));
+        return messageIds;
+    }
+
+    /**
+     * 记录每次写入的写入器，可以按写入内容注入失败，失败的写入同样被记录
+     */
+    static class RecordingThumbBatchWriter extends ThumbBatchWriter {
+
+        final List<Call> calls = new CopyOnWriteArrayList<>();
+
+        private volatile Function<Call, RuntimeException> failure = call -> null;
+
+        RecordingThumbBatchWriter() {
+            super(null, null, null, null, null, null, false);
+        }
+
+        /**
+         * 写入内容使 failure 返回异常时抛出该异常，模拟事务回滚
+         */
+        void failWhen(Function<Call, RuntimeException> failure) {
+            this.failure = failure;
+        }
+
+        List<Call> succeeded() {
+            return calls.stream().filter(call -> !call.failed()).toList();
+        }
+
+        @Override
+        public WriteResult write(Collection<Pair<Long, Long>> inserts, Collection<Pair<Long, Long>> deletes) {
+            Call call = new Call(new HashSet<>(inserts), new HashSet<>(deletes), false);
+            RuntimeException e = failure.apply(call);
+            if (e != null) {
+                calls.add(new Call(call.inserts(), call.deletes(), true));
+                throw e;
+            }
+            calls.add(call);
+            return new WriteResult(Map.of(), new ArrayList<>(inserts), new ArrayList<>(deletes));
+        }
+
+        record Call(Set<Pair<Long, Long>> inserts, Set<Pair<Long, Long>> deletes, boolean failed) {
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package com.yang.ratingsystem.listener.thumb;
+
+import cn.hutool.core.lang.Pair;
+import com.yang.ratingsystem.config.RedisConfig;
+import com.yang.ratingsystem.listener.thumb.msg.ThumbEvent;
+import com.yang.ratingsystem.manager.thumb.BlogThumbCounter;
+import com.yang.ratingsystem.manager.thumb.ThumbBatchWriter;
+import com.yang.ratingsystem.manager.thumb.ThumbEventOutbox;
+import com.yang.ratingsystem.manager.thumb.ThumbEventProgress;
+import com.yang.ratingsystem.manager.thumb.ThumbEventPublisher;
+import com.yang.ratingsystem.manager.thumb.ThumbProcessedEventStore;
+import com.yang.ratingsystem.manager.thumb.ThumbScriptRegistry;
+import com.yang.ratingsystem.manager.thumb.ThumbSyncLeaseManager;
+import com.yang.ratingsystem.manager.thumb.UserThumbStore;
+import com.yang.ratingsystem.mapper.ThumbMapper;
+import com.yang.ratingsystem.model.User;
+import com.yang.ratingsystem.model.dto.thumb.DoThumbRequest;
+import com.yang.ratingsystem.service.ThumbService;
+import com.yang.ratingsystem.service.UserService;
+import com.yang.ratingsystem.service.impl.ThumbServiceMQImpl;
+import com.yang.ratingsystem.service.impl.ThumbServiceStreamImpl;
+import com.yang.ratingsystem.utils.ThumbKeyLayout;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pulsar.client.api.Consumer;
+import org.apache.pulsar.client.api.ConsumerStats;
+import org.apache.pulsar.client.api.Message;
+import org.apache.pulsar.client.api.MessageId;
+import org.apache.pulsar.client.api.Producer;
+import org.apache.pulsar.client.api.TypedMessageBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.yang.ratingsystem.manager.thumb.ThumbBenchmarkSupport.fake;
+import static com.yang.ratingsystem.manager.thumb.ThumbBenchmarkSupport.percentile;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 事件流与 Pulsar 两条点赞链路的对比基准：请求线程池执行点赞，测量请求吞吐、请求延迟，
+ * 以及从第一个请求到全部点赞写入数据库的端到端耗时。
+ * 事件流链路使用真实的 Redis 和 {@link ThumbStreamConsumer}；Pulsar 链路的 Redis 脚本同样走真实 Redis，
+ * broker 用固定确认延迟的内存队列模拟，消息交给真实的 {@link ThumbConsumer} 接收循环。
+ * 两条链路的数据库写入都用相同的固定延迟模拟。
+ * 运行方式见 {@link com.yang.ratingsystem.manager.thumb.ThumbBenchmarkSupport}
+ */
+@Slf4j
+@Testcontainers(disabledWithoutDocker = true)
+class ThumbStreamBenchmark {
+
+    @Container
+    private static final GenericContainer<?> REDIS = new GenericContainer<>(DockerImageName.parse("redis:7-alpine"))
+            .withExposedPorts(6379);
+
+    private static final int REQUESTS = 20_000;
+
+    private static final int REQUEST_THREADS = 50;
+
+    private static final int USERS = 1000;
+
+    private static final long DB_LATENCY_MS = 2;
+
+    private final ThumbKeyLayout layout = new ThumbKeyLayout(0, 0, 0, 4);
+
+    private final ScheduledExecutorService broker = Executors.newScheduledThreadPool(4);
+
+    private JedisConnectionFactory connectionFactory;
+
+    private StringRedisTemplate stringRedisTemplate;
+
+    private ThumbScriptRegistry scriptRegistry;
+
+    private UserThumbStore userThumbStore;
+
+    @BeforeEach
+    void setUp() {
+        connectionFactory = new JedisConnectionFactory(new RedisStandaloneConfiguration(REDIS.getHost(), REDIS.getMappedPort(6379)));
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+        stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+        scriptRegistry = new ThumbScriptRegistry(stringRedisTemplate);
+        scriptRegistry.load();
+        userThumbStore = new UserThumbStore(new RedisConfig().redisTemplate(connectionFactory), stringRedisTemplate,
+                scriptRegistry, mock(ThumbMapper.class), new ThumbSyncLeaseManager(stringRedisTemplate), layout,
+                false, 604800, 1000, 3000, 30_000, false);
+    }
+
+    @AfterEach
+    void tearDown() {
+        broker.shutdownNow();
+        connectionFactory.destroy();
+    }
+
+    @Test
+    void measuresStreamAndPulsarPaths() throws Exception {
+        // 预热
+        runStream();
+        runPulsar(1);
+
+        List<String> report = new ArrayList<>();
+        report.add("path            requests/s  p50-ms  p99-ms  end-to-end-ms");
+        report.add(runStream().format("stream"));
+        for (long ackLatency : new long[]{1, 5, 20}) {
+            report.add(runPulsar(ackLatency).format("pulsar-ack-" + ackLatency + "ms"));
+        }
+        log.info("点赞链路对比（数据库写入延迟 {}ms）:\n{}", DB_LATENCY_MS, String.join("\n", report));
+    }
+
+    private Result runStream() throws Exception {
+        flushAll();
+        LatencyThumbBatchWriter writer = new LatencyThumbBatchWriter();
+        ThumbStreamConsumer consumer = new ThumbStreamConsumer(stringRedisTemplate, writer,
+                new ThumbSyncLeaseManager(stringRedisTemplate), layout);
+        ReflectionTestUtils.setField(consumer, "enabled", true);
+        ReflectionTestUtils.setField(consumer, "group", "thumb-db-writer");
+        ReflectionTestUtils.setField(consumer, "batchSize", 500);
+        ReflectionTestUtils.setField(consumer, "blockMillis", 100L);
+        ReflectionTestUtils.setField(consumer, "leaseMillis", 30_000L);
+        consumer.init();
+        try {
+            return run(new ThumbServiceStreamImpl(userService(), userThumbStore,
+                    new BlogThumbCounter(stringRedisTemplate), scriptRegistry, layout), writer);
+        } finally {
+            consumer.destroy();
+        }
+    }
+
+    private Result runPulsar(long ackLatencyMillis) throws Exception {
+        flushAll();
+        LatencyThumbBatchWriter writer = new LatencyThumbBatchWriter();
+        LinkedBlockingQueue<Message<ThumbEvent>> topic = new LinkedBlockingQueue<>();
+        AtomicLong sent = new AtomicLong();
+        ThumbEventProgress eventProgress = new ThumbEventProgress(null);
+        ThumbEventPublisher publisher = new ThumbEventPublisher(new ThumbEventOutbox(null, eventProgress),
+                producer(topic, sent, ackLatencyMillis), eventProgress);
+
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        ThumbConsumer consumer = thumbConsumer(writer, executor);
+        consumer.start(pulsarConsumer(topic));
+        executor.execute(() -> ReflectionTestUtils.invokeMethod(consumer, "receiveMessages"));
+        try {
+            return run(new ThumbServiceMQImpl(userService(), userThumbStore, publisher, null, executor,
+                    new BlogThumbCounter(stringRedisTemplate), scriptRegistry), writer);
+        } finally {
+            consumer.destroy();
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 一次性提交全部请求，请求延迟从提交到返回计算，包含在线程池中排队的时间；
+     * 每个请求是不同的 (userId, blogId)，写入数据库的条数等于请求数
+     */
+    private Result run(ThumbService thumbService, LatencyThumbBatchWriter writer) throws Exception {
+        ExecutorService requestThreads = Executors.newFixedThreadPool(REQUEST_THREADS);
+        long[] latencies = new long[REQUESTS];
+        CountDownLatch done = new CountDownLatch(REQUESTS);
+        long start = System.nanoTime();
+        for (int i = 0; i < REQUESTS; i++) {
+            final int request = i;
+            long submitted = System.nanoTime();
+            HttpServletRequest httpRequest = login((long) (i % USERS));
+            DoThumbRequest doThumbRequest = new DoThumbRequest();
+            doThumbRequest.setBlogId((long) (i / USERS));
+            requestThreads.execute(() -> {
+                try {
+                    thumbService.doThumb(doThumbRequest, httpRequest);
+                } finally {
+                    latencies[request] = System.nanoTime() - submitted;
+                    done.countDown();
+                }
+            });
+        }
+        assertTrue(done.await(120, TimeUnit.SECONDS), "请求未在超时时间内全部完成");
+        long requestNanos = System.nanoTime() - start;
+        requestThreads.shutdown();
+
+        long deadline = start + TimeUnit.SECONDS.toNanos(120);
+        while (writer.applied.get() < REQUESTS) {
+            assertTrue(System.nanoTime() < deadline, "点赞未在超时时间内全部写入数据库");
+            Thread.sleep(1);
+        }
+        long endToEndNanos = System.nanoTime() - start;
+        return new Result(REQUESTS * 1e9 / requestNanos, percentile(latencies, 50) / 1e6,
+                percentile(latencies, 99) / 1e6, endToEndNanos / 1e6);
+    }
+
+    private ThumbConsumer thumbConsumer(ThumbBatchWriter writer, ExecutorService executor) {
+        AdaptiveBatchReceivePolicy batchPolicy = mock(AdaptiveBatchReceivePolicy.class);
+        when(batchPolicy.getMaxMessages()).thenReturn(500);
+        when(batchPolicy.getMaxBytes()).thenReturn(Long.MAX_VALUE);
+        when(batchPolicy.getTimeoutMs()).thenReturn(100L);
+        ThumbMessageRetryTracker retryTracker = new ThumbMessageRetryTracker();
+        ThumbConsumer consumer = new ThumbConsumer(writer, null, retryTracker, new ThumbMessageDashboard(retryTracker),
+                batchPolicy, new ThumbProcessedEventStore(null), new ThumbEventProgress(null), new ThumbConsumerLanes(4),
+                executor);
+        ReflectionTestUtils.setField(consumer, "maxRetryAttempts", 3);
+        ReflectionTestUtils.setField(consumer, "maxInFlightBatches", 4);
+        ReflectionTestUtils.setField(consumer, "coalesceIntervalMs", 0L);
+        ReflectionTestUtils.setField(consumer, "coalesceMaxMessages", 2000);
+        ReflectionTestUtils.setField(consumer, "maxBisectDepth", 8);
+        return consumer;
+    }
+
+    /**
+     * 发送在固定延迟后确认，确认时消息进入内存主题，模拟 broker 的往返
+     */
+    @SuppressWarnings("unchecked")
+    private Producer<ThumbEvent> producer(LinkedBlockingQueue<Message<ThumbEvent>> topic, AtomicLong sent,
+                                          long ackLatencyMillis) {
+        return fake(Producer.class, Map.of("newMessage", newMessageArgs -> {
+            ThumbEvent[] value = new ThumbEvent[1];
+            TypedMessageBuilder<ThumbEvent>[] builder = new TypedMessageBuilder[1];
+            builder[0] = fake(TypedMessageBuilder.class, Map.of(
+                    "key", args -> builder[0],
+                    "value", args -> {
+                        value[0] = (ThumbEvent) args[0];
+                        return builder[0];
+                    },
+                    "sendAsync", args -> {
+                        String id = "0:" + sent.getAndIncrement();
+                        MessageId messageId = fake(MessageId.class, Map.of("toString", toStringArgs -> id));
+                        Message<ThumbEvent> message = fake(Message.class, Map.of(
+                                "getValue", getValueArgs -> value[0],
+                                "getMessageId", getMessageIdArgs -> messageId));
+                        CompletableFuture<MessageId> acked = new CompletableFuture<>();
+                        broker.schedule(() -> {
+                            topic.add(message);
+                            acked.complete(messageId);
+                        }, ackLatencyMillis, TimeUnit.MILLISECONDS);
+                        return acked;
+                    }));
+            return builder[0];
+        }));
+    }
+
+    private static Consumer<ThumbEvent> pulsarConsumer(LinkedBlockingQueue<Message<ThumbEvent>> topic) {
+        ConsumerStats stats = fake(ConsumerStats.class, Map.of());
+        return fake(Consumer.class, Map.of(
+                "receive", args -> {
+                    try {
+                        return topic.poll((Integer) args[0], (TimeUnit) args[1]);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return null;
+                    }
+                },
+                "acknowledgeAsync", args -> CompletableFuture.completedFuture(null),
+                "getStats", args -> stats));
+    }
+
+    /**
+     * 登录用户从请求属性中读取，不经过 Mockito，避免调用栈采集的开销计入请求
+     */
+    private static UserService userService() {
+        return fake(UserService.class, Map.of(
+                "getLoginUser", args -> ((HttpServletRequest) args[0]).getAttribute("user")));
+    }
+
+    private static HttpServletRequest login(Long userId) {
+        User user = new User();
+        user.setId(userId);
+        return fake(HttpServletRequest.class, Map.of("getAttribute", args -> user));
+    }
+
+    private void flushAll() {
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+            connection.serverCommands().flushAll();
+            return null;
+        });
+    }
+
+    private record Result(double throughput, double p50Millis, double p99Millis, double endToEndMillis) {
+
+        String format(String path) {
+            return "%-14s  %10.0f  %6.1f  %6.1f  %13.0f".formatted(path, throughput, p50Millis, p99Millis, endToEndMillis);
+        }
+    }
+
+    /**
+     * 每次写入固定耗时的批量写入器，模拟一次数据库事务的往返，并统计写入的点赞数
+     */
+    private static class LatencyThumbBatchWriter extends ThumbBatchWriter {
+
+        private final AtomicLong applied = new AtomicLong();
+
+        LatencyThumbBatchWriter() {
+            super(null, null, null, null, null, null, false);
+        }
+
+        @Override
+        public WriteResult write(Collection<Pair<Long, Long>> inserts, Collection<Pair<Long, Long>> deletes) {
+            try {
+                Thread.sleep(DB_LATENCY_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            applied.addAndGet(inserts.size() + deletes.size());
+            return new WriteResult(Map.of(), new ArrayList<>(inserts), new ArrayList<>(deletes));
+        }
+    }
+}
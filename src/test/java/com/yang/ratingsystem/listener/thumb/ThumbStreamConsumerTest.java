@@ -0,0 +1,258 @@
+package com.yang.ratingsystem.listener.thumb;
+
+import cn.hutool.core.lang.Pair;
+import com.yang.ratingsystem.manager.thumb.ThumbSyncLeaseManager;
+import com.yang.ratingsystem.utils.RedisKeyUtil;
+import com.yang.ratingsystem.utils.ThumbKeyLayout;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 点赞事件流消费者测试：分区租约保证每个分区只有一个消费者，
+ * 失败的批次在读取新事件之前重试，接管分区时用 XAUTOCLAIM 认领崩溃节点的待确认事件
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class ThumbStreamConsumerTest {
+
+    @Container
+    private static final GenericContainer<?> REDIS = new GenericContainer<>(DockerImageName.parse("redis:7-alpine"))
+            .withExposedPorts(6379);
+
+    private static final String GROUP = "thumb-db-writer";
+
+    private final ThumbKeyLayout layout = new ThumbKeyLayout(0, 0, 0, 2);
+
+    private final List<ThumbStreamConsumer> consumers = new ArrayList<>();
+
+    private JedisConnectionFactory connectionFactory;
+
+    private StringRedisTemplate stringRedisTemplate;
+
+    private ThumbConsumerTest.RecordingThumbBatchWriter writer;
+
+    @BeforeEach
+    void setUp() {
+        connectionFactory = new JedisConnectionFactory(new RedisStandaloneConfiguration(REDIS.getHost(), REDIS.getMappedPort(6379)));
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+        stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+            connection.serverCommands().flushAll();
+            return null;
+        });
+        writer = new ThumbConsumerTest.RecordingThumbBatchWriter();
+    }
+
+    @AfterEach
+    void tearDown() {
+        consumers.forEach(ThumbStreamConsumer::destroy);
+        connectionFactory.destroy();
+    }
+
+    /**
+     * 每个分区只由持有租约的一个消费者读取，持有者停止后另一个消费者接管
+     */
+    @Test
+    void onlyLeaseHolderConsumesPartition() throws InterruptedException {
+        ThumbStreamConsumer first = start("node-a");
+        ThumbStreamConsumer second = start("node-b");
+        for (long userId = 1; userId <= 20; userId++) {
+            append(userId, 1L, 1);
+        }
+        await(() -> applied().size() == 20);
+
+        Map<Integer, String> holders = new HashMap<>();
+        for (int partition = 0; partition < 2; partition++) {
+            List<String> names = consumerNames(partition);
+            assertEquals(1, names.size(), "分区 " + partition + " 被多个消费者读取: " + names);
+            holders.put(partition, names.get(0));
+        }
+
+        // 停止分区 0 的持有者，另一个节点接管后继续处理
+        ThumbStreamConsumer holder = "node-a".equals(holders.get(0)) ? first : second;
+        holder.destroy();
+        consumers.remove(holder);
+        for (long userId = 1; userId <= 20; userId++) {
+            append(userId, 2L, 1);
+        }
+
+        await(() -> applied().size() == 40);
+        String other = "node-a".equals(holders.get(0)) ? "node-b" : "node-a";
+        assertTrue(consumerNames(0).contains(other));
+        assertTrue(consumerNames(1).contains(other));
+    }
+
+    /**
+     * 写入失败的批次留在待确认列表中，下一轮先重试，不会越过它先处理之后的事件
+     */
+    @Test
+    void retriesFailedBatchBeforeNewerEvents() throws InterruptedException {
+        append(1L, 1L, 1);
+        append(1L, 1L, -1);
+        AtomicInteger writes = new AtomicInteger();
+        writer.failWhen(call -> writes.getAndIncrement() == 0 ? new IllegalStateException("database down") : null);
+
+        start("node-a", 1);
+
+        await(() -> writer.succeeded().size() == 2);
+        List<ThumbConsumerTest.RecordingThumbBatchWriter.Call> calls = writer.calls;
+        assertTrue(calls.get(0).failed());
+        assertEquals(Set.of(Pair.of(1L, 1L)), calls.get(0).inserts());
+        assertEquals(Set.of(Pair.of(1L, 1L)), calls.get(1).inserts());
+        assertEquals(Set.of(Pair.of(1L, 1L)), calls.get(2).deletes());
+        assertEquals(Set.of(), applied());
+        await(() -> userStreamLength(1L) == 0);
+    }
+
+    /**
+     * 崩溃节点读取后未确认的事件由分区的新持有者用 XAUTOCLAIM 认领并落库
+     */
+    @Test
+    void claimsPendingEventsOfCrashedConsumer() throws InterruptedException {
+        String streamKey = layout.getThumbStreamKey(1L);
+        stringRedisTemplate.opsForStream().createGroup(streamKey, ReadOffset.from("0"), GROUP);
+        append(1L, 1L, 1);
+        append(1L, 2L, 1);
+        List<MapRecord<String, Object, Object>> read = stringRedisTemplate.opsForStream().read(
+                Consumer.from(GROUP, "crashed"), StreamReadOptions.empty().count(10),
+                StreamOffset.create(streamKey, ReadOffset.lastConsumed()));
+        assertEquals(2, read.size());
+        append(1L, 1L, -1);
+
+        start("node-a");
+
+        await(() -> userStreamLength(1L) == 0);
+        assertEquals(Set.of(Pair.of(1L, 2L)), applied());
+        assertEquals(0L, stringRedisTemplate.opsForStream().pending(streamKey, GROUP).getTotalPendingMessages());
+    }
+
+    /**
+     * 并发写入、随机失败时，每个 (userId, blogId) 最终落库的状态与流中最后一条事件一致
+     */
+    @Test
+    void persistsLastEventPerKeyUnderFailures() throws InterruptedException {
+        writer.failWhen(call -> ThreadLocalRandom.current().nextInt(10) == 0 ? new IllegalStateException("database down") : null);
+        start("node-a", 20);
+        start("node-b", 20);
+
+        Map<Pair<Long, Long>, Boolean> expected = new HashMap<>();
+        for (int i = 0; i < 300; i++) {
+            Pair<Long, Long> key = Pair.of(ThreadLocalRandom.current().nextLong(1, 9), ThreadLocalRandom.current().nextLong(1, 6));
+            boolean thumb = !expected.getOrDefault(key, false);
+            append(key.getKey(), key.getValue(), thumb ? 1 : -1);
+            expected.put(key, thumb);
+        }
+
+        await(() -> partitionLength(0) == 0 && partitionLength(1) == 0);
+        Set<Pair<Long, Long>> thumbs = new HashSet<>();
+        expected.forEach((key, thumb) -> {
+            if (thumb) {
+                thumbs.add(key);
+            }
+        });
+        assertEquals(thumbs, applied());
+    }
+
+    /**
+     * 集群布局下点赞脚本无法同时写入事件流，开启事件流消费时启动失败，不创建消费组也不启动处理线程
+     */
+    @Test
+    void refusesToStartInClusterLayout() {
+        ThumbStreamConsumer consumer = new ThumbStreamConsumer(stringRedisTemplate, writer,
+                new ThumbSyncLeaseManager(stringRedisTemplate), new ThumbKeyLayout(16, 0, 0, 2));
+        ReflectionTestUtils.setField(consumer, "enabled", true);
+
+        assertThrows(IllegalStateException.class, consumer::init);
+        assertFalse(Boolean.TRUE.equals(stringRedisTemplate.hasKey(RedisKeyUtil.getThumbStreamKey(0))));
+    }
+
+    private ThumbStreamConsumer start(String name) {
+        return start(name, 500);
+    }
+
+    private ThumbStreamConsumer start(String name, int batchSize) {
+        ThumbStreamConsumer consumer = new ThumbStreamConsumer(stringRedisTemplate, writer,
+                new ThumbSyncLeaseManager(stringRedisTemplate), layout);
+        ReflectionTestUtils.setField(consumer, "enabled", true);
+        ReflectionTestUtils.setField(consumer, "group", GROUP);
+        ReflectionTestUtils.setField(consumer, "batchSize", batchSize);
+        ReflectionTestUtils.setField(consumer, "blockMillis", 100L);
+        ReflectionTestUtils.setField(consumer, "leaseMillis", 30_000L);
+        ReflectionTestUtils.setField(consumer, "consumerName", name);
+        consumer.init();
+        consumers.add(consumer);
+        return consumer;
+    }
+
+    private void append(long userId, long blogId, int type) {
+        stringRedisTemplate.opsForStream().add(layout.getThumbStreamKey(userId),
+                Map.of("u", String.valueOf(userId), "b", String.valueOf(blogId), "t", String.valueOf(type)));
+    }
+
+    /**
+     * 按写入顺序重放成功的写入得到的点赞记录
+     */
+    private Set<Pair<Long, Long>> applied() {
+        Set<Pair<Long, Long>> thumbs = new HashSet<>();
+        for (ThumbConsumerTest.RecordingThumbBatchWriter.Call call : writer.succeeded()) {
+            thumbs.addAll(call.inserts());
+            thumbs.removeAll(call.deletes());
+        }
+        return thumbs;
+    }
+
+    private List<String> consumerNames(int partition) {
+        StreamInfo.XInfoConsumers consumers = stringRedisTemplate.opsForStream()
+                .consumers(RedisKeyUtil.getThumbStreamKey(partition), GROUP);
+        return consumers.stream().map(StreamInfo.XInfoConsumer::consumerName).toList();
+    }
+
+    private long userStreamLength(long userId) {
+        Long size = stringRedisTemplate.opsForStream().size(layout.getThumbStreamKey(userId));
+        return size == null ? 0 : size;
+    }
+
+    private long partitionLength(int partition) {
+        Long size = stringRedisTemplate.opsForStream().size(RedisKeyUtil.getThumbStreamKey(partition));
+        return size == null ? 0 : size;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 15_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "等待点赞事件落库超时");
+            Thread.sleep(50);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.yang.ratingsystem.listener.thumb.msg;
+
+import org.apache.pulsar.client.api.Message;
+import org.apache.pulsar.client.api.TopicMetadata;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.function.LongFunction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 点赞事件分区路由测试
+ */
+class ThumbEventMessageRouterTest {
+
+    private static final int PARTITIONS = 16;
+
+    private final TopicMetadata metadata = metadata(PARTITIONS);
+
+    @Test
+    void blogRoutingKeepsABlogOnOnePartition() {
+        ThumbEventMessageRouter router = new ThumbEventMessageRouter(ThumbEventMessageRouter.RoutingKey.BLOG);
+
+        int partition = router.choosePartition(message("1:42"), metadata);
+        for (long userId = 2; userId < 100; userId++) {
+            assertEquals(partition, router.choosePartition(message(userId + ":42"), metadata));
+        }
+    }
+
+    @Test
+    void userRoutingKeepsAUserOnOnePartition() {
+        ThumbEventMessageRouter router = new ThumbEventMessageRouter(ThumbEventMessageRouter.RoutingKey.USER);
+
+        int partition = router.choosePartition(message("42:1"), metadata);
+        for (long blogId = 2; blogId < 100; blogId++) {
+            assertEquals(partition, router.choosePartition(message("42:" + blogId), metadata));
+        }
+    }
+
+    /**
+     * 与节点无关：同一个 key 由不同的路由实例计算，结果相同
+     */
+    @Test
+    void routingIsDeterministicAcrossInstances() {
+        for (ThumbEventMessageRouter.RoutingKey routingKey : ThumbEventMessageRouter.RoutingKey.values()) {
+            ThumbEventMessageRouter first = new ThumbEventMessageRouter(routingKey);
+            ThumbEventMessageRouter second = new ThumbEventMessageRouter(routingKey);
+            for (long id = 1; id < 100; id++) {
+                Message<?> msg = message(id + ":" + (id * 31));
+                assertEquals(first.choosePartition(msg, metadata), second.choosePartition(msg, metadata));
+            }
+        }
+    }
+
+    @Test
+    void singlePartitionTopicAlwaysUsesPartitionZero() {
+        ThumbEventMessageRouter router = new ThumbEventMessageRouter(ThumbEventMessageRouter.RoutingKey.BLOG);
+
+        assertEquals(0, router.choosePartition(message("1:42"), metadata(1)));
+        assertEquals(0, router.choosePartition(message(null), metadata(1)));
+    }
+
+    /**
+     * 格式错误或没有 key 的消息随机分配到合法分区，不抛出异常
+     */
+    @Test
+    void malformedKeysFallBackToAValidPartition() {
+        for (ThumbEventMessageRouter.RoutingKey routingKey : ThumbEventMessageRouter.RoutingKey.values()) {
+            ThumbEventMessageRouter router = new ThumbEventMessageRouter(routingKey);
+            for (String key : List.of("", "42", ":42", "42:", "a:b", "1:b", "a:1", "1:2:3",
+                    "99999999999999999999:1", "1:99999999999999999999")) {
+                int partition = router.choosePartition(message(key), metadata);
+                assertTrue(partition >= 0 && partition < PARTITIONS, key);
+            }
+            int partition = router.choosePartition(message(null), metadata);
+            assertTrue(partition >= 0 && partition < PARTITIONS);
+        }
+    }
+
+    /**
+     * 连续的自增 ID 和只有高位变化的雪花 ID 都均匀分布到各分区
+     */
+    @Test
+    void spreadsIdsEvenlyAcrossPartitions() {
+        ThumbEventMessageRouter router = new ThumbEventMessageRouter(ThumbEventMessageRouter.RoutingKey.BLOG);
+        int perPartition = 1000;
+        long snowflakeBase = 1_900_000_000_000_000_000L;
+        assertEvenSpread(router, id -> "1:" + id, perPartition);
+        // 雪花 ID 的时间戳从第 22 位开始
+        assertEvenSpread(router, id -> "1:" + (snowflakeBase + (id << 22)), perPartition);
+    }
+
+    private void assertEvenSpread(ThumbEventMessageRouter router, LongFunction<String> key,
+                                  int perPartition) {
+        int[] counts = new int[PARTITIONS];
+        for (long id = 1; id <= (long) PARTITIONS * perPartition; id++) {
+            counts[router.choosePartition(message(key.apply(id)), metadata)]++;
+        }
+        for (int partition = 0; partition < PARTITIONS; partition++) {
+            int count = counts[partition];
+            assertTrue(count > perPartition * 0.9 && count < perPartition * 1.1,
+                    "partition " + partition + " got " + count);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Message<?> message(String key) {
+        Message<ThumbEvent> msg = mock(Message.class);
+        when(msg.hasKey()).thenReturn(key != null);
+        when(msg.getKey()).thenReturn(key);
+        return msg;
+    }
+
+    private static TopicMetadata metadata(int partitions) {
+        TopicMetadata metadata = mock(TopicMetadata.class);
+        when(metadata.numPartitions()).thenReturn(partitions);
+        return metadata;
+    }
+}
@@ -0,0 +1,98 @@
+package com.yang.ratingsystem.listener.thumb.msg;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pulsar.client.api.Schema;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.yang.ratingsystem.manager.thumb.ThumbBenchmarkSupport.percentile;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 点赞事件编解码基准：对比紧凑二进制 Schema 与原来的 JSON Schema 每条消息的字节数和编码、解码耗时。
+ * 每轮编码、解码全部事件，取每轮的平均耗时，报告各轮的中位数和最大值。
+ * 运行方式见 {@link com.yang.ratingsystem.manager.thumb.ThumbBenchmarkSupport}
+ */
+@Slf4j
+class ThumbEventSchemaBenchmark {
+
+    private static final int EVENTS = 100_000;
+
+    private static final int ROUNDS = 20;
+
+    private final List<ThumbEvent> events = events();
+
+    @Test
+    void measuresBytesAndCodecTime() {
+        Schema<ThumbEvent> json = Schema.JSON(ThumbEvent.class);
+        // 预热
+        run(json);
+        run(ThumbEventSchema.INSTANCE);
+
+        List<String> report = new ArrayList<>();
+        report.add("schema   bytes/msg  encode-ns  encode-max-ns  decode-ns  decode-max-ns");
+        report.add(run(json).format("json"));
+        report.add(run(ThumbEventSchema.INSTANCE).format("compact"));
+        log.info("点赞事件编解码:\n{}", String.join("\n", report));
+    }
+
+    private Result run(Schema<ThumbEvent> schema) {
+        long[] encodeNanos = new long[ROUNDS];
+        long[] decodeNanos = new long[ROUNDS];
+        byte[][] encoded = new byte[EVENTS][];
+        long bytes = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < EVENTS; i++) {
+                encoded[i] = schema.encode(events.get(i));
+            }
+            encodeNanos[round] = (System.nanoTime() - start) / EVENTS;
+
+            // 解码结果逐条比对会把比较的耗时算进解码，只在最后一轮比对
+            ThumbEvent last = null;
+            start = System.nanoTime();
+            for (int i = 0; i < EVENTS; i++) {
+                last = schema.decode(encoded[i]);
+            }
+            decodeNanos[round] = (System.nanoTime() - start) / EVENTS;
+            assertEquals(events.get(EVENTS - 1), last);
+        }
+        for (int i = 0; i < EVENTS; i++) {
+            assertEquals(events.get(i), schema.decode(encoded[i]));
+            bytes += encoded[i].length;
+        }
+        return new Result((double) bytes / EVENTS, percentile(encodeNanos, 50), percentile(encodeNanos, 100),
+                percentile(decodeNanos, 50), percentile(decodeNanos, 100));
+    }
+
+    /**
+     * ID 取接近线上规模的值，JSON 中数字的位数与线上消息相当；eventTime 精确到毫秒，两种格式都能原样还原
+     */
+    private static List<ThumbEvent> events() {
+        List<ThumbEvent> events = new ArrayList<>(EVENTS);
+        LocalDateTime start = LocalDateTime.of(2025, 4, 18, 11, 12, 30);
+        for (int i = 0; i < EVENTS; i++) {
+            events.add(ThumbEvent.builder()
+                    .eventId(1_745_000_000_000L * 1000 + i)
+                    .sequence(1_000_000L + i)
+                    .userId(10_000_000L + i)
+                    .blogId(100_000L + i % 5000)
+                    .type(i % 3 == 0 ? ThumbEvent.EventType.DECR : ThumbEvent.EventType.INCR)
+                    .eventTime(start.plusNanos(i * 1_000_000L))
+                    .build());
+        }
+        return events;
+    }
+
+    private record Result(double bytesPerMessage, long encodeNanos, long encodeMaxNanos, long decodeNanos,
+                          long decodeMaxNanos) {
+
+        String format(String schema) {
+            return "%-7s  %9.1f  %9d  %13d  %9d  %13d".formatted(schema, bytesPerMessage, encodeNanos, encodeMaxNanos,
+                    decodeNanos, decodeMaxNanos);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.yang.ratingsystem.listener.thumb.msg;
+
+import org.apache.pulsar.client.api.SchemaSerializationException;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.TimeZone;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * 点赞事件二进制 Schema 的编解码测试
+ */
+class ThumbEventSchemaTest {
+
+    private final ThumbEventSchema schema = ThumbEventSchema.INSTANCE;
+
+    @Test
+    void roundTrip() {
+        ThumbEvent event = event(LocalDateTime.of(2025, 4, 18, 11, 12, 30, 123_000_000));
+
+        byte[] bytes = schema.encode(event);
+
+        assertEquals(ThumbEventSchema.LENGTH, bytes.length);
+        assertEquals(event, schema.decode(bytes));
+    }
+
+    @Test
+    void roundTripKeepsNullFields() {
+        ThumbEvent event = new ThumbEvent();
+        event.setUserId(7L);
+
+        ThumbEvent decoded = schema.decode(schema.encode(event));
+
+        assertEquals(event, decoded);
+        assertNull(decoded.getType());
+        assertNull(decoded.getEventTime());
+    }
+
+    /**
+     * eventTime 按 UTC 写入：编码和解码两端的默认时区不同，或者时间落在夏令时跳过的区间内，都能原样还原
+     */
+    @Test
+    void eventTimeIsEncodedInUtc() {
+        TimeZone defaultZone = TimeZone.getDefault();
+        // America/New_York 在 2026-03-08 02:00 跳到 03:00，02:30 在本地时区中不存在
+        ThumbEvent event = event(LocalDateTime.of(2026, 3, 8, 2, 30));
+        try {
+            TimeZone.setDefault(TimeZone.getTimeZone("America/New_York"));
+            byte[] bytes = schema.encode(event);
+            TimeZone.setDefault(TimeZone.getTimeZone("Asia/Shanghai"));
+
+            assertEquals(event.getEventTime().toInstant(ZoneOffset.UTC).toEpochMilli(),
+                    ByteBuffer.wrap(bytes).getLong(18));
+            assertEquals(event, schema.decode(bytes));
+        } finally {
+            TimeZone.setDefault(defaultZone);
+        }
+    }
+
+    /**
+     * 切换到二进制格式之前产生的 JSON 消息按旧格式解析
+     */
+    @Test
+    void decodesLegacyJson() {
+        byte[] json = ("{\"eventId\":5,\"sequence\":6,\"userId\":1,\"blogId\":2,"
+                + "\"type\":\"DECR\",\"eventTime\":\"2025-04-18T11:12:30\"}").getBytes(StandardCharsets.UTF_8);
+
+        ThumbEvent decoded = schema.decode(json);
+
+        assertEquals(ThumbEvent.builder()
+                .eventId(5L)
+                .sequence(6L)
+                .userId(1L)
+                .blogId(2L)
+                .type(ThumbEvent.EventType.DECR)
+                .eventTime(LocalDateTime.of(2025, 4, 18, 11, 12, 30))
+                .build(), decoded);
+    }
+
+    @Test
+    void rejectsUnknownVersion() {
+        byte[] bytes = schema.encode(event(LocalDateTime.now()));
+        bytes[0] = 3;
+
+        assertThrows(SchemaSerializationException.class, () -> schema.decode(bytes));
+    }
+
+    @Test
+    void rejectsTruncatedPayload() {
+        byte[] bytes = schema.encode(event(LocalDateTime.now()));
+
+        assertThrows(SchemaSerializationException.class,
+                () -> schema.decode(Arrays.copyOf(bytes, ThumbEventSchema.LENGTH - 1)));
+    }
+
+    @Test
+    void encodesTheSameBytesForEqualEvents() {
+        LocalDateTime eventTime = LocalDateTime.of(2025, 4, 18, 11, 12);
+
+        assertArrayEquals(schema.encode(event(eventTime)), schema.encode(event(eventTime)));
+    }
+
+    private static ThumbEvent event(LocalDateTime eventTime) {
+        return ThumbEvent.builder()
+                .eventId(1234567890123L)
+                .sequence(42L)
+                .userId(1001L)
+                .blogId(2002L)
+                .type(ThumbEvent.EventType.INCR)
+                .eventTime(eventTime)
+                .build();
+    }
+}
@@ -0,0 +1,219 @@
+package com.yang.ratingsystem.manager.thumb;
+
+import cn.hutool.core.lang.Pair;
+import com.baomidou.mybatisplus.core.MybatisConfiguration;
+import com.baomidou.mybatisplus.extension.spring.MybatisSqlSessionFactoryBean;
+import com.yang.ratingsystem.filter.BloomFilterService;
+import com.yang.ratingsystem.mapper.BlogMapper;
+import com.yang.ratingsystem.mapper.ThumbMapper;
+import com.yang.ratingsystem.mapper.UserThumbDigestMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mybatis.spring.SqlSessionTemplate;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.containers.wait.strategy.Wait;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 点赞记录批量写入吞吐基准：在真实 MySQL 上对比 ThumbBatchWriter 的多行 INSERT IGNORE / 元组 IN 删除，
+ * 和改造前消费者的写法（OR 拼接的存在性查询、逐行 JDBC 批量插入、OR 拼接的删除）。
+ * 分别测量新点赞、全部重复投递的点赞和取消点赞三种批次，每批 500 条，点赞数更新两边相同。
+ * 运行方式见 {@link ThumbBenchmarkSupport}
+ */
+@Slf4j
+@Testcontainers(disabledWithoutDocker = true)
+class ThumbBatchWriterBenchmark {
+
+    @Container
+    private static final GenericContainer<?> MYSQL = new GenericContainer<>(DockerImageName.parse("mysql:8.0"))
+            .withEnv("MYSQL_ROOT_PASSWORD", "123456")
+            .withEnv("MYSQL_DATABASE", "rating")
+            .withExposedPorts(3306)
+            // 初始化时临时启动的实例监听端口 0，正式启动后才监听 3306
+            .waitingFor(Wait.forLogMessage(".*ready for connections.*port: 3306.*\\n", 1));
+
+    private static final int ROWS = 20_000;
+
+    private static final int BATCH_SIZE = 500;
+
+    private static final int BLOGS = 100;
+
+    private SingleConnectionDataSource dataSource;
+
+    private JdbcTemplate jdbcTemplate;
+
+    private TransactionTemplate transactionTemplate;
+
+    private BlogMapper blogMapper;
+
+    private ThumbBatchWriter writer;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        // 与改造前的数据源配置一致，不开启 rewriteBatchedStatements，逐行批量插入每行一条语句；
+        // 单线程执行，复用一个连接，不把建立连接的耗时算进写入
+        dataSource = new SingleConnectionDataSource(
+                "jdbc:mysql://%s:%d/rating?useSSL=false&allowPublicKeyRetrieval=true"
+                        .formatted(MYSQL.getHost(), MYSQL.getMappedPort(3306)), "root", "123456", true);
+        new ResourceDatabasePopulator(new FileSystemResource("sql/create_table.sql")).execute(dataSource);
+
+        MybatisConfiguration configuration = new MybatisConfiguration();
+        configuration.setMapUnderscoreToCamelCase(false);
+        MybatisSqlSessionFactoryBean factoryBean = new MybatisSqlSessionFactoryBean();
+        factoryBean.setDataSource(dataSource);
+        factoryBean.setConfiguration(configuration);
+        factoryBean.setMapperLocations(new PathMatchingResourcePatternResolver().getResources("classpath:mapper/*.xml"));
+        SqlSessionTemplate sqlSessionTemplate = new SqlSessionTemplate(factoryBean.getObject());
+
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        blogMapper = sqlSessionTemplate.getMapper(BlogMapper.class);
+        BlogThumbCounter blogThumbCounter = mock(BlogThumbCounter.class);
+        when(blogThumbCounter.isLive()).thenReturn(false);
+        writer = new ThumbBatchWriter(sqlSessionTemplate.getMapper(ThumbMapper.class), blogMapper, transactionTemplate,
+                mock(BloomFilterService.class), blogThumbCounter, sqlSessionTemplate.getMapper(UserThumbDigestMapper.class), false);
+    }
+
+    @AfterEach
+    void tearDown() {
+        dataSource.destroy();
+    }
+
+    @Test
+    void measuresSetBasedAndPerRowWrites() {
+        List<List<Pair<Long, Long>>> batches = batches();
+        BiConsumer<List<Pair<Long, Long>>, List<Pair<Long, Long>>> setBased = (inserts, deletes) -> writer.write(inserts, deletes);
+        BiConsumer<List<Pair<Long, Long>>, List<Pair<Long, Long>>> perRow = this::writePerRow;
+
+        // 预热
+        reset();
+        measure(setBased, batches.subList(0, 4), false);
+        measure(perRow, batches.subList(0, 4), false);
+
+        List<String> report = new ArrayList<>();
+        report.add("writer     fresh-rows/s  replay-rows/s  delete-rows/s");
+        for (Map.Entry<String, BiConsumer<List<Pair<Long, Long>>, List<Pair<Long, Long>>>> entry : List.of(
+                Map.entry("per-row", perRow), Map.entry("set-based", setBased))) {
+            reset();
+            double fresh = measure(entry.getValue(), batches, false);
+            double replay = measure(entry.getValue(), batches, false);
+            assertEquals(ROWS, count());
+            double delete = measure(entry.getValue(), batches, true);
+            assertEquals(0, count());
+            report.add("%-9s  %12.0f  %13.0f  %13.0f".formatted(entry.getKey(), fresh, replay, delete));
+        }
+        log.info("点赞记录批量写入吞吐:\n{}", String.join("\n", report));
+    }
+
+    /**
+     * @return 每秒写入的记录数
+     */
+    private double measure(BiConsumer<List<Pair<Long, Long>>, List<Pair<Long, Long>>> write,
+                           List<List<Pair<Long, Long>>> batches, boolean delete) {
+        long start = System.nanoTime();
+        for (List<Pair<Long, Long>> batch : batches) {
+            if (delete) {
+                write.accept(List.of(), batch);
+            } else {
+                write.accept(batch, List.of());
+            }
+        }
+        return batches.size() * BATCH_SIZE * 1e9 / (System.nanoTime() - start);
+    }
+
+    /**
+     * 改造前的写法：OR 拼接查询已存在的记录，逐行批量插入缺失的记录，OR 拼接删除，最后更新点赞数
+     */
+    private void writePerRow(Collection<Pair<Long, Long>> inserts, Collection<Pair<Long, Long>> deletes) {
+        transactionTemplate.executeWithoutResult(status -> {
+            Map<Long, Long> countMap = new HashMap<>();
+            if (!inserts.isEmpty()) {
+                Set<Pair<Long, Long>> existing = new HashSet<>(jdbcTemplate.query(
+                        "SELECT userId, blogId FROM thumb WHERE " + orChain(inserts.size()),
+                        (rs, i) -> Pair.of(rs.getLong("userId"), rs.getLong("blogId")), flatten(inserts)));
+                List<Object[]> rows = new ArrayList<>();
+                for (Pair<Long, Long> pair : inserts) {
+                    if (!existing.contains(pair)) {
+                        rows.add(new Object[]{pair.getKey(), pair.getValue()});
+                        countMap.merge(pair.getValue(), 1L, Long::sum);
+                    }
+                }
+                if (!rows.isEmpty()) {
+                    jdbcTemplate.batchUpdate("INSERT INTO thumb (userId, blogId) VALUES (?, ?)", rows);
+                }
+            }
+            if (!deletes.isEmpty()) {
+                jdbcTemplate.update("DELETE FROM thumb WHERE " + orChain(deletes.size()), flatten(deletes));
+                deletes.forEach(pair -> countMap.merge(pair.getValue(), -1L, Long::sum));
+            }
+            if (!countMap.isEmpty()) {
+                blogMapper.batchUpdateThumbCount(countMap);
+            }
+        });
+    }
+
+    private void reset() {
+        jdbcTemplate.execute("DELETE FROM thumb");
+        jdbcTemplate.execute("DELETE FROM blog");
+        for (long blogId = 1; blogId <= BLOGS; blogId++) {
+            jdbcTemplate.update("INSERT INTO blog (id, userId, title, content) VALUES (?, 1, 'title', 'content')", blogId);
+        }
+    }
+
+    private long count() {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM thumb", Long.class);
+    }
+
+    /**
+     * 每批 500 条不重复的 (userId, blogId)，分散在 100 篇博客上
+     */
+    private static List<List<Pair<Long, Long>>> batches() {
+        List<List<Pair<Long, Long>>> batches = new ArrayList<>();
+        for (int start = 0; start < ROWS; start += BATCH_SIZE) {
+            List<Pair<Long, Long>> batch = new ArrayList<>(BATCH_SIZE);
+            for (int i = start; i < start + BATCH_SIZE; i++) {
+                batch.add(Pair.of((long) (i / BLOGS + 1), (long) (i % BLOGS + 1)));
+            }
+            batches.add(batch);
+        }
+        return batches;
+    }
+
+    private static String orChain(int size) {
+        return String.join(" OR ", Collections.nCopies(size, "(userId = ? AND blogId = ?)"));
+    }
+
+    private static Object[] flatten(Collection<Pair<Long, Long>> pairs) {
+        List<Object> args = new ArrayList<>(pairs.size() * 2);
+        pairs.forEach(pair -> {
+            args.add(pair.getKey());
+            args.add(pair.getValue());
+        });
+        return args.toArray();
+    }
+}
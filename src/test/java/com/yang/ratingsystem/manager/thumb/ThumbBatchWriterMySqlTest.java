@@ -0,0 +1,275 @@
+package com.yang.ratingsystem.manager.thumb;
+
+import cn.hutool.core.lang.Pair;
+import com.baomidou.mybatisplus.core.MybatisConfiguration;
+import com.baomidou.mybatisplus.extension.spring.MybatisSqlSessionFactoryBean;
+import com.yang.ratingsystem.filter.BloomFilterService;
+import com.yang.ratingsystem.mapper.BlogMapper;
+import com.yang.ratingsystem.mapper.ThumbMapper;
+import com.yang.ratingsystem.mapper.UserThumbDigestMapper;
+import com.yang.ratingsystem.model.Thumb;
+import com.yang.ratingsystem.utils.ThumbDigestUtil;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mybatis.spring.SqlSessionTemplate;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.containers.wait.strategy.Wait;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.AdditionalAnswers.delegatesTo;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 点赞记录批量写入器在真实 MySQL 上的测试：多行 INSERT IGNORE、元组 IN 的删除和查询，
+ * 影响行数不一致时回滚到保存点、只补写缺失记录的路径，以及补写期间另一个节点并发写入同一记录的情况。
+ * 表结构来自 sql/create_table.sql
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class ThumbBatchWriterMySqlTest {
+
+    @Container
+    private static final GenericContainer<?> MYSQL = new GenericContainer<>(DockerImageName.parse("mysql:8.0"))
+            .withEnv("MYSQL_ROOT_PASSWORD", "123456")
+            .withEnv("MYSQL_DATABASE", "rating")
+            .withExposedPorts(3306)
+            // 初始化时临时启动的实例监听端口 0，正式启动后才监听 3306
+            .waitingFor(Wait.forLogMessage(".*ready for connections.*port: 3306.*\\n", 1));
+
+    private static DataSource dataSource;
+
+    private static SqlSessionTemplate sqlSessionTemplate;
+
+    private JdbcTemplate jdbcTemplate;
+
+    private ThumbMapper thumbMapper;
+
+    private ThumbBatchWriter writer;
+
+    @BeforeAll
+    static void initSchema() throws Exception {
+        dataSource = new DriverManagerDataSource("jdbc:mysql://%s:%d/rating?useSSL=false&allowPublicKeyRetrieval=true"
+                .formatted(MYSQL.getHost(), MYSQL.getMappedPort(3306)), "root", "123456");
+        new ResourceDatabasePopulator(new FileSystemResource("sql/create_table.sql")).execute(dataSource);
+
+        MybatisConfiguration configuration = new MybatisConfiguration();
+        configuration.setMapUnderscoreToCamelCase(false);
+        MybatisSqlSessionFactoryBean factoryBean = new MybatisSqlSessionFactoryBean();
+        factoryBean.setDataSource(dataSource);
+        factoryBean.setConfiguration(configuration);
+        factoryBean.setMapperLocations(new PathMatchingResourcePatternResolver().getResources("classpath:mapper/*.xml"));
+        sqlSessionTemplate = new SqlSessionTemplate(factoryBean.getObject());
+    }
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("DELETE FROM thumb");
+        jdbcTemplate.execute("DELETE FROM blog");
+        jdbcTemplate.execute("DELETE FROM user_thumb_digest");
+        for (long blogId = 1; blogId <= 3; blogId++) {
+            jdbcTemplate.update("INSERT INTO blog (id, userId, title, content) VALUES (?, 1, 'title', 'content')", blogId);
+        }
+
+        // 委托给真实 mapper，同时记录调用次数
+        thumbMapper = mock(ThumbMapper.class, delegatesTo(sqlSessionTemplate.getMapper(ThumbMapper.class)));
+        writer = writer(thumbMapper, new TransactionTemplate(new DataSourceTransactionManager(dataSource)));
+    }
+
+    /**
+     * 影响行数与分块大小一致时一条语句完成，不查询已存在的记录
+     */
+    @Test
+    void insertsAndDeletesWithoutLookup() {
+        ThumbBatchWriter.WriteResult inserted = writer.write(
+                List.of(Pair.of(1L, 1L), Pair.of(2L, 1L), Pair.of(1L, 2L)), List.of());
+
+        assertEquals(Map.of(1L, 2L, 2L, 1L), inserted.blogDeltas());
+        assertEquals(Set.of(Pair.of(1L, 1L), Pair.of(2L, 1L), Pair.of(1L, 2L)), thumbs());
+        assertEquals(Map.of(1L, 2L, 2L, 1L, 3L, 0L), blogCounts());
+
+        ThumbBatchWriter.WriteResult deleted = writer.write(List.of(), List.of(Pair.of(1L, 1L), Pair.of(1L, 2L)));
+
+        assertEquals(Map.of(1L, -1L, 2L, -1L), deleted.blogDeltas());
+        assertEquals(Set.of(Pair.of(2L, 1L)), thumbs());
+        assertEquals(Map.of(1L, 1L, 2L, 0L, 3L, 0L), blogCounts());
+        verify(thumbMapper, times(0)).selectByUserBlogPairs(anyList());
+    }
+
+    /**
+     * 部分记录已存在：回滚到保存点，查询已存在的记录后只插入缺失的记录，点赞数只计真正插入的记录
+     */
+    @Test
+    void rollsBackToSavepointAndInsertsOnlyMissingRows() {
+        jdbcTemplate.update("INSERT INTO thumb (userId, blogId) VALUES (1, 1)");
+
+        ThumbBatchWriter.WriteResult result = writer.write(
+                List.of(Pair.of(1L, 1L), Pair.of(2L, 1L), Pair.of(3L, 1L)), List.of());
+
+        assertEquals(Set.of(Pair.of(2L, 1L), Pair.of(3L, 1L)), new HashSet<>(result.inserted()));
+        assertEquals(Map.of(1L, 2L), result.blogDeltas());
+        assertEquals(Set.of(Pair.of(1L, 1L), Pair.of(2L, 1L), Pair.of(3L, 1L)), thumbs());
+        assertEquals(2L, blogCounts().get(1L));
+        verify(thumbMapper, times(2)).batchInsertIgnore(anyList());
+        verify(thumbMapper, times(1)).selectByUserBlogPairs(anyList());
+        // 摘要只异或真正插入的记录
+        assertEquals(ThumbDigestUtil.hash(2L, 1L), digest(2L));
+        assertEquals(ThumbDigestUtil.hash(3L, 1L), digest(3L));
+        assertEquals(0, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM user_thumb_digest WHERE userId = 1", Integer.class));
+    }
+
+    /**
+     * 部分记录已不存在：回滚到保存点，只删除真正存在的记录
+     */
+    @Test
+    void rollsBackToSavepointAndDeletesOnlyPresentRows() {
+        jdbcTemplate.update("INSERT INTO thumb (userId, blogId) VALUES (1, 1), (1, 2)");
+
+        ThumbBatchWriter.WriteResult result = writer.write(List.of(),
+                List.of(Pair.of(1L, 1L), Pair.of(2L, 1L), Pair.of(1L, 2L), Pair.of(1L, 3L)));
+
+        assertEquals(Set.of(Pair.of(1L, 1L), Pair.of(1L, 2L)), new HashSet<>(result.deleted()));
+        assertEquals(Map.of(1L, -1L, 2L, -1L), result.blogDeltas());
+        assertEquals(Set.of(), thumbs());
+        verify(thumbMapper, times(2)).batchDeleteByUserBlogPairs(anyList());
+        verify(thumbMapper, times(1)).selectByUserBlogPairs(anyList());
+    }
+
+    /**
+     * 超过一个分块时各分块独立回滚：只有包含已存在记录的分块走补写路径
+     */
+    @Test
+    void handlesPartialChunkAmongFullChunks() {
+        List<Pair<Long, Long>> inserts = new ArrayList<>();
+        for (long userId = 1; userId <= 1200; userId++) {
+            inserts.add(Pair.of(userId, 1L));
+        }
+        // 排序后落在第二个分块 (501..1000)
+        jdbcTemplate.update("INSERT INTO thumb (userId, blogId) VALUES (600, 1), (700, 1)");
+
+        ThumbBatchWriter.WriteResult result = writer.write(inserts, List.of());
+
+        assertEquals(1198, result.inserted().size());
+        assertEquals(Map.of(1L, 1198L), result.blogDeltas());
+        assertEquals(1200, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM thumb", Integer.class));
+        // 3 个分块各插入一次，第二个分块回滚后补插一次
+        verify(thumbMapper, times(4)).batchInsertIgnore(anyList());
+        verify(thumbMapper, times(1)).selectByUserBlogPairs(anyList());
+    }
+
+    /**
+     * 补写前的加锁读之后另一个节点提交了同一条记录（读已提交，没有间隙锁）：
+     * 补插的影响行数不一致时再次回滚重查，两个节点合计只计一次，点赞数和摘要与实际记录一致
+     */
+    @Test
+    void recountsWhenAnotherNodeInsertsAfterLookupUnderReadCommitted() throws Exception {
+        writesConcurrentlyWithAnotherNode(TransactionDefinition.ISOLATION_READ_COMMITTED);
+        // 第一次补插被并发写入打断，重查后再补插一次
+        verify(thumbMapper, times(2)).selectByUserBlogPairs(anyList());
+    }
+
+    /**
+     * 可重复读下加锁读锁住缺失记录的间隙，另一个节点的插入等待本事务提交后被 INSERT IGNORE 跳过
+     */
+    @Test
+    void blocksConcurrentInsertAfterLookupUnderRepeatableRead() throws Exception {
+        writesConcurrentlyWithAnotherNode(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+    }
+
+    /**
+     * 本节点写入 (1,1)、(2,1)、(3,1)，其中 (1,1) 已存在；本节点查询已存在记录之后，另一个节点写入 (2,1)
+     */
+    private void writesConcurrentlyWithAnotherNode(int isolationLevel) throws Exception {
+        jdbcTemplate.update("INSERT INTO thumb (userId, blogId) VALUES (1, 1)");
+        TransactionTemplate transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        transactionTemplate.setIsolationLevel(isolationLevel);
+        ThumbBatchWriter writer = writer(thumbMapper, transactionTemplate);
+        ThumbMapper otherNodeMapper = sqlSessionTemplate.getMapper(ThumbMapper.class);
+        ThumbBatchWriter otherNode = writer(otherNodeMapper, transactionTemplate);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        AtomicReference<Future<ThumbBatchWriter.WriteResult>> other = new AtomicReference<>();
+        doAnswer(invocation -> {
+            List<Thumb> existing = otherNodeMapper.selectByUserBlogPairs(invocation.getArgument(0));
+            if (other.get() == null) {
+                other.set(executor.submit(() -> otherNode.write(List.of(Pair.of(2L, 1L)), List.of())));
+                try {
+                    // 读已提交下另一个节点很快提交；可重复读下它等待本事务的间隙锁，超时后继续
+                    other.get().get(1, TimeUnit.SECONDS);
+                } catch (TimeoutException e) {
+                    // 另一个节点被锁住
+                }
+            }
+            return existing;
+        }).when(thumbMapper).selectByUserBlogPairs(anyList());
+
+        ThumbBatchWriter.WriteResult result = writer.write(
+                List.of(Pair.of(1L, 1L), Pair.of(2L, 1L), Pair.of(3L, 1L)), List.of());
+        ThumbBatchWriter.WriteResult otherResult = other.get().get(30, TimeUnit.SECONDS);
+        executor.shutdown();
+
+        List<Pair<Long, Long>> inserted = new ArrayList<>(result.inserted());
+        inserted.addAll(otherResult.inserted());
+        assertEquals(2, inserted.size());
+        assertEquals(Set.of(Pair.of(2L, 1L), Pair.of(3L, 1L)), new HashSet<>(inserted));
+        assertEquals(Set.of(Pair.of(1L, 1L), Pair.of(2L, 1L), Pair.of(3L, 1L)), thumbs());
+        assertEquals(2L, blogCounts().get(1L));
+        assertEquals(ThumbDigestUtil.hash(2L, 1L), digest(2L));
+        assertEquals(ThumbDigestUtil.hash(3L, 1L), digest(3L));
+    }
+
+    private ThumbBatchWriter writer(ThumbMapper thumbMapper, TransactionTemplate transactionTemplate) {
+        BlogThumbCounter blogThumbCounter = mock(BlogThumbCounter.class);
+        when(blogThumbCounter.isLive()).thenReturn(false);
+        return new ThumbBatchWriter(thumbMapper, sqlSessionTemplate.getMapper(BlogMapper.class), transactionTemplate,
+                mock(BloomFilterService.class), blogThumbCounter, sqlSessionTemplate.getMapper(UserThumbDigestMapper.class), true);
+    }
+
+    private Set<Pair<Long, Long>> thumbs() {
+        return new HashSet<>(jdbcTemplate.query("SELECT userId, blogId FROM thumb",
+                (rs, i) -> Pair.of(rs.getLong("userId"), rs.getLong("blogId"))));
+    }
+
+    private Map<Long, Long> blogCounts() {
+        Map<Long, Long> counts = new TreeMap<>();
+        jdbcTemplate.query("SELECT id, thumbCount FROM blog",
+                rs -> {
+                    counts.put(rs.getLong("id"), rs.getLong("thumbCount"));
+                });
+        return counts;
+    }
+
+    private long digest(long userId) {
+        return jdbcTemplate.queryForObject("SELECT digest FROM user_thumb_digest WHERE userId = ?", Long.class, userId);
+    }
+}
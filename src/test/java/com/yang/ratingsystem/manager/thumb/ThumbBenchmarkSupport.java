@@ -0,0 +1,50 @@
+package com.yang.ratingsystem.manager.thumb;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * 点赞链路基准测试的公共工具
+ *
+ * 基准测试类以 Benchmark 结尾，不匹配 surefire 默认的测试类规则，不随 mvn test 运行，
+ * 需要时单独执行，例如 mvn test -Dtest=ThumbConsumerBenchmark，结果以表格形式输出到日志。
+ * 依赖 Docker 的基准测试在没有 Docker 的环境中跳过
+ */
+public final class ThumbBenchmarkSupport {
+
+    private ThumbBenchmarkSupport() {
+    }
+
+    /**
+     * 基于动态代理的轻量替身：Mockito 每次调用都会采集调用栈，在热点路径上的开销会淹没被测代码
+     * 未列出的方法返回 null 或基本类型的零值，equals/hashCode 按对象身份
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T fake(Class<?> type, Map<String, Function<Object[], Object>> methods) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            Function<Object[], Object> answer = methods.get(method.getName());
+            if (answer != null) {
+                return answer.apply(args);
+            }
+            return switch (method.getName()) {
+                case "equals" -> proxy == args[0];
+                case "hashCode" -> System.identityHashCode(proxy);
+                case "toString" -> type.getSimpleName();
+                default -> method.getReturnType().isPrimitive() && method.getReturnType() != void.class
+                        ? Array.get(Array.newInstance(method.getReturnType(), 1), 0) : null;
+            };
+        });
+    }
+
+    /**
+     * 百分位数，latencies 会被排序
+     */
+    public static long percentile(long[] latencies, double percentile) {
+        Arrays.sort(latencies);
+        int index = (int) Math.ceil(percentile / 100 * latencies.length) - 1;
+        return latencies[Math.max(0, Math.min(latencies.length - 1, index))];
+    }
+}
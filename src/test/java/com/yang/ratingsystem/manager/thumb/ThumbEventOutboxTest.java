@@ -0,0 +1,238 @@
+package com.yang.ratingsystem.manager.thumb;
+
+import com.yang.ratingsystem.listener.thumb.msg.ThumbEvent;
+import com.yang.ratingsystem.listener.thumb.msg.ThumbEventSchema;
+import org.apache.pulsar.client.api.MessageId;
+import org.apache.pulsar.client.api.Producer;
+import org.apache.pulsar.client.api.TypedMessageBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 点赞事件发件箱测试：在临时目录中验证分段切换、不完整记录截断、检查点重启恢复和发件箱写满，
+ * Pulsar 生产者用 mock 代替，可随时切换为不可用
+ */
+class ThumbEventOutboxTest {
+
+    private static final int RECORD_SIZE = 4 + ThumbEventSchema.LENGTH;
+
+    @TempDir
+    Path dir;
+
+    private final AtomicBoolean brokerUp = new AtomicBoolean(true);
+
+    private final List<ThumbEvent> sent = new CopyOnWriteArrayList<>();
+
+    private Producer<ThumbEvent> producer;
+
+    private ThumbEventOutbox outbox;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        producer = mock(Producer.class);
+        TypedMessageBuilder<ThumbEvent> messageBuilder = mock(TypedMessageBuilder.class);
+        AtomicReference<ThumbEvent> value = new AtomicReference<>();
+        when(producer.newMessage()).thenReturn(messageBuilder);
+        when(messageBuilder.key(anyString())).thenReturn(messageBuilder);
+        when(messageBuilder.value(any())).thenAnswer(invocation -> {
+            value.set(invocation.getArgument(0));
+            return messageBuilder;
+        });
+        when(messageBuilder.sendAsync()).thenAnswer(invocation -> {
+            if (!brokerUp.get()) {
+                return CompletableFuture.failedFuture(new IOException("broker down"));
+            }
+            sent.add(value.get());
+            return CompletableFuture.completedFuture(mock(MessageId.class));
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (outbox != null) {
+            outbox.destroy();
+        }
+    }
+
+    /**
+     * 写满的分段切换到下一个分段，转发完成的分段被删除，事件按追加顺序转发
+     */
+    @Test
+    void rollsSegmentsAndDeletesForwardedOnes() throws Exception {
+        outbox = start(4, 16);
+        for (long blogId = 0; blogId < 10; blogId++) {
+            outbox.append(event(blogId));
+        }
+
+        await(() -> sent.size() == 10);
+        assertEquals(LongStream.range(0, 10).boxed().toList(), sent.stream().map(ThumbEvent::getBlogId).toList());
+        // 10 条记录落在 0、1、2 三个分段，检查点在分段 2，之前的分段已删除
+        await(() -> segments().equals(List.of(segment(2))));
+        await(() -> checkpoint() != null && checkpoint().equals(List.of(2L, (long) 2 * RECORD_SIZE)));
+    }
+
+    /**
+     * 重启时末尾校验失败的半条记录被截断，之后的追加从截断处继续写
+     */
+    @Test
+    void truncatesTornRecordOnRestart() throws Exception {
+        brokerUp.set(false);
+        outbox = start(16, 16);
+        for (long blogId = 0; blogId < 3; blogId++) {
+            outbox.append(event(blogId));
+        }
+        outbox.destroy();
+        outbox = null;
+        // 模拟写入第三条记录时进程崩溃：载荷只写了一半
+        try (RandomAccessFile file = new RandomAccessFile(dir.resolve(segment(0)).toFile(), "rw")) {
+            file.seek(2L * RECORD_SIZE + 4 + ThumbEventSchema.LENGTH / 2);
+            file.write(new byte[ThumbEventSchema.LENGTH / 2]);
+        }
+
+        brokerUp.set(true);
+        outbox = start(16, 16);
+        await(() -> sent.size() == 2);
+        outbox.append(event(100L));
+
+        await(() -> sent.size() == 3);
+        assertEquals(List.of(0L, 1L, 100L), sent.stream().map(ThumbEvent::getBlogId).toList());
+        await(() -> checkpoint() != null && checkpoint().equals(List.of(0L, (long) 3 * RECORD_SIZE)));
+    }
+
+    /**
+     * 重启后从检查点继续转发，已转发的事件不会重放
+     */
+    @Test
+    void resumesFromCheckpointAfterRestart() throws Exception {
+        outbox = start(4, 16);
+        for (long blogId = 0; blogId < 5; blogId++) {
+            outbox.append(event(blogId));
+        }
+        await(() -> checkpoint() != null && checkpoint().equals(List.of(1L, (long) RECORD_SIZE)));
+
+        brokerUp.set(false);
+        for (long blogId = 5; blogId < 7; blogId++) {
+            outbox.append(event(blogId));
+        }
+        outbox.destroy();
+        outbox = null;
+        assertEquals(List.of(1L, (long) RECORD_SIZE), checkpoint());
+
+        sent.clear();
+        brokerUp.set(true);
+        outbox = start(4, 16);
+        await(() -> sent.size() == 2);
+        assertEquals(List.of(5L, 6L), sent.stream().map(ThumbEvent::getBlogId).toList());
+        await(() -> checkpoint().equals(List.of(1L, (long) 3 * RECORD_SIZE)));
+        assertEquals(2, sent.size());
+    }
+
+    /**
+     * 未转发的分段数达到上限后追加失败，Pulsar 恢复、积压转发完后可以继续追加
+     */
+    @Test
+    void rejectsAppendWhenFull() throws Exception {
+        brokerUp.set(false);
+        outbox = start(4, 2);
+        for (long blogId = 0; blogId < 8; blogId++) {
+            outbox.append(event(blogId));
+        }
+
+        assertThrows(IOException.class, () -> outbox.append(event(8L)));
+
+        // 恢复可能发生在一批发送的中途，整批重试会重复发送一部分事件，由消费端去重
+        brokerUp.set(true);
+        await(() -> checkpoint() != null && checkpoint().equals(List.of(1L, (long) 4 * RECORD_SIZE)));
+        assertEquals(LongStream.range(0, 8).boxed().collect(Collectors.toSet()), sentBlogIds());
+        outbox.append(event(8L));
+        await(() -> sentBlogIds().contains(8L));
+    }
+
+    private ThumbEventOutbox start(int recordsPerSegment, int maxSegments) throws IOException {
+        ThumbEventOutbox started = new ThumbEventOutbox(producer, mock(ThumbEventProgress.class));
+        ReflectionTestUtils.setField(started, "enabled", true);
+        ReflectionTestUtils.setField(started, "dir", dir.toString());
+        ReflectionTestUtils.setField(started, "recordsPerSegment", recordsPerSegment);
+        ReflectionTestUtils.setField(started, "maxSegments", maxSegments);
+        ReflectionTestUtils.setField(started, "forwardBatchSize", 500);
+        ReflectionTestUtils.setField(started, "forceIntervalMs", 10L);
+        started.init();
+        return started;
+    }
+
+    private static ThumbEvent event(long blogId) {
+        return ThumbEvent.create(1L, blogId, ThumbEvent.EventType.INCR);
+    }
+
+    private static String segment(long index) {
+        return "segment-" + String.format("%020d", index) + ".log";
+    }
+
+    private Set<Long> sentBlogIds() {
+        return sent.stream().map(ThumbEvent::getBlogId).collect(Collectors.toSet());
+    }
+
+    private List<String> segments() {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith("segment-"))
+                    .sorted()
+                    .toList();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 读取检查点文件，返回 [分段序号, 段内偏移]，文件不存在时返回 null
+     */
+    private List<Long> checkpoint() {
+        try {
+            Path path = dir.resolve("checkpoint");
+            if (!Files.exists(path)) {
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+            return List.of(buffer.getLong(), (long) buffer.getInt());
+        } catch (IOException e) {
+            // 检查点正在原子替换
+            return null;
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "等待发件箱转发超时");
+            Thread.sleep(20);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.yang.ratingsystem.manager.thumb;
+
+import com.yang.ratingsystem.listener.thumb.msg.ThumbEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pulsar.client.api.MessageId;
+import org.apache.pulsar.client.api.Producer;
+import org.apache.pulsar.client.api.TypedMessageBuilder;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.yang.ratingsystem.manager.thumb.ThumbBenchmarkSupport.fake;
+import static com.yang.ratingsystem.manager.thumb.ThumbBenchmarkSupport.percentile;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 点赞事件发布吞吐基准：固定大小的请求线程池（类似 Tomcat 工作线程）并发发布事件，broker 确认用固定延迟模拟。
+ * 对比请求线程阻塞等待确认（异步发送之前的行为）和返回 Future、确认后在回调中完成响应两种方式的请求吞吐与 p99 延迟。
+ * 运行方式见 {@link ThumbBenchmarkSupport}
+ */
+@Slf4j
+class ThumbEventPublisherBenchmark {
+
+    private static final int REQUESTS = 20_000;
+
+    private static final int REQUEST_THREADS = 50;
+
+    private final ScheduledExecutorService broker = Executors.newScheduledThreadPool(4);
+
+    @Test
+    void measuresBlockingAndAsyncPublish() throws Exception {
+        // 预热
+        run(true, 1);
+        run(false, 1);
+
+        List<String> report = new ArrayList<>();
+        report.add("ack-latency-ms  mode      requests/s  p50-ms  p99-ms");
+        for (long latency : new long[]{1, 5, 20}) {
+            for (boolean blocking : new boolean[]{true, false}) {
+                long[] latencies = new long[REQUESTS];
+                double throughput = run(blocking, latency, latencies);
+                report.add("%14d  %-8s  %10.0f  %6.1f  %6.1f".formatted(latency, blocking ? "blocking" : "async",
+                        throughput, percentile(latencies, 50) / 1e6, percentile(latencies, 99) / 1e6));
+            }
+        }
+        broker.shutdownNow();
+        log.info("点赞事件发布吞吐:\n{}", String.join("\n", report));
+    }
+
+    private double run(boolean blocking, long ackLatencyMillis) throws Exception {
+        return run(blocking, ackLatencyMillis, new long[REQUESTS]);
+    }
+
+    /**
+     * 一次性提交全部请求，延迟从提交到响应完成计算，包含在线程池中排队的时间
+     *
+     * @return 每秒完成的请求数
+     */
+    private double run(boolean blocking, long ackLatencyMillis, long[] latencies) throws Exception {
+        ThumbEventProgress eventProgress = new ThumbEventProgress(null);
+        ThumbEventPublisher publisher = new ThumbEventPublisher(new ThumbEventOutbox(null, eventProgress),
+                producer(ackLatencyMillis), eventProgress);
+        ExecutorService requestThreads = Executors.newFixedThreadPool(REQUEST_THREADS);
+        CountDownLatch done = new CountDownLatch(REQUESTS);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < REQUESTS; i++) {
+            final int request = i;
+            long submitted = System.nanoTime();
+            ThumbEvent event = ThumbEvent.create((long) i, (long) (i % 1000), ThumbEvent.EventType.INCR);
+            requestThreads.execute(() -> {
+                CompletableFuture<Void> published = publisher.publish(event);
+                if (blocking) {
+                    published.join();
+                    latencies[request] = System.nanoTime() - submitted;
+                    done.countDown();
+                } else {
+                    published.whenComplete((v, ex) -> {
+                        latencies[request] = System.nanoTime() - submitted;
+                        done.countDown();
+                    });
+                }
+            });
+        }
+        assertTrue(done.await(120, TimeUnit.SECONDS), "请求未在超时时间内全部完成");
+        long elapsed = System.nanoTime() - start;
+        requestThreads.shutdown();
+        return REQUESTS * 1e9 / elapsed;
+    }
+
+    /**
+     * sendAsync 在固定延迟后完成，模拟 broker 确认的往返
+     */
+    @SuppressWarnings("unchecked")
+    private Producer<ThumbEvent> producer(long ackLatencyMillis) {
+        MessageId messageId = fake(MessageId.class, Map.of());
+        TypedMessageBuilder<ThumbEvent>[] builder = new TypedMessageBuilder[1];
+        builder[0] = fake(TypedMessageBuilder.class, Map.of(
+                "key", args -> builder[0],
+                "value", args -> builder[0],
+                "sendAsync", args -> {
+                    CompletableFuture<MessageId> acked = new CompletableFuture<>();
+                    broker.schedule(() -> acked.complete(messageId), ackLatencyMillis, TimeUnit.MILLISECONDS);
+                    return acked;
+                }));
+        return fake(Producer.class, Map.of("newMessage", args -> builder[0]));
+    }
+}
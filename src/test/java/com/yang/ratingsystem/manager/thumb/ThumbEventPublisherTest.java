@@ -0,0 +1,75 @@
+package com.yang.ratingsystem.manager.thumb;
+
+import com.yang.ratingsystem.listener.thumb.msg.ThumbEvent;
+import org.apache.pulsar.client.api.MessageId;
+import org.apache.pulsar.client.api.Producer;
+import org.apache.pulsar.client.api.PulsarClientException;
+import org.apache.pulsar.client.api.TypedMessageBuilder;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 点赞事件发布器测试：未启用发件箱时直接发送到 mock 的生产者
+ */
+class ThumbEventPublisherTest {
+
+    private TypedMessageBuilder<ThumbEvent> messageBuilder;
+
+    private ThumbEventProgress eventProgress;
+
+    private ThumbEventPublisher publisher;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        Producer<ThumbEvent> producer = mock(Producer.class);
+        messageBuilder = mock(TypedMessageBuilder.class);
+        when(producer.newMessage()).thenReturn(messageBuilder);
+        when(messageBuilder.key(anyString())).thenReturn(messageBuilder);
+        when(messageBuilder.value(any())).thenReturn(messageBuilder);
+        ThumbEventOutbox outbox = mock(ThumbEventOutbox.class);
+        eventProgress = mock(ThumbEventProgress.class);
+        publisher = new ThumbEventPublisher(outbox, producer, eventProgress);
+    }
+
+    /**
+     * 生产者发送队列已满时发布立即失败，结束跟踪，调用方据此回滚 Redis
+     */
+    @Test
+    void failsFastWhenProducerQueueIsFull() {
+        when(messageBuilder.sendAsync()).thenReturn(
+                CompletableFuture.failedFuture(new PulsarClientException.ProducerQueueIsFullError("full")));
+        ThumbEvent event = ThumbEvent.create(1L, 2L, ThumbEvent.EventType.INCR);
+
+        CompletableFuture<Void> published = publisher.publish(event);
+
+        assertTrue(published.isDone());
+        ExecutionException e = assertThrows(ExecutionException.class, published::get);
+        assertInstanceOf(PulsarClientException.ProducerQueueIsFullError.class, e.getCause());
+        verify(eventProgress).end(List.of(event.getEventId()));
+    }
+
+    @Test
+    void lingersAfterBrokerAck() throws Exception {
+        when(messageBuilder.sendAsync()).thenReturn(CompletableFuture.completedFuture(mock(MessageId.class)));
+        when(eventProgress.getGraceMillis()).thenReturn(1000L);
+        ThumbEvent event = ThumbEvent.create(1L, 2L, ThumbEvent.EventType.INCR);
+
+        publisher.publish(event).get();
+
+        verify(eventProgress).linger(List.of(event.getEventId()), 1000L);
+    }
+}
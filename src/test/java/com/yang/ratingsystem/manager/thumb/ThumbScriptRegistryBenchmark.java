@@ -0,0 +1,156 @@
+package com.yang.ratingsystem.manager.thumb;
+
+import com.yang.ratingsystem.config.RedisConfig;
+import com.yang.ratingsystem.constant.RedisLuaScriptConstant;
+import com.yang.ratingsystem.constant.ThumbConstant;
+import com.yang.ratingsystem.utils.ThumbKeyLayout;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 点赞脚本执行吞吐基准：对比改造前经 Jackson 序列化的 RedisTemplate.execute、
+ * 注册表逐个 EVALSHA 和注册表流水线批量执行三种方式，每个操作是一次点赞或取消点赞脚本调用，单线程顺序执行。
+ * 运行方式见 {@link ThumbBenchmarkSupport}
+ */
+@Slf4j
+@Testcontainers(disabledWithoutDocker = true)
+class ThumbScriptRegistryBenchmark {
+
+    @Container
+    private static final GenericContainer<?> REDIS = new GenericContainer<>(DockerImageName.parse("redis:7-alpine"))
+            .withExposedPorts(6379);
+
+    private static final ThumbKeyLayout LAYOUT = ThumbKeyLayout.standalone();
+
+    private static final int OPERATIONS = 20_000;
+
+    private static final int PIPELINE_SIZE = 50;
+
+    private JedisConnectionFactory connectionFactory;
+
+    private StringRedisTemplate stringRedisTemplate;
+
+    private RedisTemplate<String, Object> redisTemplate;
+
+    private ThumbScriptRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        connectionFactory = new JedisConnectionFactory(new RedisStandaloneConfiguration(REDIS.getHost(), REDIS.getMappedPort(6379)));
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+        stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+        redisTemplate = new RedisConfig().redisTemplate(connectionFactory);
+        redisTemplate.afterPropertiesSet();
+        registry = new ThumbScriptRegistry(stringRedisTemplate);
+        registry.load();
+    }
+
+    @AfterEach
+    void tearDown() {
+        connectionFactory.destroy();
+    }
+
+    @Test
+    void measuresScriptExecution() {
+        // 预热
+        jackson(OPERATIONS / 10);
+        evalSha(OPERATIONS / 10);
+        pipelined(OPERATIONS / 10);
+
+        List<String> report = new ArrayList<>();
+        report.add("mode                 ops/s");
+        report.add("%-17s  %8.0f".formatted("jackson-execute", measure(() -> jackson(OPERATIONS))));
+        report.add("%-17s  %8.0f".formatted("registry-evalsha", measure(() -> evalSha(OPERATIONS))));
+        report.add("%-17s  %8.0f".formatted("registry-pipeline", measure(() -> pipelined(OPERATIONS))));
+        log.info("点赞脚本执行吞吐（流水线每批 {} 个操作）:\n{}", PIPELINE_SIZE, String.join("\n", report));
+    }
+
+    /**
+     * @return 每秒执行的脚本调用数
+     */
+    private double measure(Runnable operations) {
+        flushAll();
+        long start = System.nanoTime();
+        operations.run();
+        double throughput = OPERATIONS * 1e9 / (System.nanoTime() - start);
+        // 点赞与取消点赞交替执行，全部成功后博客点赞数增量归零
+        assertEquals(0L, stringRedisTemplate.opsForHash().values(ThumbConstant.BLOG_THUMB_DELTA_KEY).stream()
+                .mapToLong(value -> Long.parseLong(value.toString())).sum());
+        return throughput;
+    }
+
+    private void jackson(int operations) {
+        for (int i = 0; i < operations; i++) {
+            long userId = userId(i);
+            long blogId = blogId(i);
+            Long result = redisTemplate.execute(script(i), keys(userId), blogId, String.valueOf(blogId), userId);
+            assertEquals(1L, result);
+        }
+    }
+
+    private void evalSha(int operations) {
+        for (int i = 0; i < operations; i++) {
+            long userId = userId(i);
+            long blogId = blogId(i);
+            Long result = registry.execute(script(i), keys(userId), blogId, String.valueOf(blogId), userId);
+            assertEquals(1L, result);
+        }
+    }
+
+    private void pipelined(int operations) {
+        for (int start = 0; start < operations; start += PIPELINE_SIZE) {
+            List<ThumbScriptRegistry.ScriptCall> calls = new ArrayList<>(PIPELINE_SIZE);
+            for (int i = start; i < Math.min(operations, start + PIPELINE_SIZE); i++) {
+                long userId = userId(i);
+                long blogId = blogId(i);
+                calls.add(new ThumbScriptRegistry.ScriptCall(script(i), keys(userId),
+                        List.of(blogId, String.valueOf(blogId), userId)));
+            }
+            registry.executePipelined(calls).forEach(result -> assertEquals(1L, result));
+        }
+    }
+
+    /**
+     * 偶数操作点赞，紧接着的奇数操作取消同一个点赞
+     */
+    private static RedisScript<Long> script(int i) {
+        return i % 2 == 0 ? RedisLuaScriptConstant.THUMB_SCRIPT_MQ : RedisLuaScriptConstant.UNTHUMB_SCRIPT_MQ;
+    }
+
+    private static long userId(int i) {
+        return i / 2 % 1000;
+    }
+
+    private static long blogId(int i) {
+        return i / 2;
+    }
+
+    private static List<String> keys(long userId) {
+        return List.of(LAYOUT.getUserThumbKey(userId), ThumbConstant.BLOG_THUMB_DELTA_KEY);
+    }
+
+    private void flushAll() {
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+            connection.serverCommands().flushAll();
+            return null;
+        });
+    }
+}
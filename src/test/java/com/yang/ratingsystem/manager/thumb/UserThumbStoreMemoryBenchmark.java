@@ -0,0 +1,148 @@
+package com.yang.ratingsystem.manager.thumb;
+
+import com.yang.ratingsystem.utils.ThumbKeyLayout;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 用户点赞状态内存基准：按每个用户一个 key 的旧布局和紧凑分桶布局分别写入同一批点赞，
+ * 以写入前后 INFO memory 的 used_memory 之差计算每个点赞占用的字节数。
+ * 点赞数默认 100 万，可用 -Dthumb.bench.likes 调整，每个用户 10 个点赞。
+ * 运行方式见 {@link ThumbBenchmarkSupport}
+ */
+@Slf4j
+@Testcontainers(disabledWithoutDocker = true)
+class UserThumbStoreMemoryBenchmark {
+
+    @Container
+    private static final GenericContainer<?> REDIS = new GenericContainer<>(DockerImageName.parse("redis:7-alpine"))
+            .withExposedPorts(6379);
+
+    private static final int LIKES = Integer.getInteger("thumb.bench.likes", 1_000_000);
+
+    private static final int LIKES_PER_USER = 10;
+
+    private static final int USERS_PER_PIPELINE = 1000;
+
+    private JedisConnectionFactory connectionFactory;
+
+    private StringRedisTemplate stringRedisTemplate;
+
+    @BeforeEach
+    void setUp() {
+        connectionFactory = new JedisConnectionFactory(new RedisStandaloneConfiguration(REDIS.getHost(), REDIS.getMappedPort(6379)));
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+        stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+    }
+
+    @AfterEach
+    void tearDown() {
+        connectionFactory.destroy();
+    }
+
+    @Test
+    void measuresBytesPerLike() {
+        List<String> report = new ArrayList<>();
+        report.add("layout          bucket-size  listpack-entries  keys      encoding   bytes/like");
+        // 分桶字段数 = 分桶用户数 × 每个用户的点赞数，超过 hash-max-listpack-entries 后转为哈希表编码
+        report.add(measure(0, 128));
+        report.add(measure(10, 128));
+        report.add(measure(1000, 128));
+        report.add(measure(1000, 16384));
+        log.info("用户点赞状态内存（{} 个点赞，每个用户 {} 个）:\n{}", LIKES, LIKES_PER_USER, String.join("\n", report));
+    }
+
+    private String measure(int bucketSize, int listpackEntries) {
+        ThumbKeyLayout layout = new ThumbKeyLayout(0, 0, bucketSize, 1);
+        flushAll();
+        configSet("hash-max-listpack-entries", String.valueOf(listpackEntries));
+        long before = usedMemory();
+
+        int users = LIKES / LIKES_PER_USER;
+        for (int start = 0; start < users; start += USERS_PER_PIPELINE) {
+            int from = start;
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (long userId = from; userId < Math.min(users, from + USERS_PER_PIPELINE); userId++) {
+                    String key = bucketSize > 0 ? layout.getUserThumbBucketKey(userId) : layout.getUserThumbKey(userId);
+                    Map<byte[], byte[]> fields = new HashMap<>();
+                    for (int i = 0; i < LIKES_PER_USER; i++) {
+                        long blogId = (userId * 7919 + i * 104729L) % 1_000_000;
+                        fields.put(bytes(layout.getUserThumbField(userId, blogId)), bytes("1"));
+                    }
+                    connection.hashCommands().hMSet(bytes(key), fields);
+                }
+                return null;
+            });
+        }
+
+        long after = usedMemory();
+        String sampleKey = bucketSize > 0 ? layout.getUserThumbBucketKey(0L) : layout.getUserThumbKey(0L);
+        long keys = stringRedisTemplate.execute((RedisCallback<Long>) connection -> connection.serverCommands().dbSize());
+        assertEquals((long) users * LIKES_PER_USER, totalFields(layout, users));
+        String encoding = stringRedisTemplate.execute((RedisCallback<String>) connection ->
+                String.valueOf(connection.keyCommands().encodingOf(bytes(sampleKey))));
+        return "%-14s  %11d  %16d  %-8d  %-9s  %10.1f".formatted(bucketSize > 0 ? "compact" : "per-user",
+                bucketSize, listpackEntries, keys, encoding, (double) (after - before) / LIKES);
+    }
+
+    /**
+     * 所有 key 的字段数之和，每个点赞一个字段
+     */
+    private long totalFields(ThumbKeyLayout layout, int users) {
+        List<Object> sizes = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            String previous = null;
+            for (long userId = 0; userId < users; userId++) {
+                String key = layout.isCompactUserLayout() ? layout.getUserThumbBucketKey(userId) : layout.getUserThumbKey(userId);
+                if (!key.equals(previous)) {
+                    connection.hashCommands().hLen(bytes(key));
+                    previous = key;
+                }
+            }
+            return null;
+        });
+        return sizes.stream().mapToLong(size -> (Long) size).sum();
+    }
+
+    private long usedMemory() {
+        Properties info = stringRedisTemplate.execute((RedisCallback<Properties>) connection -> connection.serverCommands().info("memory"));
+        return Long.parseLong(info.getProperty("used_memory"));
+    }
+
+    private void configSet(String name, String value) {
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+            connection.serverCommands().setConfig(name, value);
+            return null;
+        });
+    }
+
+    private void flushAll() {
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+            connection.serverCommands().flushAll();
+            return null;
+        });
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
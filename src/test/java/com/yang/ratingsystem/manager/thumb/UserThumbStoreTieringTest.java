@@ -0,0 +1,296 @@
+package com.yang.ratingsystem.manager.thumb;
+
+import com.yang.ratingsystem.common.ErrorCode;
+import com.yang.ratingsystem.config.RedisConfig;
+import com.yang.ratingsystem.exception.BusinessException;
+import com.yang.ratingsystem.job.ThumbTieringJob;
+import com.yang.ratingsystem.mapper.ThumbMapper;
+import com.yang.ratingsystem.model.Thumb;
+import com.yang.ratingsystem.utils.RedisKeyUtil;
+import com.yang.ratingsystem.utils.ThumbKeyLayout;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 冷用户分层测试：淘汰脚本写入淘汰标记，再次访问时持有租约的节点分页回填，
+ * 其他节点等待回填完成；thumb 表由内存中的记录代替
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class UserThumbStoreTieringTest {
+
+    @Container
+    private static final GenericContainer<?> REDIS = new GenericContainer<>(DockerImageName.parse("redis:7-alpine"))
+            .withExposedPorts(6379);
+
+    private static final long LEASE_MILLIS = 30_000;
+
+    private JedisConnectionFactory connectionFactory;
+
+    private StringRedisTemplate stringRedisTemplate;
+
+    private ThumbMapper thumbMapper;
+
+    private final List<Thumb> rows = new ArrayList<>();
+
+    private final AtomicInteger pageQueries = new AtomicInteger();
+
+    /**
+     * 每次分页查询前回调，用于模拟查询期间的并发操作
+     */
+    private volatile Consumer<Integer> beforePage = page -> {
+    };
+
+    @BeforeEach
+    void setUp() {
+        connectionFactory = new JedisConnectionFactory(
+                new RedisStandaloneConfiguration(REDIS.getHost(), REDIS.getMappedPort(6379)));
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+        stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+            connection.serverCommands().flushAll();
+            return null;
+        });
+        thumbMapper = mock(ThumbMapper.class);
+        when(thumbMapper.selectUserRangeAfter(anyLong(), anyLong(), anyLong(), anyLong(), anyInt()))
+                .thenAnswer(invocation -> selectUserRangeAfter(invocation.getArgument(0), invocation.getArgument(1),
+                        invocation.getArgument(2), invocation.getArgument(3), invocation.getArgument(4)));
+    }
+
+    @AfterEach
+    void tearDown() {
+        connectionFactory.destroy();
+    }
+
+    /**
+     * 淘汰脚本删除空闲 key 并写入淘汰标记，再次访问时分页回填并清除标记
+     */
+    @Test
+    void evictedUserIsRehydratedFromDatabase() {
+        UserThumbStore store = newStore(ThumbKeyLayout.standalone(), 604800, 3000);
+        for (long blogId = 1; blogId <= 5; blogId++) {
+            rows.add(thumb(7, blogId));
+        }
+        stringRedisTemplate.opsForHash().putAll("thumb:7", Map.of("1", "1", "2", "1"));
+
+        assertEquals(1, newTieringJob(store).evict());
+        String marker = RedisKeyUtil.getEvictedMarkerKey("thumb:7");
+        assertFalse(stringRedisTemplate.hasKey("thumb:7"));
+        assertTrue(store.isEvicted(7L));
+
+        assertEquals("thumb:7", store.key(7L));
+
+        assertEquals(Set.of("1", "2", "3", "4", "5"), stringRedisTemplate.<String, String>opsForHash().keys("thumb:7"));
+        assertFalse(stringRedisTemplate.opsForSet().isMember(marker, "thumb:7"));
+        // 每页 2 条，5 条记录查询 3 页
+        assertEquals(3, pageQueries.get());
+        assertTrue(store.has(7L, 4L));
+    }
+
+    /**
+     * 没有淘汰标记时 key 不存在即表示从未点赞，不查询数据库
+     */
+    @Test
+    void userWithoutMarkerIsNotLoaded() {
+        UserThumbStore store = newStore(ThumbKeyLayout.standalone(), 604800, 3000);
+        rows.add(thumb(8, 1));
+
+        store.key(8L);
+
+        assertEquals(0, pageQueries.get());
+        assertFalse(stringRedisTemplate.hasKey("thumb:8"));
+    }
+
+    /**
+     * 紧凑存储下淘汰和回填的单位是分桶，同一分桶内所有用户的记录一起加载
+     */
+    @Test
+    void compactLayoutRehydratesWholeBucket() {
+        UserThumbStore store = newStore(new ThumbKeyLayout(0, 0, 100, 1), 604800, 3000);
+        rows.add(thumb(101, 1));
+        rows.add(thumb(150, 2));
+        rows.add(thumb(150, 3));
+        rows.add(thumb(200, 4));
+        String bucketKey = "thumb:b:1";
+        stringRedisTemplate.opsForSet().add(RedisKeyUtil.getEvictedMarkerKey(bucketKey), bucketKey);
+
+        assertEquals(bucketKey, store.key(101L));
+
+        assertEquals(Set.of("1:1", "50:2", "50:3"), stringRedisTemplate.<String, String>opsForHash().keys(bucketKey));
+    }
+
+    /**
+     * 其他节点持有回填租约时不查询数据库，等待对方清除淘汰标记
+     */
+    @Test
+    void waitsForLeaseHolderToFinish() throws Exception {
+        UserThumbStore store = newStore(ThumbKeyLayout.standalone(), 604800, 3000);
+        String marker = evict("thumb:7");
+        ThumbSyncLeaseManager.Lease other = new ThumbSyncLeaseManager(stringRedisTemplate)
+                .tryAcquire("rehydrate:thumb:7", LEASE_MILLIS);
+        assertNotNull(other);
+
+        CompletableFuture<Void> finished = CompletableFuture.runAsync(() -> {
+            sleep(300);
+            stringRedisTemplate.opsForHash().put("thumb:7", "1", "1");
+            stringRedisTemplate.opsForSet().remove(marker, "thumb:7");
+        });
+        long start = System.currentTimeMillis();
+        store.key(7L);
+
+        assertTrue(System.currentTimeMillis() - start >= 250);
+        assertEquals(0, pageQueries.get());
+        assertTrue(store.has(7L, 1L));
+        finished.get(5, TimeUnit.SECONDS);
+        other.close();
+    }
+
+    /**
+     * 等待超过 rehydrate-wait-ms 时返回系统繁忙，请求不会无限等待
+     */
+    @Test
+    void failsWithSystemBusyWhenRehydrateTakesTooLong() {
+        UserThumbStore store = newStore(ThumbKeyLayout.standalone(), 604800, 500);
+        evict("thumb:7");
+        ThumbSyncLeaseManager.Lease other = new ThumbSyncLeaseManager(stringRedisTemplate)
+                .tryAcquire("rehydrate:thumb:7", LEASE_MILLIS);
+
+        long start = System.currentTimeMillis();
+        BusinessException e = assertThrows(BusinessException.class, () -> store.key(7L));
+
+        long elapsed = System.currentTimeMillis() - start;
+        assertEquals(ErrorCode.SYSTEM_BUSY, e.getErrorCode());
+        assertTrue(elapsed >= 500 && elapsed < 2000, "elapsed " + elapsed);
+        other.close();
+    }
+
+    /**
+     * 分页加载期间租约被其他节点接手时不写入 Redis，也不清除淘汰标记，改为等待对方完成
+     */
+    @Test
+    void abortsLoadWhenLeaseIsLost() {
+        UserThumbStore store = newStore(ThumbKeyLayout.standalone(), 604800, 500);
+        for (long blogId = 1; blogId <= 5; blogId++) {
+            rows.add(thumb(7, blogId));
+        }
+        String marker = evict("thumb:7");
+        String leaseKey = RedisKeyUtil.getSyncLeaseKey("rehydrate:thumb:7");
+        beforePage = page -> {
+            if (page == 1) {
+                // 租约过期后被其他节点获取
+                stringRedisTemplate.opsForValue().set(leaseKey, "other-node", LEASE_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        };
+
+        assertThrows(BusinessException.class, () -> store.key(7L));
+
+        assertEquals(1, pageQueries.get());
+        assertFalse(stringRedisTemplate.hasKey("thumb:7"));
+        assertTrue(stringRedisTemplate.opsForSet().isMember(marker, "thumb:7"));
+        assertEquals("other-node", stringRedisTemplate.opsForValue().get(leaseKey));
+    }
+
+    /**
+     * 已检查用户的缓存在空闲时间的一半之内过期：缓存期间跳过检查，过期后能发现 key 已被淘汰并回填
+     */
+    @Test
+    void residentUsersExpireWithinHalfTheIdleTime() {
+        UserThumbStore store = newStore(ThumbKeyLayout.standalone(), 2, 3000);
+        rows.add(thumb(7, 1));
+        store.key(7L);
+        evict("thumb:7");
+
+        store.key(7L);
+        assertEquals(0, pageQueries.get());
+
+        sleep(1200);
+        store.key(7L);
+        assertEquals(1, pageQueries.get());
+        assertTrue(store.has(7L, 1L));
+    }
+
+    private UserThumbStore newStore(ThumbKeyLayout layout, long idleSeconds, long rehydrateWaitMillis) {
+        return new UserThumbStore(new RedisConfig().redisTemplate(connectionFactory), stringRedisTemplate,
+                new ThumbScriptRegistry(stringRedisTemplate), thumbMapper, new ThumbSyncLeaseManager(stringRedisTemplate),
+                layout, true, idleSeconds, 2, rehydrateWaitMillis, LEASE_MILLIS, false);
+    }
+
+    private ThumbTieringJob newTieringJob(UserThumbStore store) {
+        ThumbTieringJob job = new ThumbTieringJob();
+        ReflectionTestUtils.setField(job, "stringRedisTemplate", stringRedisTemplate);
+        ReflectionTestUtils.setField(job, "userThumbStore", store);
+        ReflectionTestUtils.setField(job, "thumbScriptRegistry", new ThumbScriptRegistry(stringRedisTemplate));
+        ReflectionTestUtils.setField(job, "leaseManager", new ThumbSyncLeaseManager(stringRedisTemplate));
+        ReflectionTestUtils.setField(job, "leaseMillis", LEASE_MILLIS);
+        // 空闲 0 秒即淘汰
+        ReflectionTestUtils.setField(job, "idleSeconds", 0L);
+        ReflectionTestUtils.setField(job, "scanCount", 100);
+        return job;
+    }
+
+    /**
+     * 与淘汰脚本相同：删除 key 并写入淘汰标记
+     */
+    private String evict(String key) {
+        String marker = RedisKeyUtil.getEvictedMarkerKey(key);
+        stringRedisTemplate.delete(key);
+        stringRedisTemplate.opsForSet().add(marker, key);
+        return marker;
+    }
+
+    private List<Thumb> selectUserRangeAfter(long fromUserId, long toUserId, long afterUserId, long afterBlogId, int limit) {
+        beforePage.accept(pageQueries.incrementAndGet());
+        return rows.stream()
+                .filter(thumb -> thumb.getUserId() >= fromUserId && thumb.getUserId() <= toUserId)
+                .filter(thumb -> thumb.getUserId() > afterUserId
+                        || (thumb.getUserId() == afterUserId && thumb.getBlogId() > afterBlogId))
+                .sorted(Comparator.comparing(Thumb::getUserId).thenComparing(Thumb::getBlogId))
+                .limit(limit)
+                .toList();
+    }
+
+    private static Thumb thumb(long userId, long blogId) {
+        Thumb thumb = new Thumb();
+        thumb.setUserId(userId);
+        thumb.setBlogId(blogId);
+        return thumb;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
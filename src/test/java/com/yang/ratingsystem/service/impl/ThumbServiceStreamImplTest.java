@@ -0,0 +1,173 @@
+package com.yang.ratingsystem.service.impl;
+
+import com.yang.ratingsystem.config.RedisConfig;
+import com.yang.ratingsystem.manager.thumb.BlogThumbCounter;
+import com.yang.ratingsystem.manager.thumb.ThumbScriptRegistry;
+import com.yang.ratingsystem.manager.thumb.ThumbSyncLeaseManager;
+import com.yang.ratingsystem.manager.thumb.UserThumbStore;
+import com.yang.ratingsystem.mapper.ThumbMapper;
+import com.yang.ratingsystem.model.User;
+import com.yang.ratingsystem.model.dto.thumb.ApplyThumbsRequest;
+import com.yang.ratingsystem.model.dto.thumb.DoThumbRequest;
+import com.yang.ratingsystem.service.UserService;
+import com.yang.ratingsystem.utils.RedisKeyUtil;
+import com.yang.ratingsystem.utils.ThumbKeyLayout;
+import jakarta.servlet.http.HttpServletRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 基于 Redis Stream 的点赞服务测试：点赞状态与点赞事件由同一个脚本原子写入，
+ * 事件按用户写入所在分区，批量操作的事件按提交顺序追加
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class ThumbServiceStreamImplTest {
+
+    @Container
+    private static final GenericContainer<?> REDIS = new GenericContainer<>(DockerImageName.parse("redis:7-alpine"))
+            .withExposedPorts(6379);
+
+    private final ThumbKeyLayout layout = new ThumbKeyLayout(0, 0, 0, 4);
+
+    private JedisConnectionFactory connectionFactory;
+
+    private StringRedisTemplate stringRedisTemplate;
+
+    private UserService userService;
+
+    private ThumbServiceStreamImpl thumbService;
+
+    @BeforeEach
+    void setUp() {
+        connectionFactory = new JedisConnectionFactory(new RedisStandaloneConfiguration(REDIS.getHost(), REDIS.getMappedPort(6379)));
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+        stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+            connection.serverCommands().flushAll();
+            return null;
+        });
+
+        ThumbScriptRegistry scriptRegistry = new ThumbScriptRegistry(stringRedisTemplate);
+        scriptRegistry.load();
+        UserThumbStore userThumbStore = new UserThumbStore(new RedisConfig().redisTemplate(connectionFactory), stringRedisTemplate,
+                scriptRegistry, mock(ThumbMapper.class), new ThumbSyncLeaseManager(stringRedisTemplate), layout,
+                false, 604800, 1000, 3000, 30_000, false);
+        userService = mock(UserService.class);
+        thumbService = new ThumbServiceStreamImpl(userService, userThumbStore,
+                new BlogThumbCounter(stringRedisTemplate), scriptRegistry, layout);
+    }
+
+    @AfterEach
+    void tearDown() {
+        connectionFactory.destroy();
+    }
+
+    /**
+     * 点赞写入状态并向用户所在分区追加一条事件，重复点赞失败且不追加事件
+     */
+    @Test
+    void appendsEventToUserPartition() {
+        HttpServletRequest request = login(7L);
+
+        assertTrue(thumbService.doThumb(doThumbRequest(3L), request));
+        assertThrows(RuntimeException.class, () -> thumbService.doThumb(doThumbRequest(3L), request));
+        assertTrue(thumbService.undoThumb(doThumbRequest(3L), request));
+        assertThrows(RuntimeException.class, () -> thumbService.undoThumb(doThumbRequest(3L), request));
+
+        assertEquals(List.of("7:3:1", "7:3:-1"), events(layout.getThumbStreamKey(7L)));
+        assertFalse(thumbService.hasThumb(3L, 7L));
+    }
+
+    /**
+     * 不同用户的事件分散到各个分区，同一用户的事件总在同一个分区
+     */
+    @Test
+    void spreadsUsersAcrossPartitions() {
+        for (long userId = 1; userId <= 64; userId++) {
+            thumbService.doThumb(doThumbRequest(1L), login(userId));
+        }
+
+        int total = 0;
+        for (int partition = 0; partition < layout.getThumbStreamPartitionCount(); partition++) {
+            String streamKey = RedisKeyUtil.getThumbStreamKey(partition);
+            List<String> events = events(streamKey);
+            assertNotEquals(0, events.size(), "分区 " + partition + " 没有事件");
+            for (String event : events) {
+                assertEquals(streamKey, layout.getThumbStreamKey(Long.valueOf(event.split(":")[0])));
+            }
+            total += events.size();
+        }
+        assertEquals(64, total);
+    }
+
+    /**
+     * 批量操作在一个流水线中按提交顺序执行，失败的操作不追加事件
+     */
+    @Test
+    void appliesBatchInSubmissionOrder() {
+        HttpServletRequest request = login(5L);
+        ApplyThumbsRequest applyThumbsRequest = new ApplyThumbsRequest();
+        applyThumbsRequest.setOperations(List.of(
+                operation(1L, true), operation(2L, true), operation(1L, false), operation(3L, false), operation(1L, true)));
+
+        List<Boolean> results = thumbService.applyThumbs(applyThumbsRequest, request);
+
+        assertEquals(List.of(true, true, true, false, true), results);
+        assertEquals(List.of("5:1:1", "5:2:1", "5:1:-1", "5:1:1"), events(layout.getThumbStreamKey(5L)));
+        assertTrue(thumbService.hasThumb(1L, 5L));
+        assertTrue(thumbService.hasThumb(2L, 5L));
+    }
+
+    private HttpServletRequest login(long userId) {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        User user = new User();
+        user.setId(userId);
+        when(userService.getLoginUser(request)).thenReturn(user);
+        return request;
+    }
+
+    private static DoThumbRequest doThumbRequest(long blogId) {
+        DoThumbRequest doThumbRequest = new DoThumbRequest();
+        doThumbRequest.setBlogId(blogId);
+        return doThumbRequest;
+    }
+
+    private static ApplyThumbsRequest.ThumbOperation operation(long blogId, boolean thumb) {
+        ApplyThumbsRequest.ThumbOperation operation = new ApplyThumbsRequest.ThumbOperation();
+        operation.setBlogId(blogId);
+        operation.setThumb(thumb);
+        return operation;
+    }
+
+    /**
+     * 分区中的事件，格式为 userId:blogId:type
+     */
+    private List<String> events(String streamKey) {
+        List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().range(streamKey, Range.unbounded());
+        return records.stream()
+                .map(record -> record.getValue().get("u") + ":" + record.getValue().get("b") + ":" + record.getValue().get("t"))
+                .toList();
+    }
+}